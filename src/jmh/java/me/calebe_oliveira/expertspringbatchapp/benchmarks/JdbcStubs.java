@@ -0,0 +1,37 @@
+package me.calebe_oliveira.expertspringbatchapp.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Map;
+
+/**
+ * Stubs of JDBC interfaces, so that the mapping code could be measured without the database and the driver.
+ */
+final class JdbcStubs {
+    private JdbcStubs() {
+    }
+
+    // Result set positioned at the single row with the given column values
+    static ResultSet resultSet(Map<String, Object> row) {
+        return (ResultSet) Proxy.newProxyInstance(JdbcStubs.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getLong" -> ((Number) row.get((String) args[0])).longValue();
+                    case "getDouble" -> ((Number) row.get((String) args[0])).doubleValue();
+                    case "getString" -> (String) row.get((String) args[0]);
+                    case "wasNull" -> false;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    // Prepared statement ignoring all the parameters
+    static PreparedStatement preparedStatement() {
+        return (PreparedStatement) Proxy.newProxyInstance(JdbcStubs.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                (proxy, method, args) -> {
+                    if (method.getName().startsWith("set")) {
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
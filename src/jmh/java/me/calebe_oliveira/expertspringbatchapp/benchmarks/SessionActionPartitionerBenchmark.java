@@ -0,0 +1,35 @@
+package me.calebe_oliveira.expertspringbatchapp.benchmarks;
+
+import me.calebe_oliveira.expertspringbatchapp.partioners.SessionActionPartitioner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.batch.item.ExecutionContext;
+
+import java.util.Map;
+
+/**
+ * Creating the execution contexts of the modulo partitions at large grid sizes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SessionActionPartitionerBenchmark {
+    @Param({"16", "1024", "65536"})
+    public int gridSize;
+
+    private final SessionActionPartitioner partitioner = new SessionActionPartitioner();
+
+    @Benchmark
+    public Map<String, ExecutionContext> partition() {
+        return partitioner.partition(gridSize);
+    }
+}
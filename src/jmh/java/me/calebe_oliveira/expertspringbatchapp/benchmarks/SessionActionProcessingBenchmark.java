@@ -0,0 +1,73 @@
+package me.calebe_oliveira.expertspringbatchapp.benchmarks;
+
+import me.calebe_oliveira.expertspringbatchapp.config.UserActionJobConfiguration;
+import me.calebe_oliveira.expertspringbatchapp.model.SessionAction;
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreUpdate;
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.batch.item.ItemProcessor;
+import org.springframework.batch.item.database.ItemPreparedStatementSetter;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Map;
+
+/**
+ * Per record work of the chunk oriented steps: mapping the row, converting the session action into the user score
+ * update, and setting the parameters of the upsert statement.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SessionActionProcessingBenchmark {
+    private ItemProcessor<SessionAction, UserScoreUpdate> processor;
+    private RowMapper<SessionAction> mapper;
+    private ItemPreparedStatementSetter<UserScoreUpdate> parameterSetter;
+    private SessionAction plusAction;
+    private SessionAction multiAction;
+    private ResultSet resultSet;
+    private PreparedStatement preparedStatement;
+    private UserScoreUpdate update;
+
+    @Setup
+    public void setUp() {
+        processor = UserActionJobConfiguration.getSessionActionProcessor();
+        mapper = SourceDataBaseUtils.getSessionActionMapper();
+        parameterSetter = SourceDataBaseUtils.UPDATE_USER_SCORE_PARAMETER_SETTER;
+        plusAction = new SessionAction(1, 42, SourceDataBaseUtils.PLUS_TYPE, 3.5);
+        multiAction = new SessionAction(2, 42, SourceDataBaseUtils.MULTI_TYPE, 1.1);
+        resultSet = JdbcStubs.resultSet(Map.of("id", 1L, "user_id", 42L,
+                "action_type", SourceDataBaseUtils.PLUS_TYPE, "amount", 3.5));
+        preparedStatement = JdbcStubs.preparedStatement();
+        update = new UserScoreUpdate(42, 3.5, 1.1);
+    }
+
+    @Benchmark
+    public void processPlusAndMultiActions(Blackhole blackhole) throws Exception {
+        blackhole.consume(processor.process(plusAction));
+        blackhole.consume(processor.process(multiAction));
+    }
+
+    @Benchmark
+    public SessionAction mapRow() throws Exception {
+        return mapper.mapRow(resultSet, 0);
+    }
+
+    @Benchmark
+    public PreparedStatement setUpsertParameters() throws Exception {
+        parameterSetter.setValues(update, preparedStatement);
+        return preparedStatement;
+    }
+}
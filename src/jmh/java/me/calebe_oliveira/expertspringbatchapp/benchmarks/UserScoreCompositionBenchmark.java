@@ -0,0 +1,70 @@
+package me.calebe_oliveira.expertspringbatchapp.benchmarks;
+
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreAccumulator;
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreUpdate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Folding a chunk of updates into one (score = score * a + b) update per user, with the boxed map of update objects
+ * used by the composing writer, and with the primitive accumulator; scores are per folded update.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class UserScoreCompositionBenchmark {
+    private static final int UPDATES = 10000;
+
+    @Param({"100", "10000"})
+    public int users;
+
+    private UserScoreUpdate[] updates;
+    private UserScoreAccumulator accumulator;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        updates = new UserScoreUpdate[UPDATES];
+        for (int i = 0; i < UPDATES; i++) {
+            updates[i] = random.nextBoolean()
+                    ? new UserScoreUpdate(random.nextInt(users), random.nextInt(100), 1d)
+                    : new UserScoreUpdate(random.nextInt(users), 0d, 1 + random.nextDouble() / 10);
+        }
+        accumulator = new UserScoreAccumulator(users);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(UPDATES)
+    public Map<Long, UserScoreUpdate> composeWithMap() {
+        Map<Long, UserScoreUpdate> composedUpdates = new HashMap<>();
+        for (UserScoreUpdate update : updates) {
+            composedUpdates.merge(update.getUserId(), update, UserScoreUpdate::andThen);
+        }
+        return composedUpdates;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(UPDATES)
+    public int composeWithAccumulator() {
+        accumulator.clear();
+        for (UserScoreUpdate update : updates) {
+            accumulator.fold(update.getUserId(), update.getAdd(), update.getMultiply());
+        }
+        return accumulator.size();
+    }
+}
@@ -0,0 +1,325 @@
+package me.calebe_oliveira.expertspringbatchapp.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Cache of the user scores served by the score endpoints, so that the reads of the hot users do not query the source
+ * database. It holds up to the given number of users, split into segments by user id, each of which evicts its least
+ * recently read users once full. Users without a score are cached as well, and missing users of the bulk read are
+ * loaded with a single query.
+ * <p>
+ * Scores are only changed by the jobs, so the cache is brought up to date with the values they have committed: once
+ * the job (or the partition requested by the manager) ends on this node, the scores of all cached users are reloaded
+ * with a few queries, and the users of the remote chunks applied by this node are invalidated. Score loaded on a miss
+ * is not cached if the cache was refreshed or invalidated while it was loaded, since it could be read before the
+ * commit.
+ * <p>
+ * Jobs running on the other nodes (e.g. the partitions of the remote job, or another manager) do not refresh this
+ * cache, so every cached score also expires once it was loaded the given time ago. Score is never served more than
+ * that time after the query it was loaded with has started, which bounds how stale it could be.
+ * <p>
+ * Metrics: 'user.score.reads' timer tagged by 'kind' (single or bulk) with p50 and p99, 'user.score.cache.requests'
+ * counter of the users read tagged by 'result' (hit or miss), 'user.score.cache.hit.ratio', 'user.score.cache.size'
+ * and 'user.score.cache.evictions'.
+ */
+public class UserScoreCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UserScoreCache.class);
+    private static final int SEGMENT_COUNT = 16;
+    private static final int LOAD_BATCH_SIZE = 1000;
+    private static final long NANO_IN_MILLI = 1000000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String userScoresQuery;
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+    // Incremented whenever cached scores could become stale, so that the scores loaded before are not cached
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final Timer singleReads;
+    private final Timer bulkReads;
+    private final Counter hits;
+    private final Counter misses;
+
+    /**
+     * @param ttlMillis time after which the cached score is loaded again, even if no job has ended on this node
+     */
+    public UserScoreCache(DataSource sourceDataSource, String tableName, int maxSize, long ttlMillis,
+                          MeterRegistry meterRegistry) {
+        this(sourceDataSource, tableName, maxSize, ttlMillis, meterRegistry, System::nanoTime);
+    }
+
+    UserScoreCache(DataSource sourceDataSource, String tableName, int maxSize, long ttlMillis,
+                   MeterRegistry meterRegistry, LongSupplier nanoClock) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Maximum size of the cache should be positive, but was " + maxSize);
+        }
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("Time to live of the cached scores should be positive, but was " + ttlMillis);
+        }
+        this.jdbcTemplate = new JdbcTemplate(sourceDataSource);
+        this.userScoresQuery = SourceDataBaseUtils.constructUserScoresQuery(tableName);
+        this.ttlNanos = ttlMillis * NANO_IN_MILLI;
+        this.nanoClock = nanoClock;
+        int segmentCapacity = Math.max(1, (maxSize + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+
+        this.singleReads = readTimer(meterRegistry, "single");
+        this.bulkReads = readTimer(meterRegistry, "bulk");
+        this.hits = Counter.builder("user.score.cache.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("user.score.cache.requests").tag("result", "miss").register(meterRegistry);
+        Gauge.builder("user.score.cache.hit.ratio", this, UserScoreCache::hitRatio).register(meterRegistry);
+        Gauge.builder("user.score.cache.size", this, UserScoreCache::size).register(meterRegistry);
+        FunctionCounter.builder("user.score.cache.evictions", evictions, AtomicLong::get).register(meterRegistry);
+    }
+
+    private static Timer readTimer(MeterRegistry meterRegistry, String kind) {
+        return Timer.builder("user.score.reads")
+                .tag("kind", kind)
+                .publishPercentiles(0.5, 0.99)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    // Score of the user, empty if the user has none
+    public Optional<BigDecimal> getScore(long userId) {
+        long startTime = System.nanoTime();
+        try {
+            Optional<BigDecimal> score = cached(userId);
+            if (score != null) {
+                hits.increment();
+                return score;
+            }
+            misses.increment();
+            return load(List.of(userId)).get(userId);
+        } finally {
+            singleReads.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Scores of the users which have one, in the order of the given user ids
+    public Map<Long, BigDecimal> getScores(Collection<Long> userIds) {
+        long startTime = System.nanoTime();
+        try {
+            Map<Long, Optional<BigDecimal>> scores = new LinkedHashMap<>();
+            List<Long> missingUserIds = new ArrayList<>();
+            for (Long userId : userIds) {
+                if (scores.containsKey(userId)) {
+                    continue;
+                }
+                Optional<BigDecimal> score = cached(userId);
+                scores.put(userId, score);
+                if (score == null) {
+                    missingUserIds.add(userId);
+                }
+            }
+            hits.increment(scores.size() - missingUserIds.size());
+            misses.increment(missingUserIds.size());
+            if (!missingUserIds.isEmpty()) {
+                scores.putAll(load(missingUserIds));
+            }
+
+            Map<Long, BigDecimal> existingScores = new LinkedHashMap<>();
+            scores.forEach((userId, score) -> score.ifPresent(value -> existingScores.put(userId, value)));
+            return existingScores;
+        } finally {
+            bulkReads.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Reloads the scores of all cached users, called once the scores are committed. The cache is cleared if
+     * the scores could not be loaded, so that stale scores are not served.
+     */
+    public synchronized void refresh() {
+        // Cached users are taken after the increment, so that they include the users which could be loaded stale
+        generation.incrementAndGet();
+        long loadTime = nanoClock.getAsLong();
+        List<Long> userIds = new ArrayList<>();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                userIds.addAll(segment.userIds());
+            }
+        }
+        try {
+            Map<Long, Optional<BigDecimal>> scores = query(userIds);
+            scores.forEach((userId, score) -> {
+                Segment segment = segment(userId);
+                synchronized (segment) {
+                    segment.replace(userId, new CachedScore(score, loadTime));
+                }
+            });
+            LOGGER.info("Refreshed scores of " + userIds.size() + " cached users");
+        } catch (DataAccessException e) {
+            LOGGER.warn("Failed to refresh scores of " + userIds.size() + " cached users, clearing the cache", e);
+            clear();
+        }
+    }
+
+    // Drops the users whose scores were changed, so that they are loaded on the next read
+    public void invalidate(Collection<Long> userIds) {
+        generation.incrementAndGet();
+        for (Long userId : userIds) {
+            Segment segment = segment(userId);
+            synchronized (segment) {
+                segment.remove(userId);
+            }
+        }
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    // Cached score of the user, null if the user is not cached or its score has expired
+    private Optional<BigDecimal> cached(long userId) {
+        Segment segment = segment(userId);
+        synchronized (segment) {
+            CachedScore cachedScore = segment.get(userId);
+            if (cachedScore == null) {
+                return null;
+            }
+            if (nanoClock.getAsLong() - cachedScore.loadTime() >= ttlNanos) {
+                segment.remove(userId);
+                return null;
+            }
+            return cachedScore.score();
+        }
+    }
+
+    private Map<Long, Optional<BigDecimal>> load(List<Long> userIds) {
+        long loadGeneration = generation.get();
+        // Taken before the query, so that the score expires no later than the time to live after it was committed
+        long loadTime = nanoClock.getAsLong();
+        Map<Long, Optional<BigDecimal>> scores = query(userIds);
+        scores.forEach((userId, score) -> {
+            Segment segment = segment(userId);
+            synchronized (segment) {
+                if (generation.get() == loadGeneration) {
+                    segment.put(userId, new CachedScore(score, loadTime));
+                }
+            }
+        });
+        return scores;
+    }
+
+    // Queries the scores in batches of user ids passed as a single array parameter
+    private Map<Long, Optional<BigDecimal>> query(List<Long> userIds) {
+        Map<Long, Optional<BigDecimal>> scores = new HashMap<>();
+        for (Long userId : userIds) {
+            scores.put(userId, Optional.empty());
+        }
+        for (int from = 0; from < userIds.size(); from += LOAD_BATCH_SIZE) {
+            Long[] batch = userIds.subList(from, Math.min(from + LOAD_BATCH_SIZE, userIds.size())).toArray(new Long[0]);
+            jdbcTemplate.query(connection -> {
+                PreparedStatement statement = connection.prepareStatement(userScoresQuery);
+                Array userIdArray = connection.createArrayOf("bigint", batch);
+                statement.setArray(1, userIdArray);
+                return statement;
+            }, resultSet -> {
+                scores.put(resultSet.getLong("user_id"), Optional.of(resultSet.getBigDecimal("score")));
+            });
+        }
+        return scores;
+    }
+
+    private Segment segment(long userId) {
+        return segments[(int) Math.floorMod(userId, (long) SEGMENT_COUNT)];
+    }
+
+    private double hitRatio() {
+        double requests = hits.count() + misses.count();
+        return requests == 0 ? 0 : hits.count() / requests;
+    }
+
+    private int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    // Score of the user (empty if the user has none) along with the time the query it was loaded with has started
+    private record CachedScore(Optional<BigDecimal> score, long loadTime) {
+    }
+
+    // Users of the segment in the order they were read, so that the least recently read one is evicted first
+    private class Segment {
+        private final Map<Long, CachedScore> scores = new LinkedHashMap<>(16, 0.75f, true);
+        private final int capacity;
+
+        private Segment(int capacity) {
+            this.capacity = capacity;
+        }
+
+        private CachedScore get(long userId) {
+            return scores.get(userId);
+        }
+
+        private void put(long userId, CachedScore cachedScore) {
+            scores.put(userId, cachedScore);
+            if (scores.size() > capacity) {
+                Iterator<Long> leastRecentlyRead = scores.keySet().iterator();
+                leastRecentlyRead.next();
+                leastRecentlyRead.remove();
+                evictions.incrementAndGet();
+            }
+        }
+
+        // Replaces the score of the user which is still cached, users evicted in the meantime are not added back
+        private void replace(long userId, CachedScore cachedScore) {
+            scores.replace(userId, cachedScore);
+        }
+
+        private void remove(long userId) {
+            scores.remove(userId);
+        }
+
+        private void clear() {
+            scores.clear();
+        }
+
+        private List<Long> userIds() {
+            return new ArrayList<>(scores.keySet());
+        }
+
+        private int size() {
+            return scores.size();
+        }
+    }
+}
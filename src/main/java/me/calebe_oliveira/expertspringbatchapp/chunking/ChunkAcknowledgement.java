@@ -0,0 +1,18 @@
+package me.calebe_oliveira.expertspringbatchapp.chunking;
+
+/**
+ * Response of the worker to the chunk of session actions.
+ *
+ * @param appliedCount number of session actions of the chunk applied to the user scores
+ */
+public record ChunkAcknowledgement(Result result, int appliedCount) {
+
+    public enum Result {
+        // Chunk is applied, apart from the session actions which were applied before
+        APPLIED,
+        // All session actions of the chunk were applied before, e.g. the chunk is sent once again after the timeout
+        DUPLICATE,
+        // Chunk sent before this one on the same stream is not applied yet, so the chunk should be sent once again
+        OUT_OF_ORDER
+    }
+}
@@ -0,0 +1,341 @@
+package me.calebe_oliveira.expertspringbatchapp.chunking;
+
+import me.calebe_oliveira.expertspringbatchapp.model.SessionAction;
+import me.calebe_oliveira.expertspringbatchapp.readers.PrefetchingItemReader;
+import me.calebe_oliveira.expertspringbatchapp.readers.SessionActionItemReader;
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamWriter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Manager side of the remote chunking job, which writes the chunks of session actions read by the manager to
+ * the workers over HTTP in the binary encoding of {@link SessionActionChunkCodec}, and the workers process and apply
+ * them (see {@link RemoteChunkProcessor}). Updates of the same user have to be applied in order, so every chunk is
+ * split by user id into one stream per worker, and every stream is applied by the workers in the order of its chunks.
+ * <p>
+ * Chunks are sent without waiting for the acknowledgements of the previous ones, up to the window of in-flight chunks
+ * per stream, and writing the chunk blocks once the window is full. Chunk which is not acknowledged is sent once again
+ * to the next worker, which takes the following chunks of the stream as well, up to the configured number of attempts.
+ * The failed chunk fails the next write, or the step once it waits for the last chunks in the end.
+ * <p>
+ * Reader position is committed before the chunks are acknowledged, so the id of the last session action which all
+ * the preceding ones are acknowledged for is stored in the execution context as well, and the restarted step
+ * positions the keyset reader right after it, while every stream continues from its own checkpoint. Session actions
+ * read once again are skipped by the workers.
+ * <p>
+ * The writer is step scoped, and registers itself as the listener of the step.
+ */
+public class HttpChunkDispatchingItemWriter implements ItemStreamWriter<SessionAction>, StepExecutionListener {
+    public static final String ACKNOWLEDGED_SESSION_ACTION_ID = "acknowledgedSessionActionId";
+    public static final String STREAM_COUNT = "remoteChunkStreamCount";
+    public static final String SENT_BYTES = "remoteChunkSentBytes";
+    public static final String APPLIED_COUNT = "remoteChunkAppliedCount";
+    public static final String DUPLICATE_CHUNK_COUNT = "remoteChunkDuplicateCount";
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpChunkDispatchingItemWriter.class);
+    private static final HttpClient HTTP_CLIENT = HttpClient.newHttpClient();
+    private static final String PROCESS_CHUNK_ENDPOINT = "process-chunk";
+    private static final String READER_LAST_ID = SessionActionItemReader.NAME + "." + SessionActionItemReader.LAST_ID;
+    private static final String PREFETCHING_READER_SKIP_COUNT = PrefetchingItemReader.NAME + "." + PrefetchingItemReader.SKIP_COUNT;
+    // Delay before the chunk, which was received by the worker before the previous chunk of its stream, is sent again
+    private static final long OUT_OF_ORDER_RETRY_MILLIS = 20;
+    private static final long NANO_IN_MILLI = 1000000;
+
+    private final String[] workerBaseUrls;
+    private final int window;
+    private final long timeoutMillis;
+    private final int maxAttempts;
+    private final SessionActionChunkCodec codec;
+    private final JdbcTemplate jdbcTemplate;
+    private final String insertCheckpointQuery;
+    private final String checkpointQuery;
+    private final String deleteCheckpointQuery;
+
+    private long jobInstanceId;
+    private ChunkStream[] streams = new ChunkStream[0];
+    private long lastWrittenId;
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong appliedSessionActions = new AtomicLong();
+    private final AtomicLong duplicateChunks = new AtomicLong();
+    private volatile Throwable failure;
+
+    /**
+     * @param window        number of chunks of the stream sent without the acknowledgement
+     * @param timeoutMillis time the worker is given to acknowledge the chunk before it is sent to the next worker
+     * @param maxAttempts   number of times the chunk is sent before it fails the step
+     */
+    public HttpChunkDispatchingItemWriter(String[] workerBaseUrls, int window, long timeoutMillis, int maxAttempts,
+                                          SessionActionChunkCodec codec, DataSource dataSource, String checkpointTableName) {
+        if (window <= 0 || maxAttempts <= 0) {
+            throw new IllegalArgumentException("Window and number of attempts should be positive");
+        }
+        this.workerBaseUrls = workerBaseUrls;
+        this.window = window;
+        this.timeoutMillis = timeoutMillis;
+        this.maxAttempts = maxAttempts;
+        this.codec = codec;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.insertCheckpointQuery = SourceDataBaseUtils.constructInsertUserScoreCheckpointQuery(checkpointTableName);
+        this.checkpointQuery = SourceDataBaseUtils.constructUserScoreCheckpointQuery(checkpointTableName);
+        this.deleteCheckpointQuery = SourceDataBaseUtils.constructDeleteUserScoreCheckpointQuery(checkpointTableName);
+    }
+
+    // Runs before the reader is opened, so the reader starts from the position put here
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        ExecutionContext executionContext = stepExecution.getExecutionContext();
+        jobInstanceId = stepExecution.getJobExecution().getJobInstance().getInstanceId();
+        failure = null;
+        // Users are routed to the same streams after the restart, even if the workers are changed
+        int streamCount = executionContext.getInt(STREAM_COUNT, workerBaseUrls.length);
+        executionContext.putInt(STREAM_COUNT, streamCount);
+        if (executionContext.containsKey(ACKNOWLEDGED_SESSION_ACTION_ID)) {
+            lastWrittenId = executionContext.getLong(ACKNOWLEDGED_SESSION_ACTION_ID);
+            executionContext.putLong(READER_LAST_ID, lastWrittenId);
+            executionContext.putInt(PREFETCHING_READER_SKIP_COUNT, 0);
+        } else {
+            lastWrittenId = 0;
+        }
+
+        streams = new ChunkStream[streamCount];
+        for (int i = 0; i < streamCount; i++) {
+            String streamName = stepExecution.getStepName() + ":stream-" + i;
+            // Nothing is applied before the first chunk, which follows the reader position
+            jdbcTemplate.update(insertCheckpointQuery, jobInstanceId, streamName, lastWrittenId);
+            // Checkpoint of the restarted stream is the last session action applied on it, which is usually before
+            // the reader position, as the following ones went to the other streams, or after it, if the stream got
+            // ahead of the others. Its first chunk has to follow the checkpoint either way
+            Long checkpoint = jdbcTemplate.queryForObject(checkpointQuery, Long.class, jobInstanceId, streamName);
+            streams[i] = new ChunkStream(streamName, i % workerBaseUrls.length, checkpoint);
+        }
+    }
+
+    @Override
+    public void write(Chunk<? extends SessionAction> chunk) throws Exception {
+        checkFailure();
+        List<List<SessionAction>> streamSessionActions = new ArrayList<>(streams.length);
+        for (int i = 0; i < streams.length; i++) {
+            streamSessionActions.add(new ArrayList<>());
+        }
+        for (SessionAction sessionAction : chunk) {
+            streamSessionActions.get((int) Math.floorMod(sessionAction.getUserId(), (long) streams.length)).add(sessionAction);
+        }
+
+        for (int i = 0; i < streams.length; i++) {
+            if (!streamSessionActions.get(i).isEmpty()) {
+                dispatch(streams[i], streamSessionActions.get(i));
+            }
+        }
+        if (!chunk.isEmpty()) {
+            lastWrittenId = chunk.getItems().get(chunk.size() - 1).getId();
+        }
+    }
+
+    private void dispatch(ChunkStream stream, List<SessionAction> sessionActions) throws InterruptedException {
+        if (!stream.window.tryAcquire(timeoutMillis * maxAttempts, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("No chunk of stream '" + stream.name + "' is acknowledged in "
+                    + timeoutMillis * maxAttempts + " ms");
+        }
+        checkFailure();
+        SessionActionChunk chunk = new SessionActionChunk(jobInstanceId, stream.name, stream.lastSentId, sessionActions);
+        InFlightChunk inFlightChunk = new InFlightChunk(sessionActions.get(0).getId(), codec.encodeChunk(chunk), System.nanoTime());
+        stream.lastSentId = chunk.lastId();
+        synchronized (stream) {
+            stream.inFlightChunks.add(inFlightChunk);
+        }
+        sentBytes.addAndGet(inFlightChunk.payload.length);
+        send(stream, inFlightChunk);
+    }
+
+    private void send(ChunkStream stream, InFlightChunk inFlightChunk) {
+        int workerIndex = stream.workerIndex.get();
+        HttpRequest request = HttpRequest
+                .newBuilder(URI.create(workerBaseUrls[workerIndex] + PROCESS_CHUNK_ENDPOINT))
+                .timeout(Duration.ofMillis(timeoutMillis))
+                .header("Content-Type", "application/octet-stream")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(inFlightChunk.payload))
+                .build();
+        HTTP_CLIENT.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .whenComplete((response, e) -> {
+                    try {
+                        if (e == null && response.statusCode() == 200) {
+                            acknowledge(stream, inFlightChunk, codec.decodeAcknowledgement(response.body()));
+                        } else {
+                            retry(stream, inFlightChunk, workerIndex, e != null ? e
+                                    : new IllegalStateException("Worker responded with status " + response.statusCode()));
+                        }
+                    } catch (Throwable t) {
+                        fail(stream, inFlightChunk, t);
+                    }
+                });
+    }
+
+    private void acknowledge(ChunkStream stream, InFlightChunk inFlightChunk, ChunkAcknowledgement acknowledgement) {
+        if (acknowledgement.result() == ChunkAcknowledgement.Result.OUT_OF_ORDER) {
+            if (failure != null) {
+                release(stream);
+            } else if ((System.nanoTime() - inFlightChunk.sendTime) / NANO_IN_MILLI > timeoutMillis * maxAttempts) {
+                fail(stream, inFlightChunk, new IllegalStateException("Chunk of stream '" + stream.name
+                        + "' is not preceded by the previous chunk in " + timeoutMillis * maxAttempts + " ms"));
+            } else {
+                CompletableFuture.delayedExecutor(OUT_OF_ORDER_RETRY_MILLIS, TimeUnit.MILLISECONDS)
+                        .execute(() -> send(stream, inFlightChunk));
+            }
+            return;
+        }
+        if (acknowledgement.result() == ChunkAcknowledgement.Result.DUPLICATE) {
+            duplicateChunks.incrementAndGet();
+        }
+        appliedSessionActions.addAndGet(acknowledgement.appliedCount());
+        synchronized (stream) {
+            stream.inFlightChunks.remove(inFlightChunk);
+        }
+        release(stream);
+    }
+
+    private void retry(ChunkStream stream, InFlightChunk inFlightChunk, int workerIndex, Throwable e) {
+        if (inFlightChunk.attempts.incrementAndGet() >= maxAttempts || failure != null) {
+            fail(stream, inFlightChunk, e);
+            return;
+        }
+        // Following chunks of the stream are sent to the next worker as well
+        int nextWorkerIndex = (workerIndex + 1) % workerBaseUrls.length;
+        if (stream.workerIndex.compareAndSet(workerIndex, nextWorkerIndex)) {
+            LOGGER.warn("Worker " + workerBaseUrls[workerIndex] + " did not acknowledge the chunk of stream '" + stream.name
+                    + "', sending the stream to worker " + workerBaseUrls[nextWorkerIndex], e);
+        }
+        send(stream, inFlightChunk);
+    }
+
+    // Failed chunk is left in flight, so the position stored in the execution context stays before it
+    private void fail(ChunkStream stream, InFlightChunk inFlightChunk, Throwable e) {
+        if (failure == null) {
+            failure = e;
+            LOGGER.error("Chunk of stream '" + stream.name + "' starting with session action id = "
+                    + inFlightChunk.firstId + " failed", e);
+        }
+        release(stream);
+    }
+
+    private static void release(ChunkStream stream) {
+        stream.window.release();
+    }
+
+    private void checkFailure() {
+        Throwable e = failure;
+        if (e != null) {
+            throw new IllegalStateException("Chunk sent to the worker failed", e);
+        }
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        executionContext.putLong(ACKNOWLEDGED_SESSION_ACTION_ID, acknowledgedSessionActionId());
+    }
+
+    // Session actions up to the first one of the oldest chunk in flight are applied on every stream
+    private long acknowledgedSessionActionId() {
+        long acknowledgedId = lastWrittenId;
+        for (ChunkStream stream : streams) {
+            synchronized (stream) {
+                InFlightChunk oldestChunk = stream.inFlightChunks.peekFirst();
+                if (oldestChunk != null) {
+                    acknowledgedId = Math.min(acknowledgedId, oldestChunk.firstId - 1);
+                }
+            }
+        }
+        return acknowledgedId;
+    }
+
+    // Chunks are committed by the manager before they are acknowledged, so the completed step waits for the last ones
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        ExitStatus exitStatus = stepExecution.getExitStatus();
+        if (stepExecution.getStatus() == BatchStatus.COMPLETED) {
+            try {
+                awaitInFlightChunks();
+                checkFailure();
+                for (ChunkStream stream : streams) {
+                    jdbcTemplate.update(deleteCheckpointQuery, jobInstanceId, stream.name);
+                }
+            } catch (Exception e) {
+                stepExecution.addFailureException(e);
+                stepExecution.setStatus(BatchStatus.FAILED);
+                exitStatus = ExitStatus.FAILED.addExitDescription(e);
+            }
+        }
+        ExecutionContext executionContext = stepExecution.getExecutionContext();
+        executionContext.putLong(ACKNOWLEDGED_SESSION_ACTION_ID, acknowledgedSessionActionId());
+        executionContext.putLong(SENT_BYTES, executionContext.getLong(SENT_BYTES, 0L) + sentBytes.getAndSet(0));
+        executionContext.putLong(APPLIED_COUNT, executionContext.getLong(APPLIED_COUNT, 0L)
+                + appliedSessionActions.getAndSet(0));
+        executionContext.putLong(DUPLICATE_CHUNK_COUNT, executionContext.getLong(DUPLICATE_CHUNK_COUNT, 0L)
+                + duplicateChunks.getAndSet(0));
+        return exitStatus;
+    }
+
+    private void awaitInFlightChunks() throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMillis * maxAttempts * NANO_IN_MILLI;
+        for (ChunkStream stream : streams) {
+            long remainingMillis = Math.max(0, (deadline - System.nanoTime()) / NANO_IN_MILLI);
+            if (!stream.window.tryAcquire(window, remainingMillis, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Chunks of stream '" + stream.name + "' are not acknowledged in "
+                        + timeoutMillis * maxAttempts + " ms");
+            }
+            stream.window.release(window);
+        }
+    }
+
+    // Chunks of the users routed to the same worker, which are applied in the order they are sent
+    private class ChunkStream {
+        private final String name;
+        private final AtomicInteger workerIndex;
+        private final Semaphore window = new Semaphore(HttpChunkDispatchingItemWriter.this.window);
+        // Chunks in the order they were sent, acknowledged ones are removed
+        private final Deque<InFlightChunk> inFlightChunks = new ArrayDeque<>();
+        private long lastSentId;
+
+        private ChunkStream(String name, int workerIndex, long lastSentId) {
+            this.name = name;
+            this.workerIndex = new AtomicInteger(workerIndex);
+            this.lastSentId = lastSentId;
+        }
+    }
+
+    private static class InFlightChunk {
+        private final long firstId;
+        private final byte[] payload;
+        private final long sendTime;
+        private final AtomicInteger attempts = new AtomicInteger();
+
+        private InFlightChunk(long firstId, byte[] payload, long sendTime) {
+            this.firstId = firstId;
+            this.payload = payload;
+            this.sendTime = sendTime;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package me.calebe_oliveira.expertspringbatchapp.chunking;
+
+import me.calebe_oliveira.expertspringbatchapp.cache.UserScoreCache;
+import me.calebe_oliveira.expertspringbatchapp.model.SessionAction;
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreUpdate;
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ItemProcessor;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Worker side of the remote chunking job, which processes the chunks of session actions sent by the manager
+ * (see {@link HttpChunkDispatchingItemWriter}), writes the updates of the user scores and acknowledges the chunks.
+ * <p>
+ * Every chunk is applied in a single transaction along with the checkpoint of its stream, the id of the last applied
+ * session action, and the checkpoint row is locked first. So the chunks of the same stream, which the manager sends
+ * without waiting for the previous ones, are applied one at a time and in the order of their ids:
+ * <ul>
+ *     <li>chunk which follows the session action that is not applied yet is not applied, and is sent once again</li>
+ *     <li>session actions up to the checkpoint are skipped, so the chunk sent once again after the timeout, or
+ *     read once again by the restarted manager, is applied only once</li>
+ * </ul>
+ * Checkpoints of the streams are created by the manager before the chunks are sent. Cached scores of the users of
+ * the applied chunk are invalidated once it is committed.
+ */
+public class RemoteChunkProcessor {
+    private final SessionActionChunkCodec codec;
+    private final ItemProcessor<SessionAction, UserScoreUpdate> processor;
+    private final ItemWriter<UserScoreUpdate> writer;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final String lockCheckpointQuery;
+    private final String updateCheckpointQuery;
+    private final UserScoreCache userScoreCache;
+
+    /**
+     * @param writer writer of the user score updates, which expects at most one update per user
+     */
+    public RemoteChunkProcessor(SessionActionChunkCodec codec, ItemProcessor<SessionAction, UserScoreUpdate> processor,
+                                ItemWriter<UserScoreUpdate> writer, DataSource dataSource,
+                                PlatformTransactionManager transactionManager, String checkpointTableName,
+                                UserScoreCache userScoreCache) {
+        this.codec = codec;
+        this.processor = processor;
+        this.writer = writer;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.lockCheckpointQuery = SourceDataBaseUtils.constructLockUserScoreCheckpointQuery(checkpointTableName);
+        this.updateCheckpointQuery = SourceDataBaseUtils.constructUpdateUserScoreCheckpointQuery(checkpointTableName);
+        this.userScoreCache = userScoreCache;
+    }
+
+    // Takes the encoded chunk and returns the encoded acknowledgement
+    public byte[] process(byte[] encodedChunk) {
+        SessionActionChunk chunk = codec.decodeChunk(encodedChunk);
+        ChunkAcknowledgement acknowledgement = transactionTemplate.execute(status -> apply(chunk));
+        if (acknowledgement.result() == ChunkAcknowledgement.Result.APPLIED) {
+            Set<Long> userIds = chunk.sessionActions().stream().map(SessionAction::getUserId).collect(Collectors.toSet());
+            userScoreCache.invalidate(userIds);
+        }
+        return codec.encodeAcknowledgement(acknowledgement);
+    }
+
+    private ChunkAcknowledgement apply(SessionActionChunk chunk) {
+        List<Long> checkpoints = jdbcTemplate.queryForList(lockCheckpointQuery, Long.class,
+                chunk.jobInstanceId(), chunk.streamName());
+        if (checkpoints.isEmpty()) {
+            throw new IllegalStateException("No checkpoint of stream '" + chunk.streamName() + "' of job instance with id = "
+                    + chunk.jobInstanceId() + " exists");
+        }
+        long checkpoint = checkpoints.get(0);
+        if (checkpoint >= chunk.lastId()) {
+            return new ChunkAcknowledgement(ChunkAcknowledgement.Result.DUPLICATE, 0);
+        }
+        if (checkpoint < chunk.previousLastId()) {
+            return new ChunkAcknowledgement(ChunkAcknowledgement.Result.OUT_OF_ORDER, 0);
+        }
+
+        List<UserScoreUpdate> updates = new ArrayList<>(chunk.sessionActions().size());
+        try {
+            for (SessionAction sessionAction : chunk.sessionActions()) {
+                if (sessionAction.getId() > checkpoint) {
+                    updates.add(processor.process(sessionAction));
+                }
+            }
+            writer.write(new Chunk<>(updates));
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to apply the chunk of stream '" + chunk.streamName() + "'", e);
+        }
+        jdbcTemplate.update(updateCheckpointQuery, chunk.lastId(), chunk.jobInstanceId(), chunk.streamName());
+        return new ChunkAcknowledgement(ChunkAcknowledgement.Result.APPLIED, updates.size());
+    }
+}
@@ -0,0 +1,20 @@
+package me.calebe_oliveira.expertspringbatchapp.chunking;
+
+import me.calebe_oliveira.expertspringbatchapp.model.SessionAction;
+
+import java.util.List;
+
+/**
+ * Chunk of session actions of a single stream of the remote chunking job, in the order of their ids.
+ *
+ * @param streamName     name of the stream, which the checkpoint of the stream is stored by
+ * @param previousLastId id of the last session action sent on the same stream before this chunk
+ */
+public record SessionActionChunk(long jobInstanceId, String streamName, long previousLastId,
+                                 List<SessionAction> sessionActions) {
+
+    // Id the checkpoint of the stream is moved to once the chunk is applied
+    public long lastId() {
+        return sessionActions.isEmpty() ? previousLastId : sessionActions.get(sessionActions.size() - 1).getId();
+    }
+}
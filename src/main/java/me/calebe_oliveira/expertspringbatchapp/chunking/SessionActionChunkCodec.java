@@ -0,0 +1,128 @@
+package me.calebe_oliveira.expertspringbatchapp.chunking;
+
+import me.calebe_oliveira.expertspringbatchapp.model.SessionAction;
+import me.calebe_oliveira.expertspringbatchapp.model.SessionActionTypes;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary encoding of the chunks the manager of the remote chunking job sends to the workers, and of the
+ * acknowledgements of the workers. The chunk starts with the magic number, job instance id, name of the stream and
+ * the id of the last session action sent before the chunk on the same stream, followed by the number of records and
+ * the records themselves:
+ * <ul>
+ *     <li>id - difference from the previous id (the one sent before the chunk for the first record) as a variable
+ *     length number, so the ordered ids take a byte or two</li>
+ *     <li>user id - variable length number</li>
+ *     <li>action type code - 1 byte, both sides take the codes from the same {@link SessionActionTypes}</li>
+ *     <li>amount - 8 bytes</li>
+ * </ul>
+ * Acknowledgement consists of the result code (1 byte) and the number of applied session actions (4 bytes).
+ * Numbers are big-endian, the default order of {@link ByteBuffer}.
+ */
+public class SessionActionChunkCodec {
+    private static final int MAGIC = 0x53414331; // "SAC1"
+    private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES + Short.BYTES + Long.BYTES + Integer.BYTES;
+    // Variable length id and user id, code and amount
+    private static final int MAX_RECORD_SIZE = 10 + 10 + 1 + Double.BYTES;
+    private static final int ACKNOWLEDGEMENT_SIZE = 1 + Integer.BYTES;
+
+    private final SessionActionTypes sessionActionTypes;
+    private final String[] actionTypes;
+
+    public SessionActionChunkCodec(SessionActionTypes sessionActionTypes) {
+        this.sessionActionTypes = sessionActionTypes;
+        this.actionTypes = sessionActionTypes.getNames();
+    }
+
+    public byte[] encodeChunk(SessionActionChunk chunk) {
+        byte[] streamName = chunk.streamName().getBytes(StandardCharsets.UTF_8);
+        List<SessionAction> sessionActions = chunk.sessionActions();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + streamName.length + sessionActions.size() * MAX_RECORD_SIZE);
+        buffer.putInt(MAGIC)
+                .putLong(chunk.jobInstanceId())
+                .putShort((short) streamName.length).put(streamName)
+                .putLong(chunk.previousLastId())
+                .putInt(sessionActions.size());
+        long previousId = chunk.previousLastId();
+        for (SessionAction sessionAction : sessionActions) {
+            if (sessionAction.getId() < previousId) {
+                throw new IllegalArgumentException("Session actions of the chunk should be ordered by id, but id = "
+                        + sessionAction.getId() + " follows id = " + previousId);
+            }
+            putVarLong(buffer, sessionAction.getId() - previousId);
+            putVarLong(buffer, sessionAction.getUserId());
+            buffer.put(sessionActionTypes.codeOf(sessionAction.getActionType()));
+            buffer.putDouble(sessionAction.getAmount());
+            previousId = sessionAction.getId();
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    public SessionActionChunk decodeChunk(byte[] encodedChunk) {
+        ByteBuffer buffer = ByteBuffer.wrap(encodedChunk);
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Request is not a session action chunk");
+        }
+        long jobInstanceId = buffer.getLong();
+        byte[] streamName = new byte[buffer.getShort()];
+        buffer.get(streamName);
+        long previousLastId = buffer.getLong();
+        int count = buffer.getInt();
+
+        List<SessionAction> sessionActions = new ArrayList<>(count);
+        long previousId = previousLastId;
+        for (int i = 0; i < count; i++) {
+            long id = previousId + getVarLong(buffer);
+            long userId = getVarLong(buffer);
+            String actionType = actionTypes[buffer.get()];
+            sessionActions.add(new SessionAction(id, userId, actionType, buffer.getDouble()));
+            previousId = id;
+        }
+        return new SessionActionChunk(jobInstanceId, new String(streamName, StandardCharsets.UTF_8), previousLastId,
+                sessionActions);
+    }
+
+    public byte[] encodeAcknowledgement(ChunkAcknowledgement acknowledgement) {
+        return ByteBuffer.allocate(ACKNOWLEDGEMENT_SIZE)
+                .put((byte) acknowledgement.result().ordinal())
+                .putInt(acknowledgement.appliedCount())
+                .array();
+    }
+
+    public ChunkAcknowledgement decodeAcknowledgement(byte[] encodedAcknowledgement) {
+        if (encodedAcknowledgement.length != ACKNOWLEDGEMENT_SIZE) {
+            throw new IllegalArgumentException("Response is not a chunk acknowledgement");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(encodedAcknowledgement);
+        return new ChunkAcknowledgement(ChunkAcknowledgement.Result.values()[buffer.get()], buffer.getInt());
+    }
+
+    // 7 bits per byte, the highest bit is set on all the bytes but the last one
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value " + value + " could not be encoded");
+        }
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,150 @@
+package me.calebe_oliveira.expertspringbatchapp.config;
+
+import me.calebe_oliveira.expertspringbatchapp.datasources.ConnectionBudgetValidator;
+import me.calebe_oliveira.expertspringbatchapp.datasources.ConnectionUsageScope;
+import me.calebe_oliveira.expertspringbatchapp.executors.AdmissionControlledTaskExecutor;
+import me.calebe_oliveira.expertspringbatchapp.executors.BoundedTaskExecutor;
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.batch.core.launch.support.TaskExecutorJobLauncher;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import javax.sql.DataSource;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Executors used to launch jobs and to run partitions and threads of the steps. By default, they use platform threads.
+ * With 'execution.virtual.threads.enabled' property set (requires Java 21), all of them start a virtual thread
+ * per task instead, and the number of partitions running at the same time on this node is limited by the shared
+ * semaphore sized to the connection budget rather than by the pool sizes.
+ */
+@Configuration
+public class ExecutionConfiguration {
+    private static final int VIRTUAL_THREADS_MIN_JAVA_VERSION = 21;
+    private static final String MYSQL_AVAILABLE_CONNECTIONS_QUERY =
+            "select @@max_connections - (select count(*) from information_schema.processlist)";
+
+    private final boolean virtualThreads;
+
+    public ExecutionConfiguration(@Value("${execution.virtual.threads.enabled}") boolean virtualThreads) {
+        if (virtualThreads && Runtime.version().feature() < VIRTUAL_THREADS_MIN_JAVA_VERSION) {
+            throw new IllegalStateException("Virtual threads require Java " + VIRTUAL_THREADS_MIN_JAVA_VERSION
+                    + " or higher, but the application runs on Java " + Runtime.version().feature());
+        }
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Since we would like to launch jobs asynchronously, we would like to create async job launcher,
+     * since out-of-the-box Spring Batch job launcher is synchronous
+     */
+    @Bean
+    @Qualifier("asyncJobLauncher")
+    public JobLauncher asyncJobLauncher(JobRepository jobRepository) {
+        SimpleAsyncTaskExecutor jobLauncherExecutor = new SimpleAsyncTaskExecutor("job-launcher-");
+        jobLauncherExecutor.setVirtualThreads(virtualThreads);
+
+        TaskExecutorJobLauncher jobLauncher = new TaskExecutorJobLauncher();
+        jobLauncher.setJobRepository(jobRepository);
+        jobLauncher.setTaskExecutor(jobLauncherExecutor);
+        return jobLauncher;
+    }
+
+    // Permits to run partitions on this node in virtual threads mode, both local ones and the ones requested by manager
+    @Bean
+    @Qualifier("connectionBudgetSemaphore")
+    public Semaphore connectionBudgetSemaphore(@Value("${execution.virtual.threads.connection.budget}") int connectionBudget) {
+        return new Semaphore(connectionBudget);
+    }
+
+    @Bean
+    @Qualifier("localPartitionExecutor")
+    public BoundedTaskExecutor localPartitionExecutor(@Value("${partition.local.thread.count}") int threadCount,
+                                                      @Qualifier("connectionBudgetSemaphore") Semaphore connectionBudgetSemaphore) {
+        // Work-stealing pool with the fixed number of threads to handle local partitions. Partitions are queued once
+        // all threads are busy, and are picked up by whichever thread becomes free first
+        return virtualThreads
+                ? BoundedTaskExecutor.virtualThreads("local-partition-", connectionBudgetSemaphore)
+                : BoundedTaskExecutor.workStealing(threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors());
+    }
+
+    // Executor to run partitions requested by the manager through the worker endpoint, which rejects the partitions
+    // above the number of worker slots, so that the manager could dispatch them to another worker
+    @Bean
+    @Qualifier("workerPartitionExecutor")
+    public AdmissionControlledTaskExecutor workerPartitionExecutor(@Value("${partition.remote.worker.slots}") int workerSlots,
+                                                                   @Qualifier("connectionBudgetSemaphore") Semaphore connectionBudgetSemaphore) {
+        return new AdmissionControlledTaskExecutor(virtualThreads
+                ? BoundedTaskExecutor.virtualThreads("worker-partition-", connectionBudgetSemaphore)
+                : new SimpleAsyncTaskExecutor("worker-partition-"), workerSlots);
+    }
+
+    // Validates the source connection pool against the number of connections used by the executors at most
+    @Bean
+    public ConnectionBudgetValidator sourceConnectionBudgetValidator(@Qualifier("sourceDataSource") DataSource sourceDataSource,
+                                                                     @Value("${db.src.pool.size}") int poolSize,
+                                                                     @Qualifier("localPartitionExecutor") BoundedTaskExecutor localPartitionExecutor,
+                                                                     @Value("${partition.remote.worker.slots}") int workerSlots,
+                                                                     @Value("${multi.threaded.stripe.count}") int stripeCount,
+                                                                     @Value("${session.action.reader.prefetch.pages}") int prefetchPages,
+                                                                     @Value("${remote.chunking.window}") int remoteChunkingWindow) {
+        // Prefetching reader queries the source database with its own connection
+        int connectionsPerReader = prefetchPages > 0 ? 2 : 1;
+        // Every chunk in flight of the remote chunking job holds a connection of the worker while it waits for
+        // the previous chunk of its stream, and the manager could be one of the workers
+        int remoteChunkingConnections = remoteChunkingWindow + connectionsPerReader + 1;
+        return new ConnectionBudgetValidator("source", sourceDataSource, poolSize,
+                Math.max(requiredConnections(localPartitionExecutor, workerSlots, stripeCount, connectionsPerReader),
+                        remoteChunkingConnections),
+                SourceDataBaseUtils.AVAILABLE_CONNECTIONS_QUERY);
+    }
+
+    // Validates the job repository connection pool, every running step updates its execution in the repository
+    @Bean
+    public ConnectionBudgetValidator repositoryConnectionBudgetValidator(DataSource dataSource,
+                                                                         @Value("${db.pool.size}") int poolSize,
+                                                                         @Qualifier("localPartitionExecutor") BoundedTaskExecutor localPartitionExecutor,
+                                                                         @Value("${partition.remote.worker.slots}") int workerSlots,
+                                                                         @Value("${multi.threaded.stripe.count}") int stripeCount) {
+        return new ConnectionBudgetValidator("repository", dataSource, poolSize,
+                requiredConnections(localPartitionExecutor, workerSlots, stripeCount, 1), MYSQL_AVAILABLE_CONNECTIONS_QUERY);
+    }
+
+    /**
+     * Connections needed at most by a single job running on this node: either by local partitions together with
+     * the partitions requested by the manager up to the number of worker slots (which share the budget in virtual
+     * threads mode), or by the stripes of the multithreaded step along with its reader, plus one for the manager step
+     * and job launching itself
+     */
+    private int requiredConnections(BoundedTaskExecutor localPartitionExecutor, int workerSlots, int stripeCount,
+                                    int connectionsPerReader) {
+        int partitionConnections = (localPartitionExecutor.getConcurrency() + (virtualThreads ? 0 : workerSlots))
+                * connectionsPerReader;
+        return Math.max(partitionConnections, stripeCount + connectionsPerReader) + 1;
+    }
+
+    @Bean
+    @Qualifier("multiThreadStepExecutor")
+    public TaskExecutor multiThreadStepExecutor(@Value("${multi.threaded.stripe.count}") int stripeCount) {
+        // Every stripe of the multi-threaded step occupies its own thread until the step ends, so stripes
+        // are not limited by the connection budget, since they are not able to wait for each other
+        if (virtualThreads) {
+            SimpleAsyncTaskExecutor virtualThreadExecutor = new SimpleAsyncTaskExecutor("stripe-");
+            virtualThreadExecutor.setVirtualThreads(true);
+            virtualThreadExecutor.setTaskDecorator(ConnectionUsageScope::propagate);
+            return virtualThreadExecutor;
+        }
+        ThreadPoolTaskExecutor threadPoolExecutor = new ThreadPoolTaskExecutor();
+        threadPoolExecutor.setCorePoolSize(stripeCount);
+        // Pooled threads outlive the step, so the stripes are given the connection usage scope of the step explicitly
+        threadPoolExecutor.setTaskDecorator(ConnectionUsageScope::propagate);
+        return threadPoolExecutor;
+    }
+}
@@ -1,29 +1,36 @@
 package me.calebe_oliveira.expertspringbatchapp.config;
 
+import com.zaxxer.hikari.HikariDataSource;
+import me.calebe_oliveira.expertspringbatchapp.datasources.ConnectionBudgetValidator;
+import me.calebe_oliveira.expertspringbatchapp.datasources.UsageTrackingDataSource;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.PropertySource;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
-
-import javax.sql.DataSource;
 
 @Configuration
 @PropertySource("classpath:source.properties")
 public class SourceConfiguration {
-
-    @Bean
+    @Bean(destroyMethod = "close")
     @Qualifier("sourceDataSource")
-    public DataSource sourceDataSource(@Value("${db.src.url}") String url,
-                                       @Value("${db.src.username}") String username,
-                                       @Value("${db.src.password}") String password) {
-        DriverManagerDataSource dataSource = new DriverManagerDataSource();
+    public UsageTrackingDataSource sourceDataSource(@Value("${db.src.url}") String url,
+                                                    @Value("${db.src.username}") String username,
+                                                    @Value("${db.src.password}") String password,
+                                                    @Value("${db.src.pool.size}") int poolSize) {
+        HikariDataSource dataSource = new HikariDataSource();
 
+        dataSource.setPoolName("source");
         dataSource.setDriverClassName("org.postgresql.Driver");
-        dataSource.setUrl(url);
+        dataSource.setJdbcUrl(url);
         dataSource.setUsername(username);
         dataSource.setPassword(password);
-        return dataSource;
+        dataSource.setMaximumPoolSize(poolSize > 0 ? poolSize : ConnectionBudgetValidator.DEFAULT_POOL_SIZE);
+        // Prepare statements on the server from their first execution, and keep them cached per connection,
+        // since jobs execute the same few queries over and over again
+        dataSource.addDataSourceProperty("prepareThreshold", 1);
+        dataSource.addDataSourceProperty("preparedStatementCacheQueries", 512);
+        // Connection usage is recorded per step, see 'PoolUsageStepListener'
+        return new UsageTrackingDataSource("sourcePool", dataSource, false);
     }
 }
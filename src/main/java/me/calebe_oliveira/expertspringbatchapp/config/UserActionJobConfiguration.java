@@ -1,185 +1,633 @@
 package me.calebe_oliveira.expertspringbatchapp.config;
 
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import me.calebe_oliveira.expertspringbatchapp.cache.UserScoreCache;
+import me.calebe_oliveira.expertspringbatchapp.chunking.HttpChunkDispatchingItemWriter;
+import me.calebe_oliveira.expertspringbatchapp.chunking.RemoteChunkProcessor;
+import me.calebe_oliveira.expertspringbatchapp.chunking.SessionActionChunkCodec;
+import me.calebe_oliveira.expertspringbatchapp.datasources.ConnectionBudgetValidator;
+import me.calebe_oliveira.expertspringbatchapp.datasources.PoolUsageStepListener;
+import me.calebe_oliveira.expertspringbatchapp.datasources.UsageTrackingDataSource;
+import me.calebe_oliveira.expertspringbatchapp.executors.BoundedTaskExecutor;
+import me.calebe_oliveira.expertspringbatchapp.listeners.CalculationMetricsListener;
+import me.calebe_oliveira.expertspringbatchapp.listeners.MemoryUsageStepListener;
+import me.calebe_oliveira.expertspringbatchapp.listeners.SessionActionHighWaterMarkListener;
+import me.calebe_oliveira.expertspringbatchapp.listeners.UserScoreCacheRefreshListener;
+import me.calebe_oliveira.expertspringbatchapp.listeners.UserScoreCheckpointListener;
 import me.calebe_oliveira.expertspringbatchapp.model.SessionAction;
 import me.calebe_oliveira.expertspringbatchapp.model.UserScoreUpdate;
 import me.calebe_oliveira.expertspringbatchapp.partioners.HttpRequestPartitionHandler;
+import me.calebe_oliveira.expertspringbatchapp.partioners.PartitionCompletionRegistry;
 import me.calebe_oliveira.expertspringbatchapp.partioners.PartitioningConfig;
+import me.calebe_oliveira.expertspringbatchapp.partioners.SessionActionIdRangePartitioner;
 import me.calebe_oliveira.expertspringbatchapp.partioners.SessionActionPartitioner;
+import me.calebe_oliveira.expertspringbatchapp.partioners.SessionActionRangePartitioner;
+import me.calebe_oliveira.expertspringbatchapp.policies.AdaptiveChunkCompletionPolicy;
+import me.calebe_oliveira.expertspringbatchapp.readers.ColumnarSessionActionReader;
+import me.calebe_oliveira.expertspringbatchapp.readers.MappedSessionActionFileReader;
+import me.calebe_oliveira.expertspringbatchapp.readers.PrefetchingItemReader;
+import me.calebe_oliveira.expertspringbatchapp.readers.SessionActionItemReader;
+import me.calebe_oliveira.expertspringbatchapp.repositories.CoalescingJobRepository;
+import me.calebe_oliveira.expertspringbatchapp.tasklets.AccumulatingUserScoreTasklet;
+import me.calebe_oliveira.expertspringbatchapp.tasklets.ColumnarUserScoreTasklet;
+import me.calebe_oliveira.expertspringbatchapp.tasklets.UserScoreTransformMergeTasklet;
+import me.calebe_oliveira.expertspringbatchapp.tasklets.UserStripedChunkTasklet;
 import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import me.calebe_oliveira.expertspringbatchapp.writers.ComposingUserScoreItemWriter;
+import me.calebe_oliveira.expertspringbatchapp.writers.PostgresCopyUserScoreItemWriter;
+import me.calebe_oliveira.expertspringbatchapp.writers.SessionActionFileItemWriter;
+import me.calebe_oliveira.expertspringbatchapp.writers.UpsertUserScoreAccumulatorWriter;
+import me.calebe_oliveira.expertspringbatchapp.writers.UserScoreAccumulatorWriter;
+import me.calebe_oliveira.expertspringbatchapp.writers.UserScoreTransformItemWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.ItemProcessListener;
+import org.springframework.batch.core.ItemReadListener;
+import org.springframework.batch.core.ItemWriteListener;
 import org.springframework.batch.core.Job;
 import org.springframework.batch.core.Step;
 import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.core.StepExecutionListener;
 import org.springframework.batch.core.configuration.annotation.EnableBatchProcessing;
+import org.springframework.batch.core.configuration.annotation.JobScope;
 import org.springframework.batch.core.configuration.annotation.StepScope;
 import org.springframework.batch.core.explore.JobExplorer;
 import org.springframework.batch.core.job.AbstractJob;
 import org.springframework.batch.core.job.builder.JobBuilder;
-import org.springframework.batch.core.launch.JobLauncher;
-import org.springframework.batch.core.launch.support.TaskExecutorJobLauncher;
+import org.springframework.batch.core.partition.support.Partitioner;
 import org.springframework.batch.core.repository.JobRepository;
 import org.springframework.batch.core.step.builder.StepBuilder;
+import org.springframework.batch.item.ExecutionContext;
 import org.springframework.batch.item.ItemProcessor;
 import org.springframework.batch.item.ItemReader;
 import org.springframework.batch.item.ItemStreamReader;
-import org.springframework.batch.item.database.PagingQueryProvider;
+import org.springframework.batch.item.ItemWriter;
 import org.springframework.batch.item.database.builder.JdbcBatchItemWriterBuilder;
 import org.springframework.batch.item.database.builder.JdbcPagingItemReaderBuilder;
-import org.springframework.batch.item.support.builder.SynchronizedItemStreamReaderBuilder;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.boot.autoconfigure.batch.BatchDataSourceScriptDatabaseInitializer;
 import org.springframework.boot.autoconfigure.batch.BatchProperties;
 import org.springframework.boot.sql.init.DatabaseInitializationMode;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.core.task.TaskExecutor;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.support.JdbcTransactionManager;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.transaction.PlatformTransactionManager;
 
 import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Set;
 
 @Configuration
 @EnableBatchProcessing
 public class UserActionJobConfiguration {
     private static final Logger LOGGER = LoggerFactory.getLogger(UserActionJobConfiguration.class);
+    // Value of 'readerType' job parameter to read session actions with Spring Batch paging reader instead of keyset one
+    public static final String PAGING_READER_TYPE = "paging";
+    // Values of 'user.score.writer.mode' property
+    public static final String UPSERT_WRITER_MODE = "upsert";
+    public static final String COPY_WRITER_MODE = "copy";
+    // Names of the steps which executions manage the partitions, they only sum up the counts of the partitions
+    public static final String PARTITIONED_LOCAL_STEP_NAME = "partitionedLocalActionCalculationStep";
+    public static final String PARTITIONED_REMOTE_STEP_NAME = "partitionedRemoteActionCalculationStep";
+    public static final String ID_RANGE_PARTITIONED_STEP_NAME = "idRangePartitionedActionCalculationStep";
+    public static final Set<String> PARTITION_MANAGER_STEP_NAMES = Set.of(PARTITIONED_LOCAL_STEP_NAME,
+            PARTITIONED_REMOTE_STEP_NAME, ID_RANGE_PARTITIONED_STEP_NAME);
 
     @Bean
     @Qualifier("simpleActionCalculationJob")
     public AbstractJob simpleActionCalculationJob(JobRepository jobRepository,
-                                                  @Qualifier("simpleActionCalculationStep") Step simpleActionCalculationStep) {
+                                                  @Qualifier("prepareUserScoreTransformStep") Step prepareUserScoreTransformStep,
+                                                  @Qualifier("simpleActionCalculationStep") Step simpleActionCalculationStep,
+                                                  @Qualifier("mergeUserScoreTransformStep") Step mergeUserScoreTransformStep,
+                                                  SessionActionHighWaterMarkListener sessionActionHighWaterMarkListener,
+                                                  UserScoreCacheRefreshListener userScoreCacheRefreshListener) {
+        // Calculation step composes the updates of every user into the transform table, and the merge step applies
+        // them to the user scores, so the score is rounded once per user whatever the chunks were
         return (AbstractJob) new JobBuilder("simpleActionCalculationJob", jobRepository)
-                .start(simpleActionCalculationStep)
+                .start(prepareUserScoreTransformStep)
+                .next(simpleActionCalculationStep)
+                .next(mergeUserScoreTransformStep)
+                .listener(sessionActionHighWaterMarkListener)
+                .listener(userScoreCacheRefreshListener)
+                .build();
+    }
+
+    @Bean
+    @Qualifier("accumulatingActionCalculationJob")
+    public Job accumulatingActionCalculationJob(JobRepository jobRepository,
+                                                @Qualifier("accumulatingActionCalculationStep") Step accumulatingActionCalculationStep,
+                                                SessionActionHighWaterMarkListener sessionActionHighWaterMarkListener,
+                                                UserScoreCacheRefreshListener userScoreCacheRefreshListener) {
+        return new JobBuilder("accumulatingActionCalculationJob", jobRepository)
+                .start(accumulatingActionCalculationStep)
+                .listener(sessionActionHighWaterMarkListener)
+                .listener(userScoreCacheRefreshListener)
+                .build();
+    }
+
+    @Bean
+    @Qualifier("columnarActionCalculationJob")
+    public Job columnarActionCalculationJob(JobRepository jobRepository,
+                                            @Qualifier("columnarActionCalculationStep") Step columnarActionCalculationStep,
+                                            SessionActionHighWaterMarkListener sessionActionHighWaterMarkListener,
+                                            UserScoreCacheRefreshListener userScoreCacheRefreshListener) {
+        return new JobBuilder("columnarActionCalculationJob", jobRepository)
+                .start(columnarActionCalculationStep)
+                .listener(sessionActionHighWaterMarkListener)
+                .listener(userScoreCacheRefreshListener)
                 .build();
     }
 
     @Bean
     @Qualifier("multiThreadedActionCalculationJob")
     public Job multiThreadedActionCalculationJob(JobRepository jobRepository,
-                                                 @Qualifier("multiThreadedActionCalculationStep") Step multiThreadedActionCalculationStep) {
+                                                 @Qualifier("multiThreadedActionCalculationStep") Step multiThreadedActionCalculationStep,
+                                                 SessionActionHighWaterMarkListener sessionActionHighWaterMarkListener,
+                                                 UserScoreCacheRefreshListener userScoreCacheRefreshListener) {
+        // Stripes commit independently, so the restarted step would apply the batches committed before once again
         return new JobBuilder("multiThreadedActionCalculationJob", jobRepository)
+                .preventRestart()
                 .start(multiThreadedActionCalculationStep)
+                .listener(sessionActionHighWaterMarkListener)
+                .listener(userScoreCacheRefreshListener)
                 .build();
     }
 
     @Bean
     @Qualifier("partitionedLocalActionCalculationJob")
     public Job partitionedLocalActionCalculationJob(JobRepository jobRepository,
-                                                    @Qualifier("partitionedLocalActionCalculationStep") Step partitionedLocalActionCalculationStep) {
+                                                    @Qualifier("prepareUserScoreTransformStep") Step prepareUserScoreTransformStep,
+                                                    @Qualifier("partitionedLocalActionCalculationStep") Step partitionedLocalActionCalculationStep,
+                                                    @Qualifier("mergeUserScoreTransformStep") Step mergeUserScoreTransformStep,
+                                                    SessionActionHighWaterMarkListener sessionActionHighWaterMarkListener,
+                                                    UserScoreCacheRefreshListener userScoreCacheRefreshListener) {
         return new JobBuilder("partitionedLocalActionCalculationJob", jobRepository)
-                .start(partitionedLocalActionCalculationStep)
+                .start(prepareUserScoreTransformStep)
+                .next(partitionedLocalActionCalculationStep)
+                .next(mergeUserScoreTransformStep)
+                .listener(sessionActionHighWaterMarkListener)
+                .listener(userScoreCacheRefreshListener)
                 .build();
     }
 
     @Bean
     @Qualifier("partitionedRemoteActionCalculationJob")
     public Job partitionedRemoteActionCalculationJob(JobRepository jobRepository,
-                                                     @Qualifier("partitionedRemoteActionCalculationStep") Step partitionedRemoteActionCalculationStep) {
+                                                     @Qualifier("prepareUserScoreTransformStep") Step prepareUserScoreTransformStep,
+                                                     @Qualifier("partitionedRemoteActionCalculationStep") Step partitionedRemoteActionCalculationStep,
+                                                     @Qualifier("mergeUserScoreTransformStep") Step mergeUserScoreTransformStep,
+                                                     SessionActionHighWaterMarkListener sessionActionHighWaterMarkListener,
+                                                     UserScoreCacheRefreshListener userScoreCacheRefreshListener) {
+        // Workers compose the updates of their partitions into the transform table, which the manager merges
         return new JobBuilder("partitionedRemoteActionCalculationJob", jobRepository)
-                .start(partitionedRemoteActionCalculationStep)
+                .start(prepareUserScoreTransformStep)
+                .next(partitionedRemoteActionCalculationStep)
+                .next(mergeUserScoreTransformStep)
+                .listener(sessionActionHighWaterMarkListener)
+                .listener(userScoreCacheRefreshListener)
                 .build();
     }
 
+    @Bean
+    @Qualifier("idRangePartitionedActionCalculationJob")
+    public Job idRangePartitionedActionCalculationJob(JobRepository jobRepository,
+                                                      @Qualifier("prepareUserScoreTransformStep") Step prepareUserScoreTransformStep,
+                                                      @Qualifier("idRangePartitionedActionCalculationStep") Step idRangePartitionedActionCalculationStep,
+                                                      @Qualifier("mergeUserScoreTransformStep") Step mergeUserScoreTransformStep,
+                                                      SessionActionHighWaterMarkListener sessionActionHighWaterMarkListener,
+                                                      UserScoreCacheRefreshListener userScoreCacheRefreshListener) {
+        // Partitions of session action id ranges compose the updates of every user within their ranges in parallel,
+        // and the merge step composes the ranges in their order and applies them to the user scores
+        return new JobBuilder("idRangePartitionedActionCalculationJob", jobRepository)
+                .start(prepareUserScoreTransformStep)
+                .next(idRangePartitionedActionCalculationStep)
+                .next(mergeUserScoreTransformStep)
+                .listener(sessionActionHighWaterMarkListener)
+                .listener(userScoreCacheRefreshListener)
+                .build();
+    }
+
+    @Bean
+    @Qualifier("remoteChunkingActionCalculationJob")
+    public Job remoteChunkingActionCalculationJob(JobRepository jobRepository,
+                                                  @Qualifier("remoteChunkingActionCalculationStep") Step remoteChunkingActionCalculationStep,
+                                                  SessionActionHighWaterMarkListener sessionActionHighWaterMarkListener,
+                                                  UserScoreCacheRefreshListener userScoreCacheRefreshListener) {
+        return new JobBuilder("remoteChunkingActionCalculationJob", jobRepository)
+                .start(remoteChunkingActionCalculationStep)
+                .listener(sessionActionHighWaterMarkListener)
+                .listener(userScoreCacheRefreshListener)
+                .build();
+    }
+
+    @Bean
+    @Qualifier("remoteChunkingActionCalculationStep")
+    public Step remoteChunkingActionCalculationStep(JobRepository jobRepository, PlatformTransactionManager transactionManager,
+                                                    @Qualifier("sessionActionReader") ItemStreamReader<SessionAction> sessionActionReader,
+                                                    @Qualifier("remoteChunkWriter") HttpChunkDispatchingItemWriter remoteChunkWriter,
+                                                    @Value("${session.action.reader.page.size}") int pageSize,
+                                                    PoolUsageStepListener poolUsageStepListener,
+                                                    CalculationMetricsListener calculationMetricsListener) {
+        // Manager reads the session actions once, and every page is sent to the workers, which process and write it.
+        // Writer is registered as the listener of the step along with the writer itself
+        return new StepBuilder("remoteChunkingActionCalculationStep", jobRepository)
+                .<SessionAction, SessionAction>chunk(pageSize, transactionManager)
+                .reader(sessionActionReader)
+                .writer(remoteChunkWriter)
+                .listener(beforeStepLoggerListener())
+                .listener(afterStepLoggerListener())
+                .listener(poolUsageStepListener)
+                .listener((StepExecutionListener) calculationMetricsListener)
+                .listener((ChunkListener) calculationMetricsListener)
+                .build();
+    }
+
+    @Bean
+    @StepScope // Writer is step scope, as it holds the chunks in flight of the step execution
+    @Qualifier("remoteChunkWriter")
+    public HttpChunkDispatchingItemWriter remoteChunkWriter(PartitioningConfig partitioningConfig,
+                                                            @Qualifier("sourceDataSource") DataSource sourceDataSource,
+                                                            @Value("#{jobParameters['readerType']}") String readerType,
+                                                            @Value("#{jobParameters['sessionActionFile']}") String sessionActionFile,
+                                                            @Value("${remote.chunking.window}") int window,
+                                                            @Value("${remote.chunking.timeout.millis}") long timeoutMillis,
+                                                            @Value("${remote.chunking.max.attempts}") int maxAttempts) {
+        // Restarted manager positions the reader at the last acknowledged session action, which needs the keyset reader
+        if (PAGING_READER_TYPE.equals(readerType) || sessionActionFile != null) {
+            throw new IllegalArgumentException("Remote chunking job reads session actions with the keyset reader only");
+        }
+        return new HttpChunkDispatchingItemWriter(partitioningConfig.getWorkerBaseUrls(), window, timeoutMillis, maxAttempts,
+                new SessionActionChunkCodec(SourceDataBaseUtils.SESSION_ACTION_TYPES), sourceDataSource,
+                UserScoreUpdate.USER_SCORE_CHECKPOINT_TABLE_NAME);
+    }
+
     @Bean
     @Qualifier("partitionedRemoteActionCalculationStep")
     public Step partitionedRemoteActionCalculationStep(JobRepository jobRepository, JobExplorer jobExplorer,
                                                        @Qualifier("simpleActionCalculationStep") Step simpleActionCalculationStep,
-                                                       PartitioningConfig partitioningConfig) {
-        return new StepBuilder("partitionedRemoteActionCalculationStep", jobRepository)
-                .partitioner("simpleActionCalculationStep", new SessionActionPartitioner())
+                                                       PartitioningConfig partitioningConfig,
+                                                       PartitionCompletionRegistry partitionCompletionRegistry,
+                                                       @Qualifier("sourceDataSource") DataSource sourceDataSource,
+                                                       @Value("${partition.histogram.sample.percent}") double samplePercent) {
+        return new StepBuilder(PARTITIONED_REMOTE_STEP_NAME, jobRepository)
+                .partitioner("simpleActionCalculationStep", sessionActionRangePartitioner(sourceDataSource, samplePercent))
                 .partitionHandler(new HttpRequestPartitionHandler(simpleActionCalculationStep, partitioningConfig,
-                        30000, jobRepository, jobExplorer))
+                        jobRepository, jobExplorer, partitionCompletionRegistry))
                 .build();
     }
 
     @Bean
+    @JobScope // Step is job scope to take the grid size from job parameters
     @Qualifier("partitionedLocalActionCalculationStep")
     public Step partitionedLocalActionCalculationStep(JobRepository jobRepository,
-                                                      @Qualifier("simpleActionCalculationStep") Step simpleActionCalculationStep) {
-        return new StepBuilder("partitionedLocalActionCalculationStep", jobRepository)
-                .partitioner("simpleActionCalculationStep", new SessionActionPartitioner())
+                                                      @Qualifier("simpleActionCalculationStep") Step simpleActionCalculationStep,
+                                                      @Qualifier("sourceDataSource") DataSource sourceDataSource,
+                                                      @Value("${partition.histogram.sample.percent}") double samplePercent,
+                                                      @Qualifier("localPartitionExecutor") BoundedTaskExecutor localPartitionExecutor,
+                                                      @Value("#{jobParameters['gridSize']}") Long gridSize,
+                                                      @Value("${partition.local.partitions.per.thread}") int partitionsPerThread) {
+        // Over-partition by default, so that threads done with their partitions pick up the ones left,
+        // and a single slow partition does not define the time of the whole step
+        int effectiveGridSize = gridSize == null
+                ? partitionsPerThread * localPartitionExecutor.getConcurrency()
+                : Math.toIntExact(gridSize);
+        return new StepBuilder(PARTITIONED_LOCAL_STEP_NAME, jobRepository)
+                .partitioner("simpleActionCalculationStep", sessionActionRangePartitioner(sourceDataSource, samplePercent))
                 .step(simpleActionCalculationStep)
-                .taskExecutor(new SimpleAsyncTaskExecutor())
-                .gridSize(3) // Hard-code 3 threads to partition data handling
+                .taskExecutor(localPartitionExecutor)
+                .gridSize(effectiveGridSize)
+                .build();
+    }
+
+    @Bean
+    @Qualifier("exportSessionActionsJob")
+    public Job exportSessionActionsJob(JobRepository jobRepository,
+                                       @Qualifier("exportSessionActionsStep") Step exportSessionActionsStep,
+                                       SessionActionHighWaterMarkListener sessionActionHighWaterMarkListener) {
+        // Exports session actions present when the job started, so the file could be used for the replays
+        return new JobBuilder("exportSessionActionsJob", jobRepository)
+                .start(exportSessionActionsStep)
+                .listener(sessionActionHighWaterMarkListener)
                 .build();
     }
 
+    @Bean
+    @Qualifier("exportSessionActionsStep")
+    public Step exportSessionActionsStep(JobRepository jobRepository, PlatformTransactionManager transactionManager,
+                                         @Qualifier("sessionActionReader") ItemStreamReader<SessionAction> sessionActionReader,
+                                         @Qualifier("sessionActionFileWriter") SessionActionFileItemWriter sessionActionFileWriter,
+                                         @Value("${session.action.reader.page.size}") int pageSize,
+                                         PoolUsageStepListener poolUsageStepListener) {
+        // Every page of session actions is appended to the file and committed along with the offset of the file
+        return new StepBuilder("exportSessionActionsStep", jobRepository)
+                .<SessionAction, SessionAction>chunk(pageSize, transactionManager)
+                .reader(sessionActionReader)
+                .writer(sessionActionFileWriter)
+                .listener(poolUsageStepListener)
+                .build();
+    }
+
+    @Bean
+    @StepScope // Writer is step scope to take the file from job parameters
+    @Qualifier("sessionActionFileWriter")
+    public SessionActionFileItemWriter sessionActionFileWriter(@Value("#{jobParameters['exportFile']}") String exportFile) {
+        return new SessionActionFileItemWriter(Path.of(exportFile), SourceDataBaseUtils.SESSION_ACTION_TYPES);
+    }
+
+    @Bean
+    @Qualifier("prepareUserScoreTransformStep")
+    public Step prepareUserScoreTransformStep(JobRepository jobRepository, PlatformTransactionManager transactionManager,
+                                              @Qualifier("sourceDataSource") DataSource sourceDataSource) {
+        // Transforms left by the job which failed before the merge are dropped, the new job calculates them from
+        // scratch, while the restarted one does not run this step again and continues with the stored transforms
+        return new StepBuilder("prepareUserScoreTransformStep", jobRepository)
+                .tasklet((contribution, chunkContext) -> {
+                    JdbcTemplate jdbcTemplate = new JdbcTemplate(sourceDataSource);
+                    SourceDataBaseUtils.dropTableIfExists(jdbcTemplate, UserScoreUpdate.USER_SCORE_TRANSFORM_TABLE_NAME);
+                    jdbcTemplate.execute(SourceDataBaseUtils
+                            .constructCreateUserScoreTransformTableQuery(UserScoreUpdate.USER_SCORE_TRANSFORM_TABLE_NAME));
+                    return RepeatStatus.FINISHED;
+                }, transactionManager)
+                .build();
+    }
+
+    @Bean
+    @JobScope // Step is job scope to take the range of session action ids and the grid size from the job
+    @Qualifier("idRangePartitionedActionCalculationStep")
+    public Step idRangePartitionedActionCalculationStep(JobRepository jobRepository,
+                                                        @Qualifier("simpleActionCalculationStep") Step simpleActionCalculationStep,
+                                                        @Qualifier("localPartitionExecutor") BoundedTaskExecutor localPartitionExecutor,
+                                                        @Value("#{jobParameters['afterSessionActionId']}") Long afterSessionActionId,
+                                                        @Value("#{jobExecutionContext['maxSessionActionId']}") Long maxSessionActionId,
+                                                        @Value("#{jobParameters['gridSize']}") Long gridSize,
+                                                        @Value("${partition.local.partitions.per.thread}") int partitionsPerThread) {
+        int effectiveGridSize = gridSize == null
+                ? partitionsPerThread * localPartitionExecutor.getConcurrency()
+                : Math.toIntExact(gridSize);
+        return new StepBuilder(ID_RANGE_PARTITIONED_STEP_NAME, jobRepository)
+                .partitioner("simpleActionCalculationStep", new SessionActionIdRangePartitioner(
+                        afterSessionActionId == null ? 0 : afterSessionActionId, maxSessionActionId))
+                .step(simpleActionCalculationStep)
+                .taskExecutor(localPartitionExecutor)
+                .gridSize(effectiveGridSize)
+                .build();
+    }
+
+    @Bean
+    @Qualifier("mergeUserScoreTransformStep")
+    public Step mergeUserScoreTransformStep(JobRepository jobRepository, PlatformTransactionManager transactionManager,
+                                            @Qualifier("userScoreTransformMergeTasklet") UserScoreTransformMergeTasklet userScoreTransformMergeTasklet,
+                                            PoolUsageStepListener poolUsageStepListener) {
+        return new StepBuilder("mergeUserScoreTransformStep", jobRepository)
+                .tasklet(userScoreTransformMergeTasklet, transactionManager)
+                .listener(poolUsageStepListener)
+                .build();
+    }
+
+    @Bean
+    @StepScope // Tasklet holds the position of the running merge
+    @Qualifier("userScoreTransformMergeTasklet")
+    public UserScoreTransformMergeTasklet userScoreTransformMergeTasklet(@Qualifier("sourceDataSource") DataSource sourceDataSource,
+                                                                         @Value("${accumulator.checkpoint.interval}") int checkpointInterval) {
+        return new UserScoreTransformMergeTasklet(sourceDataSource, UserScoreUpdate.USER_SCORE_TRANSFORM_TABLE_NAME,
+                UserScoreUpdate.USER_SCORE_TABLE_NAME, checkpointInterval);
+    }
+
     @Bean
     @Qualifier("multiThreadedActionCalculationStep")
     public Step multiThreadedActionCalculationStep(JobRepository jobRepository, PlatformTransactionManager transactionManager,
                                                    @Qualifier("sessionActionReader") ItemStreamReader<SessionAction> sessionActionReader,
                                                    @Qualifier("sourceDataSource") DataSource sourceDataSource,
-                                                   @Qualifier("multiThreadStepExecutor") TaskExecutor multiThreadStepExecutor) {
+                                                   @Qualifier("multiThreadStepExecutor") TaskExecutor multiThreadStepExecutor,
+                                                   @Value("${user.score.writer.mode}") String userScoreWriterMode,
+                                                   @Value("${multi.threaded.stripe.count}") int stripeCount,
+                                                   @Value("${multi.threaded.stripe.queue.capacity}") int stripeQueueCapacity,
+                                                   @Value("${chunk.size}") int chunkSize,
+                                                   PoolUsageStepListener poolUsageStepListener,
+                                                   CalculationMetricsListener calculationMetricsListener) {
+        // Single reader routes session actions to the threads by user id, every thread converts them into user score
+        // update objects used to update with (score = score * a + b) idea, folds updates of the same user and writes
+        // them in batches of chunk.size, each batch in its own transaction. So, updates of the same user are never
+        // reordered. Stripes write the scores directly and round them once per batch, so the batch size is kept fixed
+        // instead of following the adaptive completion policy, which would make the scores depend on the timing of the run
+        ComposingUserScoreItemWriter composingWriter =
+                new ComposingUserScoreItemWriter(getUserScoreWriter(sourceDataSource, userScoreWriterMode));
+        UserStripedChunkTasklet userStripedChunkTasklet = new UserStripedChunkTasklet(sessionActionReader,
+                getSessionActionProcessor(), composingWriter,
+                transactionManager, multiThreadStepExecutor, stripeCount, stripeQueueCapacity, chunkSize);
         return new StepBuilder("multiThreadedActionCalculationStep", jobRepository)
-                // Write in batches of size 5
-                .<SessionAction, UserScoreUpdate>chunk(5, transactionManager)
-                // Read in pages of size 5 using synchronized reader
-                // to mitigate thread safety problems while using shared reader between threads
-                .reader(new SynchronizedItemStreamReaderBuilder<SessionAction>()
-                        .delegate(sessionActionReader)
-                        .build())
-                // Convert items into user score update objects used to update with (score = score * a + b) idea
-                .processor(getSessionActionProcessor())
-                // Write into the database using the upsert capabilities; ideally, we should also wrap the writer
-                // into synchronized writer to avoid deadlock issues with Postgres. However, we are not doing it,
-                // since this step is provided for demonstration purposes anyway and will produce wrong results
-                // because of strict order guarantee requirements because of the problem definition
-                .writer(new JdbcBatchItemWriterBuilder<UserScoreUpdate>()
-                        .dataSource(sourceDataSource)
-                        .itemPreparedStatementSetter(SourceDataBaseUtils.UPDATE_USER_SCORE_PARAMETER_SETTER)
-                        .sql(SourceDataBaseUtils.constructUpdateUserScoreQuery(UserScoreUpdate.USER_SCORE_TABLE_NAME))
-                        .build())
+                // Stripes manage their own transactions, so the tasklet itself does not need to hold a connection
+                .tasklet(userStripedChunkTasklet, new ResourcelessTransactionManager())
+                // Folded updates of the stripes are counted once the tasklet completes
+                .listener((ChunkListener) composingWriter)
+                .stream(sessionActionReader)
                 .listener(beforeStepLoggerListener())
-                .taskExecutor(multiThreadStepExecutor)
+                .listener(afterStepLoggerListener())
+                .listener(poolUsageStepListener)
+                .listener((StepExecutionListener) calculationMetricsListener)
+                .listener((ChunkListener) calculationMetricsListener)
                 .build();
     }
 
     @Bean
-    @Qualifier("multiThreadStepExecutor")
-    public TaskExecutor multiThreadStepExecutor() {
-        ThreadPoolTaskExecutor threadPoolExecutor = new ThreadPoolTaskExecutor();
-        threadPoolExecutor.setCorePoolSize(3);
-        return threadPoolExecutor;
+    @Qualifier("accumulatingActionCalculationStep")
+    public Step accumulatingActionCalculationStep(JobRepository jobRepository, PlatformTransactionManager transactionManager,
+                                                  @Qualifier("sessionActionReader") ItemStreamReader<SessionAction> sessionActionReader,
+                                                  @Qualifier("accumulatingUserScoreTasklet") AccumulatingUserScoreTasklet accumulatingUserScoreTasklet,
+                                                  PoolUsageStepListener poolUsageStepListener,
+                                                  MemoryUsageStepListener memoryUsageStepListener,
+                                                  CalculationMetricsListener calculationMetricsListener,
+                                                  UserScoreCheckpointListener userScoreCheckpointListener) {
+        // Every tasklet execution is a checkpoint: session actions are folded into the per user updates as they are
+        // read, and the updates are written once the checkpoint interval is read, committing the reader position
+        return new StepBuilder("accumulatingActionCalculationStep", jobRepository)
+                .tasklet(accumulatingUserScoreTasklet, transactionManager)
+                .stream(sessionActionReader)
+                // Positions the reader by the stored checkpoint, which the tasklet moves along with every flush
+                .listener((StepExecutionListener) userScoreCheckpointListener)
+                .listener(beforeStepLoggerListener())
+                .listener(afterStepLoggerListener())
+                .listener(poolUsageStepListener)
+                .listener(memoryUsageStepListener)
+                .listener((StepExecutionListener) calculationMetricsListener)
+                .listener((ChunkListener) calculationMetricsListener)
+                .build();
+    }
+
+    @Bean
+    @StepScope // Tasklet holds the accumulator of the running step execution
+    @Qualifier("accumulatingUserScoreTasklet")
+    public AccumulatingUserScoreTasklet accumulatingUserScoreTasklet(@Qualifier("sessionActionReader") ItemReader<SessionAction> sessionActionReader,
+                                                                     @Qualifier("sourceDataSource") DataSource sourceDataSource,
+                                                                     @Value("${user.score.writer.mode}") String userScoreWriterMode,
+                                                                     @Value("${accumulator.checkpoint.interval}") int checkpointInterval,
+                                                                     UserScoreCheckpointListener userScoreCheckpointListener) {
+        return new AccumulatingUserScoreTasklet(sessionActionReader, getSessionActionProcessor(),
+                getUserScoreWriter(sourceDataSource, userScoreWriterMode), userScoreCheckpointListener, checkpointInterval);
+    }
+
+    @Bean
+    @Qualifier("columnarActionCalculationStep")
+    public Step columnarActionCalculationStep(JobRepository jobRepository, PlatformTransactionManager transactionManager,
+                                              @Qualifier("columnarSessionActionReader") ColumnarSessionActionReader columnarSessionActionReader,
+                                              @Qualifier("columnarUserScoreTasklet") ColumnarUserScoreTasklet columnarUserScoreTasklet,
+                                              PoolUsageStepListener poolUsageStepListener,
+                                              MemoryUsageStepListener memoryUsageStepListener,
+                                              CalculationMetricsListener calculationMetricsListener,
+                                              UserScoreCheckpointListener userScoreCheckpointListener) {
+        // Every tasklet execution reads a page of session actions into primitive arrays, folds it and writes
+        // one update per user of the page, without creating objects per session action
+        return new StepBuilder("columnarActionCalculationStep", jobRepository)
+                .tasklet(columnarUserScoreTasklet, transactionManager)
+                .stream(columnarSessionActionReader)
+                // Positions the reader by the stored checkpoint, which the tasklet moves along with every page
+                .listener((StepExecutionListener) userScoreCheckpointListener)
+                .listener(beforeStepLoggerListener())
+                .listener(afterStepLoggerListener())
+                .listener(poolUsageStepListener)
+                .listener(memoryUsageStepListener)
+                .listener((StepExecutionListener) calculationMetricsListener)
+                .listener((ChunkListener) calculationMetricsListener)
+                .build();
+    }
+
+    @Bean
+    @StepScope // Tasklet holds the columns and the accumulator of the running step execution
+    @Qualifier("columnarUserScoreTasklet")
+    public ColumnarUserScoreTasklet columnarUserScoreTasklet(@Qualifier("columnarSessionActionReader") ColumnarSessionActionReader columnarSessionActionReader,
+                                                             @Qualifier("sourceDataSource") DataSource sourceDataSource,
+                                                             @Value("${user.score.writer.mode}") String userScoreWriterMode,
+                                                             @Value("#{jobParameters['readerPageSize']}") Long readerPageSize,
+                                                             @Value("${session.action.reader.page.size}") int defaultPageSize,
+                                                             UserScoreCheckpointListener userScoreCheckpointListener) {
+        int pageSize = readerPageSize == null ? defaultPageSize : Math.toIntExact(readerPageSize);
+        return new ColumnarUserScoreTasklet(columnarSessionActionReader, SourceDataBaseUtils.SESSION_ACTION_TYPES,
+                getUserScoreAccumulatorWriter(sourceDataSource, userScoreWriterMode), userScoreCheckpointListener, pageSize);
     }
 
     @Bean
     @Qualifier("simpleActionCalculationStep")
     public Step simpleActionCalculationStep(JobRepository jobRepository, PlatformTransactionManager transactionManager,
                                             @Qualifier("sessionActionReader") ItemReader<SessionAction> sessionActionReader,
-                                            @Qualifier("sourceDataSource") DataSource sourceDataSource) {
+                                            @Qualifier("userScoreTransformWriter") ItemWriter<UserScoreUpdate> userScoreTransformWriter,
+                                            PoolUsageStepListener poolUsageStepListener,
+                                            MemoryUsageStepListener memoryUsageStepListener,
+                                            CalculationMetricsListener calculationMetricsListener,
+                                            AdaptiveChunkCompletionPolicy chunkCompletionPolicy,
+                                            UserScoreCheckpointListener userScoreCheckpointListener) {
         return new StepBuilder("simpleActionCalculationStep", jobRepository)
-                // Write in batches of size 5
-                .<SessionAction, UserScoreUpdate>chunk(5, transactionManager)
-                // Read also in pages of size 5 (configured in reader's bean definition)
+                // Write in batches, which size is adjusted to hold the chunk latency around the target
+                .<SessionAction, UserScoreUpdate>chunk(chunkCompletionPolicy, transactionManager)
+                // Read in pages, which size is configured in reader's bean definition and is at least the chunk size
                 .reader(sessionActionReader)
                 // Convert items into user score update objects used to update with (score = score * a + b) idea
                 .processor(getSessionActionProcessor())
-                // Write into the database using the upsert capabilities
-                .writer(new JdbcBatchItemWriterBuilder<UserScoreUpdate>()
-                        .dataSource(sourceDataSource)
-                        .itemPreparedStatementSetter(SourceDataBaseUtils.UPDATE_USER_SCORE_PARAMETER_SETTER)
-                        .sql(SourceDataBaseUtils.constructUpdateUserScoreQuery(UserScoreUpdate.USER_SCORE_TABLE_NAME))
-                        .build())
+                // Fold updates of the same user within the chunk, and compose them with the ones the step has stored
+                // so far, which are applied to the user scores once the step is done
+                .writer(userScoreTransformWriter)
                 .listener(beforeStepLoggerListener())
+                .listener(afterStepLoggerListener())
+                .listener(poolUsageStepListener)
+                .listener(memoryUsageStepListener)
+                .listener((StepExecutionListener) calculationMetricsListener)
+                .listener((ChunkListener) calculationMetricsListener)
+                .listener((ItemReadListener<Object>) calculationMetricsListener)
+                .listener((ItemProcessListener<Object, Object>) calculationMetricsListener)
+                .listener((ItemWriteListener<Object>) calculationMetricsListener)
+                .listener((ChunkListener) chunkCompletionPolicy)
+                // Store the last applied session action along with the scores, so the restart does not apply it twice
+                .listener((StepExecutionListener) userScoreCheckpointListener)
+                .listener((ItemReadListener<SessionAction>) userScoreCheckpointListener)
+                .listener((ItemWriteListener<UserScoreUpdate>) userScoreCheckpointListener)
                 .build();
     }
 
-    // Processor to process single session action item
-    private static ItemProcessor<SessionAction, UserScoreUpdate> getSessionActionProcessor() {
-        return sessionAction -> {
-            if (SourceDataBaseUtils.PLUS_TYPE.equals(sessionAction.getActionType())) {
-                return new UserScoreUpdate(sessionAction.getUserId(), sessionAction.getAmount(), 1d);
-            } else if (SourceDataBaseUtils.MULTI_TYPE.equals(sessionAction.getActionType())) {
-                return new UserScoreUpdate(sessionAction.getUserId(), 0d, sessionAction.getAmount());
-            } else {
-                throw new RuntimeException("Unknown session action record type: " + sessionAction.getActionType());
-            }
-        };
+    // Writer is step scoped to take the index of the session action id range of the partition, all the other executions
+    // read the whole history of their users, so they use the same index
+    @Bean
+    @StepScope
+    @Qualifier("userScoreTransformWriter")
+    public UserScoreTransformItemWriter userScoreTransformWriter(@Qualifier("sourceDataSource") DataSource sourceDataSource,
+                                                                 @Value("#{stepExecutionContext['rangeIndex']}") Integer rangeIndex) {
+        return new UserScoreTransformItemWriter(sourceDataSource, UserScoreUpdate.USER_SCORE_TRANSFORM_TABLE_NAME,
+                rangeIndex == null ? 0 : rangeIndex);
+    }
+
+    // Checkpoint listener is step scoped, as it holds the last session action read and applied by the step execution
+    @Bean
+    @StepScope
+    public UserScoreCheckpointListener userScoreCheckpointListener(@Qualifier("sourceDataSource") DataSource sourceDataSource,
+                                                                   @Value("#{jobParameters['readerType']}") String readerType,
+                                                                   @Value("#{jobParameters['sessionActionFile']}") String sessionActionFile,
+                                                                   @Value("${user.score.checkpoint.enabled}") boolean enabled) {
+        // Only the keyset reader could be positioned right after the given session action id
+        return new UserScoreCheckpointListener(sourceDataSource, UserScoreUpdate.USER_SCORE_CHECKPOINT_TABLE_NAME,
+                enabled && !PAGING_READER_TYPE.equals(readerType) && sessionActionFile == null);
+    }
+
+    // Completion policy is step scoped, as it holds the chunk size and latency of the step execution (partition)
+    @Bean
+    @StepScope
+    public AdaptiveChunkCompletionPolicy chunkCompletionPolicy(@Value("${chunk.size}") int chunkSize,
+                                                               @Value("${chunk.size.adaptive}") boolean adaptive,
+                                                               @Value("${chunk.size.min}") int minChunkSize,
+                                                               @Value("${chunk.size.max}") int maxChunkSize,
+                                                               @Value("${chunk.target.millis}") long targetMillis) {
+        if (!adaptive) {
+            // Both limits are the initial size, so the chunk size never changes
+            return new AdaptiveChunkCompletionPolicy(chunkSize, chunkSize, chunkSize, targetMillis);
+        }
+        return new AdaptiveChunkCompletionPolicy(chunkSize, minChunkSize, maxChunkSize, targetMillis);
+    }
+
+    // Processor to process single session action item, public to be measured by the benchmarks
+    public static ItemProcessor<SessionAction, UserScoreUpdate> getSessionActionProcessor() {
+        // Update of every action type is described by the registered coefficients
+        return SourceDataBaseUtils.SESSION_ACTION_TYPES::toUpdate;
+    }
+
+    // Writer to apply (score = score * a + b) updates folded by the accumulator in the configured mode
+    private static UserScoreAccumulatorWriter getUserScoreAccumulatorWriter(DataSource sourceDataSource, String userScoreWriterMode) {
+        if (UPSERT_WRITER_MODE.equals(userScoreWriterMode)) {
+            return new UpsertUserScoreAccumulatorWriter(sourceDataSource, UserScoreUpdate.USER_SCORE_TABLE_NAME);
+        } else if (COPY_WRITER_MODE.equals(userScoreWriterMode)) {
+            return new PostgresCopyUserScoreItemWriter(sourceDataSource, UserScoreUpdate.USER_SCORE_TABLE_NAME);
+        } else {
+            throw new IllegalArgumentException("Unknown user score writer mode: " + userScoreWriterMode);
+        }
+    }
+
+    // Writer to apply (score = score * a + b) updates in the configured mode, expects at most one update per user
+    private static ItemWriter<UserScoreUpdate> getUserScoreWriter(DataSource sourceDataSource, String userScoreWriterMode) {
+        if (UPSERT_WRITER_MODE.equals(userScoreWriterMode)) {
+            return getUserScoreUpsertWriter(sourceDataSource);
+        } else if (COPY_WRITER_MODE.equals(userScoreWriterMode)) {
+            return new PostgresCopyUserScoreItemWriter(sourceDataSource, UserScoreUpdate.USER_SCORE_TABLE_NAME);
+        } else {
+            throw new IllegalArgumentException("Unknown user score writer mode: " + userScoreWriterMode);
+        }
+    }
+
+    // Writer to apply (score = score * a + b) updates one by one using the upsert capabilities of Postgres
+    private static ItemWriter<UserScoreUpdate> getUserScoreUpsertWriter(DataSource sourceDataSource) {
+        return new JdbcBatchItemWriterBuilder<UserScoreUpdate>()
+                .dataSource(sourceDataSource)
+                .itemPreparedStatementSetter(SourceDataBaseUtils.UPDATE_USER_SCORE_PARAMETER_SETTER)
+                .sql(SourceDataBaseUtils.constructUpdateUserScoreQuery(UserScoreUpdate.USER_SCORE_TABLE_NAME))
+                .build();
     }
 
     // Step execution listener that logs information about step and environment (thread) right before the start of the execution
@@ -200,64 +648,271 @@ public class UserActionJobConfiguration {
         };
     }
 
+    // Step execution listener that logs how many user score updates were folded away by the composing writer,
+    // and the throughput of the step
+    private static StepExecutionListener afterStepLoggerListener() {
+        return new StepExecutionListener() {
+            @Override
+            public ExitStatus afterStep(StepExecution stepExecution) {
+                long foldedUpdateCount = stepExecution.getExecutionContext()
+                        .getLong(ComposingUserScoreItemWriter.FOLDED_UPDATE_COUNT, 0L);
+                LOGGER.info("Calculation step " + stepExecution.getStepName() + " wrote " + stepExecution.getWriteCount()
+                        + " user score updates, " + foldedUpdateCount + " of them were folded into updates of the same user");
+
+                // Throughput of the step, used to compare reader and writer settings between runs
+                long durationMillis = Math.max(1, System.currentTimeMillis() - stepExecution.getStartTime()
+                        .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+                LOGGER.info("Calculation step " + stepExecution.getStepName() + " read " + stepExecution.getReadCount()
+                        + " session actions in " + durationMillis + " ms (" + stepExecution.getReadCount() * 1000 / durationMillis
+                        + " records per second)");
+                return stepExecution.getExitStatus();
+            }
+        };
+    }
+
     @Bean
     @StepScope // Reader is step scope to auto-wire partition properties from the step execution context
     @Qualifier("sessionActionReader")
     public ItemStreamReader<SessionAction> sessionActionReader(@Qualifier("sourceDataSource") DataSource sourceDataSource,
                                                                @Value("#{stepExecutionContext['partitionCount']}") Integer partitionCount,
-                                                               @Value("#{stepExecutionContext['partitionIndex']}") Integer partitionIndex) {
-        // Select all in case no partition properties passed; select partition-specific records otherwise
-        PagingQueryProvider queryProvider = (partitionCount == null || partitionIndex == null)
-                ? SourceDataBaseUtils.selectAllSessionActionsProvider(SessionAction.SESSION_ACTION_TABLE_NAME)
-                : SourceDataBaseUtils
-                .selectPartitionOfSessionActionsProvider(SessionAction.SESSION_ACTION_TABLE_NAME, partitionCount, partitionIndex);
-        return new JdbcPagingItemReaderBuilder<SessionAction>()
-                .name("sessionActionReader")
-                .dataSource(sourceDataSource)
-                .queryProvider(queryProvider)
-                .rowMapper(SourceDataBaseUtils.getSessionActionMapper())
-                // Querying the database in pages of 5
-                .pageSize(5)
-                .build();
+                                                               @Value("#{stepExecutionContext['partitionIndex']}") Integer partitionIndex,
+                                                               @Value("#{stepExecutionContext['minUserId']}") Long minUserId,
+                                                               @Value("#{stepExecutionContext['maxUserId']}") Long maxUserId,
+                                                               @Value("#{jobParameters['afterSessionActionId']}") Long afterSessionActionId,
+                                                               @Value("#{jobExecutionContext['maxSessionActionId']}") Long maxSessionActionId,
+                                                               @Value("#{stepExecutionContext['afterSessionActionId']}") Long rangeAfterSessionActionId,
+                                                               @Value("#{stepExecutionContext['maxSessionActionId']}") Long rangeMaxSessionActionId,
+                                                               @Value("#{jobParameters['readerType']}") String readerType,
+                                                               @Value("#{jobParameters['readerPageSize']}") Long readerPageSize,
+                                                               @Value("#{jobParameters['sessionActionFile']}") String sessionActionFile,
+                                                               @Value("${session.action.reader.page.size}") int defaultPageSize,
+                                                               @Value("${session.action.reader.prefetch.pages}") int prefetchPages,
+                                                               @Value("#{stepExecution}") StepExecution stepExecution) {
+        int pageSize = readerPageSize == null ? defaultPageSize : Math.toIntExact(readerPageSize);
+        ItemStreamReader<SessionAction> reader;
+        if (sessionActionFile != null) {
+            // Replay of the exported file, which is ordered by id, so it could be split into id ranges only
+            if (partitionCount != null || minUserId != null) {
+                throw new IllegalArgumentException("Session action file could not be split by users, " +
+                        "use the job of session action id ranges instead");
+            }
+            reader = rangeMaxSessionActionId != null
+                    ? new MappedSessionActionFileReader(Path.of(sessionActionFile), rangeAfterSessionActionId, rangeMaxSessionActionId)
+                    : new MappedSessionActionFileReader(Path.of(sessionActionFile),
+                    afterSessionActionId == null ? 0 : afterSessionActionId,
+                    maxSessionActionId == null ? Long.MAX_VALUE : maxSessionActionId);
+        } else {
+            // Partition of session action id range reads its own range only
+            String whereClause = rangeMaxSessionActionId != null
+                    ? sessionActionWhereClause(null, null, null, null, rangeAfterSessionActionId, rangeMaxSessionActionId)
+                    : sessionActionWhereClause(partitionCount, partitionIndex, minUserId, maxUserId,
+                    afterSessionActionId, maxSessionActionId);
+            // Partition of user id range is read in the order of users, through the (user_id, id) index
+            boolean orderedByUser = rangeMaxSessionActionId == null && minUserId != null && maxUserId != null;
+            reader = pageReader(sourceDataSource, whereClause, orderedByUser, readerType, pageSize,
+                    stepExecution.getExecutionContext());
+        }
+        // Fetch the next pages in the background while the current chunk is processed and written
+        return prefetchPages > 0 ? new PrefetchingItemReader<>(reader, pageSize, prefetchPages) : reader;
+    }
+
+    private static ItemStreamReader<SessionAction> pageReader(DataSource sourceDataSource, String whereClause,
+                                                              boolean orderedByUser, String readerType, int pageSize,
+                                                              ExecutionContext stepExecutionContext) {
+        if (PAGING_READER_TYPE.equals(readerType)) {
+            // Paging reader of Spring Batch, left to compare the throughput with the dedicated keyset reader
+            return new JdbcPagingItemReaderBuilder<SessionAction>()
+                    .name("sessionActionReader")
+                    .dataSource(sourceDataSource)
+                    .queryProvider(SourceDataBaseUtils
+                            .selectSessionActionsProvider(SessionAction.SESSION_ACTION_TABLE_NAME, whereClause))
+                    .rowMapper(SourceDataBaseUtils.getSessionActionMapper())
+                    .pageSize(pageSize)
+                    .build();
+        }
+        // Pages are kept at least as large as the current chunk, which size is published by the adaptive completion policy
+        return new SessionActionItemReader(sourceDataSource, SessionAction.SESSION_ACTION_TABLE_NAME, whereClause,
+                orderedByUser, () -> Math.max(pageSize, stepExecutionContext.getInt(AdaptiveChunkCompletionPolicy.CHUNK_SIZE, 0)));
     }
 
     @Bean
-    public PartitioningConfig partitioningConfig(@Value("${worker.server.base.urls}") String workerServerBaseUrls) {
-        return new PartitioningConfig(workerServerBaseUrls);
+    @StepScope // Reader is step scope to auto-wire partition properties from the step execution context
+    @Qualifier("columnarSessionActionReader")
+    public ColumnarSessionActionReader columnarSessionActionReader(@Qualifier("sourceDataSource") DataSource sourceDataSource,
+                                                                   @Value("#{stepExecutionContext['partitionCount']}") Integer partitionCount,
+                                                                   @Value("#{stepExecutionContext['partitionIndex']}") Integer partitionIndex,
+                                                                   @Value("#{stepExecutionContext['minUserId']}") Long minUserId,
+                                                                   @Value("#{stepExecutionContext['maxUserId']}") Long maxUserId,
+                                                                   @Value("#{jobParameters['afterSessionActionId']}") Long afterSessionActionId,
+                                                                   @Value("#{jobExecutionContext['maxSessionActionId']}") Long maxSessionActionId) {
+        String whereClause = sessionActionWhereClause(partitionCount, partitionIndex, minUserId, maxUserId,
+                afterSessionActionId, maxSessionActionId);
+        return new ColumnarSessionActionReader(sourceDataSource, SessionAction.SESSION_ACTION_TABLE_NAME, whereClause,
+                SourceDataBaseUtils.SESSION_ACTION_TYPES);
     }
 
+    // Select user id range in case range partition properties passed, select partition-specific records
+    // in case partition count and index passed, and select all otherwise
+    private static String sessionActionWhereClause(Integer partitionCount, Integer partitionIndex,
+                                                   Long minUserId, Long maxUserId,
+                                                   Long afterSessionActionId, Long maxSessionActionId) {
+        String whereClause = null;
+        if (minUserId != null && maxUserId != null) {
+            whereClause = SourceDataBaseUtils.userIdRangeOfSessionActionsPredicate(minUserId, maxUserId);
+        } else if (partitionCount != null && partitionIndex != null) {
+            whereClause = SourceDataBaseUtils.partitionOfSessionActionsPredicate(partitionCount, partitionIndex);
+        }
+        // Select only the session actions inserted since the previous run, up to the ones present when the job started
+        if (maxSessionActionId != null) {
+            String idRangeClause = SourceDataBaseUtils.idRangeOfSessionActionsPredicate(
+                    afterSessionActionId == null ? 0 : afterSessionActionId, maxSessionActionId);
+            whereClause = whereClause == null ? idRangeClause : whereClause + " and " + idRangeClause;
+        }
+        return whereClause;
+    }
 
-    /* ******************************** Spring Batch Utilities are defined below ********************************** */
+    // Partitioner to split session actions into user id ranges of roughly equal number of actions
+    private static Partitioner sessionActionRangePartitioner(DataSource sourceDataSource, double samplePercent) {
+        return new SessionActionRangePartitioner(sourceDataSource, SessionAction.SESSION_ACTION_TABLE_NAME, samplePercent);
+    }
 
-    /**
-     * Since we would like to launch jobs asynchronously, we would like to create async job launcher,
-     * since out-of-the-box Spring Batch job launcher is synchronous
-     */
     @Bean
-    @Qualifier("asyncJobLauncher")
-    public JobLauncher asyncJobLauncher(JobRepository jobRepository) {
-        TaskExecutorJobLauncher jobLauncher = new TaskExecutorJobLauncher();
-        jobLauncher.setJobRepository(jobRepository);
-        jobLauncher.setTaskExecutor(new SimpleAsyncTaskExecutor());
-        return jobLauncher;
+    public PartitioningConfig partitioningConfig(@Value("${worker.server.base.urls}") String workerServerBaseUrls,
+                                                 @Value("${manager.server.base.url}") String managerServerBaseUrl,
+                                                 @Value("${partition.fallback.poll.interval.millis}") long fallbackPollIntervalMillis,
+                                                 @Value("${partition.remote.worker.slots}") int workerSlots,
+                                                 @Value("${partition.remote.grid.size}") int gridSize,
+                                                 @Value("${partition.remote.timeout.millis}") long partitionTimeoutMillis,
+                                                 @Value("${partition.remote.max.attempts}") int maxPartitionAttempts,
+                                                 @Value("${partition.remote.capacity.refresh.millis}") long capacityRefreshMillis,
+                                                 @Value("${partition.remote.job.timeout.millis}") long jobTimeoutMillis) {
+        return new PartitioningConfig(workerServerBaseUrls, managerServerBaseUrl, fallbackPollIntervalMillis,
+                workerSlots, gridSize, partitionTimeoutMillis, maxPartitionAttempts, capacityRefreshMillis, jobTimeoutMillis);
+    }
+
+    // Worker side of the remote chunking job, which applies the chunks sent by the manager
+    @Bean
+    public RemoteChunkProcessor remoteChunkProcessor(@Qualifier("sourceDataSource") DataSource sourceDataSource,
+                                                     PlatformTransactionManager transactionManager,
+                                                     @Value("${user.score.writer.mode}") String userScoreWriterMode,
+                                                     UserScoreCache userScoreCache) {
+        return new RemoteChunkProcessor(new SessionActionChunkCodec(SourceDataBaseUtils.SESSION_ACTION_TYPES),
+                getSessionActionProcessor(),
+                new ComposingUserScoreItemWriter(getUserScoreWriter(sourceDataSource, userScoreWriterMode)),
+                sourceDataSource, transactionManager, UserScoreUpdate.USER_SCORE_CHECKPOINT_TABLE_NAME, userScoreCache);
+    }
+
+    // Partitions the manager waits for to be reported by workers
+    @Bean
+    public PartitionCompletionRegistry partitionCompletionRegistry() {
+        return new PartitionCompletionRegistry();
     }
 
+
+    /* ******************************** Spring Batch Utilities are defined below ********************************** */
+
     /**
      * Due to the fact we are not using standard Spring-expected naming and directory structure,
      * {@link org.springframework.batch.core.configuration.annotation.EnableBatchProcessing} is not able
      * to auto-create data source bean, so it's defined explicitly here
      */
-    @Bean
-    public DataSource dataSource(@Value("${db.url}") String url,
-                                 @Value("${db.username}") String username,
-                                 @Value("${db.password}") String password) {
-        DriverManagerDataSource dataSource = new DriverManagerDataSource();
+    @Bean(destroyMethod = "close")
+    public UsageTrackingDataSource dataSource(@Value("${db.url}") String url,
+                                              @Value("${db.username}") String username,
+                                              @Value("${db.password}") String password,
+                                              @Value("${db.pool.size}") int poolSize) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName("repository");
         dataSource.setDriverClassName("com.mysql.cj.jdbc.Driver");
-        dataSource.setUrl(url);
+        dataSource.setJdbcUrl(url);
         dataSource.setUsername(username);
         dataSource.setPassword(password);
+        dataSource.setMaximumPoolSize(poolSize > 0 ? poolSize : ConnectionBudgetValidator.DEFAULT_POOL_SIZE);
+        // Job repository executes the same few statements on every chunk commit, so they are prepared on the server
+        // and cached per connection
+        dataSource.addDataSourceProperty("cachePrepStmts", true);
+        dataSource.addDataSourceProperty("useServerPrepStmts", true);
+        dataSource.addDataSourceProperty("prepStmtCacheSize", 250);
+        dataSource.addDataSourceProperty("prepStmtCacheSqlLimit", 2048);
+
+        // Statements are counted to measure the traffic of the job repository, see 'repository.statements' metric
+        return new UsageTrackingDataSource("repositoryPool", dataSource, true);
+    }
+
+    @Bean
+    public MeterBinder repositoryStatementsMeterBinder(@Qualifier("dataSource") UsageTrackingDataSource dataSource) {
+        return meterRegistry -> FunctionCounter.builder("repository.statements", dataSource,
+                        UsageTrackingDataSource::getStatementCount)
+                .description("Number of statements executed in the job repository")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Job repository defined by {@link EnableBatchProcessing} persists the running step and its execution context on
+     * every chunk commit, which is coalesced into every 'batch.repository.coalescing.chunks' chunks
+     * (or 'batch.repository.coalescing.millis') if the former is positive. Only the steps positioned by the score
+     * checkpoint on restart are coalesced, all the others would apply the chunks after their persisted update twice
+     */
+    @Bean
+    public static BeanPostProcessor coalescingJobRepositoryPostProcessor(
+            @Value("${batch.repository.coalescing.chunks}") int chunkInterval,
+            @Value("${batch.repository.coalescing.millis}") long intervalMillis) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (chunkInterval > 0 && bean instanceof JobRepository jobRepository) {
+                    LOGGER.info("Job repository updates of the running steps with the score checkpoint are coalesced into every "
+                            + chunkInterval + " chunks or " + intervalMillis + " ms");
+                    return new CoalescingJobRepository(jobRepository, chunkInterval, intervalMillis,
+                            stepExecution -> Boolean.TRUE.equals(
+                                    stepExecution.getExecutionContext().get(UserScoreCheckpointListener.CHECKPOINT_ENABLED)));
+                }
+                return bean;
+            }
+        };
+    }
+
+    // Listener to record the usage of both source and repository connection pools by the calculation steps
+    @Bean
+    public PoolUsageStepListener poolUsageStepListener(@Qualifier("sourceDataSource") UsageTrackingDataSource sourceDataSource,
+                                                       @Qualifier("dataSource") UsageTrackingDataSource repositoryDataSource) {
+        return new PoolUsageStepListener(List.of(sourceDataSource, repositoryDataSource), repositoryDataSource);
+    }
+
+    // Listener to fix the range of session actions processed by the calculation job, used by incremental runs
+    @Bean
+    public SessionActionHighWaterMarkListener sessionActionHighWaterMarkListener(@Qualifier("sourceDataSource") DataSource sourceDataSource,
+                                                                                 JobRepository jobRepository,
+                                                                                 @Value("${session.action.high.water.mark.max.wait.millis}") long maxWaitMillis) {
+        return new SessionActionHighWaterMarkListener(sourceDataSource, jobRepository, SessionAction.SESSION_ACTION_TABLE_NAME,
+                maxWaitMillis);
+    }
+
+    // Cache of the user scores served by the score endpoints
+    @Bean
+    public UserScoreCache userScoreCache(@Qualifier("sourceDataSource") DataSource sourceDataSource,
+                                         @Value("${user.score.cache.max.size}") int maxSize,
+                                         @Value("${user.score.cache.ttl.millis}") long ttlMillis,
+                                         MeterRegistry meterRegistry) {
+        return new UserScoreCache(sourceDataSource, UserScoreUpdate.USER_SCORE_TABLE_NAME, maxSize, ttlMillis, meterRegistry);
+    }
+
+    // Listener to refresh the cached user scores with the ones committed by the calculation job
+    @Bean
+    public UserScoreCacheRefreshListener userScoreCacheRefreshListener(UserScoreCache userScoreCache) {
+        return new UserScoreCacheRefreshListener(userScoreCache);
+    }
 
-        return dataSource;
+    // Listener to record latencies and throughput of the calculation steps, exposed through the actuator endpoints
+    @Bean
+    public CalculationMetricsListener calculationMetricsListener(MeterRegistry meterRegistry) {
+        return new CalculationMetricsListener(meterRegistry);
+    }
+
+    // Listener to record garbage collections and heap usage of the calculation steps, to compare the calculation modes
+    @Bean
+    public MemoryUsageStepListener memoryUsageStepListener() {
+        return new MemoryUsageStepListener();
     }
 
     // Transaction manager for source data source, to control boundaries of storing the data in Postgresql
@@ -1,11 +1,19 @@
 package me.calebe_oliveira.expertspringbatchapp.controllers;
 
+import me.calebe_oliveira.expertspringbatchapp.cache.UserScoreCache;
+import me.calebe_oliveira.expertspringbatchapp.chunking.RemoteChunkProcessor;
+import me.calebe_oliveira.expertspringbatchapp.config.UserActionJobConfiguration;
+import me.calebe_oliveira.expertspringbatchapp.executors.AdmissionControlledTaskExecutor;
+import me.calebe_oliveira.expertspringbatchapp.listeners.SessionActionHighWaterMarkListener;
 import me.calebe_oliveira.expertspringbatchapp.model.UserScoreUpdate;
+import me.calebe_oliveira.expertspringbatchapp.partioners.PartitionCompletionRegistry;
 import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.batch.core.BatchStatus;
 import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
 import org.springframework.batch.core.JobParameters;
 import org.springframework.batch.core.JobParametersBuilder;
 import org.springframework.batch.core.Step;
@@ -15,91 +23,331 @@ import org.springframework.batch.core.job.AbstractJob;
 import org.springframework.batch.core.launch.JobLauncher;
 import org.springframework.batch.core.repository.JobRepository;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.core.task.SimpleAsyncTaskExecutor;
-import org.springframework.core.task.TaskExecutor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
 
 @RestController
 public class ApplicationController {
     private static final Logger LOGGER = LoggerFactory.getLogger(ApplicationController.class);
-
+    private static final HttpClient HTTP_CLIENT = HttpClient.newHttpClient();
+    private static final String PARTITION_COMPLETED_ENDPOINT = "partition-completed";
+    // Request parameter to recalculate the scores from scratch instead of applying the new session actions only
+    private static final String FULL_REBUILD = "fullRebuild";
+    // Job parameter of the incremental run, id of the last session action applied by the previous run
+    private static final String AFTER_SESSION_ACTION_ID = "afterSessionActionId";
+    // Job parameter of the export job, path of the session action file to write
+    private static final String EXPORT_FILE = "exportFile";
+    // Key of the advisory lock of the source database which serializes the launches of the calculation jobs
+    private static final long LAUNCH_LOCK_KEY = 0x5C07E;
 
     private final JobExplorer jobExplorer;
     private final JobLauncher jobLauncher;
     private final AbstractJob simpleActionCalculationJob;
+    private final Job accumulatingActionCalculationJob;
+    private final Job columnarActionCalculationJob;
     private final Job multiThreadedActionCalculationJob;
     private final Job partitionedLocalActionCalculationJob;
     private final Job partitionedRemoteActionCalculationJob;
+    private final Job idRangePartitionedActionCalculationJob;
+    private final Job remoteChunkingActionCalculationJob;
+    private final Job exportSessionActionsJob;
     private final JobRepository jobRepository;
     private final DataSource sourceDataSource;
-
-    private final TaskExecutor taskExecutor = new SimpleAsyncTaskExecutor();
+    private final AdmissionControlledTaskExecutor taskExecutor;
+    private final PartitionCompletionRegistry partitionCompletionRegistry;
+    private final RemoteChunkProcessor remoteChunkProcessor;
+    private final UserScoreCache userScoreCache;
+    private final int maxBulkUserIds;
 
     public ApplicationController(JobExplorer jobExplorer,
                                  @Qualifier("asyncJobLauncher") JobLauncher jobLauncher,
                                  @Qualifier("simpleActionCalculationJob") AbstractJob simpleActionCalculationJob,
+                                 @Qualifier("accumulatingActionCalculationJob") Job accumulatingActionCalculationJob,
+                                 @Qualifier("columnarActionCalculationJob") Job columnarActionCalculationJob,
                                  @Qualifier("multiThreadedActionCalculationJob") Job multiThreadedActionCalculationJob,
                                  @Qualifier("partitionedLocalActionCalculationJob") Job partitionedLocalActionCalculationJob,
                                  @Qualifier("partitionedRemoteActionCalculationJob") Job partitionedRemoteActionCalculationJob,
+                                 @Qualifier("idRangePartitionedActionCalculationJob") Job idRangePartitionedActionCalculationJob,
+                                 @Qualifier("remoteChunkingActionCalculationJob") Job remoteChunkingActionCalculationJob,
+                                 @Qualifier("exportSessionActionsJob") Job exportSessionActionsJob,
                                  JobRepository jobRepository,
-                                 @Qualifier("sourceDataSource") DataSource sourceDataSource) {
+                                 @Qualifier("sourceDataSource") DataSource sourceDataSource,
+                                 @Qualifier("workerPartitionExecutor") AdmissionControlledTaskExecutor taskExecutor,
+                                 PartitionCompletionRegistry partitionCompletionRegistry,
+                                 RemoteChunkProcessor remoteChunkProcessor,
+                                 UserScoreCache userScoreCache,
+                                 @Value("${user.score.bulk.max.users}") int maxBulkUserIds) {
         this.jobExplorer = jobExplorer;
         this.jobLauncher = jobLauncher;
         this.simpleActionCalculationJob = simpleActionCalculationJob;
+        this.accumulatingActionCalculationJob = accumulatingActionCalculationJob;
+        this.columnarActionCalculationJob = columnarActionCalculationJob;
         this.multiThreadedActionCalculationJob = multiThreadedActionCalculationJob;
         this.partitionedLocalActionCalculationJob = partitionedLocalActionCalculationJob;
         this.partitionedRemoteActionCalculationJob = partitionedRemoteActionCalculationJob;
+        this.idRangePartitionedActionCalculationJob = idRangePartitionedActionCalculationJob;
+        this.remoteChunkingActionCalculationJob = remoteChunkingActionCalculationJob;
+        this.exportSessionActionsJob = exportSessionActionsJob;
         this.jobRepository = jobRepository;
         this.sourceDataSource = sourceDataSource;
+        this.taskExecutor = taskExecutor;
+        this.partitionCompletionRegistry = partitionCompletionRegistry;
+        this.remoteChunkProcessor = remoteChunkProcessor;
+        this.userScoreCache = userScoreCache;
+        this.maxBulkUserIds = maxBulkUserIds;
     }
 
     @PostMapping("/start-simple-local")
-    public String startSimpleLocal() throws Exception {
-        prepareEmptyResultTable();
-        jobLauncher.run(simpleActionCalculationJob, buildUniqueJobParameters());
-        return "Successfully started\n";
+    public String startSimpleLocal(@RequestParam Map<String, String> jobParameters) throws Exception {
+        JobExecution jobExecution = launchExclusively(() -> jobLauncher.run(simpleActionCalculationJob, prepareJobParameters(jobParameters)));
+        return "Successfully started job execution with id = " + jobExecution.getId() + "\n";
+    }
+
+    @PostMapping("/start-accumulating")
+    public String startAccumulating(@RequestParam Map<String, String> jobParameters) throws Exception {
+        JobExecution jobExecution = launchExclusively(() -> jobLauncher.run(accumulatingActionCalculationJob, prepareJobParameters(jobParameters)));
+        return "Successfully started job execution with id = " + jobExecution.getId() + "\n";
+    }
+
+    @PostMapping("/start-columnar")
+    public String startColumnar(@RequestParam Map<String, String> jobParameters) throws Exception {
+        JobExecution jobExecution = launchExclusively(() -> jobLauncher.run(columnarActionCalculationJob, prepareJobParameters(jobParameters)));
+        return "Successfully started job execution with id = " + jobExecution.getId() + "\n";
     }
 
     @PostMapping("/start-multi-threaded")
-    public String startMultiThreaded() throws Exception {
-        prepareEmptyResultTable();
-        jobLauncher.run(multiThreadedActionCalculationJob, buildUniqueJobParameters());
-        return "Successfully started\n";
+    public String startMultiThreaded(@RequestParam Map<String, String> jobParameters) throws Exception {
+        JobExecution jobExecution = launchExclusively(() -> jobLauncher.run(multiThreadedActionCalculationJob, prepareJobParameters(jobParameters)));
+        return "Successfully started job execution with id = " + jobExecution.getId() + "\n";
     }
 
     @PostMapping("/start-partitioned-local")
-    public String startPartitionedLocal() throws Exception {
-        prepareEmptyResultTable();
-        jobLauncher.run(partitionedLocalActionCalculationJob, buildUniqueJobParameters());
-        return "Successfully started\n";
+    public String startPartitionedLocal(@RequestParam Map<String, String> jobParameters) throws Exception {
+        JobExecution jobExecution = launchExclusively(() -> jobLauncher.run(partitionedLocalActionCalculationJob, prepareJobParameters(jobParameters)));
+        return "Successfully started job execution with id = " + jobExecution.getId() + "\n";
     }
 
     @PostMapping("/start-partitioned-remote")
-    public String startPartitionedRemote() throws Exception {
-        prepareEmptyResultTable();
-        jobLauncher.run(partitionedRemoteActionCalculationJob, buildUniqueJobParameters());
-        return "Successfully started\n";
+    public String startPartitionedRemote(@RequestParam Map<String, String> jobParameters) throws Exception {
+        JobExecution jobExecution = launchExclusively(() -> jobLauncher.run(partitionedRemoteActionCalculationJob, prepareJobParameters(jobParameters)));
+        return "Successfully started job execution with id = " + jobExecution.getId() + "\n";
+    }
+
+    @PostMapping("/start-id-range-partitioned")
+    public String startIdRangePartitioned(@RequestParam Map<String, String> jobParameters) throws Exception {
+        JobExecution jobExecution = launchExclusively(() -> jobLauncher.run(idRangePartitionedActionCalculationJob, prepareJobParameters(jobParameters)));
+        return "Successfully started job execution with id = " + jobExecution.getId() + "\n";
+    }
+
+    @PostMapping("/start-remote-chunking")
+    public String startRemoteChunking(@RequestParam Map<String, String> jobParameters) throws Exception {
+        JobExecution jobExecution = launchExclusively(() -> jobLauncher.run(remoteChunkingActionCalculationJob, prepareJobParameters(jobParameters)));
+        return "Successfully started job execution with id = " + jobExecution.getId() + "\n";
     }
 
+    // Export does not touch the scores, so it neither needs the high-water mark of the calculations nor affects it
+    @PostMapping("/start-export")
+    public String startExport(@RequestParam("exportFile") String exportFile) throws Exception {
+        JobExecution jobExecution = jobLauncher.run(exportSessionActionsJob,
+                buildUniqueJobParameters(Map.of(EXPORT_FILE, exportFile)));
+        return "Successfully started job execution with id = " + jobExecution.getId() + "\n";
+    }
+
+    // Restarts the failed job execution with the same parameters, its steps continue from their last checkpoints.
+    // Jobs which could not continue without applying the session actions again are not restartable
+    @PostMapping("/restart")
+    public String restart(@RequestParam("jobExecutionId") long jobExecutionId) throws Exception {
+        JobExecution failedJobExecution = jobExplorer.getJobExecution(jobExecutionId);
+        if (failedJobExecution == null) {
+            throw new IllegalArgumentException("No job execution exist for job execution id = " + jobExecutionId);
+        }
+        String jobName = failedJobExecution.getJobInstance().getJobName();
+        Job job = Stream.concat(calculationJobs().stream(), Stream.of(exportSessionActionsJob))
+                .filter(candidate -> candidate.getName().equals(jobName))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No job with name '" + jobName + "' exist"));
+        if (!job.isRestartable()) {
+            throw new IllegalArgumentException("Job with name '" + jobName + "' could not be restarted, start it with '"
+                    + FULL_REBUILD + "=true' to recalculate the scores");
+        }
+        JobExecution jobExecution = launchExclusively(() -> {
+            if (calculationJobs().contains(job)) {
+                checkLastCalculationJobExecution(failedJobExecution);
+            }
+            createUserScoreCheckpointTable();
+            return jobLauncher.run(job, failedJobExecution.getJobParameters());
+        });
+        return "Successfully restarted job instance with id = " + failedJobExecution.getJobInstance().getInstanceId()
+                + " as job execution with id = " + jobExecution.getId() + "\n";
+    }
+
+    /**
+     * Starts the partition requested by the manager and responds with the capacity of this worker. Once all worker
+     * slots are busy, the partition is not started, and the response is 429 (Too Many Requests) with the capacity and
+     * the Retry-After header, so that the manager could dispatch the partition to another worker or retry later.
+     */
     @PostMapping("/start-worker")
-    public void startWorker(@RequestParam("jobExecutionId") long jobExecutionId,
-                            @RequestParam("stepExecutionId") long stepExecutionId,
-                            @RequestParam("stepName") String stepName) throws Exception {
+    public ResponseEntity<AdmissionControlledTaskExecutor.Capacity> startWorker(@RequestParam("jobExecutionId") long jobExecutionId,
+                                                                                @RequestParam("stepExecutionId") long stepExecutionId,
+                                                                                @RequestParam("stepName") String stepName,
+                                                                                @RequestParam(value = "managerBaseUrl", required = false) String managerBaseUrl) throws Exception {
         LOGGER.info("Worker endpoint is requested and about to start to execute the partition");
         LOGGER.info("Job execution id: " + jobExecutionId);
         LOGGER.info("Step execution id: " + stepExecutionId);
         LOGGER.info("Step name: " + stepName);
 
-        startWorkerPartitionExecutionAsync(jobExecutionId, stepExecutionId, stepName);
+        if (!startWorkerPartitionExecutionAsync(jobExecutionId, stepExecutionId, stepName, managerBaseUrl)) {
+            AdmissionControlledTaskExecutor.Capacity capacity = taskExecutor.capacity();
+            LOGGER.info("All " + capacity.slots() + " worker slots are busy, partition with step execution id = "
+                    + stepExecutionId + " is rejected");
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(capacity.retryAfterSeconds()))
+                    .body(capacity);
+        }
+        return ResponseEntity.ok(taskExecutor.capacity());
+    }
+
+    // Free worker slots, partitions running on this worker and its recent throughput, polled by the managers
+    @GetMapping("/worker-capacity")
+    public AdmissionControlledTaskExecutor.Capacity workerCapacity() {
+        return taskExecutor.capacity();
+    }
+
+    // Worker endpoint of the remote chunking job, applies the encoded chunk of session actions and acknowledges it
+    @PostMapping(value = "/process-chunk", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE,
+            produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public byte[] processChunk(@RequestBody byte[] chunk) {
+        return remoteChunkProcessor.process(chunk);
+    }
+
+    // Score of the user served from the cache, 404 if the user has no score
+    @GetMapping("/scores/{userId}")
+    public ResponseEntity<Map<String, Object>> score(@PathVariable("userId") long userId) {
+        return userScoreCache.getScore(userId)
+                .map(score -> {
+                    Map<String, Object> userScore = new LinkedHashMap<>();
+                    userScore.put("userId", userId);
+                    userScore.put("score", score);
+                    return ResponseEntity.ok(userScore);
+                })
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    // Scores of the given users (e.g. '/scores?userIds=1,2,3') by user id, users without a score are left out.
+    // Request with more user ids than allowed gets 400, so that a single request could not load too many users at once
+    @GetMapping("/scores")
+    public ResponseEntity<Map<Long, BigDecimal>> scores(@RequestParam("userIds") List<Long> userIds) {
+        if (userIds.size() > maxBulkUserIds) {
+            LOGGER.info("Bulk score request for " + userIds.size() + " users is rejected, at most " + maxBulkUserIds
+                    + " users are allowed");
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(userScoreCache.getScores(userIds));
+    }
+
+    /**
+     * Live progress of the job execution, taken from the counts the steps commit into the job repository: session
+     * actions read by every step (every partition for partitioned jobs) along with its throughput, and the estimated
+     * time to completion of the job. Number of session actions to read is estimated by the range of their ids.
+     */
+    @GetMapping("/job-executions/{jobExecutionId}/progress")
+    public Map<String, Object> jobExecutionProgress(@PathVariable("jobExecutionId") long jobExecutionId) {
+        JobExecution jobExecution = jobExplorer.getJobExecution(jobExecutionId);
+        if (jobExecution == null) {
+            throw new IllegalArgumentException("No job execution exist for job execution id = " + jobExecutionId);
+        }
+        return jobExecutionProgress(jobExecution, LocalDateTime.now());
+    }
+
+    static Map<String, Object> jobExecutionProgress(JobExecution jobExecution, LocalDateTime now) {
+        long readCount = 0;
+        List<Map<String, Object>> steps = new ArrayList<>();
+        for (StepExecution stepExecution : jobExecution.getStepExecutions()) {
+            // Managers of the partitions only sum up the counts of their partitions once they are finished
+            if (UserActionJobConfiguration.PARTITION_MANAGER_STEP_NAMES.contains(stepExecution.getStepName())) {
+                continue;
+            }
+            readCount += stepExecution.getReadCount();
+            Map<String, Object> step = new LinkedHashMap<>();
+            step.put("stepName", stepExecution.getStepName());
+            step.put("status", stepExecution.getStatus());
+            step.put("readCount", stepExecution.getReadCount());
+            step.put("writeCount", stepExecution.getWriteCount());
+            step.put("rowsPerSecond", rowsPerSecond(stepExecution.getReadCount(), stepExecution.getStartTime(),
+                    stepExecution.getEndTime() == null ? now : stepExecution.getEndTime()));
+            steps.add(step);
+        }
+
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("jobExecutionId", jobExecution.getId());
+        progress.put("jobName", jobExecution.getJobInstance().getJobName());
+        progress.put("status", jobExecution.getStatus());
+        progress.put("readCount", readCount);
+        if (jobExecution.getExecutionContext().containsKey(SessionActionHighWaterMarkListener.MAX_SESSION_ACTION_ID)) {
+            String afterSessionActionId = jobExecution.getJobParameters().getString(AFTER_SESSION_ACTION_ID);
+            long expectedReadCount = jobExecution.getExecutionContext().getLong(SessionActionHighWaterMarkListener.MAX_SESSION_ACTION_ID)
+                    - (afterSessionActionId == null ? 0 : Long.parseLong(afterSessionActionId));
+            progress.put("expectedReadCount", expectedReadCount);
+            double rowsPerSecond = rowsPerSecond(readCount, jobExecution.getStartTime(),
+                    jobExecution.getEndTime() == null ? now : jobExecution.getEndTime());
+            if (jobExecution.isRunning() && rowsPerSecond > 0) {
+                progress.put("estimatedSecondsToCompletion",
+                        Math.max(0, expectedReadCount - readCount) / rowsPerSecond);
+            }
+        }
+        progress.put("steps", steps);
+        return progress;
+    }
+
+    private static double rowsPerSecond(long rows, LocalDateTime startTime, LocalDateTime endTime) {
+        if (startTime == null) {
+            return 0;
+        }
+        long millis = Math.max(1, Duration.between(startTime, endTime).toMillis());
+        return rows * 1000d / millis;
     }
 
-    private void startWorkerPartitionExecutionAsync(long jobExecutionId, long stepExecutionId, String stepName) {
+    // Manager endpoint the workers report finished (either completed or failed) partitions to
+    @PostMapping("/partition-completed")
+    public void partitionCompleted(@RequestParam("stepExecutionId") long stepExecutionId) {
+        if (!partitionCompletionRegistry.complete(stepExecutionId)) {
+            LOGGER.warn("Partition with step execution id = " + stepExecutionId + " is reported, but nobody waits for it");
+        }
+    }
+
+    // Returns false if the partition is not started since all worker slots are busy
+    private boolean startWorkerPartitionExecutionAsync(long jobExecutionId, long stepExecutionId, String stepName,
+                                                       String managerBaseUrl) {
         StepExecution stepExecution = jobExplorer.getStepExecution(jobExecutionId, stepExecutionId);
         if (stepExecution == null) {
             throw new IllegalArgumentException("No step execution exist for job execution id = " + jobExecutionId +
@@ -111,7 +359,7 @@ public class ApplicationController {
             throw new IllegalArgumentException("No step with name '" + stepName + "' exist");
         }
 
-        taskExecutor.execute(() -> {
+        return taskExecutor.tryExecute(() -> {
             try {
                 step.execute(stepExecution);
 
@@ -123,10 +371,154 @@ public class ApplicationController {
                 stepExecution.addFailureException(e);
                 stepExecution.setStatus(BatchStatus.FAILED);
                 jobRepository.update(stepExecution);
+            } finally {
+                taskExecutor.recordProcessedItems(stepExecution.getReadCount());
+                if (managerBaseUrl != null) {
+                    reportPartitionCompleted(managerBaseUrl, stepExecutionId);
+                }
+                // Job listener refreshes the cache of the manager only
+                userScoreCache.refresh();
             }
         });
     }
 
+    // Manager falls back to checking the job repository in case the report is lost, so failures are only logged
+    private void reportPartitionCompleted(String managerBaseUrl, long stepExecutionId) {
+        HttpRequest request = HttpRequest
+                .newBuilder(URI.create(managerBaseUrl + PARTITION_COMPLETED_ENDPOINT + "?stepExecutionId=" + stepExecutionId))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+        HTTP_CLIENT.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, e) -> {
+                    if (e != null || response.statusCode() != 200) {
+                        LOGGER.warn("Failed to report partition with step execution id = " + stepExecutionId
+                                + " completed to the manager " + managerBaseUrl, e);
+                    }
+                });
+    }
+
+
+    /**
+     * Launches the calculation job holding the advisory lock of the source database, so that the launches on all nodes
+     * go one by one. Launcher stores the job execution before it returns, so the next launch finds it running instead
+     * of starting from the same high-water mark.
+     */
+    private JobExecution launchExclusively(Callable<JobExecution> launch) throws Exception {
+        try (Connection connection = sourceDataSource.getConnection()) {
+            executeAdvisoryLockQuery(connection, SourceDataBaseUtils.ADVISORY_LOCK_QUERY);
+            try {
+                return launch.call();
+            } finally {
+                executeAdvisoryLockQuery(connection, SourceDataBaseUtils.ADVISORY_UNLOCK_QUERY);
+            }
+        }
+    }
+
+    private static void executeAdvisoryLockQuery(Connection connection, String query) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setLong(1, LAUNCH_LOCK_KEY);
+            statement.executeQuery().close();
+        }
+    }
+
+    // Applies new session actions to the existing scores, unless full rebuild is requested or there is no previous run.
+    // Full rebuild drops the tables the running job writes to, so it is refused while any calculation job is running
+    private JobParameters prepareJobParameters(Map<String, String> requestParameters) {
+        checkNoCalculationJobRunning();
+        Map<String, String> jobParameters = new LinkedHashMap<>(requestParameters);
+        Long lastProcessedSessionActionId = Boolean.parseBoolean(jobParameters.get(FULL_REBUILD))
+                ? null
+                : findLastProcessedSessionActionId();
+        if (lastProcessedSessionActionId == null) {
+            prepareEmptyResultTable();
+        } else {
+            jobParameters.put(AFTER_SESSION_ACTION_ID, lastProcessedSessionActionId.toString());
+        }
+        createUserScoreCheckpointTable();
+        return buildUniqueJobParameters(jobParameters);
+    }
+
+    /**
+     * Failed calculation job is restarted only if no calculation job is running, and no calculation job has been
+     * started after it, since the restarted job would apply its range of session actions on top of the scores
+     * calculated by the later one
+     */
+    private void checkLastCalculationJobExecution(JobExecution failedJobExecution) {
+        checkNoCalculationJobRunning();
+        JobExecution lastJobExecution = findLastCalculationJobExecution();
+        if (lastJobExecution == null
+                || lastJobExecution.getJobInstance().getInstanceId() != failedJobExecution.getJobInstance().getInstanceId()) {
+            throw new IllegalStateException("Job execution with id = " + failedJobExecution.getId()
+                    + " is not the last calculation job execution, the scores have been calculated by the job execution with id = "
+                    + (lastJobExecution == null ? null : lastJobExecution.getId()) + " since");
+        }
+    }
+
+    private void checkNoCalculationJobRunning() {
+        for (Job job : calculationJobs()) {
+            Set<JobExecution> runningJobExecutions = jobExplorer.findRunningJobExecutions(job.getName());
+            if (!runningJobExecutions.isEmpty()) {
+                throw new IllegalStateException("Calculation job execution with id = "
+                        + runningJobExecutions.iterator().next().getId() + " is still running");
+            }
+        }
+    }
+
+    // Latest execution of all calculation jobs, as all of them write into the same result table
+    private JobExecution findLastCalculationJobExecution() {
+        JobExecution lastJobExecution = null;
+        for (Job job : calculationJobs()) {
+            for (JobInstance jobInstance : jobExplorer.getJobInstances(job.getName(), 0, 1)) {
+                JobExecution jobExecution = jobExplorer.getLastJobExecution(jobInstance);
+                if (jobExecution != null && (lastJobExecution == null
+                        || jobExecution.getCreateTime().isAfter(lastJobExecution.getCreateTime()))) {
+                    lastJobExecution = jobExecution;
+                }
+            }
+        }
+        return lastJobExecution;
+    }
+
+    // High-water mark of the latest calculation job
+    private Long findLastProcessedSessionActionId() {
+        JobExecution lastJobExecution = findLastCalculationJobExecution();
+        if (lastJobExecution == null) {
+            return null;
+        }
+        // Scores could be partially updated by the failed job, so applying the same actions again would break them
+        if (lastJobExecution.getStatus() != BatchStatus.COMPLETED) {
+            throw new IllegalStateException("Last calculation job execution with id = " + lastJobExecution.getId()
+                    + " finished with status " + lastJobExecution.getStatus() + ", "
+                    + (isRestartable(lastJobExecution) ? "restart it, or " : "") + "start the job with '"
+                    + FULL_REBUILD + "=true' to recalculate the scores");
+        }
+        if (!lastJobExecution.getExecutionContext().containsKey(SessionActionHighWaterMarkListener.MAX_SESSION_ACTION_ID)) {
+            LOGGER.info("Last calculation job execution has no high-water mark, so the scores are recalculated");
+            return null;
+        }
+        return lastJobExecution.getExecutionContext().getLong(SessionActionHighWaterMarkListener.MAX_SESSION_ACTION_ID);
+    }
+
+    private boolean isRestartable(JobExecution jobExecution) {
+        String jobName = jobExecution.getJobInstance().getJobName();
+        return calculationJobs().stream().anyMatch(job -> job.getName().equals(jobName) && job.isRestartable());
+    }
+
+    // Jobs which calculate the user scores, in contrast to the export
+    private List<Job> calculationJobs() {
+        return List.of(simpleActionCalculationJob, accumulatingActionCalculationJob, columnarActionCalculationJob,
+                multiThreadedActionCalculationJob, partitionedLocalActionCalculationJob, partitionedRemoteActionCalculationJob,
+                idRangePartitionedActionCalculationJob, remoteChunkingActionCalculationJob);
+    }
+
+    // Created by the manager before the steps start, so the workers and partitions never race to create it
+    private void createUserScoreCheckpointTable() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(sourceDataSource);
+        jdbcTemplate.update(SourceDataBaseUtils
+                .constructCreateUserScoreCheckpointTableQuery(UserScoreUpdate.USER_SCORE_CHECKPOINT_TABLE_NAME));
+        jdbcTemplate.update(SourceDataBaseUtils
+                .constructAddLastUserIdToUserScoreCheckpointTableQuery(UserScoreUpdate.USER_SCORE_CHECKPOINT_TABLE_NAME));
+    }
 
     private void prepareEmptyResultTable() {
         JdbcTemplate jdbcTemplate = new JdbcTemplate(sourceDataSource);
@@ -134,9 +526,11 @@ public class ApplicationController {
         SourceDataBaseUtils.createUserScoreTable(jdbcTemplate, UserScoreUpdate.USER_SCORE_TABLE_NAME);
     }
 
-    private JobParameters buildUniqueJobParameters() {
-        return new JobParametersBuilder()
-                .addString(UUID.randomUUID().toString(), UUID.randomUUID().toString())
-                .toJobParameters();
+    // Request parameters (e.g. 'readerPageSize') are passed to the job as job parameters
+    private JobParameters buildUniqueJobParameters(Map<String, String> jobParameters) {
+        JobParametersBuilder jobParametersBuilder = new JobParametersBuilder()
+                .addString(UUID.randomUUID().toString(), UUID.randomUUID().toString());
+        jobParameters.forEach(jobParametersBuilder::addString);
+        return jobParametersBuilder.toJobParameters();
     }
 }
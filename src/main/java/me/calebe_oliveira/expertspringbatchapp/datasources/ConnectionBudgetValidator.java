@@ -0,0 +1,63 @@
+package me.calebe_oliveira.expertspringbatchapp.datasources;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+
+/**
+ * Sizes the connection pool to the number of connections the application needs at most, unless the size is
+ * configured explicitly, and rejects the configuration on start in case the explicit size is smaller than needed,
+ * or the database is not able to provide that many connections on top of the ones it already serves.
+ */
+public class ConnectionBudgetValidator implements InitializingBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionBudgetValidator.class);
+    // Pool size used until the validator sizes the pool according to the grid size and threads of the application
+    public static final int DEFAULT_POOL_SIZE = 10;
+
+    private final String poolName;
+    private final DataSource dataSource;
+    private final int configuredPoolSize;
+    private final int requiredConnections;
+    private final String availableConnectionsQuery;
+
+    /**
+     * @param configuredPoolSize        explicitly configured pool size, or 0 to size the pool automatically
+     * @param availableConnectionsQuery query of the number of connections the database could accept on top of
+     *                                  the currently opened ones
+     */
+    public ConnectionBudgetValidator(String poolName, DataSource dataSource, int configuredPoolSize,
+                                     int requiredConnections, String availableConnectionsQuery) {
+        this.poolName = poolName;
+        this.dataSource = dataSource;
+        this.configuredPoolSize = configuredPoolSize;
+        this.requiredConnections = requiredConnections;
+        this.availableConnectionsQuery = availableConnectionsQuery;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws SQLException {
+        if (configuredPoolSize > 0 && configuredPoolSize < requiredConnections) {
+            throw new IllegalStateException("Misconfiguration: " + poolName + " pool size " + configuredPoolSize
+                    + " is smaller than " + requiredConnections + " connections required by configured grid size and threads");
+        }
+        int poolSize = configuredPoolSize > 0 ? configuredPoolSize : requiredConnections;
+
+        HikariDataSource hikariDataSource = dataSource.unwrap(HikariDataSource.class);
+        hikariDataSource.getHikariConfigMXBean().setMaximumPoolSize(poolSize);
+
+        Integer availableConnections = new JdbcTemplate(dataSource).queryForObject(availableConnectionsQuery, Integer.class);
+        // Connections already opened by the pool itself are counted by the database as used ones
+        int openedConnections = hikariDataSource.getHikariPoolMXBean() == null
+                ? 0 : hikariDataSource.getHikariPoolMXBean().getTotalConnections();
+        if (availableConnections == null || availableConnections + openedConnections < poolSize) {
+            throw new IllegalStateException("Misconfiguration: " + poolName + " database accepts only "
+                    + availableConnections + " more connections, while the pool needs " + (poolSize - openedConnections) + " more");
+        }
+        LOGGER.info("Connection pool " + poolName + " is sized to " + poolSize + " connections");
+    }
+}
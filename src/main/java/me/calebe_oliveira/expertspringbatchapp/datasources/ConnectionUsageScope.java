@@ -0,0 +1,104 @@
+package me.calebe_oliveira.expertspringbatchapp.datasources;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Usage of the connection pools recorded by {@link UsageTrackingDataSource} on behalf of a step: number of connections
+ * acquired, time spent waiting for them, time they were held, timeouts and statements executed. The scope started by
+ * the step thread is inherited by the threads it starts (e.g. the prefetch thread of the reader), and is passed to
+ * the pooled threads (e.g. the stripes of the multithreaded step) by {@link #propagate}, so all of them count towards
+ * the step. See {@link PoolUsageStepListener}.
+ */
+public final class ConnectionUsageScope {
+    private static final InheritableThreadLocal<ConnectionUsageScope> CURRENT_SCOPE = new InheritableThreadLocal<>();
+
+    private final Map<String, PoolUsage> poolUsages = new ConcurrentHashMap<>();
+
+    private ConnectionUsageScope() {
+    }
+
+    // Starts recording the usage of the current thread, and the threads it starts from now on, from scratch
+    public static ConnectionUsageScope start() {
+        ConnectionUsageScope scope = new ConnectionUsageScope();
+        CURRENT_SCOPE.set(scope);
+        return scope;
+    }
+
+    // Scope of the current thread, or null if the thread is not recording its usage
+    public static ConnectionUsageScope current() {
+        return CURRENT_SCOPE.get();
+    }
+
+    public static void end() {
+        CURRENT_SCOPE.remove();
+    }
+
+    /**
+     * Task decorator, which runs the task in the scope of the thread which submits it, e.g. for the executors reusing
+     * their threads across the steps
+     */
+    public static Runnable propagate(Runnable task) {
+        ConnectionUsageScope scope = CURRENT_SCOPE.get();
+        return () -> {
+            ConnectionUsageScope previousScope = CURRENT_SCOPE.get();
+            CURRENT_SCOPE.set(scope);
+            try {
+                task.run();
+            } finally {
+                CURRENT_SCOPE.set(previousScope);
+            }
+        };
+    }
+
+    // Usage of the pool of the given name, which is empty in case the pool has not been used in the scope
+    public PoolUsage getUsage(String poolName) {
+        return poolUsages.computeIfAbsent(poolName, name -> new PoolUsage());
+    }
+
+    public static class PoolUsage {
+        private final LongAdder acquisitions = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+        private final LongAdder usageNanos = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder statements = new LongAdder();
+
+        void recordAcquisition(long elapsedNanos) {
+            acquisitions.increment();
+            waitNanos.add(elapsedNanos);
+        }
+
+        void recordUsage(long elapsedNanos) {
+            usageNanos.add(elapsedNanos);
+        }
+
+        void recordTimeout() {
+            timeouts.increment();
+        }
+
+        void recordStatement() {
+            statements.increment();
+        }
+
+        public long getAcquisitions() {
+            return acquisitions.sum();
+        }
+
+        public long getWaitMillis() {
+            return waitNanos.sum() / 1_000_000;
+        }
+
+        public long getUsageMillis() {
+            return usageNanos.sum() / 1_000_000;
+        }
+
+        public long getTimeouts() {
+            return timeouts.sum();
+        }
+
+        public long getStatements() {
+            return statements.sum();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package me.calebe_oliveira.expertspringbatchapp.datasources;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.ExecutionContext;
+
+import java.util.List;
+
+/**
+ * Step listener that puts the usage of connection pools by the step, including the threads it starts, into the step
+ * execution context ('<pool>.connectionAcquisitions', '<pool>.connectionWaitMillis', '<pool>.connectionUsageMillis' and
+ * '<pool>.connectionTimeouts'), and logs it once the step is finished. Number of job repository statements executed by
+ * the step is put there as well ('repositoryStatements'), which excludes the first and the last updates of the step
+ * execution made outside the listener.
+ */
+public class PoolUsageStepListener implements StepExecutionListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PoolUsageStepListener.class);
+
+    private final List<UsageTrackingDataSource> dataSources;
+    private final UsageTrackingDataSource repositoryDataSource;
+
+    public PoolUsageStepListener(List<UsageTrackingDataSource> dataSources, UsageTrackingDataSource repositoryDataSource) {
+        this.dataSources = dataSources;
+        this.repositoryDataSource = repositoryDataSource;
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        ConnectionUsageScope.start();
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        ConnectionUsageScope scope = ConnectionUsageScope.current();
+        if (scope == null) {
+            return stepExecution.getExitStatus();
+        }
+        ExecutionContext executionContext = stepExecution.getExecutionContext();
+        for (UsageTrackingDataSource dataSource : dataSources) {
+            String poolName = dataSource.getPoolName();
+            ConnectionUsageScope.PoolUsage poolUsage = scope.getUsage(poolName);
+            executionContext.putLong(poolName + ".connectionAcquisitions", poolUsage.getAcquisitions());
+            executionContext.putLong(poolName + ".connectionWaitMillis", poolUsage.getWaitMillis());
+            executionContext.putLong(poolName + ".connectionUsageMillis", poolUsage.getUsageMillis());
+            executionContext.putLong(poolName + ".connectionTimeouts", poolUsage.getTimeouts());
+            LOGGER.info("Step " + stepExecution.getStepName() + " acquired " + poolUsage.getAcquisitions()
+                    + " connections from " + poolName + " pool, waited for them " + poolUsage.getWaitMillis()
+                    + " ms and held them " + poolUsage.getUsageMillis() + " ms in total");
+        }
+        long repositoryStatements = scope.getUsage(repositoryDataSource.getPoolName()).getStatements();
+        executionContext.putLong("repositoryStatements", repositoryStatements);
+        LOGGER.info("Step " + stepExecution.getStepName() + " executed " + repositoryStatements
+                + " job repository statements");
+        ConnectionUsageScope.end();
+        return stepExecution.getExitStatus();
+    }
+}
@@ -0,0 +1,144 @@
+package me.calebe_oliveira.expertspringbatchapp.datasources;
+
+import org.springframework.jdbc.datasource.ConnectionProxy;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Data source that records the usage of the pool it wraps by the steps: connections acquired, time spent waiting for
+ * them and time they were held, timeouts, and optionally statements executed through its connections, e.g. to measure
+ * the traffic of the job repository. Usage is recorded into the {@link ConnectionUsageScope} of the thread which
+ * acquired the connection, so the threads started by the step count towards it as well. Statements are counted in
+ * total too, every execute call once, including the execution of a whole JDBC batch.
+ */
+public class UsageTrackingDataSource extends DelegatingDataSource implements Closeable {
+    private final String poolName;
+    private final boolean countStatements;
+    private final LongAdder statementCount = new LongAdder();
+
+    /**
+     * @param countStatements whether to count the statements, which wraps every statement of the connection, so it is
+     *                        left out for the source database, which executes the statements in the hot loop
+     */
+    public UsageTrackingDataSource(String poolName, DataSource targetDataSource, boolean countStatements) {
+        super(targetDataSource);
+        this.poolName = poolName;
+        this.countStatements = countStatements;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        ConnectionUsageScope.PoolUsage poolUsage = currentPoolUsage();
+        long startTime = System.nanoTime();
+        try {
+            return trackingConnection(super.getConnection(), poolUsage, startTime);
+        } catch (SQLTransientConnectionException e) {
+            recordTimeout(poolUsage);
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        ConnectionUsageScope.PoolUsage poolUsage = currentPoolUsage();
+        long startTime = System.nanoTime();
+        try {
+            return trackingConnection(super.getConnection(username, password), poolUsage, startTime);
+        } catch (SQLTransientConnectionException e) {
+            recordTimeout(poolUsage);
+            throw e;
+        }
+    }
+
+    public String getPoolName() {
+        return poolName;
+    }
+
+    // Number of statements executed through the data source since it was created
+    public long getStatementCount() {
+        return statementCount.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (obtainTargetDataSource() instanceof Closeable closeable) {
+            closeable.close();
+        }
+    }
+
+    private ConnectionUsageScope.PoolUsage currentPoolUsage() {
+        ConnectionUsageScope scope = ConnectionUsageScope.current();
+        return scope == null ? null : scope.getUsage(poolName);
+    }
+
+    private static void recordTimeout(ConnectionUsageScope.PoolUsage poolUsage) {
+        if (poolUsage != null) {
+            poolUsage.recordTimeout();
+        }
+    }
+
+    private Connection trackingConnection(Connection connection, ConnectionUsageScope.PoolUsage poolUsage, long startTime) {
+        long acquiredTime = System.nanoTime();
+        if (poolUsage != null) {
+            poolUsage.recordAcquisition(acquiredTime - startTime);
+        }
+        boolean[] closed = new boolean[1];
+        return (Connection) Proxy.newProxyInstance(ConnectionProxy.class.getClassLoader(),
+                new Class<?>[]{ConnectionProxy.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "getTargetConnection" -> connection;
+                    case "close" -> {
+                        // Connection is used by a single thread at a time, so closing it twice is the only concern
+                        if (!closed[0] && poolUsage != null) {
+                            poolUsage.recordUsage(System.nanoTime() - acquiredTime);
+                        }
+                        closed[0] = true;
+                        yield invoke(connection, method, args);
+                    }
+                    case "createStatement" -> countingStatement(invoke(connection, method, args), Statement.class, poolUsage);
+                    case "prepareStatement" -> countingStatement(invoke(connection, method, args), PreparedStatement.class, poolUsage);
+                    case "prepareCall" -> countingStatement(invoke(connection, method, args), CallableStatement.class, poolUsage);
+                    default -> invoke(connection, method, args);
+                });
+    }
+
+    private Object countingStatement(Object statement, Class<? extends Statement> statementType,
+                                     ConnectionUsageScope.PoolUsage poolUsage) {
+        if (!countStatements) {
+            return statement;
+        }
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getName().startsWith("execute")) {
+                statementCount.increment();
+                if (poolUsage != null) {
+                    poolUsage.recordStatement();
+                }
+            }
+            return invoke(statement, method, args);
+        };
+        return Proxy.newProxyInstance(statementType.getClassLoader(), new Class<?>[]{statementType}, handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package me.calebe_oliveira.expertspringbatchapp.executors;
+
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Task executor that runs at most the given number of tasks at the same time, and rejects the tasks above that
+ * instead of queueing them, so that the caller could retry later or send them to another node. Tasks are run by
+ * the delegate, e.g. the one of virtual threads bounded by the connection budget.
+ * <p>
+ * Items processed by the tasks and the time the finished tasks took are recorded over the last minute, which gives
+ * the recent throughput, and the hint of when the next slot is expected to be freed.
+ */
+public class AdmissionControlledTaskExecutor implements TaskExecutor {
+    private static final long RECENT_WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final long MIN_RETRY_AFTER_SECONDS = 1;
+    private static final long MAX_RETRY_AFTER_SECONDS = 60;
+
+    private final TaskExecutor delegate;
+    private final int slots;
+    private final Semaphore freeSlots;
+    private final AtomicLong completedTasks = new AtomicLong();
+    // Recent (time, processed items) and (time, task duration) samples, guarded by this executor
+    private final Deque<long[]> recentItems = new ArrayDeque<>();
+    private final Deque<long[]> recentDurations = new ArrayDeque<>();
+
+    public AdmissionControlledTaskExecutor(TaskExecutor delegate, int slots) {
+        if (slots <= 0) {
+            throw new IllegalArgumentException("Number of slots should be positive, but was " + slots);
+        }
+        this.delegate = delegate;
+        this.slots = slots;
+        this.freeSlots = new Semaphore(slots);
+    }
+
+    // Runs the task if there is a free slot, and returns false otherwise
+    public boolean tryExecute(Runnable task) {
+        if (!freeSlots.tryAcquire()) {
+            return false;
+        }
+        try {
+            delegate.execute(() -> {
+                long startTime = System.nanoTime();
+                try {
+                    task.run();
+                } finally {
+                    completed(startTime);
+                    freeSlots.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            freeSlots.release();
+            throw e;
+        }
+        return true;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (!tryExecute(task)) {
+            throw new TaskRejectedException("All " + slots + " slots are busy");
+        }
+    }
+
+    // Called by the tasks, e.g. with the number of items read by the partition
+    public synchronized void recordProcessedItems(long items) {
+        long now = System.nanoTime();
+        recentItems.add(new long[]{now, items});
+        evictOldSamples(now);
+    }
+
+    private synchronized void completed(long startTime) {
+        long now = System.nanoTime();
+        completedTasks.incrementAndGet();
+        recentDurations.add(new long[]{now, now - startTime});
+        evictOldSamples(now);
+    }
+
+    private void evictOldSamples(long now) {
+        while (!recentItems.isEmpty() && now - recentItems.peekFirst()[0] > RECENT_WINDOW_NANOS) {
+            recentItems.pollFirst();
+        }
+        while (!recentDurations.isEmpty() && now - recentDurations.peekFirst()[0] > RECENT_WINDOW_NANOS) {
+            recentDurations.pollFirst();
+        }
+    }
+
+    public synchronized Capacity capacity() {
+        evictOldSamples(System.nanoTime());
+        long items = recentItems.stream().mapToLong(sample -> sample[1]).sum();
+        double itemsPerSecond = items / (double) TimeUnit.NANOSECONDS.toSeconds(RECENT_WINDOW_NANOS);
+        int free = freeSlots.availablePermits();
+        return new Capacity(slots, free, slots - free, completedTasks.get(), itemsPerSecond, retryAfterSeconds());
+    }
+
+    // One of the running tasks is expected to finish in the average task duration divided by the number of slots
+    private long retryAfterSeconds() {
+        if (recentDurations.isEmpty()) {
+            return MIN_RETRY_AFTER_SECONDS;
+        }
+        double averageNanos = recentDurations.stream().mapToLong(sample -> sample[1]).average().orElse(0);
+        long seconds = (long) Math.ceil(averageNanos / slots / TimeUnit.SECONDS.toNanos(1));
+        return Math.max(MIN_RETRY_AFTER_SECONDS, Math.min(MAX_RETRY_AFTER_SECONDS, seconds));
+    }
+
+    /**
+     * @param recentItemsPerSecond items processed per second over the last minute
+     * @param retryAfterSeconds    time after which some slot is expected to be free
+     */
+    public record Capacity(int slots, int freeSlots, int activeTasks, long completedTasks, double recentItemsPerSecond,
+                           long retryAfterSeconds) {
+    }
+}
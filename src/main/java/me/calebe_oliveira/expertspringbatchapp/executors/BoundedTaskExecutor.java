@@ -0,0 +1,73 @@
+package me.calebe_oliveira.expertspringbatchapp.executors;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Task executor that runs at most the given number of tasks at the same time, other tasks wait for their turn.
+ * Either runs tasks on a work-stealing pool of platform threads, which size is the concurrency, or starts a virtual
+ * thread per task, which blocks on the semaphore (e.g. the one sized to the connection budget) before running it.
+ * The semaphore could be shared between several executors, to bound the concurrency of all of them together.
+ */
+public class BoundedTaskExecutor implements TaskExecutor, DisposableBean {
+    private final TaskExecutor delegate;
+    private final ExecutorService pool;
+    private final Semaphore semaphore;
+    private final int concurrency;
+
+    private BoundedTaskExecutor(TaskExecutor delegate, ExecutorService pool, Semaphore semaphore, int concurrency) {
+        this.delegate = delegate;
+        this.pool = pool;
+        this.semaphore = semaphore;
+        this.concurrency = concurrency;
+    }
+
+    public static BoundedTaskExecutor workStealing(int threadCount) {
+        ExecutorService pool = Executors.newWorkStealingPool(threadCount);
+        return new BoundedTaskExecutor(pool::execute, pool, null, threadCount);
+    }
+
+    public static BoundedTaskExecutor virtualThreads(String threadNamePrefix, Semaphore semaphore) {
+        SimpleAsyncTaskExecutor virtualThreadExecutor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        virtualThreadExecutor.setVirtualThreads(true);
+        return new BoundedTaskExecutor(virtualThreadExecutor, null, semaphore, semaphore.availablePermits());
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (semaphore == null) {
+            delegate.execute(task);
+            return;
+        }
+        delegate.execute(() -> {
+            try {
+                semaphore.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the permit to run the task", e);
+            }
+            try {
+                task.run();
+            } finally {
+                semaphore.release();
+            }
+        });
+    }
+
+    // Maximum number of tasks running at the same time
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    @Override
+    public void destroy() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package me.calebe_oliveira.expertspringbatchapp.listeners;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import me.calebe_oliveira.expertspringbatchapp.partioners.SessionActionPartitioner;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.ItemProcessListener;
+import org.springframework.batch.core.ItemReadListener;
+import org.springframework.batch.core.ItemWriteListener;
+import org.springframework.batch.core.SkipListener;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.scope.context.StepContext;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.batch.item.Chunk;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listener that records the metrics of the calculation steps, tagged by job, step and partition index ('none' for
+ * the steps which are not partitions):
+ * <ul>
+ *     <li>'calculation.item.read' and 'calculation.item.process' - latency of reading and processing a single item</li>
+ *     <li>'calculation.chunk.write' - latency of writing a chunk</li>
+ *     <li>'calculation.chunk.commit' - time from the end of the write till the chunk is committed, including
+ *     the checkpoint of the step execution</li>
+ *     <li>'calculation.chunk' - latency of the whole chunk, the only timer recorded by the tasklet steps</li>
+ *     <li>'calculation.items.read' and 'calculation.items.written' - counters of committed items, which rate is
+ *     the throughput of the step</li>
+ *     <li>'calculation.item.skips' (tagged by phase) and 'calculation.chunk.rollbacks' - counters</li>
+ * </ul>
+ * Meters of the step execution are created once the step starts, so recording does not look them up by tags.
+ */
+public class CalculationMetricsListener implements StepExecutionListener, ChunkListener,
+        ItemReadListener<Object>, ItemProcessListener<Object, Object>, ItemWriteListener<Object>, SkipListener<Object, Object> {
+    private static final String NO_PARTITION = "none";
+
+    private final MeterRegistry meterRegistry;
+    private final Map<Long, StepMeters> stepMeters = new ConcurrentHashMap<>();
+    // Start of the currently measured stage of the thread, threads of the step never measure two stages at once
+    private final ThreadLocal<long[]> stageStartTimes = ThreadLocal.withInitial(() -> new long[Stage.values().length]);
+
+    public CalculationMetricsListener(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        Object partitionIndex = stepExecution.getExecutionContext().get(SessionActionPartitioner.PARTITION_INDEX);
+        Tags tags = Tags.of("job", stepExecution.getJobExecution().getJobInstance().getJobName(),
+                "step", stepExecution.getStepName().split(":")[0],
+                "partition", partitionIndex == null ? NO_PARTITION : partitionIndex.toString());
+        stepMeters.put(stepExecution.getId(), new StepMeters(meterRegistry, tags));
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        stepMeters.remove(stepExecution.getId());
+        return stepExecution.getExitStatus();
+    }
+
+    @Override
+    public void beforeChunk(ChunkContext context) {
+        start(Stage.CHUNK);
+    }
+
+    @Override
+    public void afterChunk(ChunkContext context) {
+        StepMeters meters = meters(context.getStepContext());
+        if (meters == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        long[] startTimes = stageStartTimes.get();
+        meters.chunk.record(now - startTimes[Stage.CHUNK.ordinal()], TimeUnit.NANOSECONDS);
+        meters.countCommittedItems(context.getStepContext().getStepExecution());
+        // Commit is measured for chunk oriented steps only, since tasklet steps do not report the end of the write
+        if (startTimes[Stage.COMMIT.ordinal()] != 0) {
+            meters.commit.record(now - startTimes[Stage.COMMIT.ordinal()], TimeUnit.NANOSECONDS);
+            startTimes[Stage.COMMIT.ordinal()] = 0;
+        }
+    }
+
+    @Override
+    public void afterChunkError(ChunkContext context) {
+        stageStartTimes.get()[Stage.COMMIT.ordinal()] = 0;
+        StepMeters meters = meters(context.getStepContext());
+        if (meters != null) {
+            meters.rollbacks.increment();
+        }
+    }
+
+    @Override
+    public void beforeRead() {
+        start(Stage.READ);
+    }
+
+    @Override
+    public void afterRead(Object item) {
+        StepMeters meters = currentMeters();
+        if (meters != null) {
+            meters.read.record(elapsed(Stage.READ), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void beforeProcess(Object item) {
+        start(Stage.PROCESS);
+    }
+
+    @Override
+    public void afterProcess(Object item, Object result) {
+        StepMeters meters = currentMeters();
+        if (meters != null) {
+            meters.process.record(elapsed(Stage.PROCESS), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void beforeWrite(Chunk<?> items) {
+        start(Stage.WRITE);
+    }
+
+    @Override
+    public void afterWrite(Chunk<?> items) {
+        StepMeters meters = currentMeters();
+        if (meters != null) {
+            meters.write.record(elapsed(Stage.WRITE), TimeUnit.NANOSECONDS);
+        }
+        start(Stage.COMMIT);
+    }
+
+    @Override
+    public void onSkipInRead(Throwable t) {
+        countSkip("read");
+    }
+
+    @Override
+    public void onSkipInProcess(Object item, Throwable t) {
+        countSkip("process");
+    }
+
+    @Override
+    public void onSkipInWrite(Object item, Throwable t) {
+        countSkip("write");
+    }
+
+    private void countSkip(String phase) {
+        StepMeters meters = currentMeters();
+        if (meters != null) {
+            meterRegistry.counter("calculation.item.skips", meters.tags.and("phase", phase)).increment();
+        }
+    }
+
+    private void start(Stage stage) {
+        stageStartTimes.get()[stage.ordinal()] = System.nanoTime();
+    }
+
+    private long elapsed(Stage stage) {
+        return System.nanoTime() - stageStartTimes.get()[stage.ordinal()];
+    }
+
+    private StepMeters currentMeters() {
+        return meters(StepSynchronizationManager.getContext());
+    }
+
+    private StepMeters meters(StepContext stepContext) {
+        return stepContext == null ? null : stepMeters.get(stepContext.getStepExecution().getId());
+    }
+
+    private enum Stage {
+        READ, PROCESS, WRITE, COMMIT, CHUNK
+    }
+
+    private static final class StepMeters {
+        private final Tags tags;
+        private final Timer read;
+        private final Timer process;
+        private final Timer write;
+        private final Timer commit;
+        private final Timer chunk;
+        private final Counter itemsRead;
+        private final Counter itemsWritten;
+        private final Counter rollbacks;
+        private long committedReadCount;
+        private long committedWriteCount;
+
+        private StepMeters(MeterRegistry meterRegistry, Tags tags) {
+            this.tags = tags;
+            this.read = timer(meterRegistry, "calculation.item.read", tags);
+            this.process = timer(meterRegistry, "calculation.item.process", tags);
+            this.write = timer(meterRegistry, "calculation.chunk.write", tags);
+            this.commit = timer(meterRegistry, "calculation.chunk.commit", tags);
+            this.chunk = timer(meterRegistry, "calculation.chunk", tags);
+            this.itemsRead = meterRegistry.counter("calculation.items.read", tags);
+            this.itemsWritten = meterRegistry.counter("calculation.items.written", tags);
+            this.rollbacks = meterRegistry.counter("calculation.chunk.rollbacks", tags);
+        }
+
+        // Counted by the step execution, so that the tasklet steps, which do not report items, are counted too
+        private void countCommittedItems(StepExecution stepExecution) {
+            itemsRead.increment(stepExecution.getReadCount() - committedReadCount);
+            itemsWritten.increment(stepExecution.getWriteCount() - committedWriteCount);
+            committedReadCount = stepExecution.getReadCount();
+            committedWriteCount = stepExecution.getWriteCount();
+        }
+
+        private static Timer timer(MeterRegistry meterRegistry, String name, Tags tags) {
+            return Timer.builder(name).tags(tags).publishPercentileHistogram().register(meterRegistry);
+        }
+    }
+}
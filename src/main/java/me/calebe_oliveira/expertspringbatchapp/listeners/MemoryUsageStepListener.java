@@ -0,0 +1,101 @@
+package me.calebe_oliveira.expertspringbatchapp.listeners;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.ExecutionContext;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Step listener that puts the number of garbage collections, time spent in them and the peak heap usage during
+ * the step (sum of the peaks of heap memory pools) into the step execution context ('gcCount', 'gcMillis' and
+ * 'peakHeapBytes'), and logs them once the step is finished. Collections and heap are shared by the whole JVM,
+ * so the numbers are meaningful when a single step runs at a time, e.g. to compare the calculation modes on the same data.
+ * <p>
+ * Bytes allocated by the step thread are recorded as well ('allocatedBytes', 'allocatedBytesPerMillionRows'), which
+ * covers the whole step for single thread steps only, and is left out when the JVM does not count allocations.
+ */
+public class MemoryUsageStepListener implements StepExecutionListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MemoryUsageStepListener.class);
+    public static final String GC_COUNT = "gcCount";
+    public static final String GC_MILLIS = "gcMillis";
+    public static final String PEAK_HEAP_BYTES = "peakHeapBytes";
+    public static final String ALLOCATED_BYTES = "allocatedBytes";
+    public static final String ALLOCATED_BYTES_PER_MILLION_ROWS = "allocatedBytesPerMillionRows";
+    private static final String GC_COUNT_AT_START = "gcCountAtStart";
+    private static final String GC_MILLIS_AT_START = "gcMillisAtStart";
+    private static final String ALLOCATED_BYTES_AT_START = "allocatedBytesAtStart";
+    private static final long ALLOCATION_NOT_COUNTED = -1;
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        ExecutionContext executionContext = stepExecution.getExecutionContext();
+        executionContext.putLong(GC_COUNT_AT_START, gcCount());
+        executionContext.putLong(GC_MILLIS_AT_START, gcMillis());
+        executionContext.putLong(ALLOCATED_BYTES_AT_START, allocatedBytes());
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP) {
+                memoryPool.resetPeakUsage();
+            }
+        }
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        ExecutionContext executionContext = stepExecution.getExecutionContext();
+        long gcCount = gcCount() - executionContext.getLong(GC_COUNT_AT_START, 0L);
+        long gcMillis = gcMillis() - executionContext.getLong(GC_MILLIS_AT_START, 0L);
+        long allocatedBytesAtStart = executionContext.getLong(ALLOCATED_BYTES_AT_START, ALLOCATION_NOT_COUNTED);
+        long allocatedBytesAtEnd = allocatedBytes();
+        long peakHeapBytes = 0;
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP && memoryPool.getPeakUsage() != null) {
+                peakHeapBytes += memoryPool.getPeakUsage().getUsed();
+            }
+        }
+        executionContext.remove(GC_COUNT_AT_START);
+        executionContext.remove(GC_MILLIS_AT_START);
+        executionContext.remove(ALLOCATED_BYTES_AT_START);
+        executionContext.putLong(GC_COUNT, gcCount);
+        executionContext.putLong(GC_MILLIS, gcMillis);
+        executionContext.putLong(PEAK_HEAP_BYTES, peakHeapBytes);
+        LOGGER.info("Step " + stepExecution.getStepName() + " ran " + gcCount + " garbage collections taking "
+                + gcMillis + " ms, heap usage peaked at " + peakHeapBytes / (1024 * 1024) + " MB");
+        if (allocatedBytesAtStart == ALLOCATION_NOT_COUNTED || allocatedBytesAtEnd == ALLOCATION_NOT_COUNTED) {
+            return stepExecution.getExitStatus();
+        }
+
+        long allocatedBytes = allocatedBytesAtEnd - allocatedBytesAtStart;
+        long allocatedBytesPerMillionRows = allocatedBytes * 1000000 / Math.max(1, stepExecution.getReadCount());
+        executionContext.putLong(ALLOCATED_BYTES, allocatedBytes);
+        executionContext.putLong(ALLOCATED_BYTES_PER_MILLION_ROWS, allocatedBytesPerMillionRows);
+        LOGGER.info("Step " + stepExecution.getStepName() + " thread allocated " + allocatedBytes / (1024 * 1024)
+                + " MB, " + allocatedBytesPerMillionRows / (1024 * 1024) + " MB per million session actions");
+        return stepExecution.getExitStatus();
+    }
+
+    // Allocation counting is supported by HotSpot, and could be turned off, then nothing is counted
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threadMXBean
+                && threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled()) {
+            return threadMXBean.getCurrentThreadAllocatedBytes();
+        }
+        return ALLOCATION_NOT_COUNTED;
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionCount).filter(count -> count > 0).sum();
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime).filter(millis -> millis > 0).sum();
+    }
+}
@@ -0,0 +1,78 @@
+package me.calebe_oliveira.expertspringbatchapp.listeners;
+
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+
+/**
+ * Job listener that fixes the largest session action id the job processes ('maxSessionActionId') in the job execution
+ * context before the job starts, so that the actions inserted while the job runs are left for the next run.
+ * Value of the last completed job is the high-water mark the next incremental run starts after.
+ * <p>
+ * Ids are taken from the sequence before the inserting transactions commit, so a transaction could still be about to
+ * commit an id below the largest visible one. The listener therefore waits until all the transactions which were
+ * running when the largest id was read have finished, so that no id up to the mark shows up after the job has read
+ * the range, and fails the job if they are still running after the given time.
+ * <p>
+ * Restarted job keeps the value of the failed execution.
+ */
+public class SessionActionHighWaterMarkListener implements JobExecutionListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionActionHighWaterMarkListener.class);
+    public static final String MAX_SESSION_ACTION_ID = "maxSessionActionId";
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JobRepository jobRepository;
+    private final String tableName;
+    private final long maxWaitMillis;
+
+    /**
+     * @param maxWaitMillis longest time to wait for the transactions running when the largest id is read
+     */
+    public SessionActionHighWaterMarkListener(DataSource sourceDataSource, JobRepository jobRepository, String tableName,
+                                              long maxWaitMillis) {
+        this.jdbcTemplate = new JdbcTemplate(sourceDataSource);
+        this.jobRepository = jobRepository;
+        this.tableName = tableName;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    @Override
+    public void beforeJob(JobExecution jobExecution) {
+        ExecutionContext executionContext = jobExecution.getExecutionContext();
+        if (executionContext.containsKey(MAX_SESSION_ACTION_ID)) {
+            return;
+        }
+        long[] highWaterMark = jdbcTemplate.queryForObject(SourceDataBaseUtils.constructMaxSessionActionIdQuery(tableName),
+                (rs, rowNum) -> new long[]{rs.getLong("max_id"), rs.getLong("snapshot_xmax")});
+        long maxSessionActionId = highWaterMark[0];
+        waitForTransactionsBefore(highWaterMark[1], maxSessionActionId);
+        executionContext.putLong(MAX_SESSION_ACTION_ID, maxSessionActionId);
+        // Storing it right away, since remote workers read the job execution context from the job repository
+        jobRepository.updateExecutionContext(jobExecution);
+    }
+
+    private void waitForTransactionsBefore(long transactionId, long maxSessionActionId) {
+        long deadline = System.nanoTime() + maxWaitMillis * 1000000;
+        while (jdbcTemplate.queryForObject(SourceDataBaseUtils.OLDEST_RUNNING_TRANSACTION_QUERY, Long.class) < transactionId) {
+            if (System.nanoTime() >= deadline) {
+                throw new IllegalStateException("Transactions which could insert session actions with ids up to "
+                        + maxSessionActionId + " are still running after " + maxWaitMillis + " ms");
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the running transactions", e);
+            }
+        }
+        LOGGER.info("Session actions up to id = " + maxSessionActionId + " are committed");
+    }
+}
@@ -0,0 +1,22 @@
+package me.calebe_oliveira.expertspringbatchapp.listeners;
+
+import me.calebe_oliveira.expertspringbatchapp.cache.UserScoreCache;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+
+/**
+ * Job listener that refreshes the cached user scores once the calculation job ends. Failed job has committed some
+ * of its chunks as well, so the cache is refreshed regardless of the status.
+ */
+public class UserScoreCacheRefreshListener implements JobExecutionListener {
+    private final UserScoreCache userScoreCache;
+
+    public UserScoreCacheRefreshListener(UserScoreCache userScoreCache) {
+        this.userScoreCache = userScoreCache;
+    }
+
+    @Override
+    public void afterJob(JobExecution jobExecution) {
+        userScoreCache.refresh();
+    }
+}
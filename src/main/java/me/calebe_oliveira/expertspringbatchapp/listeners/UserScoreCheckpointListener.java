@@ -0,0 +1,147 @@
+package me.calebe_oliveira.expertspringbatchapp.listeners;
+
+import me.calebe_oliveira.expertspringbatchapp.model.SessionAction;
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreUpdate;
+import me.calebe_oliveira.expertspringbatchapp.readers.ColumnarSessionActionReader;
+import me.calebe_oliveira.expertspringbatchapp.readers.PrefetchingItemReader;
+import me.calebe_oliveira.expertspringbatchapp.readers.SessionActionItemReader;
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.ItemReadListener;
+import org.springframework.batch.core.ItemWriteListener;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+/**
+ * Listener of the calculation step, which stores the id of the last session action applied to the user
+ * score transforms, along with its user id for the readers of user id ranges, in the same transaction as the transforms themselves, one row per job instance and step
+ * (partition). Updates of the transforms are not idempotent, so the checkpoint of the execution context, which is
+ * persisted in the job repository after the commit, could lag behind the scores if the process dies in between, and
+ * the chunk would be applied twice.
+ * <p>
+ * The restarted step takes the position of the keyset reader from the stored checkpoint instead, and continues right
+ * after the last applied session action. The checkpoint is moved only if it is still the one the step has seen, so
+ * the chunk of another execution of the same partition (e.g. the worker which was given up on, but is still running)
+ * fails and rolls back instead of being applied on top of it. The checkpoint is deleted once the step completes.
+ * Whether the checkpoint is enabled is put into the execution context, so that the updates of the step in the job
+ * repository could be coalesced only when the restart does not depend on them.
+ * <p>
+ * Tasklet steps, which read and write on their own, report the last read session action and the write by
+ * {@link #recordRead} and {@link #recordWrite}, within the transaction of the write as well.
+ * <p>
+ * The listener is step scoped and expects chunks to be read and written by a single thread.
+ */
+public class UserScoreCheckpointListener implements StepExecutionListener, ItemReadListener<SessionAction>,
+        ItemWriteListener<UserScoreUpdate> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UserScoreCheckpointListener.class);
+    // Key of the step execution context which tells whether the step is positioned by the stored checkpoint on restart
+    public static final String CHECKPOINT_ENABLED = "userScoreCheckpointEnabled";
+    private static final String READER_LAST_ID = SessionActionItemReader.NAME + "." + SessionActionItemReader.LAST_ID;
+    private static final String READER_LAST_USER_ID = SessionActionItemReader.NAME + "." + SessionActionItemReader.LAST_USER_ID;
+    private static final String COLUMNAR_READER_LAST_ID = ColumnarSessionActionReader.NAME + "." + ColumnarSessionActionReader.LAST_ID;
+    private static final String PREFETCHING_READER_SKIP_COUNT = PrefetchingItemReader.NAME + "." + PrefetchingItemReader.SKIP_COUNT;
+    // Session action ids start from 1, so it never matches the stored checkpoint
+    private static final long NO_CHECKPOINT = -1;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String checkpointPositionQuery;
+    private final String upsertCheckpointQuery;
+    private final String deleteCheckpointQuery;
+    private final boolean enabled;
+
+    private long jobInstanceId;
+    private String stepName;
+    private long checkpoint = NO_CHECKPOINT;
+    private long lastReadId = NO_CHECKPOINT;
+    private long lastReadUserId;
+
+    /**
+     * @param dataSource source data source, the one of the transaction manager of the step
+     * @param enabled    false for the readers which could not be positioned by the session action id, the listener
+     *                   does nothing in that case
+     */
+    public UserScoreCheckpointListener(DataSource dataSource, String checkpointTableName, boolean enabled) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.checkpointPositionQuery = SourceDataBaseUtils.constructUserScoreCheckpointPositionQuery(checkpointTableName);
+        this.upsertCheckpointQuery = SourceDataBaseUtils.constructUpsertUserScoreCheckpointQuery(checkpointTableName);
+        this.deleteCheckpointQuery = SourceDataBaseUtils.constructDeleteUserScoreCheckpointQuery(checkpointTableName);
+        this.enabled = enabled;
+    }
+
+    // Runs before the reader is opened, so the reader starts from the position put here
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        stepExecution.getExecutionContext().put(CHECKPOINT_ENABLED, enabled);
+        if (!enabled) {
+            return;
+        }
+        jobInstanceId = stepExecution.getJobExecution().getJobInstance().getInstanceId();
+        stepName = stepExecution.getStepName();
+        List<long[]> checkpoints = jdbcTemplate.query(checkpointPositionQuery,
+                (rs, rowNum) -> new long[]{rs.getLong("last_user_id"), rs.getLong("last_session_action_id")},
+                jobInstanceId, stepName);
+        if (checkpoints.isEmpty()) {
+            return;
+        }
+
+        lastReadUserId = checkpoints.get(0)[0];
+        checkpoint = checkpoints.get(0)[1];
+        lastReadId = checkpoint;
+        ExecutionContext executionContext = stepExecution.getExecutionContext();
+        long lastId = executionContext.getLong(READER_LAST_ID, 0L);
+        if (lastId != checkpoint) {
+            LOGGER.info("Step '" + stepName + "' continues after the applied session action id = " + checkpoint
+                    + " instead of id = " + lastId + " of its execution context");
+        }
+        executionContext.putLong(READER_LAST_ID, checkpoint);
+        executionContext.putLong(READER_LAST_USER_ID, lastReadUserId);
+        executionContext.putLong(COLUMNAR_READER_LAST_ID, checkpoint);
+        executionContext.putInt(PREFETCHING_READER_SKIP_COUNT, 0);
+    }
+
+    @Override
+    public void afterRead(SessionAction item) {
+        recordRead(item.getUserId(), item.getId());
+    }
+
+    public void recordRead(long userId, long sessionActionId) {
+        lastReadId = sessionActionId;
+        lastReadUserId = userId;
+    }
+
+    // Runs within the transaction of the chunk, so the checkpoint is committed or rolled back along with the scores
+    @Override
+    public void afterWrite(Chunk<? extends UserScoreUpdate> items) {
+        recordWrite();
+    }
+
+    // Moves the checkpoint to the last read session action, should be called within the transaction of the write
+    public void recordWrite() {
+        if (!enabled || lastReadId == checkpoint) {
+            return;
+        }
+        if (jdbcTemplate.update(upsertCheckpointQuery, jobInstanceId, stepName, lastReadUserId, lastReadId,
+                checkpoint) == 0) {
+            throw new IllegalStateException("Checkpoint of step '" + stepName + "' of job instance with id = "
+                    + jobInstanceId + " has been moved by another execution of the step, so the chunk is not applied");
+        }
+        checkpoint = lastReadId;
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        if (enabled && stepExecution.getStatus() == BatchStatus.COMPLETED) {
+            jdbcTemplate.update(deleteCheckpointQuery, jobInstanceId, stepName);
+        }
+        return stepExecution.getExitStatus();
+    }
+}
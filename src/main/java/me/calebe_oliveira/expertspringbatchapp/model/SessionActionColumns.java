@@ -0,0 +1,56 @@
+package me.calebe_oliveira.expertspringbatchapp.model;
+
+/**
+ * Page of session actions stored column by column in primitive arrays, with the action type stored as the code
+ * of {@link SessionActionTypes}. Arrays are allocated once and reused by every page.
+ */
+public class SessionActionColumns {
+    private final long[] ids;
+    private final long[] userIds;
+    private final byte[] actionCodes;
+    private final double[] amounts;
+    private int size;
+
+    public SessionActionColumns(int capacity) {
+        this.ids = new long[capacity];
+        this.userIds = new long[capacity];
+        this.actionCodes = new byte[capacity];
+        this.amounts = new double[capacity];
+    }
+
+    public void add(long id, long userId, byte actionCode, double amount) {
+        ids[size] = id;
+        userIds[size] = userId;
+        actionCodes[size] = actionCode;
+        amounts[size] = amount;
+        size++;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return ids.length;
+    }
+
+    public long getId(int index) {
+        return ids[index];
+    }
+
+    public long getUserId(int index) {
+        return userIds[index];
+    }
+
+    public byte getActionCode(int index) {
+        return actionCodes[index];
+    }
+
+    public double getAmount(int index) {
+        return amounts[index];
+    }
+}
@@ -0,0 +1,85 @@
+package me.calebe_oliveira.expertspringbatchapp.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary file format of session action records ordered by id, used to replay them without the source database.
+ * The file starts with the header of {@link #HEADER_SIZE} bytes: magic number, version, record size and the names of
+ * action types in the order of their codes. It is followed by the fixed width records of {@link #RECORD_SIZE} bytes:
+ * <ul>
+ *     <li>id - 8 bytes at {@link #ID_OFFSET}</li>
+ *     <li>amount - 8 bytes at {@link #AMOUNT_OFFSET}</li>
+ *     <li>user id - 4 bytes at {@link #USER_ID_OFFSET}, the same width as the column of the table</li>
+ *     <li>action type code - 1 byte at {@link #ACTION_CODE_OFFSET}, followed by 3 bytes of padding</li>
+ * </ul>
+ * So the record of the given index is found by its offset, and the file of ordered ids could be searched by id.
+ * Numbers are big-endian, the default order of {@link ByteBuffer}.
+ */
+public final class SessionActionFileFormat {
+    public static final int HEADER_SIZE = 4096;
+    public static final int RECORD_SIZE = 24;
+    public static final int ID_OFFSET = 0;
+    public static final int AMOUNT_OFFSET = 8;
+    public static final int USER_ID_OFFSET = 16;
+    public static final int ACTION_CODE_OFFSET = 20;
+    private static final int MAGIC = 0x53414631; // "SAF1"
+    private static final int VERSION = 1;
+
+    private SessionActionFileFormat() {
+    }
+
+    // Writes the header into the beginning of the file
+    public static void writeHeader(FileChannel channel, String[] actionTypes) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(actionTypes.length);
+        for (String actionType : actionTypes) {
+            byte[] name = actionType.getBytes(StandardCharsets.UTF_8);
+            if (header.remaining() < Short.BYTES + name.length) {
+                throw new IllegalArgumentException("Action types do not fit into the header of " + HEADER_SIZE + " bytes");
+            }
+            header.putShort((short) name.length).put(name);
+        }
+        header.clear();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    // Reads the header from the beginning of the file, and returns the names of action types in the order of codes
+    public static String[] readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        int read = 0;
+        while (header.hasRemaining() && read >= 0) {
+            read = channel.read(header, header.position());
+        }
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+            throw new IllegalArgumentException("File is not a session action file");
+        }
+        int version = header.getInt();
+        int recordSize = header.getInt();
+        if (version != VERSION || recordSize != RECORD_SIZE) {
+            throw new IllegalArgumentException("Unsupported session action file version " + version
+                    + " with records of " + recordSize + " bytes");
+        }
+        String[] actionTypes = new String[header.getInt()];
+        for (int i = 0; i < actionTypes.length; i++) {
+            byte[] name = new byte[header.getShort()];
+            header.get(name);
+            actionTypes[i] = new String(name, StandardCharsets.UTF_8);
+        }
+        return actionTypes;
+    }
+
+    // Number of complete records in the file of the given size
+    public static long recordCount(long fileSize) {
+        return Math.max(0, fileSize - HEADER_SIZE) / RECORD_SIZE;
+    }
+
+    public static long recordOffset(long recordIndex) {
+        return HEADER_SIZE + recordIndex * RECORD_SIZE;
+    }
+}
@@ -0,0 +1,70 @@
+package me.calebe_oliveira.expertspringbatchapp.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Registry of session action types, which assigns every type a code, and describes the (score = score * multiply + add)
+ * update of the action as a linear function of its amount:
+ * add = addPerAmount * amount + addConstant, multiply = multiplyPerAmount * amount + multiplyConstant.
+ * <p>
+ * Updates are computed from the coefficients of the code without branching on the type, so adding the new type
+ * means registering it, e.g. 'plus' is registered as (1, 0, 0, 1) and 'multi' as (0, 0, 1, 0).
+ */
+public class SessionActionTypes {
+    private static final int MAX_TYPES = Byte.MAX_VALUE + 1;
+
+    private final Map<String, Byte> codes = new HashMap<>();
+    private String[] names = new String[0];
+    private final double[] addPerAmount = new double[MAX_TYPES];
+    private final double[] addConstant = new double[MAX_TYPES];
+    private final double[] multiplyPerAmount = new double[MAX_TYPES];
+    private final double[] multiplyConstant = new double[MAX_TYPES];
+
+    public SessionActionTypes register(String actionType, double addPerAmount, double addConstant,
+                                       double multiplyPerAmount, double multiplyConstant) {
+        if (codes.containsKey(actionType)) {
+            throw new IllegalArgumentException("Session action type '" + actionType + "' is already registered");
+        }
+        if (names.length == MAX_TYPES) {
+            throw new IllegalStateException("No more than " + MAX_TYPES + " session action types could be registered");
+        }
+        byte code = (byte) names.length;
+        codes.put(actionType, code);
+        names = Arrays.copyOf(names, names.length + 1);
+        names[code] = actionType;
+        this.addPerAmount[code] = addPerAmount;
+        this.addConstant[code] = addConstant;
+        this.multiplyPerAmount[code] = multiplyPerAmount;
+        this.multiplyConstant[code] = multiplyConstant;
+        return this;
+    }
+
+    public byte codeOf(String actionType) {
+        Byte code = codes.get(actionType);
+        if (code == null) {
+            throw new RuntimeException("Unknown session action record type: " + actionType);
+        }
+        return code;
+    }
+
+    // Registered types in the order of their codes
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    public double add(byte code, double amount) {
+        return addPerAmount[code] * amount + addConstant[code];
+    }
+
+    public double multiply(byte code, double amount) {
+        return multiplyPerAmount[code] * amount + multiplyConstant[code];
+    }
+
+    public UserScoreUpdate toUpdate(SessionAction sessionAction) {
+        byte code = codeOf(sessionAction.getActionType());
+        return new UserScoreUpdate(sessionAction.getUserId(),
+                add(code, sessionAction.getAmount()), multiply(code, sessionAction.getAmount()));
+    }
+}
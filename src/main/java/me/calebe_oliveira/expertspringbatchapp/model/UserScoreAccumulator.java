@@ -0,0 +1,102 @@
+package me.calebe_oliveira.expertspringbatchapp.model;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from user id to the composed (score = score * multiply + add) update of the user, kept in
+ * primitive arrays, so that folding an update allocates nothing. Capacity grows when the map gets half full,
+ * and is kept by {@link #clear()}, so the same arrays are reused between flushes.
+ * <p>
+ * Not thread-safe.
+ */
+public class UserScoreAccumulator {
+    // Golden ratio multiplier to spread user ids, which are mostly sequential, over the slots
+    private static final long USER_ID_HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private long[] userIds;
+    private double[] adds;
+    private double[] multiplies;
+    private boolean[] occupied;
+    private int mask;
+    private int size;
+
+    public UserScoreAccumulator(int expectedUsers) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedUsers * 2 - 1)) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Composes the update with the one accumulated for the user so far, as in {@link UserScoreUpdate#andThen}
+     */
+    public void fold(long userId, double add, double multiply) {
+        int slot = slotOf(userId);
+        if (occupied[slot]) {
+            adds[slot] = adds[slot] * multiply + add;
+            multiplies[slot] *= multiply;
+            return;
+        }
+        occupied[slot] = true;
+        userIds[slot] = userId;
+        adds[slot] = add;
+        multiplies[slot] = multiply;
+        if (++size * 2 > occupied.length) {
+            resize();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(UpdateConsumer consumer) throws Exception {
+        for (int slot = 0; slot < occupied.length; slot++) {
+            if (occupied[slot]) {
+                consumer.accept(userIds[slot], adds[slot], multiplies[slot]);
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(occupied, false);
+        size = 0;
+    }
+
+    // Slot holding the user, or the free slot the user should be put into
+    private int slotOf(long userId) {
+        int slot = (int) ((userId * USER_ID_HASH_MULTIPLIER) >>> 32) & mask;
+        while (occupied[slot] && userIds[slot] != userId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+        long[] oldUserIds = userIds;
+        double[] oldAdds = adds;
+        double[] oldMultiplies = multiplies;
+        boolean[] oldOccupied = occupied;
+        allocate(oldOccupied.length << 1);
+        for (int oldSlot = 0; oldSlot < oldOccupied.length; oldSlot++) {
+            if (oldOccupied[oldSlot]) {
+                int slot = slotOf(oldUserIds[oldSlot]);
+                occupied[slot] = true;
+                userIds[slot] = oldUserIds[oldSlot];
+                adds[slot] = oldAdds[oldSlot];
+                multiplies[slot] = oldMultiplies[oldSlot];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        userIds = new long[capacity];
+        adds = new double[capacity];
+        multiplies = new double[capacity];
+        occupied = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    @FunctionalInterface
+    public interface UpdateConsumer {
+        void accept(long userId, double add, double multiply) throws Exception;
+    }
+}
@@ -0,0 +1,50 @@
+package me.calebe_oliveira.expertspringbatchapp.model;
+
+import java.math.BigDecimal;
+
+/**
+ * Exact (score = score * multiply + add) update of the user composed with decimal arithmetic. Unlike the composition
+ * of {@link UserScoreUpdate} in doubles, it does not depend on how the updates are grouped (into chunks, or into
+ * the ranges of the partitions), so the composed transform is the same whichever way the session actions are split.
+ */
+public class UserScoreTransform {
+    private final long userId;
+    private final BigDecimal add;
+    private final BigDecimal multiply;
+
+    public UserScoreTransform(long userId, BigDecimal add, BigDecimal multiply) {
+        this.userId = userId;
+        this.add = add;
+        this.multiply = multiply;
+    }
+
+    /**
+     * Decimal value of the update, which is exactly the amount of the session action for the registered types.
+     * Trailing zeros are dropped, so that e.g. multiplying by 1.0 does not add a digit to every composed transform.
+     */
+    public static UserScoreTransform of(UserScoreUpdate update) {
+        return new UserScoreTransform(update.getUserId(),
+                BigDecimal.valueOf(update.getAdd()).stripTrailingZeros(),
+                BigDecimal.valueOf(update.getMultiply()).stripTrailingZeros());
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public BigDecimal getAdd() {
+        return add;
+    }
+
+    public BigDecimal getMultiply() {
+        return multiply;
+    }
+
+    /**
+     * Composes this transform with the one applied right after it for the same user, in the same way as
+     * {@link UserScoreUpdate#andThen}, but without rounding
+     */
+    public UserScoreTransform andThen(UserScoreTransform next) {
+        return new UserScoreTransform(userId, add.multiply(next.multiply).add(next.add), multiply.multiply(next.multiply));
+    }
+}
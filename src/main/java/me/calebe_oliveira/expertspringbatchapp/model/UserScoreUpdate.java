@@ -2,6 +2,10 @@ package me.calebe_oliveira.expertspringbatchapp.model;
 
 public class UserScoreUpdate {
     public static final String USER_SCORE_TABLE_NAME = "user_score";
+    // Updates composed by the partitions of session action id ranges before they are merged into the user scores
+    public static final String USER_SCORE_TRANSFORM_TABLE_NAME = "user_score_transform";
+    // Last session actions applied to the user scores by the running (or failed) steps
+    public static final String USER_SCORE_CHECKPOINT_TABLE_NAME = "user_score_checkpoint";
 
     private final long userId;
     private final double add;
@@ -24,4 +28,12 @@ public class UserScoreUpdate {
     public double getMultiply() {
         return multiply;
     }
+
+    /**
+     * Composes this update with the one applied right after it for the same user:
+     * (score * m1 + a1) * m2 + a2 = score * (m1 * m2) + (a1 * m2 + a2)
+     */
+    public UserScoreUpdate andThen(UserScoreUpdate next) {
+        return new UserScoreUpdate(userId, add * next.multiply + next.add, multiply * next.multiply);
+    }
 }
@@ -1,100 +1,389 @@
 package me.calebe_oliveira.expertspringbatchapp.partioners;
 
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.batch.core.BatchStatus;
 import org.springframework.batch.core.ExitStatus;
-import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.Step;
 import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.core.explore.JobExplorer;
 import org.springframework.batch.core.partition.support.AbstractPartitionHandler;
 import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.dao.OptimisticLockingFailureException;
 
-
+import java.io.IOException;
 import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Partition handler which dispatches partitions to the workers through HTTP requests. Any number of partitions
+ * is accepted: partitions are queued, and handed to the worker with the most free slots whenever some worker has one.
+ * Slot is freed once the worker reports the partition finished. While there are partitions to dispatch, free slots
+ * are refreshed from the capacity the workers report, since the workers could be busy with the partitions of other
+ * jobs, and the worker which has no free slot rejects the partition with 429 (Too Many Requests). Rejected partition
+ * is not counted as an attempt, and is dispatched once again after the refresh the worker hints at.
+ * <p>
+ * Failed partition is dispatched again, preferably to another worker, up to the configured number of attempts.
+ * Worker which does not accept the start request, or does not update the execution of its partition in the job
+ * repository (which the step does on every chunk commit) within the partition timeout, is considered unhealthy, and
+ * its partitions are dispatched to other workers. So the partition which keeps committing its chunks is never
+ * dispatched again however long it runs, but the stalled one could still be running on the lost worker, and
+ * re-dispatching it relies on the writes of the worker step to be safe to repeat.
+ */
 public class HttpRequestPartitionHandler extends AbstractPartitionHandler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpRequestPartitionHandler.class);
 
     private final Step workerStep;
     private final PartitioningConfig partitioningConfig;
-    private final long endToEndTimeoutMillis;
     private final JobRepository jobRepository;
     private final JobExplorer jobExplorer;
+    private final PartitionCompletionRegistry partitionCompletionRegistry;
 
-    private static final CloseableHttpClient HTTP_CLIENT = HttpClientBuilder.create().build();
+    private static final HttpClient HTTP_CLIENT = HttpClient.newHttpClient();
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
     private static final String START_WORKER_ENDPOINT = "start-worker";
+    private static final String WORKER_CAPACITY_ENDPOINT = "worker-capacity";
+    private static final long DEFAULT_RETRY_AFTER_MILLIS = 1000;
     private static final long NANO_IN_MILLI = 1000000;
+    private static final int MAX_FAILED_UPDATE_ATTEMPTS = 3;
 
-    public HttpRequestPartitionHandler(Step workerStep, PartitioningConfig partitioningConfig, long endToEndTimeoutMillis,
-                                       JobRepository jobRepository, JobExplorer jobExplorer) {
+    public HttpRequestPartitionHandler(Step workerStep, PartitioningConfig partitioningConfig,
+                                       JobRepository jobRepository, JobExplorer jobExplorer,
+                                       PartitionCompletionRegistry partitionCompletionRegistry) {
         this.workerStep = workerStep;
         this.partitioningConfig = partitioningConfig;
-        this.endToEndTimeoutMillis = endToEndTimeoutMillis;
         this.jobRepository = jobRepository;
         this.jobExplorer = jobExplorer;
-        this.gridSize = partitioningConfig.getWorkerBaseUrls().length;
+        this.partitionCompletionRegistry = partitionCompletionRegistry;
+        this.gridSize = partitioningConfig.getGridSize();
     }
 
     protected Set<StepExecution> doHandle(StepExecution managerStepExecution, Set<StepExecution> partitionStepExecutions) throws Exception {
-        if (partitioningConfig.getWorkerBaseUrls().length != partitionStepExecutions.size()) {
-            throw new IllegalArgumentException("Misconfiguration: grid size " + partitionStepExecutions.size() +  " should be equal to the number of workers " + partitioningConfig.getWorkerBaseUrls().length + "  provided through partitioning config");
+        Dispatch dispatch = new Dispatch(managerStepExecution.getJobExecutionId(), partitionStepExecutions);
+        // Workers report finished partitions to the manager, so registering partitions before they are started
+        partitionCompletionRegistry.register(dispatch.partitions.keySet(), dispatch.completionQueue);
+        try {
+            dispatch.run();
+            // Executions updated by the workers, rather than the ones created before dispatching, are aggregated
+            return new LinkedHashSet<>(dispatch.partitions.values());
+        } finally {
+            partitionCompletionRegistry.unregister(dispatch.partitions.keySet());
         }
+    }
+
+    // State of dispatching partitions of a single manager step execution
+    private class Dispatch {
+        private final long jobExecutionId;
+        private final Map<Long, StepExecution> partitions = new HashMap<>();
+        private final Deque<StepExecution> pendingPartitions = new ArrayDeque<>();
+        private final Map<Long, Assignment> runningPartitions = new HashMap<>();
+        private final Map<Long, Integer> partitionAttempts = new HashMap<>();
+        private final Map<Long, String> previousWorkers = new HashMap<>();
+        private final Map<String, Integer> workerFreeSlots = new LinkedHashMap<>();
+        private final Set<Long> failedStartRequests = ConcurrentHashMap.newKeySet();
+        // Partitions rejected by busy workers, along with the time to retry after
+        private final Map<Long, Long> rejectedStartRequests = new ConcurrentHashMap<>();
+        private final BlockingQueue<Long> completionQueue = new LinkedBlockingQueue<>();
+        private long nextCapacityRefreshTime = System.nanoTime();
+        // Time to check all running partitions in the job repository, in case some reports are lost
+        private long nextFullCheckTime = System.nanoTime() + partitioningConfig.getFallbackPollIntervalMillis() * NANO_IN_MILLI;
 
-        Iterator<StepExecution> stepExecutionIterator = partitionStepExecutions.iterator();
-        for (String workerBaseUrl : partitioningConfig.getWorkerBaseUrls()) {
-            sendStartWorkerRequest(workerBaseUrl, stepExecutionIterator.next());
+        private Dispatch(long jobExecutionId, Set<StepExecution> partitionStepExecutions) {
+            this.jobExecutionId = jobExecutionId;
+            partitionStepExecutions.stream()
+                    .sorted(Comparator.comparing(StepExecution::getId))
+                    .forEach(stepExecution -> {
+                        partitions.put(stepExecution.getId(), stepExecution);
+                        pendingPartitions.add(stepExecution);
+                    });
+            for (String workerBaseUrl : partitioningConfig.getWorkerBaseUrls()) {
+                workerFreeSlots.merge(workerBaseUrl, partitioningConfig.getWorkerSlots(), Integer::sum);
+            }
         }
 
-        long startTime = System.nanoTime();
-        while ((System.nanoTime() - startTime) / NANO_IN_MILLI < endToEndTimeoutMillis) {
-            if (checkPartitionStepExecutionCompleted(managerStepExecution, partitionStepExecutions)) {
-                return partitionStepExecutions;
-            } else {
-                Thread.sleep(1000);
+        private void run() throws InterruptedException {
+            long startTime = System.nanoTime();
+            while (!pendingPartitions.isEmpty() || !runningPartitions.isEmpty()) {
+                dispatchPendingPartitions();
+                if (runningPartitions.isEmpty() && workerFreeSlots.isEmpty()) {
+                    throw new IllegalStateException("No healthy workers left to run " + pendingPartitions.size() + " partitions");
+                }
+
+                long remainingMillis = partitioningConfig.getJobTimeoutMillis() - (System.nanoTime() - startTime) / NANO_IN_MILLI;
+                if (remainingMillis <= 0) {
+                    throw new RuntimeException("HTTP request partition handler timed out");
+                }
+
+                long pollMillis = Math.min(remainingMillis, (nextFullCheckTime - System.nanoTime()) / NANO_IN_MILLI);
+                if (!pendingPartitions.isEmpty()) {
+                    // All healthy workers are busy, waiting for them to free some slot
+                    pollMillis = Math.min(pollMillis, (nextCapacityRefreshTime - System.nanoTime()) / NANO_IN_MILLI);
+                }
+                Set<Long> stepExecutionIdsToCheck = new HashSet<>();
+                Long reportedStepExecutionId = completionQueue.poll(Math.max(1, pollMillis), TimeUnit.MILLISECONDS);
+                if (reportedStepExecutionId != null) {
+                    stepExecutionIdsToCheck.add(reportedStepExecutionId);
+                    completionQueue.drainTo(stepExecutionIdsToCheck);
+                }
+                // Running partitions are checked periodically even while other partitions are reported, so that
+                // the stalled ones are noticed
+                if (System.nanoTime() >= nextFullCheckTime) {
+                    stepExecutionIdsToCheck.addAll(runningPartitions.keySet());
+                    nextFullCheckTime = System.nanoTime() + partitioningConfig.getFallbackPollIntervalMillis() * NANO_IN_MILLI;
+                }
+                for (Long stepExecutionId : stepExecutionIdsToCheck) {
+                    if (runningPartitions.containsKey(stepExecutionId)) {
+                        checkRunningPartition(stepExecutionId);
+                    }
+                }
             }
         }
-        throw new RuntimeException("HTTP request partition handler timed out");
-    }
 
-    private void sendStartWorkerRequest(String workerBaseUrl, StepExecution partitionStepExecution) throws Exception {
-        URI uri = new URIBuilder(workerBaseUrl + START_WORKER_ENDPOINT)
-                .addParameter("jobExecutionId", Long.toString(partitionStepExecution.getJobExecutionId()))
-                .addParameter("stepExecutionId", Long.toString(partitionStepExecution.getId()))
-                .addParameter("stepName", workerStep.getName())
-                .build();
-        CloseableHttpResponse response = HTTP_CLIENT.execute(new HttpPost(uri));
-        if (response.getStatusLine().getStatusCode() != 200) {
-            ExitStatus exitStatus = ExitStatus.FAILED
-                    .addExitDescription("HTTP request to start worker did not finish successfully, so exiting");
-            partitionStepExecution.setStatus(BatchStatus.FAILED);
-            partitionStepExecution.setExitStatus(exitStatus);
-            jobRepository.update(partitionStepExecution);
+        private void dispatchPendingPartitions() throws InterruptedException {
+            if (!pendingPartitions.isEmpty() && System.nanoTime() >= nextCapacityRefreshTime) {
+                refreshWorkerCapacities();
+                nextCapacityRefreshTime = System.nanoTime() + partitioningConfig.getCapacityRefreshMillis() * NANO_IN_MILLI;
+            }
+            while (!pendingPartitions.isEmpty()) {
+                StepExecution partitionStepExecution = pendingPartitions.peek();
+                String workerBaseUrl = selectWorker(partitionStepExecution.getId());
+                if (workerBaseUrl == null) {
+                    return;
+                }
+                pendingPartitions.poll();
+                workerFreeSlots.merge(workerBaseUrl, -1, Integer::sum);
+                runningPartitions.put(partitionStepExecution.getId(),
+                        new Assignment(workerBaseUrl, System.nanoTime(), partitionStepExecution.getVersion()));
+                partitionAttempts.merge(partitionStepExecution.getId(), 1, Integer::sum);
+                sendStartWorkerRequest(workerBaseUrl, partitionStepExecution);
+            }
         }
-    }
 
-    private boolean checkPartitionStepExecutionCompleted(StepExecution managerStepExecution, Set<StepExecution> partitionStepExecutions) {
-        JobExecution jobExecution = jobExplorer.getJobExecution(managerStepExecution.getJobExecutionId());
-        Map<Long, BatchStatus> stepExecutionStatusMap = new HashMap<>(jobExecution.getStepExecutions().size());
-        for (StepExecution queriedStepExecution : jobExecution.getStepExecutions()) {
-            stepExecutionStatusMap.put(queriedStepExecution.getId(), queriedStepExecution.getStatus());
+        // Worker with the most free slots, avoiding the one the partition has just failed on if there are other options
+        private String selectWorker(long stepExecutionId) {
+            String previousWorker = previousWorkers.get(stepExecutionId);
+            String selectedWorker = null;
+            for (Map.Entry<String, Integer> worker : workerFreeSlots.entrySet()) {
+                if (worker.getValue() <= 0) {
+                    continue;
+                }
+                boolean preferable = selectedWorker == null
+                        || selectedWorker.equals(previousWorker)
+                        || (!worker.getKey().equals(previousWorker) && worker.getValue() > workerFreeSlots.get(selectedWorker));
+                if (preferable) {
+                    selectedWorker = worker.getKey();
+                }
+            }
+            return selectedWorker;
+        }
+
+        /**
+         * Takes free slots of the healthy workers from their capacity endpoints. Worker which does not respond keeps
+         * the free slots counted by this manager, it is considered unhealthy only once it fails the start request.
+         */
+        private void refreshWorkerCapacities() throws InterruptedException {
+            Map<String, CompletableFuture<HttpResponse<String>>> capacityRequests = new LinkedHashMap<>();
+            for (String workerBaseUrl : workerFreeSlots.keySet()) {
+                HttpRequest request = HttpRequest.newBuilder(URI.create(workerBaseUrl + WORKER_CAPACITY_ENDPOINT))
+                        .timeout(Duration.ofMillis(partitioningConfig.getCapacityRefreshMillis()))
+                        .GET()
+                        .build();
+                capacityRequests.put(workerBaseUrl, HTTP_CLIENT.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+            }
+            for (Map.Entry<String, CompletableFuture<HttpResponse<String>>> capacityRequest : capacityRequests.entrySet()) {
+                try {
+                    HttpResponse<String> response = capacityRequest.getValue().get();
+                    if (response.statusCode() == 200) {
+                        int freeSlots = OBJECT_MAPPER.readTree(response.body()).path("freeSlots").asInt();
+                        workerFreeSlots.put(capacityRequest.getKey(), freeSlots);
+                    }
+                } catch (ExecutionException | IOException e) {
+                    LOGGER.warn("Failed to refresh the capacity of worker " + capacityRequest.getKey(), e);
+                }
+            }
+        }
+
+        private void sendStartWorkerRequest(String workerBaseUrl, StepExecution partitionStepExecution) {
+            URI uri = URI.create(workerBaseUrl + START_WORKER_ENDPOINT
+                    + "?jobExecutionId=" + partitionStepExecution.getJobExecutionId()
+                    + "&stepExecutionId=" + partitionStepExecution.getId()
+                    + "&stepName=" + URLEncoder.encode(workerStep.getName(), StandardCharsets.UTF_8)
+                    + "&managerBaseUrl=" + URLEncoder.encode(partitioningConfig.getManagerBaseUrl(), StandardCharsets.UTF_8));
+            HttpRequest request = HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.noBody()).build();
+            HTTP_CLIENT.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, e) -> {
+                        if (e == null && isRejected(response)) {
+                            rejectedStartRequests.put(partitionStepExecution.getId(), retryAfterMillis(response));
+                            completionQueue.offer(partitionStepExecution.getId());
+                        } else if (e != null || response.statusCode() != 200) {
+                            LOGGER.warn("Worker " + workerBaseUrl + " did not accept partition with step execution id = "
+                                    + partitionStepExecution.getId(), e);
+                            failedStartRequests.add(partitionStepExecution.getId());
+                            completionQueue.offer(partitionStepExecution.getId());
+                        }
+                    });
+        }
+
+        private void checkRunningPartition(long stepExecutionId) {
+            Assignment assignment = runningPartitions.get(stepExecutionId);
+            Long retryAfterMillis = rejectedStartRequests.remove(stepExecutionId);
+            if (retryAfterMillis != null) {
+                requeueRejected(stepExecutionId, retryAfterMillis);
+                return;
+            }
+            if (failedStartRequests.remove(stepExecutionId)) {
+                markWorkerUnhealthy(assignment.workerBaseUrl);
+                redispatch(stepExecutionId, "HTTP request to start worker did not finish successfully");
+                return;
+            }
+
+            StepExecution queriedStepExecution = jobExplorer.getStepExecution(jobExecutionId, stepExecutionId);
+            BatchStatus partitionStepStatus = queriedStepExecution == null ? null : queriedStepExecution.getStatus();
+            if (BatchStatus.COMPLETED.equals(partitionStepStatus)) {
+                finish(stepExecutionId, queriedStepExecution);
+            } else if (BatchStatus.FAILED.equals(partitionStepStatus)) {
+                redispatch(stepExecutionId, "Partition failed on worker " + assignment.workerBaseUrl);
+            } else if (isStalled(assignment, queriedStepExecution)) {
+                markWorkerUnhealthy(assignment.workerBaseUrl);
+                redispatch(stepExecutionId, "Partition made no progress within " + partitioningConfig.getPartitionTimeoutMillis()
+                        + " ms on worker " + assignment.workerBaseUrl);
+            }
         }
 
-        boolean jobComplete = true;
-        for (StepExecution partitionStepExecution : partitionStepExecutions) {
-            BatchStatus partitionStepStatus = stepExecutionStatusMap.get(partitionStepExecution.getId());
-            partitionStepExecution.setStatus(partitionStepStatus); // Also, setting proper status such that it could be used upstream
-            if (!BatchStatus.COMPLETED.equals(partitionStepStatus) && !BatchStatus.FAILED.equals(partitionStepStatus)) {
-                jobComplete = false;
+        // Every update of the execution by the worker increments its version, and counts as the progress of the partition
+        private boolean isStalled(Assignment assignment, StepExecution queriedStepExecution) {
+            long now = System.nanoTime();
+            Integer version = queriedStepExecution == null ? null : queriedStepExecution.getVersion();
+            if (!Objects.equals(version, assignment.lastVersion)) {
+                assignment.lastVersion = version;
+                assignment.lastProgressTime = now;
+                return false;
             }
+            return (now - assignment.lastProgressTime) / NANO_IN_MILLI > partitioningConfig.getPartitionTimeoutMillis();
+        }
+
+        private void redispatch(long stepExecutionId, String reason) {
+            StepExecution partitionStepExecution = partitions.get(stepExecutionId);
+            if (partitionAttempts.get(stepExecutionId) >= partitioningConfig.getMaxPartitionAttempts()) {
+                LOGGER.warn(reason + ", no attempts left for partition with step execution id = " + stepExecutionId);
+                finish(stepExecutionId, markFailed(stepExecutionId, reason));
+                return;
+            }
+            LOGGER.warn(reason + ", dispatching partition with step execution id = " + stepExecutionId + " once again");
+            previousWorkers.put(stepExecutionId, runningPartitions.get(stepExecutionId).workerBaseUrl);
+            releaseSlot(stepExecutionId);
+            runningPartitions.remove(stepExecutionId);
+            pendingPartitions.addFirst(partitionStepExecution);
+        }
+
+        // Worker is busy, so the partition is not counted as an attempt, and no more partitions are dispatched to
+        // the worker until its capacity is refreshed
+        private void requeueRejected(long stepExecutionId, long retryAfterMillis) {
+            String workerBaseUrl = runningPartitions.remove(stepExecutionId).workerBaseUrl;
+            LOGGER.info("Worker " + workerBaseUrl + " is busy, partition with step execution id = " + stepExecutionId
+                    + " is dispatched once again in " + retryAfterMillis + " ms");
+            partitionAttempts.merge(stepExecutionId, -1, Integer::sum);
+            workerFreeSlots.computeIfPresent(workerBaseUrl, (worker, freeSlots) -> 0);
+            nextCapacityRefreshTime = Math.min(nextCapacityRefreshTime, System.nanoTime() + retryAfterMillis * NANO_IN_MILLI);
+            pendingPartitions.addFirst(partitions.get(stepExecutionId));
+        }
+
+        private void finish(long stepExecutionId, StepExecution finishedStepExecution) {
+            releaseSlot(stepExecutionId);
+            runningPartitions.remove(stepExecutionId);
+            partitions.put(stepExecutionId, finishedStepExecution);
+        }
+
+        /**
+         * Fails the partition in the job repository, unless the worker has failed it already. Worker has updated
+         * the execution since the manager created it, so its current version is read and updated, and it is read once
+         * again if the worker which is given up on updates it in the meantime.
+         */
+        private StepExecution markFailed(long stepExecutionId, String reason) {
+            for (int attempt = 1; ; attempt++) {
+                StepExecution stepExecution = jobExplorer.getStepExecution(jobExecutionId, stepExecutionId);
+                if (stepExecution == null) {
+                    throw new IllegalStateException("No step execution exist for job execution id = " + jobExecutionId
+                            + " and step execution id = " + stepExecutionId);
+                }
+                if (BatchStatus.FAILED.equals(stepExecution.getStatus())) {
+                    return stepExecution;
+                }
+                stepExecution.setStatus(BatchStatus.FAILED);
+                stepExecution.setExitStatus(ExitStatus.FAILED.addExitDescription(reason));
+                if (stepExecution.getEndTime() == null) {
+                    stepExecution.setEndTime(LocalDateTime.now());
+                }
+                try {
+                    jobRepository.update(stepExecution);
+                    return stepExecution;
+                } catch (OptimisticLockingFailureException e) {
+                    if (attempt >= MAX_FAILED_UPDATE_ATTEMPTS) {
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        private void releaseSlot(long stepExecutionId) {
+            workerFreeSlots.computeIfPresent(runningPartitions.get(stepExecutionId).workerBaseUrl, (workerBaseUrl, freeSlots) -> freeSlots + 1);
+        }
+
+        private void markWorkerUnhealthy(String workerBaseUrl) {
+            LOGGER.warn("Worker " + workerBaseUrl + " is considered unhealthy, no more partitions are dispatched to it");
+            workerFreeSlots.remove(workerBaseUrl);
+        }
+    }
+
+    private static boolean isRejected(HttpResponse<?> response) {
+        return response.statusCode() == 429 || response.statusCode() == 503;
+    }
+
+    private static long retryAfterMillis(HttpResponse<?> response) {
+        return response.headers().firstValue("Retry-After")
+                .map(retryAfter -> {
+                    try {
+                        return Long.parseLong(retryAfter.trim()) * 1000;
+                    } catch (NumberFormatException e) {
+                        return DEFAULT_RETRY_AFTER_MILLIS;
+                    }
+                })
+                .orElse(DEFAULT_RETRY_AFTER_MILLIS);
+    }
+
+    // Worker the partition is dispatched to, along with the last seen version of its execution and the time it was seen
+    private static class Assignment {
+        private final String workerBaseUrl;
+        private long lastProgressTime;
+        private Integer lastVersion;
+
+        private Assignment(String workerBaseUrl, long dispatchTime, Integer dispatchedVersion) {
+            this.workerBaseUrl = workerBaseUrl;
+            this.lastProgressTime = dispatchTime;
+            this.lastVersion = dispatchedVersion;
         }
-        return jobComplete;
     }
 }
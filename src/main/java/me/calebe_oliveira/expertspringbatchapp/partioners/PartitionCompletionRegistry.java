@@ -0,0 +1,29 @@
+package me.calebe_oliveira.expertspringbatchapp.partioners;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of partitions the manager waits for. Once the worker reports that the partition step execution is
+ * finished, its id is put into the queue of the partition handler waiting for it, which is expected to check
+ * the actual status of the step execution in the job repository.
+ */
+public class PartitionCompletionRegistry {
+    private final Map<Long, BlockingQueue<Long>> completionQueues = new ConcurrentHashMap<>();
+
+    public void register(Collection<Long> stepExecutionIds, BlockingQueue<Long> completionQueue) {
+        stepExecutionIds.forEach(stepExecutionId -> completionQueues.put(stepExecutionId, completionQueue));
+    }
+
+    public void unregister(Collection<Long> stepExecutionIds) {
+        stepExecutionIds.forEach(completionQueues::remove);
+    }
+
+    // Returns false in case nobody waits for the step execution, e.g. the manager has already timed out
+    public boolean complete(long stepExecutionId) {
+        BlockingQueue<Long> completionQueue = completionQueues.get(stepExecutionId);
+        return completionQueue != null && completionQueue.offer(stepExecutionId);
+    }
+}
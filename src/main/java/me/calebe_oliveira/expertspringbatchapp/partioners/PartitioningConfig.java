@@ -2,12 +2,77 @@ package me.calebe_oliveira.expertspringbatchapp.partioners;
 
 public class PartitioningConfig {
     private final String[] workerBaseUrls;
+    private final String managerBaseUrl;
+    private final long fallbackPollIntervalMillis;
+    private final int workerSlots;
+    private final int gridSize;
+    private final long partitionTimeoutMillis;
+    private final int maxPartitionAttempts;
+    private final long capacityRefreshMillis;
+    private final long jobTimeoutMillis;
 
-    public PartitioningConfig(String workerBaseUrlsProperty) {
+    /**
+     * @param gridSize number of partitions, 0 stands for one partition per slot of every worker
+     */
+    public PartitioningConfig(String workerBaseUrlsProperty, String managerBaseUrl, long fallbackPollIntervalMillis,
+                              int workerSlots, int gridSize, long partitionTimeoutMillis, int maxPartitionAttempts,
+                              long capacityRefreshMillis, long jobTimeoutMillis) {
+        if (jobTimeoutMillis < partitionTimeoutMillis * maxPartitionAttempts) {
+            throw new IllegalArgumentException("Timeout of the partitioned job " + jobTimeoutMillis + " ms is shorter than "
+                    + maxPartitionAttempts + " attempts of the partition timeout " + partitionTimeoutMillis + " ms");
+        }
         workerBaseUrls = workerBaseUrlsProperty.split(",");
+        this.managerBaseUrl = managerBaseUrl;
+        this.fallbackPollIntervalMillis = fallbackPollIntervalMillis;
+        this.workerSlots = workerSlots;
+        this.gridSize = gridSize > 0 ? gridSize : workerBaseUrls.length * workerSlots;
+        this.partitionTimeoutMillis = partitionTimeoutMillis;
+        this.maxPartitionAttempts = maxPartitionAttempts;
+        this.capacityRefreshMillis = capacityRefreshMillis;
+        this.jobTimeoutMillis = jobTimeoutMillis;
     }
 
     public String[] getWorkerBaseUrls() {
         return workerBaseUrls;
     }
+
+    // Base URL workers report finished partitions to
+    public String getManagerBaseUrl() {
+        return managerBaseUrl;
+    }
+
+    // Interval to check partitions in the job repository, in case the worker failed to report them
+    public long getFallbackPollIntervalMillis() {
+        return fallbackPollIntervalMillis;
+    }
+
+    // Number of partitions every worker runs at the same time
+    public int getWorkerSlots() {
+        return workerSlots;
+    }
+
+    public int getGridSize() {
+        return gridSize;
+    }
+
+    // Time without any update of the partition in the job repository after which the partition is considered lost
+    // along with its worker, and is dispatched to another one
+    public long getPartitionTimeoutMillis() {
+        return partitionTimeoutMillis;
+    }
+
+    // Number of times the partition is dispatched before the failure of the partition fails the step
+    public int getMaxPartitionAttempts() {
+        return maxPartitionAttempts;
+    }
+
+    // Interval to refresh free slots of the workers while there are partitions waiting for them
+    public long getCapacityRefreshMillis() {
+        return capacityRefreshMillis;
+    }
+
+    // Time after which the manager step fails, even if its partitions are still making progress
+    public long getJobTimeoutMillis() {
+        return jobTimeoutMillis;
+    }
 }
@@ -0,0 +1,55 @@
+package me.calebe_oliveira.expertspringbatchapp.partioners;
+
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.item.ExecutionContext;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Partitioner that splits session actions into contiguous id ranges of equal width, regardless of the users they
+ * belong to, so that even the actions of a single heavy user are spread over all the partitions. Ranges are put into
+ * the execution context as {@link #AFTER_SESSION_ACTION_ID} (exclusive) and {@link #MAX_SESSION_ACTION_ID} (inclusive)
+ * properties, along with {@link #RANGE_INDEX}, which is the order the updates of the ranges should be applied in.
+ */
+public class SessionActionIdRangePartitioner implements Partitioner {
+    public static final String AFTER_SESSION_ACTION_ID = "afterSessionActionId";
+    public static final String MAX_SESSION_ACTION_ID = "maxSessionActionId";
+    public static final String RANGE_INDEX = "rangeIndex";
+    private static final String PARTITION_NAME_PREFIX = "sessionActionIdRange-";
+
+    private final long afterSessionActionId;
+    private final long maxSessionActionId;
+
+    /**
+     * @param afterSessionActionId id the first range starts after
+     * @param maxSessionActionId   id the last range ends with
+     */
+    public SessionActionIdRangePartitioner(long afterSessionActionId, long maxSessionActionId) {
+        this.afterSessionActionId = afterSessionActionId;
+        this.maxSessionActionId = maxSessionActionId;
+    }
+
+    @Override
+    public Map<String, ExecutionContext> partition(int gridSize) {
+        long idCount = Math.max(0, maxSessionActionId - afterSessionActionId);
+        // No need for the ranges narrower than a single id, but there is always at least one range
+        int rangeCount = (int) Math.max(1, Math.min(gridSize, idCount));
+
+        Map<String, ExecutionContext> partitionMap = new HashMap<>(rangeCount);
+        for (int i = 0; i < rangeCount; i++) {
+            ExecutionContext executionContext = new ExecutionContext();
+            executionContext.putInt(RANGE_INDEX, i);
+            executionContext.putLong(AFTER_SESSION_ACTION_ID, rangeBound(idCount, rangeCount, i));
+            executionContext.putLong(MAX_SESSION_ACTION_ID, rangeBound(idCount, rangeCount, i + 1));
+            partitionMap.put(PARTITION_NAME_PREFIX + i, executionContext);
+        }
+        return partitionMap;
+    }
+
+    private long rangeBound(long idCount, int rangeCount, int rangeIndex) {
+        return rangeIndex == rangeCount
+                ? Math.max(afterSessionActionId, maxSessionActionId)
+                : afterSessionActionId + idCount / rangeCount * rangeIndex + Math.min(rangeIndex, idCount % rangeCount);
+    }
+}
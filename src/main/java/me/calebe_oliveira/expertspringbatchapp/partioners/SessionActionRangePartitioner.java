@@ -0,0 +1,94 @@
+package me.calebe_oliveira.expertspringbatchapp.partioners;
+
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Partitioner that splits session actions into contiguous user id ranges with roughly equal number of actions.
+ * The distribution of actions per user is taken from the histogram query over the whole table, or over its sample
+ * in case the sample percent is below 100. Ranges are cut at user boundaries only, so a single heavy user could make
+ * its partition bigger than others, and there could be fewer partitions than requested.
+ * <p>
+ * First and last ranges are open-ended, so all the session actions are covered even if some users are not sampled.
+ * Ranges are put into the execution context as {@link #MIN_USER_ID} and {@link #MAX_USER_ID} properties to be used
+ * with index-friendly 'user_id between' predicate, along with partition count and index.
+ */
+public class SessionActionRangePartitioner implements Partitioner {
+    public static final String MIN_USER_ID = "minUserId";
+    public static final String MAX_USER_ID = "maxUserId";
+    private static final String PARTITION_NAME_PREFIX = "sessionActionPartition-";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String tableName;
+    private final double samplePercent;
+
+    public SessionActionRangePartitioner(DataSource dataSource, String tableName, double samplePercent) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.tableName = tableName;
+        this.samplePercent = samplePercent;
+    }
+
+    @Override
+    public Map<String, ExecutionContext> partition(int gridSize) {
+        UserIdRangeBuilder rangeBuilder = new UserIdRangeBuilder(gridSize);
+        jdbcTemplate.query(SourceDataBaseUtils.constructUserActionHistogramQuery(tableName, samplePercent),
+                (RowCallbackHandler) rs -> rangeBuilder.addUser(rs.getLong("user_id"), rs.getLong("action_count"), rs.getLong("total_count")));
+        List<long[]> ranges = rangeBuilder.build();
+
+        Map<String, ExecutionContext> partitionMap = new HashMap<>(ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            ExecutionContext executionContext = new ExecutionContext();
+            executionContext.putInt(SessionActionPartitioner.PARTITION_COUNT, ranges.size());
+            executionContext.putInt(SessionActionPartitioner.PARTITION_INDEX, i);
+            executionContext.putLong(MIN_USER_ID, ranges.get(i)[0]);
+            executionContext.putLong(MAX_USER_ID, ranges.get(i)[1]);
+            partitionMap.put(PARTITION_NAME_PREFIX + i, executionContext);
+        }
+        return partitionMap;
+    }
+
+    // Greedily cuts the histogram, which is expected to be ordered by user id, into ranges of equal action count
+    static class UserIdRangeBuilder {
+        private final int gridSize;
+        private final List<long[]> ranges = new ArrayList<>();
+        private long rangeMinUserId = Long.MIN_VALUE;
+        private long lastUserId = Long.MIN_VALUE;
+        private long cumulativeCount;
+        private long rangeStartCount;
+
+        UserIdRangeBuilder(int gridSize) {
+            this.gridSize = gridSize;
+        }
+
+        void addUser(long userId, long actionCount, long totalCount) {
+            cumulativeCount += actionCount;
+            lastUserId = userId;
+            // Closing the range once it reaches its share of the actions left, so that ranges following a heavy user
+            // split the rest of the actions evenly
+            int rangesLeft = gridSize - ranges.size();
+            if (rangesLeft > 1 && (cumulativeCount - rangeStartCount) * rangesLeft >= totalCount - rangeStartCount) {
+                ranges.add(new long[]{rangeMinUserId, userId});
+                rangeMinUserId = userId + 1;
+                rangeStartCount = cumulativeCount;
+            }
+        }
+
+        List<long[]> build() {
+            if (ranges.isEmpty() || rangeMinUserId <= lastUserId) {
+                ranges.add(new long[]{rangeMinUserId, Long.MAX_VALUE});
+            } else {
+                ranges.get(ranges.size() - 1)[1] = Long.MAX_VALUE;
+            }
+            return ranges;
+        }
+    }
+}
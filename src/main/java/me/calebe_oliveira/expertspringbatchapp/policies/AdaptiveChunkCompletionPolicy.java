@@ -0,0 +1,113 @@
+package me.calebe_oliveira.expertspringbatchapp.policies;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.repeat.policy.SimpleCompletionPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Completion policy of the chunk steps that adjusts the chunk size to hold the latency of a chunk transaction (read,
+ * process, write and commit along with the step checkpoint) around the target. Chunk starts from the initial size,
+ * and after every committed chunk the size is scaled by the ratio of the target to the measured latency, at most twice
+ * up or down per chunk and within the configured limits. Latency within a quarter of the target keeps the size as is,
+ * so the size does not flap because of noise. Rolled back chunk halves the size, so the retried items are committed
+ * in smaller transactions.
+ * <p>
+ * The current size is put into the step execution context ('chunkSize'), where it is picked up on restart and by the
+ * reader to keep its pages at least as large as the chunk. Every change is recorded there as well, as the number of
+ * changes ('chunkSizeDecisionCount') and descriptions of the last ones ('chunkSizeDecisions').
+ * <p>
+ * Instance holds the state of a single step execution, so it should be step scoped and registered both as
+ * the completion policy and as the chunk listener of the step.
+ */
+public class AdaptiveChunkCompletionPolicy extends SimpleCompletionPolicy implements ChunkListener {
+    public static final String CHUNK_SIZE = "chunkSize";
+    public static final String CHUNK_SIZE_DECISION_COUNT = "chunkSizeDecisionCount";
+    public static final String CHUNK_SIZE_DECISIONS = "chunkSizeDecisions";
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveChunkCompletionPolicy.class);
+    private static final int MAX_RECORDED_DECISIONS = 20;
+    private static final double TOLERANCE = 0.25;
+
+    private final int minChunkSize;
+    private final int maxChunkSize;
+    private final long targetNanos;
+
+    private boolean started;
+    private long chunkStartNanos;
+    private long chunkCount;
+
+    public AdaptiveChunkCompletionPolicy(int initialChunkSize, int minChunkSize, int maxChunkSize, long targetMillis) {
+        if (minChunkSize <= 0 || minChunkSize > maxChunkSize) {
+            throw new IllegalArgumentException("Chunk size limits should be positive and ordered, but were "
+                    + minChunkSize + " and " + maxChunkSize);
+        }
+        if (targetMillis <= 0) {
+            throw new IllegalArgumentException("Target chunk latency should be positive, but was " + targetMillis);
+        }
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.targetNanos = targetMillis * 1000000;
+        setChunkSize(clamp(initialChunkSize));
+    }
+
+    @Override
+    public void beforeChunk(ChunkContext context) {
+        if (!started) {
+            // Restarted step continues with the size it has reached before
+            ExecutionContext executionContext = context.getStepContext().getStepExecution().getExecutionContext();
+            setChunkSize(clamp(executionContext.getInt(CHUNK_SIZE, getChunkSize())));
+            executionContext.putInt(CHUNK_SIZE, getChunkSize());
+            started = true;
+        }
+        chunkCount++;
+        chunkStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public void afterChunk(ChunkContext context) {
+        long latencyNanos = Math.max(1, System.nanoTime() - chunkStartNanos);
+        int chunkSize = getChunkSize();
+        if (Math.abs(latencyNanos - targetNanos) <= targetNanos * TOLERANCE) {
+            return;
+        }
+        double ratio = Math.min(2.0, Math.max(0.5, (double) targetNanos / latencyNanos));
+        decide(context, (int) Math.round(chunkSize * ratio), latencyNanos / 1000000 + " ms");
+    }
+
+    @Override
+    public void afterChunkError(ChunkContext context) {
+        decide(context, getChunkSize() / 2, "rollback");
+    }
+
+    private void decide(ChunkContext context, int requestedChunkSize, String reason) {
+        int previousChunkSize = getChunkSize();
+        int chunkSize = clamp(requestedChunkSize);
+        if (chunkSize == previousChunkSize) {
+            return;
+        }
+        setChunkSize(chunkSize);
+
+        ExecutionContext executionContext = context.getStepContext().getStepExecution().getExecutionContext();
+        executionContext.putInt(CHUNK_SIZE, chunkSize);
+        executionContext.putLong(CHUNK_SIZE_DECISION_COUNT, executionContext.getLong(CHUNK_SIZE_DECISION_COUNT, 0L) + 1);
+        @SuppressWarnings("unchecked")
+        List<String> decisions = executionContext.containsKey(CHUNK_SIZE_DECISIONS)
+                ? new ArrayList<>((List<String>) executionContext.get(CHUNK_SIZE_DECISIONS)) : new ArrayList<>();
+        String decision = "chunk " + chunkCount + ": " + previousChunkSize + " -> " + chunkSize + " (" + reason + ")";
+        decisions.add(decision);
+        if (decisions.size() > MAX_RECORDED_DECISIONS) {
+            decisions.remove(0);
+        }
+        executionContext.put(CHUNK_SIZE_DECISIONS, decisions);
+        LOGGER.debug("Chunk size of " + context.getStepContext().getStepName() + " changed at " + decision);
+    }
+
+    private int clamp(int chunkSize) {
+        return Math.min(maxChunkSize, Math.max(minChunkSize, chunkSize));
+    }
+}
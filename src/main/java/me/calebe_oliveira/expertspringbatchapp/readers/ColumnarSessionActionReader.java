@@ -0,0 +1,70 @@
+package me.calebe_oliveira.expertspringbatchapp.readers;
+
+import me.calebe_oliveira.expertspringbatchapp.model.SessionActionColumns;
+import me.calebe_oliveira.expertspringbatchapp.model.SessionActionTypes;
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStream;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import javax.sql.DataSource;
+
+/**
+ * Reader of session action records in the order of their ids, which fills {@link SessionActionColumns} page by page
+ * with the same keyset queries as {@link SessionActionItemReader}, without creating an object per record.
+ * Action types are decoded into the codes of {@link SessionActionTypes} by the query itself.
+ * <p>
+ * Id of the last read record is stored in the execution context, so the restarted step continues right after it.
+ */
+public class ColumnarSessionActionReader implements ItemStream {
+    public static final String NAME = "columnarSessionActionReader";
+    public static final String LAST_ID = "lastId";
+    private static final String LAST_ID_KEY = NAME + "." + LAST_ID;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String pageQuery;
+
+    private long lastId;
+
+    /**
+     * @param whereClause additional predicate, e.g. the one of the partition, or null to read all records
+     */
+    public ColumnarSessionActionReader(DataSource dataSource, String tableName, String whereClause,
+                                       SessionActionTypes sessionActionTypes) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.pageQuery = SourceDataBaseUtils.constructColumnarSessionActionPageQuery(tableName, whereClause,
+                sessionActionTypes.getNames());
+    }
+
+    /**
+     * Replaces the content of the columns with the next page, which size is the capacity of the columns
+     *
+     * @return number of read records, which is less than the capacity once all the records are read
+     */
+    public int readPage(SessionActionColumns columns) {
+        columns.clear();
+        jdbcTemplate.query(pageQuery, (RowCallbackHandler) rs -> {
+            byte actionCode = rs.getByte("action_code");
+            if (rs.wasNull()) {
+                throw new RuntimeException("Unknown session action record type: " + rs.getString("action_type"));
+            }
+            columns.add(rs.getLong("id"), rs.getLong("user_id"), actionCode, rs.getDouble("amount"));
+        }, lastId, columns.capacity());
+        if (columns.size() > 0) {
+            lastId = columns.getId(columns.size() - 1);
+        }
+        return columns.size();
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        lastId = executionContext.getLong(LAST_ID_KEY, 0L);
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        executionContext.putLong(LAST_ID_KEY, lastId);
+    }
+}
@@ -0,0 +1,131 @@
+package me.calebe_oliveira.expertspringbatchapp.readers;
+
+import me.calebe_oliveira.expertspringbatchapp.model.SessionAction;
+import me.calebe_oliveira.expertspringbatchapp.model.SessionActionFileFormat;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reader of the session action file written by the export job (see {@link SessionActionFileFormat}), which maps
+ * the file into memory segment by segment and decodes the records right from the mapped pages, without copying them
+ * into intermediate buffers. Only the records with ids in the given range are returned, the first one is found with
+ * the binary search over the ordered ids, so ranges of the id range partitioner are read from the same file.
+ * <p>
+ * Byte offset of the next record is stored in the execution context, so the restarted step continues right from it.
+ */
+public class MappedSessionActionFileReader implements ItemStreamReader<SessionAction> {
+    private static final String OFFSET_KEY = "mappedSessionActionFileReader.offset";
+    // Segments are mapped by whole records, 48 MiB each
+    private static final long SEGMENT_RECORDS = 1 << 21;
+
+    private final Path file;
+    private final long afterId;
+    private final long maxId;
+
+    private FileChannel channel;
+    private String[] actionTypes;
+    private long endOffset;
+    private long offset;
+    private MappedByteBuffer segment;
+    private long segmentOffset;
+    private boolean exhausted;
+
+    /**
+     * @param afterId id the returned records start after
+     * @param maxId   id the returned records end with
+     */
+    public MappedSessionActionFileReader(Path file, long afterId, long maxId) {
+        this.file = file;
+        this.afterId = afterId;
+        this.maxId = maxId;
+    }
+
+    @Override
+    public SessionAction read() throws IOException {
+        if (exhausted || offset >= endOffset) {
+            return null;
+        }
+        if (segment == null || offset >= segmentOffset + segment.limit()) {
+            mapSegment();
+        }
+
+        int position = (int) (offset - segmentOffset);
+        long id = segment.getLong(position + SessionActionFileFormat.ID_OFFSET);
+        if (id > maxId) {
+            exhausted = true;
+            return null;
+        }
+        offset += SessionActionFileFormat.RECORD_SIZE;
+        return new SessionAction(id,
+                segment.getInt(position + SessionActionFileFormat.USER_ID_OFFSET),
+                actionTypes[segment.get(position + SessionActionFileFormat.ACTION_CODE_OFFSET)],
+                segment.getDouble(position + SessionActionFileFormat.AMOUNT_OFFSET));
+    }
+
+    private void mapSegment() throws IOException {
+        long segmentIndex = (offset - SessionActionFileFormat.HEADER_SIZE) / SessionActionFileFormat.RECORD_SIZE / SEGMENT_RECORDS;
+        segmentOffset = SessionActionFileFormat.recordOffset(segmentIndex * SEGMENT_RECORDS);
+        long segmentSize = Math.min(SEGMENT_RECORDS * SessionActionFileFormat.RECORD_SIZE, endOffset - segmentOffset);
+        segment = channel.map(FileChannel.MapMode.READ_ONLY, segmentOffset, segmentSize);
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            actionTypes = SessionActionFileFormat.readHeader(channel);
+            endOffset = SessionActionFileFormat.recordOffset(SessionActionFileFormat.recordCount(channel.size()));
+            offset = executionContext.containsKey(OFFSET_KEY)
+                    ? executionContext.getLong(OFFSET_KEY)
+                    : SessionActionFileFormat.recordOffset(firstRecordAfter(afterId));
+        } catch (IOException e) {
+            throw new ItemStreamException("Failed to open session action file " + file, e);
+        }
+        segment = null;
+        exhausted = false;
+    }
+
+    // Index of the first record with id greater than the given one, ids of the file are ordered
+    private long firstRecordAfter(long id) throws IOException {
+        ByteBuffer idBuffer = ByteBuffer.allocate(Long.BYTES);
+        long low = 0;
+        long high = SessionActionFileFormat.recordCount(channel.size());
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            idBuffer.clear();
+            channel.read(idBuffer, SessionActionFileFormat.recordOffset(middle) + SessionActionFileFormat.ID_OFFSET);
+            if (idBuffer.getLong(0) <= id) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        executionContext.putLong(OFFSET_KEY, offset);
+    }
+
+    @Override
+    public void close() throws ItemStreamException {
+        // Mapped segments are released along with the buffer, closing the channel does not unmap them
+        segment = null;
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new ItemStreamException("Failed to close session action file " + file, e);
+        }
+    }
+}
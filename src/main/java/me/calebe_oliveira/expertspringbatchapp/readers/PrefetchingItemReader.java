@@ -0,0 +1,160 @@
+package me.calebe_oliveira.expertspringbatchapp.readers;
+
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reader that reads the items of the delegate on a background thread into a bounded buffer of batches, so that
+ * the next pages are fetched from the database while the current chunk is processed and written. Items are returned
+ * in the order of the delegate.
+ * <p>
+ * State of the delegate is captured after every batch, so the checkpoint consists of the delegate state after the
+ * last fully consumed batch, and the number of items consumed since then ('skipCount'), which are read again and
+ * skipped once the reader is opened. At batch boundaries, the state is the same as the one of the delegate itself.
+ * <p>
+ * The delegate is used by the background thread only, and reads with its own connection, so the step needs one more
+ * connection per reader.
+ */
+public class PrefetchingItemReader<T> implements ItemStreamReader<T> {
+    public static final String NAME = "prefetchingReader";
+    public static final String SKIP_COUNT = "skipCount";
+    private static final String SKIP_COUNT_KEY = NAME + "." + SKIP_COUNT;
+
+    private final ItemStreamReader<T> delegate;
+    private final int batchSize;
+    private final int bufferedBatches;
+
+    private BlockingQueue<Batch<T>> buffer;
+    private Thread prefetchThread;
+    private Batch<T> currentBatch;
+    private int position;
+    // Checkpoint the items of the current batch are counted from
+    private Map<String, Object> baseState;
+    private int baseSkipCount;
+
+    /**
+     * @param batchSize       number of items captured with a single state of the delegate, e.g. the page size
+     * @param bufferedBatches number of batches read ahead of the current one
+     */
+    public PrefetchingItemReader(ItemStreamReader<T> delegate, int batchSize, int bufferedBatches) {
+        if (batchSize <= 0 || bufferedBatches <= 0) {
+            throw new IllegalArgumentException("Batch size and number of buffered batches should be positive");
+        }
+        this.delegate = delegate;
+        this.batchSize = batchSize;
+        this.bufferedBatches = bufferedBatches;
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        delegate.open(executionContext);
+        baseState = stateOfDelegate();
+        baseSkipCount = executionContext.getInt(SKIP_COUNT_KEY, 0);
+        try {
+            for (int i = 0; i < baseSkipCount; i++) {
+                if (delegate.read() == null) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            throw new ItemStreamException("Failed to skip the items read before restart", e);
+        }
+
+        buffer = new ArrayBlockingQueue<>(bufferedBatches);
+        currentBatch = null;
+        position = 0;
+        prefetchThread = new Thread(this::prefetch, "prefetch-" + Thread.currentThread().getName());
+        prefetchThread.setDaemon(true);
+        prefetchThread.start();
+    }
+
+    private void prefetch() {
+        try {
+            while (true) {
+                List<T> items = new ArrayList<>(batchSize);
+                T item;
+                while (items.size() < batchSize && (item = delegate.read()) != null) {
+                    items.add(item);
+                }
+                boolean last = items.size() < batchSize;
+                buffer.put(new Batch<>(items, stateOfDelegate(), last, null));
+                if (last) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // Reader is closed
+        } catch (Throwable e) {
+            try {
+                buffer.put(new Batch<>(List.of(), null, true, e));
+            } catch (InterruptedException interrupted) {
+                // Reader is closed
+            }
+        }
+    }
+
+    @Override
+    public T read() throws Exception {
+        if (currentBatch == null || position == currentBatch.items.size()) {
+            if (currentBatch != null) {
+                if (currentBatch.last) {
+                    return null;
+                }
+                baseState = currentBatch.stateAfter;
+                baseSkipCount = 0;
+            }
+            currentBatch = buffer.take();
+            position = 0;
+            if (currentBatch.failure instanceof Exception e) {
+                throw e;
+            } else if (currentBatch.failure != null) {
+                throw new IllegalStateException("Prefetching items failed", currentBatch.failure);
+            }
+            if (currentBatch.items.isEmpty()) {
+                return null;
+            }
+        }
+        return currentBatch.items.get(position++);
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        if (currentBatch != null && currentBatch.failure == null && position == currentBatch.items.size()) {
+            currentBatch.stateAfter.forEach(executionContext::put);
+            executionContext.putInt(SKIP_COUNT_KEY, 0);
+        } else {
+            baseState.forEach(executionContext::put);
+            executionContext.putInt(SKIP_COUNT_KEY, baseSkipCount + position);
+        }
+    }
+
+    @Override
+    public void close() throws ItemStreamException {
+        if (prefetchThread != null) {
+            prefetchThread.interrupt();
+            try {
+                prefetchThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            prefetchThread = null;
+        }
+        delegate.close();
+    }
+
+    private Map<String, Object> stateOfDelegate() {
+        ExecutionContext state = new ExecutionContext();
+        delegate.update(state);
+        return Map.copyOf(state.toMap());
+    }
+
+    private record Batch<T>(List<T> items, Map<String, Object> stateAfter, boolean last, Throwable failure) {
+    }
+}
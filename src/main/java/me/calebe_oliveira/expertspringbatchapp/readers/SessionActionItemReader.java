@@ -0,0 +1,127 @@
+package me.calebe_oliveira.expertspringbatchapp.readers;
+
+import me.calebe_oliveira.expertspringbatchapp.model.SessionAction;
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntSupplier;
+
+/**
+ * Reader of session action records in the order of their ids, which pages through the table with
+ * 'where id > :lastId order by id limit :pageSize' keyset queries. Every page is served by the primary key index
+ * directly, so no query has to skip or sort the records that have been already read.
+ * <p>
+ * Partitions of a user id range are read in the order of users instead, and of ids within every user, with
+ * 'where (user_id, id) > (:lastUserId, :lastId) order by user_id, id limit :pageSize' queries served by the
+ * (user_id, id) index, as the primary key index would scan the actions of all the other partitions to find the ones
+ * of the range. Actions of every user still come in the order of their ids, which is the only order scores depend on.
+ * <p>
+ * Id (and user id) of the last returned record is stored in the execution context, so the restarted step continues
+ * right after it.
+ * <p>
+ * Page size could be given as a supplier, which is asked before every query, e.g. to follow the adaptive chunk size.
+ */
+public class SessionActionItemReader implements ItemStreamReader<SessionAction> {
+    public static final String NAME = "sessionActionReader";
+    public static final String LAST_ID = "lastId";
+    public static final String LAST_USER_ID = "lastUserId";
+    // Keys of the execution context are prefixed by the name of the reader, in the same way as Spring Batch readers do
+    private static final String LAST_ID_KEY = NAME + "." + LAST_ID;
+    private static final String LAST_USER_ID_KEY = NAME + "." + LAST_USER_ID;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String pageQuery;
+    private final IntSupplier pageSize;
+    private final boolean orderedByUser;
+
+    private List<SessionAction> page = Collections.emptyList();
+    private int pagePosition;
+    private long lastId;
+    private long lastUserId;
+    private boolean exhausted;
+
+    /**
+     * @param whereClause additional predicate, e.g. the one of the partition, or null to read all records
+     */
+    public SessionActionItemReader(DataSource dataSource, String tableName, String whereClause, int pageSize) {
+        this(dataSource, tableName, whereClause, () -> pageSize);
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size should be positive, but was " + pageSize);
+        }
+    }
+
+    /**
+     * @param whereClause additional predicate, e.g. the one of the partition, or null to read all records
+     * @param pageSize    supplier of the size of the next page, which should be positive
+     */
+    public SessionActionItemReader(DataSource dataSource, String tableName, String whereClause, IntSupplier pageSize) {
+        this(dataSource, tableName, whereClause, false, pageSize);
+    }
+
+    /**
+     * @param whereClause   additional predicate, e.g. the one of the partition, or null to read all records
+     * @param orderedByUser whether to read the records in the order of users, e.g. for the partition of a user id range
+     * @param pageSize      supplier of the size of the next page, which should be positive
+     */
+    public SessionActionItemReader(DataSource dataSource, String tableName, String whereClause, boolean orderedByUser,
+                                   IntSupplier pageSize) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.pageQuery = orderedByUser
+                ? SourceDataBaseUtils.constructUserOrderedSessionActionPageQuery(tableName, whereClause)
+                : SourceDataBaseUtils.constructSessionActionPageQuery(tableName, whereClause);
+        this.pageSize = pageSize;
+        this.orderedByUser = orderedByUser;
+    }
+
+    @Override
+    public SessionAction read() {
+        if (pagePosition == page.size()) {
+            if (exhausted) {
+                return null;
+            }
+            readNextPage();
+            if (page.isEmpty()) {
+                return null;
+            }
+        }
+
+        SessionAction sessionAction = page.get(pagePosition++);
+        lastId = sessionAction.getId();
+        lastUserId = sessionAction.getUserId();
+        return sessionAction;
+    }
+
+    private void readNextPage() {
+        int size = pageSize.getAsInt();
+        page = orderedByUser
+                ? jdbcTemplate.query(pageQuery, SourceDataBaseUtils.getSessionActionMapper(), lastUserId, lastId, size)
+                : jdbcTemplate.query(pageQuery, SourceDataBaseUtils.getSessionActionMapper(), lastId, size);
+        pagePosition = 0;
+        // The short page is the last one, so there is no need to query the database once again
+        exhausted = page.size() < size;
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        lastId = executionContext.getLong(LAST_ID_KEY, 0L);
+        // Any user id is larger, so the first page starts with the first user of the range
+        lastUserId = executionContext.getLong(LAST_USER_ID_KEY, Long.MIN_VALUE);
+        page = Collections.emptyList();
+        pagePosition = 0;
+        exhausted = false;
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        executionContext.putLong(LAST_ID_KEY, lastId);
+        if (orderedByUser) {
+            executionContext.putLong(LAST_USER_ID_KEY, lastUserId);
+        }
+    }
+}
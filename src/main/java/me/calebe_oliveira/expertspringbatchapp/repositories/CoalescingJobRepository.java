@@ -0,0 +1,200 @@
+package me.calebe_oliveira.expertspringbatchapp.repositories;
+
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobExecutionAlreadyRunningException;
+import org.springframework.batch.core.repository.JobInstanceAlreadyCompleteException;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.repository.JobRestartException;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Job repository that coalesces the updates the running steps make on every chunk commit: step execution and its
+ * execution context are persisted on the first coalesced update of the step, then once in the given number of chunks
+ * or the given time, whichever comes first, and always once the step is no longer running (completed, failed, stopped).
+ * Only the steps accepted by the given predicate are coalesced, all the other updates and operations are passed to
+ * the delegate as is.
+ * <p>
+ * Step which fails or is stopped inside the process persists the state of its last committed chunk at the end, so its
+ * restart is exact. Step of the process which is killed restarts from the last persisted checkpoint, which could be
+ * up to the given number of chunks behind the committed data, so only the steps which keep their own checkpoint
+ * along with the written data should be coalesced. Checking whether the job is stopped happens on the persisted
+ * updates only, so the steps notice the stop request later as well.
+ */
+public class CoalescingJobRepository implements JobRepository {
+    private static final long NANO_IN_MILLI = 1000000;
+
+    private final JobRepository delegate;
+    private final int chunkInterval;
+    private final long intervalNanos;
+    private final Predicate<StepExecution> coalescedSteps;
+    private final Map<Long, Checkpoint> checkpoints = new ConcurrentHashMap<>();
+
+    /**
+     * @param chunkInterval  number of chunks (updates of the running step) between the persisted ones
+     * @param intervalMillis longest time between the persisted updates of the running step
+     * @param coalescedSteps whether the updates of the running step could be coalesced, it is asked on every update
+     */
+    public CoalescingJobRepository(JobRepository delegate, int chunkInterval, long intervalMillis,
+                                   Predicate<StepExecution> coalescedSteps) {
+        if (chunkInterval <= 0 || intervalMillis <= 0) {
+            throw new IllegalArgumentException("Coalescing intervals should be positive, but were " + chunkInterval
+                    + " chunks and " + intervalMillis + " ms");
+        }
+        this.delegate = delegate;
+        this.chunkInterval = chunkInterval;
+        this.intervalNanos = intervalMillis * NANO_IN_MILLI;
+        this.coalescedSteps = coalescedSteps;
+    }
+
+    @Override
+    public void update(StepExecution stepExecution) {
+        if (!BatchStatus.STARTED.equals(stepExecution.getStatus())) {
+            Checkpoint checkpoint = checkpoints.remove(stepExecution.getId());
+            flush(stepExecution, checkpoint != null && checkpoint.executionContextPending);
+            return;
+        }
+        if (!coalescedSteps.test(stepExecution)) {
+            delegate.update(stepExecution);
+            return;
+        }
+
+        long now = System.nanoTime();
+        Checkpoint checkpoint = checkpoints.get(stepExecution.getId());
+        if (checkpoint == null) {
+            checkpoints.put(stepExecution.getId(), new Checkpoint(now));
+            delegate.update(stepExecution);
+        } else if (++checkpoint.pendingUpdates >= chunkInterval || now - checkpoint.flushTime >= intervalNanos) {
+            flush(stepExecution, checkpoint.executionContextPending);
+            checkpoint.pendingUpdates = 0;
+            checkpoint.executionContextPending = false;
+            checkpoint.flushTime = now;
+        }
+    }
+
+    @Override
+    public void updateExecutionContext(StepExecution stepExecution) {
+        Checkpoint checkpoint = checkpoints.get(stepExecution.getId());
+        if (checkpoint != null && BatchStatus.STARTED.equals(stepExecution.getStatus()) && coalescedSteps.test(stepExecution)) {
+            // Execution context is persisted along with the next persisted update of the step
+            checkpoint.executionContextPending = true;
+        } else {
+            if (checkpoint != null) {
+                checkpoint.executionContextPending = false;
+            }
+            delegate.updateExecutionContext(stepExecution);
+        }
+    }
+
+    private void flush(StepExecution stepExecution, boolean executionContextPending) {
+        if (executionContextPending) {
+            delegate.updateExecutionContext(stepExecution);
+        }
+        delegate.update(stepExecution);
+    }
+
+    @Override
+    public List<String> getJobNames() {
+        return delegate.getJobNames();
+    }
+
+    @Override
+    public List<JobInstance> findJobInstancesByName(String jobName, int start, int count) {
+        return delegate.findJobInstancesByName(jobName, start, count);
+    }
+
+    @Override
+    public List<JobExecution> findJobExecutions(JobInstance jobInstance) {
+        return delegate.findJobExecutions(jobInstance);
+    }
+
+    @Override
+    public boolean isJobInstanceExists(String jobName, JobParameters jobParameters) {
+        return delegate.isJobInstanceExists(jobName, jobParameters);
+    }
+
+    @Override
+    public JobInstance createJobInstance(String jobName, JobParameters jobParameters) {
+        return delegate.createJobInstance(jobName, jobParameters);
+    }
+
+    @Override
+    public JobExecution createJobExecution(String jobName, JobParameters jobParameters)
+            throws JobExecutionAlreadyRunningException, JobRestartException, JobInstanceAlreadyCompleteException {
+        return delegate.createJobExecution(jobName, jobParameters);
+    }
+
+    @Override
+    public void update(JobExecution jobExecution) {
+        delegate.update(jobExecution);
+    }
+
+    @Override
+    public void add(StepExecution stepExecution) {
+        delegate.add(stepExecution);
+    }
+
+    @Override
+    public void addAll(Collection<StepExecution> stepExecutions) {
+        delegate.addAll(stepExecutions);
+    }
+
+    @Override
+    public void updateExecutionContext(JobExecution jobExecution) {
+        delegate.updateExecutionContext(jobExecution);
+    }
+
+    @Override
+    public JobInstance getJobInstance(String jobName, JobParameters jobParameters) {
+        return delegate.getJobInstance(jobName, jobParameters);
+    }
+
+    @Override
+    public StepExecution getLastStepExecution(JobInstance jobInstance, String stepName) {
+        return delegate.getLastStepExecution(jobInstance, stepName);
+    }
+
+    @Override
+    public long getStepExecutionCount(JobInstance jobInstance, String stepName) {
+        return delegate.getStepExecutionCount(jobInstance, stepName);
+    }
+
+    @Override
+    public JobExecution getLastJobExecution(String jobName, JobParameters jobParameters) {
+        return delegate.getLastJobExecution(jobName, jobParameters);
+    }
+
+    @Override
+    public void deleteStepExecution(StepExecution stepExecution) {
+        delegate.deleteStepExecution(stepExecution);
+    }
+
+    @Override
+    public void deleteJobExecution(JobExecution jobExecution) {
+        delegate.deleteJobExecution(jobExecution);
+    }
+
+    @Override
+    public void deleteJobInstance(JobInstance jobInstance) {
+        delegate.deleteJobInstance(jobInstance);
+    }
+
+    // Persistence state of the running step execution, only touched by the thread running the step
+    private static class Checkpoint {
+        private long flushTime;
+        private int pendingUpdates;
+        private boolean executionContextPending;
+
+        private Checkpoint(long flushTime) {
+            this.flushTime = flushTime;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package me.calebe_oliveira.expertspringbatchapp.tasklets;
+
+import me.calebe_oliveira.expertspringbatchapp.listeners.UserScoreCheckpointListener;
+import me.calebe_oliveira.expertspringbatchapp.model.SessionAction;
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreAccumulator;
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreUpdate;
+import me.calebe_oliveira.expertspringbatchapp.writers.ComposingUserScoreItemWriter;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemProcessor;
+import org.springframework.batch.item.ItemReader;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.batch.repeat.RepeatStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tasklet that folds session actions into the {@link UserScoreAccumulator} as they are read, and writes one composed
+ * update per user only once per checkpoint: every execution reads up to the checkpoint interval of session actions,
+ * flushes the accumulator and returns, so that the step commits the reader position right after the flush.
+ * <p>
+ * Accumulator is always empty at the commit, so the checkpoint consists of the reader position and the counters
+ * ('accumulatedActionCount', 'flushedUserCount') only. The reader position is persisted in the job repository after
+ * the flush is committed, so the last flushed session action is also stored by the {@link UserScoreCheckpointListener}
+ * in the transaction of the flush, and the restarted step continues right after it without applying anything twice.
+ * <p>
+ * The tasklet keeps the accumulator between executions, so it should be step scoped.
+ */
+public class AccumulatingUserScoreTasklet implements Tasklet {
+    public static final String ACCUMULATED_ACTION_COUNT = "accumulatedActionCount";
+    public static final String FLUSHED_USER_COUNT = "flushedUserCount";
+
+    private final ItemReader<SessionAction> reader;
+    private final ItemProcessor<SessionAction, UserScoreUpdate> processor;
+    private final ItemWriter<UserScoreUpdate> writer;
+    private final UserScoreCheckpointListener checkpointListener;
+    private final int checkpointInterval;
+    private final UserScoreAccumulator accumulator;
+
+    /**
+     * @param writer             writer to flush the accumulator with, gets at most one update per user
+     * @param checkpointListener listener of the step, which stores the last flushed session action
+     */
+    public AccumulatingUserScoreTasklet(ItemReader<SessionAction> reader,
+                                        ItemProcessor<SessionAction, UserScoreUpdate> processor,
+                                        ItemWriter<UserScoreUpdate> writer,
+                                        UserScoreCheckpointListener checkpointListener,
+                                        int checkpointInterval) {
+        this.reader = reader;
+        this.processor = processor;
+        this.writer = writer;
+        this.checkpointListener = checkpointListener;
+        this.checkpointInterval = checkpointInterval;
+        this.accumulator = new UserScoreAccumulator(checkpointInterval);
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        int accumulatedActions = 0;
+        SessionAction sessionAction = null;
+        while (accumulatedActions < checkpointInterval && (sessionAction = reader.read()) != null) {
+            contribution.incrementReadCount();
+            checkpointListener.afterRead(sessionAction);
+            UserScoreUpdate update = processor.process(sessionAction);
+            if (update == null) {
+                contribution.incrementFilterCount(1);
+            } else {
+                accumulator.fold(update.getUserId(), update.getAdd(), update.getMultiply());
+                accumulatedActions++;
+            }
+        }
+
+        int flushedUsers = flush();
+        checkpointListener.recordWrite();
+        contribution.incrementWriteCount(flushedUsers);
+        recordCheckpoint(contribution.getStepExecution().getExecutionContext(), accumulatedActions, flushedUsers);
+        return sessionAction == null ? RepeatStatus.FINISHED : RepeatStatus.CONTINUABLE;
+    }
+
+    private int flush() throws Exception {
+        try {
+            if (accumulator.size() == 0) {
+                return 0;
+            }
+            List<UserScoreUpdate> updates = new ArrayList<>(accumulator.size());
+            accumulator.forEach((userId, add, multiply) -> updates.add(new UserScoreUpdate(userId, add, multiply)));
+            writer.write(new Chunk<>(updates));
+            return updates.size();
+        } finally {
+            // Whatever was not flushed is read again after restart, from the position of the last checkpoint
+            accumulator.clear();
+        }
+    }
+
+    private static void recordCheckpoint(ExecutionContext executionContext, int accumulatedActions, int flushedUsers) {
+        executionContext.putLong(ACCUMULATED_ACTION_COUNT,
+                executionContext.getLong(ACCUMULATED_ACTION_COUNT, 0L) + accumulatedActions);
+        executionContext.putLong(FLUSHED_USER_COUNT, executionContext.getLong(FLUSHED_USER_COUNT, 0L) + flushedUsers);
+        // Same counter as the one of the chunk by chunk steps, so that the modes could be compared
+        executionContext.putLong(ComposingUserScoreItemWriter.FOLDED_UPDATE_COUNT,
+                executionContext.getLong(ComposingUserScoreItemWriter.FOLDED_UPDATE_COUNT, 0L) + accumulatedActions - flushedUsers);
+    }
+}
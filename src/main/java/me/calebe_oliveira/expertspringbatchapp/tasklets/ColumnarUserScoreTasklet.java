@@ -0,0 +1,75 @@
+package me.calebe_oliveira.expertspringbatchapp.tasklets;
+
+import me.calebe_oliveira.expertspringbatchapp.listeners.UserScoreCheckpointListener;
+import me.calebe_oliveira.expertspringbatchapp.model.SessionActionColumns;
+import me.calebe_oliveira.expertspringbatchapp.model.SessionActionTypes;
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreAccumulator;
+import me.calebe_oliveira.expertspringbatchapp.readers.ColumnarSessionActionReader;
+import me.calebe_oliveira.expertspringbatchapp.writers.ComposingUserScoreItemWriter;
+import me.calebe_oliveira.expertspringbatchapp.writers.UserScoreAccumulatorWriter;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.repeat.RepeatStatus;
+
+/**
+ * Tasklet that handles session actions page by page without creating an object per record: every execution reads
+ * a page into the reused {@link SessionActionColumns}, folds it into the reused {@link UserScoreAccumulator} with the
+ * coefficients of the action type codes, and writes one update per user of the page, so the page is the chunk.
+ * <p>
+ * Last session action of the page is stored by the {@link UserScoreCheckpointListener} in the transaction of the
+ * write, as the reader position of the execution context is persisted only after the commit.
+ * <p>
+ * The tasklet keeps the columns and the accumulator between executions, so it should be step scoped.
+ */
+public class ColumnarUserScoreTasklet implements Tasklet {
+    private final ColumnarSessionActionReader reader;
+    private final SessionActionTypes sessionActionTypes;
+    private final UserScoreAccumulatorWriter writer;
+    private final UserScoreCheckpointListener checkpointListener;
+    private final SessionActionColumns columns;
+    private final UserScoreAccumulator accumulator;
+
+    public ColumnarUserScoreTasklet(ColumnarSessionActionReader reader, SessionActionTypes sessionActionTypes,
+                                    UserScoreAccumulatorWriter writer, UserScoreCheckpointListener checkpointListener,
+                                    int pageSize) {
+        this.reader = reader;
+        this.sessionActionTypes = sessionActionTypes;
+        this.writer = writer;
+        this.checkpointListener = checkpointListener;
+        this.columns = new SessionActionColumns(pageSize);
+        this.accumulator = new UserScoreAccumulator(pageSize);
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        int readCount = reader.readPage(columns);
+        for (int i = 0; i < readCount; i++) {
+            byte actionCode = columns.getActionCode(i);
+            double amount = columns.getAmount(i);
+            accumulator.fold(columns.getUserId(i),
+                    sessionActionTypes.add(actionCode, amount), sessionActionTypes.multiply(actionCode, amount));
+            contribution.incrementReadCount();
+        }
+
+        try {
+            writer.write(accumulator);
+            if (readCount > 0) {
+                checkpointListener.recordRead(columns.getUserId(readCount - 1), columns.getId(readCount - 1));
+                checkpointListener.recordWrite();
+            }
+            contribution.incrementWriteCount(accumulator.size());
+            recordFoldedUpdates(contribution.getStepExecution().getExecutionContext(), readCount - accumulator.size());
+        } finally {
+            accumulator.clear();
+        }
+        // The short page is the last one
+        return readCount < columns.capacity() ? RepeatStatus.FINISHED : RepeatStatus.CONTINUABLE;
+    }
+
+    private static void recordFoldedUpdates(ExecutionContext executionContext, int foldedUpdates) {
+        executionContext.putLong(ComposingUserScoreItemWriter.FOLDED_UPDATE_COUNT,
+                executionContext.getLong(ComposingUserScoreItemWriter.FOLDED_UPDATE_COUNT, 0L) + foldedUpdates);
+    }
+}
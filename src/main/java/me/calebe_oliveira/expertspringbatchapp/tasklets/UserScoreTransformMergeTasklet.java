@@ -0,0 +1,82 @@
+package me.calebe_oliveira.expertspringbatchapp.tasklets;
+
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreTransform;
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tasklet that merges the transforms composed by the calculation step (or by the partitions of session action
+ * id ranges): every execution reads the transforms of the next block of users in the order of the ranges, composes
+ * them into a single exact transform per user, applies it to the user scores and deletes the merged transforms,
+ * all in the transaction of the execution.
+ * <p>
+ * Transforms are composed without rounding, and the score column rounds the result once per user, so the scores
+ * are the same whatever the ranges and the chunks of the run were. Merged transforms are never left behind
+ * the committed scores, so the restarted step simply continues with the transforms left in the table, and every user
+ * score is updated once per run.
+ * <p>
+ * The tasklet keeps the last merged user id between executions to skip the deleted index entries, so it should be
+ * step scoped.
+ */
+public class UserScoreTransformMergeTasklet implements Tasklet {
+    private static final int FETCH_SIZE = 10000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String blockQuery;
+    private final String deleteBlockQuery;
+    private final String updateUserScoreQuery;
+    private final int blockUserCount;
+    private long lastMergedUserId = Long.MIN_VALUE;
+
+    public UserScoreTransformMergeTasklet(DataSource dataSource, String transformTableName, String userScoreTableName,
+                                          int blockUserCount) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        // Transforms of the block are streamed within the transaction instead of being loaded at once
+        this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+        this.blockQuery = SourceDataBaseUtils.constructUserScoreTransformBlockQuery(transformTableName);
+        this.deleteBlockQuery = SourceDataBaseUtils.constructDeleteUserScoreTransformBlockQuery(transformTableName);
+        this.updateUserScoreQuery = SourceDataBaseUtils.constructUpdateUserScoreQuery(userScoreTableName);
+        this.blockUserCount = blockUserCount;
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        List<UserScoreTransform> transforms = new ArrayList<>(blockUserCount);
+        jdbcTemplate.query(blockQuery, (RowCallbackHandler) rs -> {
+            UserScoreTransform transform = new UserScoreTransform(rs.getLong("user_id"),
+                    rs.getBigDecimal("add"), rs.getBigDecimal("multiply"));
+            // Rows of the user come one after another in the order of the ranges, so the ranges are composed in order
+            int last = transforms.size() - 1;
+            if (last >= 0 && transforms.get(last).getUserId() == transform.getUserId()) {
+                transforms.set(last, transforms.get(last).andThen(transform));
+            } else {
+                transforms.add(transform);
+            }
+        }, lastMergedUserId, lastMergedUserId, blockUserCount);
+        if (transforms.isEmpty()) {
+            return RepeatStatus.FINISHED;
+        }
+
+        // Same upsert as the one of the user score writers, with exact parameters
+        jdbcTemplate.batchUpdate(updateUserScoreQuery, transforms, transforms.size(), (ps, transform) -> {
+            ps.setLong(1, transform.getUserId());
+            ps.setBigDecimal(2, transform.getAdd());
+            ps.setBigDecimal(3, transform.getMultiply());
+            ps.setBigDecimal(4, transform.getAdd());
+        });
+        contribution.incrementWriteCount(transforms.size());
+        long blockLastUserId = transforms.get(transforms.size() - 1).getUserId();
+        jdbcTemplate.update(deleteBlockQuery, lastMergedUserId, blockLastUserId);
+        lastMergedUserId = blockLastUserId;
+        return RepeatStatus.CONTINUABLE;
+    }
+}
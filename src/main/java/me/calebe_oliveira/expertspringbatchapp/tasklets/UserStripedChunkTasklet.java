@@ -0,0 +1,197 @@
+package me.calebe_oliveira.expertspringbatchapp.tasklets;
+
+import me.calebe_oliveira.expertspringbatchapp.model.SessionAction;
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreUpdate;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ItemProcessor;
+import org.springframework.batch.item.ItemReader;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tasklet that handles session actions with multiple threads without breaking the order of updates of the same user.
+ * Single reader routes every session action by the hash of its user id to one of the bounded stripe queues, and every
+ * stripe is processed and written in chunks by its own thread, each chunk in its own transaction. Since all actions of
+ * the user end up in the same stripe, they are applied in the order they have been read.
+ * <p>
+ * Reader blocks once the queue of the stripe is full, so it never gets ahead of the slowest stripe by more than the
+ * queue capacity. Stripes commit independently, so the step could not be restarted from the middle, and is expected
+ * to be started over on failure.
+ */
+public class UserStripedChunkTasklet implements Tasklet {
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+    // Golden ratio multiplier to spread user ids, so that stripes stay balanced within "user_id % N" partitions too
+    private static final long USER_ID_HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final ItemReader<SessionAction> reader;
+    private final ItemProcessor<SessionAction, UserScoreUpdate> processor;
+    private final ItemWriter<UserScoreUpdate> writer;
+    private final TransactionTemplate transactionTemplate;
+    private final TaskExecutor taskExecutor;
+    private final int stripeCount;
+    private final int queueCapacity;
+    private final int chunkSize;
+
+    /**
+     * @param taskExecutor executor to run stripes on, should be able to run all the stripes at the same time
+     */
+    public UserStripedChunkTasklet(ItemReader<SessionAction> reader,
+                                   ItemProcessor<SessionAction, UserScoreUpdate> processor,
+                                   ItemWriter<UserScoreUpdate> writer,
+                                   PlatformTransactionManager transactionManager,
+                                   TaskExecutor taskExecutor,
+                                   int stripeCount, int queueCapacity, int chunkSize) {
+        this.reader = reader;
+        this.processor = processor;
+        this.writer = writer;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.taskExecutor = taskExecutor;
+        this.stripeCount = stripeCount;
+        this.queueCapacity = queueCapacity;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        StepExecution stepExecution = contribution.getStepExecution();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicLong writeCount = new AtomicLong();
+        AtomicLong filterCount = new AtomicLong();
+
+        List<BlockingQueue<SessionAction>> queues = new ArrayList<>(stripeCount);
+        List<CompletableFuture<Void>> stripes = new ArrayList<>(stripeCount);
+        for (int i = 0; i < stripeCount; i++) {
+            BlockingQueue<SessionAction> queue = new ArrayBlockingQueue<>(queueCapacity);
+            queues.add(queue);
+            stripes.add(CompletableFuture.runAsync(() -> {
+                // Registering step context, so that step-aware components keep working in the stripe threads
+                StepSynchronizationManager.register(stepExecution);
+                try {
+                    handleStripe(queue, failure, writeCount, filterCount);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    StepSynchronizationManager.close();
+                }
+            }, taskExecutor));
+        }
+
+        try {
+            SessionAction sessionAction;
+            while (failure.get() == null && (sessionAction = reader.read()) != null) {
+                contribution.incrementReadCount();
+                BlockingQueue<SessionAction> queue = queues.get(stripeOf(sessionAction.getUserId()));
+                // Blocking while the stripe is full, but giving up once any of the stripes failed
+                while (!queue.offer(sessionAction, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (failure.get() != null) {
+                        break;
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            for (int i = 0; i < stripeCount; i++) {
+                endStripe(queues.get(i), stripes.get(i));
+            }
+            CompletableFuture.allOf(stripes.toArray(new CompletableFuture<?>[0])).exceptionally(e -> null).join();
+        }
+
+        contribution.incrementWriteCount(writeCount.get());
+        contribution.incrementFilterCount(filterCount.get());
+        if (failure.get() != null) {
+            throw new IllegalStateException("User striped step failed", failure.get());
+        }
+        return RepeatStatus.FINISHED;
+    }
+
+    // Stripe which has already finished (e.g. its thread died) no longer takes items, so its full queue is not waited on
+    private static void endStripe(BlockingQueue<SessionAction> queue, CompletableFuture<Void> stripe) throws InterruptedException {
+        while (!queue.offer(EndOfInput.INSTANCE, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (stripe.isDone()) {
+                return;
+            }
+        }
+    }
+
+    // Keeps taking items until the end marker even after failure, so that the reader never blocks on the full queue
+    private void handleStripe(BlockingQueue<SessionAction> queue, AtomicReference<Throwable> failure,
+                              AtomicLong writeCount, AtomicLong filterCount) throws InterruptedException {
+        List<SessionAction> sessionActions = new ArrayList<>(chunkSize);
+        while (true) {
+            sessionActions.clear();
+            sessionActions.add(queue.take());
+            queue.drainTo(sessionActions, chunkSize - 1);
+
+            boolean endOfInput = sessionActions.get(sessionActions.size() - 1) == EndOfInput.INSTANCE;
+            if (endOfInput) {
+                sessionActions.remove(sessionActions.size() - 1);
+            }
+            if (failure.get() == null && !sessionActions.isEmpty()) {
+                try {
+                    writeChunk(sessionActions, writeCount, filterCount);
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+            if (endOfInput) {
+                return;
+            }
+        }
+    }
+
+    private void writeChunk(List<SessionAction> sessionActions, AtomicLong writeCount, AtomicLong filterCount) throws Exception {
+        Chunk<UserScoreUpdate> updates = new Chunk<>();
+        for (SessionAction sessionAction : sessionActions) {
+            UserScoreUpdate update = processor.process(sessionAction);
+            if (update == null) {
+                filterCount.incrementAndGet();
+            } else {
+                updates.add(update);
+            }
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            try {
+                writer.write(updates);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to write the chunk of user score updates", e);
+            }
+        });
+        writeCount.addAndGet(updates.size());
+    }
+
+    private int stripeOf(long userId) {
+        return Math.floorMod(Long.hashCode(userId * USER_ID_HASH_MULTIPLIER), stripeCount);
+    }
+
+    // Marker put into every stripe queue once the reader is exhausted or failed
+    private static final class EndOfInput extends SessionAction {
+        private static final EndOfInput INSTANCE = new EndOfInput();
+
+        private EndOfInput() {
+            super(-1, -1, null, 0);
+        }
+    }
+}
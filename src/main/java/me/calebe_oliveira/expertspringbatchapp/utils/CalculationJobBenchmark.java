@@ -0,0 +1,151 @@
+package me.calebe_oliveira.expertspringbatchapp.utils;
+
+import me.calebe_oliveira.expertspringbatchapp.ExpertspringbatchappApplication;
+import me.calebe_oliveira.expertspringbatchapp.controllers.ApplicationController;
+import me.calebe_oliveira.expertspringbatchapp.datasources.ConnectionUsageScope;
+import me.calebe_oliveira.expertspringbatchapp.datasources.UsageTrackingDataSource;
+import me.calebe_oliveira.expertspringbatchapp.listeners.MemoryUsageStepListener;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.FutureTask;
+import java.util.stream.Stream;
+
+/**
+ * Runs a calculation job with different settings on the same data, and prints the numbers which compare them. Every
+ * run starts the job through the controller, as its endpoint does, with 'fullRebuild=true' in a fresh application
+ * context, which uses the source database and the job repository of application.properties.
+ * <p>
+ * 'coalescing' compares the statements executed in the job repository by one partitioned local run without
+ * coalescing and with 'batch.repository.coalescing.chunks' set to the given number, as counted by the repository
+ * {@link UsageTrackingDataSource}. Statements the harness executes to wait for the job are left out.
+ * <p>
+ * 'memory' compares the garbage collections, peak heap usage and allocation recorded by
+ * {@link MemoryUsageStepListener} for the steps of the single thread, accumulating and columnar jobs. Collections and
+ * heap are shared by the whole JVM, so the runs go one after another, after a full collection each.
+ * <p>
+ * Arguments: comparison ('coalescing' or 'memory'), then grid size and coalescing chunks for 'coalescing'.
+ */
+public class CalculationJobBenchmark {
+    private static final String COALESCING_COMPARISON = "coalescing";
+    private static final String MEMORY_COMPARISON = "memory";
+    private static final String PARTITIONED_LOCAL_JOB_NAME = "partitionedLocalActionCalculationJob";
+    private static final long MEGABYTE = 1024 * 1024;
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    public static void main(String[] args) throws Exception {
+        String comparison = args.length > 0 ? args[0] : COALESCING_COMPARISON;
+        switch (comparison) {
+            case COALESCING_COMPARISON -> compareCoalescing(args);
+            case MEMORY_COMPARISON -> compareMemoryUsage();
+            default -> throw new IllegalArgumentException("Unknown comparison: " + comparison);
+        }
+    }
+
+    private static void compareCoalescing(String[] args) throws Exception {
+        String gridSize = args.length > 1 ? args[1] : "200";
+        int coalescingChunks = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        Run uncoalesced = run(ApplicationController::startPartitionedLocal, PARTITIONED_LOCAL_JOB_NAME,
+                Map.of("gridSize", gridSize), "--batch.repository.coalescing.chunks=0");
+        Run coalesced = run(ApplicationController::startPartitionedLocal, PARTITIONED_LOCAL_JOB_NAME,
+                Map.of("gridSize", gridSize), "--batch.repository.coalescing.chunks=" + coalescingChunks);
+        System.out.println("Partitioned local job, grid size: " + gridSize);
+        System.out.println("not coalesced: " + uncoalesced.describe());
+        System.out.println("coalesced into every " + coalescingChunks + " chunks: " + coalesced.describe());
+        System.out.println("Coalescing saved " + (uncoalesced.repositoryStatements - coalesced.repositoryStatements)
+                + " repository statements (" + (uncoalesced.repositoryStatements - coalesced.repositoryStatements) * 100
+                / Math.max(1, uncoalesced.repositoryStatements) + "%)");
+    }
+
+    private static void compareMemoryUsage() throws Exception {
+        Map<String, Run> runs = new LinkedHashMap<>();
+        runs.put("single thread", run(ApplicationController::startSimpleLocal, "simpleActionCalculationJob", Map.of()));
+        runs.put("accumulating", run(ApplicationController::startAccumulating, "accumulatingActionCalculationJob", Map.of()));
+        runs.put("columnar", run(ApplicationController::startColumnar, "columnarActionCalculationJob", Map.of()));
+        System.out.println("Maximum heap: " + Runtime.getRuntime().maxMemory() / MEGABYTE + " MB");
+        runs.forEach((name, run) -> {
+            System.out.println(name + " job: " + run.describe());
+            for (StepExecution stepExecution : run.jobExecution.getStepExecutions()) {
+                if (stepExecution.getExecutionContext().containsKey(MemoryUsageStepListener.PEAK_HEAP_BYTES)) {
+                    System.out.println("  " + describeMemoryUsage(stepExecution));
+                }
+            }
+        });
+    }
+
+    private static String describeMemoryUsage(StepExecution stepExecution) {
+        ExecutionContext executionContext = stepExecution.getExecutionContext();
+        long durationMillis = Duration.between(stepExecution.getStartTime(), stepExecution.getEndTime()).toMillis();
+        return stepExecution.getStepName() + ": " + stepExecution.getReadCount() + " session actions in "
+                + durationMillis + " ms, " + executionContext.getLong(MemoryUsageStepListener.GC_COUNT)
+                + " garbage collections taking " + executionContext.getLong(MemoryUsageStepListener.GC_MILLIS)
+                + " ms, heap usage peaked at " + executionContext.getLong(MemoryUsageStepListener.PEAK_HEAP_BYTES) / MEGABYTE
+                + " MB, step thread allocated "
+                + executionContext.getLong(MemoryUsageStepListener.ALLOCATED_BYTES_PER_MILLION_ROWS, 0L) / MEGABYTE
+                + " MB per million session actions";
+    }
+
+    private static Run run(JobStart jobStart, String jobName, Map<String, String> jobParameters, String... properties)
+            throws Exception {
+        String[] arguments = Stream.concat(Stream.of("--server.port=0"), Stream.of(properties)).toArray(String[]::new);
+        try (ConfigurableApplicationContext context = SpringApplication.run(ExpertspringbatchappApplication.class, arguments)) {
+            UsageTrackingDataSource repositoryDataSource = context.getBean("dataSource", UsageTrackingDataSource.class);
+            JobExplorer jobExplorer = context.getBean(JobExplorer.class);
+            Map<String, String> runParameters = new HashMap<>(jobParameters);
+            runParameters.put("fullRebuild", "true");
+            // Garbage of the previous runs and of the startup does not count towards the heap usage of the job
+            System.gc();
+
+            long statementsBefore = repositoryDataSource.getStatementCount();
+            jobStart.start(context.getBean(ApplicationController.class), runParameters);
+            // Waiting thread records its statements in its own scope, so they could be subtracted from the total
+            FutureTask<Long> completion = new FutureTask<>(() -> awaitCompletion(jobExplorer, jobName,
+                    repositoryDataSource.getPoolName()));
+            new Thread(completion, "benchmark-completion").start();
+            long waitingStatements = completion.get();
+            long repositoryStatements = repositoryDataSource.getStatementCount() - statementsBefore - waitingStatements;
+
+            JobExecution jobExecution = jobExplorer.getLastJobExecution(jobExplorer.getLastJobInstance(jobName));
+            return new Run(jobExecution, repositoryStatements);
+        }
+    }
+
+    // Waits for the job to end, and returns the number of repository statements executed to find out
+    private static long awaitCompletion(JobExplorer jobExplorer, String jobName, String repositoryPoolName)
+            throws InterruptedException {
+        ConnectionUsageScope scope = ConnectionUsageScope.start();
+        try {
+            while (!jobExplorer.findRunningJobExecutions(jobName).isEmpty()) {
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            }
+            return scope.getUsage(repositoryPoolName).getStatements();
+        } finally {
+            ConnectionUsageScope.end();
+        }
+    }
+
+    private interface JobStart {
+        String start(ApplicationController controller, Map<String, String> jobParameters) throws Exception;
+    }
+
+    private record Run(JobExecution jobExecution, long repositoryStatements) {
+
+        String describe() {
+            String description = repositoryStatements + " repository statements";
+            return jobExecution.getStatus() == BatchStatus.COMPLETED
+                    ? description
+                    : description + ", but the job execution with id = " + jobExecution.getId() + " is "
+                    + jobExecution.getStatus() + ", so the runs could not be compared";
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package me.calebe_oliveira.expertspringbatchapp.utils;
+
+import me.calebe_oliveira.expertspringbatchapp.executors.BoundedTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares executors used to run partitions at high partition counts, with the partition simulated by a sequence
+ * of blocking calls of the given latency (e.g. JDBC round trips). Reports throughput in calls per second, and heap
+ * and thread count observed while partitions are running.
+ * <p>
+ * Arguments: partition count, calls per partition, call latency in millis, concurrency (connection budget).
+ * Virtual threads are benchmarked only on Java 21 and higher.
+ */
+public class ExecutorBenchmark {
+    private static final MemoryMXBean MEMORY_MX_BEAN = ManagementFactory.getMemoryMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int partitionCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int callsPerPartition = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        long callLatencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 5;
+        int concurrency = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+
+        System.out.println("Partitions: " + partitionCount + ", calls per partition: " + callsPerPartition
+                + ", call latency: " + callLatencyMillis + " ms, concurrency: " + concurrency);
+        run("unbounded platform threads", new SimpleAsyncTaskExecutor(), partitionCount, callsPerPartition, callLatencyMillis);
+        BoundedTaskExecutor workStealingExecutor = BoundedTaskExecutor.workStealing(concurrency);
+        run("work-stealing pool", workStealingExecutor, partitionCount, callsPerPartition, callLatencyMillis);
+        workStealingExecutor.destroy();
+        if (Runtime.version().feature() >= 21) {
+            run("virtual threads", BoundedTaskExecutor.virtualThreads("benchmark-", new Semaphore(concurrency)),
+                    partitionCount, callsPerPartition, callLatencyMillis);
+        } else {
+            System.out.println("Skipping virtual threads, since they require Java 21");
+        }
+    }
+
+    private static void run(String name, TaskExecutor executor, int partitionCount, int callsPerPartition,
+                            long callLatencyMillis) throws InterruptedException {
+        System.gc();
+        long heapBefore = MEMORY_MX_BEAN.getHeapMemoryUsage().getUsed();
+        CountDownLatch completed = new CountDownLatch(partitionCount);
+        long startTime = System.nanoTime();
+        for (int i = 0; i < partitionCount; i++) {
+            executor.execute(() -> {
+                try {
+                    for (int call = 0; call < callsPerPartition; call++) {
+                        Thread.sleep(callLatencyMillis);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    completed.countDown();
+                }
+            });
+        }
+
+        long peakHeap = 0;
+        int peakThreads = 0;
+        while (!completed.await(10, TimeUnit.MILLISECONDS)) {
+            peakHeap = Math.max(peakHeap, MEMORY_MX_BEAN.getHeapMemoryUsage().getUsed() - heapBefore);
+            peakThreads = Math.max(peakThreads, ManagementFactory.getThreadMXBean().getThreadCount());
+        }
+        long durationMillis = Math.max(1, (System.nanoTime() - startTime) / 1_000_000);
+        System.out.println(name + ": " + durationMillis + " ms, "
+                + (long) partitionCount * callsPerPartition * 1000 / durationMillis + " calls per second, peak heap growth "
+                + peakHeap / 1024 / 1024 + " MB, peak platform threads " + peakThreads);
+    }
+}
@@ -2,36 +2,183 @@ package me.calebe_oliveira.expertspringbatchapp.utils;
 
 import me.calebe_oliveira.expertspringbatchapp.config.SourceConfiguration;
 import me.calebe_oliveira.expertspringbatchapp.model.SessionAction;
-import org.springframework.context.ApplicationContext;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 import javax.sql.DataSource;
-import java.util.Random;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+/**
+ * Generates session action records into the source database. Records are split into contiguous id ranges, and every
+ * range is streamed by its own producer thread with a single COPY FROM STDIN. Primary key and the user id index are
+ * created once all the records are loaded, which is much faster than maintaining them during the load.
+ * <p>
+ * Arguments: record count, user count, user distribution ('uniform', or 'zipf' optionally followed by the exponent,
+ * e.g. 'zipf:1.2'), ratio of 'plus' actions, seed, producer count, and whether to create the indexes. Every range is
+ * generated from its own seed derived from the given one, so the same arguments always give the same records.
+ */
 public class GenerateSourceDatabase {
-    private static final int USER_COUNT = 5;
-    private static final int RECORD_COUNT = 20;
-    private static final Random RANDOM = new Random();
+    private static final String UNIFORM_DISTRIBUTION = "uniform";
+    private static final String ZIPF_DISTRIBUTION = "zipf";
+    private static final double DEFAULT_ZIPF_EXPONENT = 1d;
+    // Rows sent to the database with a single write to the COPY stream
+    private static final int COPY_BATCH_SIZE = 10_000;
 
-    public static void main(String[] args) {
-        ApplicationContext context = new AnnotationConfigApplicationContext(SourceConfiguration.class);
-        JdbcTemplate jdbcTemplate = new JdbcTemplate(context.getBean(DataSource.class));
+    public static void main(String[] args) throws Exception {
+        long recordCount = args.length > 0 ? Long.parseLong(args[0]) : 20;
+        int userCount = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String distribution = args.length > 2 ? args[2] : UNIFORM_DISTRIBUTION;
+        double plusRatio = args.length > 3 ? Double.parseDouble(args[3]) : 0.5;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+        int producerCount = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+        boolean createIndexes = args.length <= 6 || Boolean.parseBoolean(args[6]);
+        UserIdDistribution userIdDistribution = userIdDistribution(distribution, userCount);
 
-        SourceDataBaseUtils.dropTableIfExists(jdbcTemplate, SessionAction.SESSION_ACTION_TABLE_NAME);
-        SourceDataBaseUtils.createSessionActionTable(jdbcTemplate, SessionAction.SESSION_ACTION_TABLE_NAME);
+        // Every producer holds its own connection for the whole load
+        System.setProperty("db.src.pool.size", String.valueOf(producerCount));
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(SourceConfiguration.class)) {
+            DataSource dataSource = context.getBean(DataSource.class);
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
 
-        for (int i = 0; i < RECORD_COUNT; i++) {
-            SourceDataBaseUtils.insertSessionAction(jdbcTemplate, generateRecord(i + 1), SessionAction.SESSION_ACTION_TABLE_NAME);
+            SourceDataBaseUtils.dropTableIfExists(jdbcTemplate, SessionAction.SESSION_ACTION_TABLE_NAME);
+            SourceDataBaseUtils.createUnindexedSessionActionTable(jdbcTemplate, SessionAction.SESSION_ACTION_TABLE_NAME);
+
+            long startTime = System.nanoTime();
+            load(dataSource, recordCount, producerCount, seed, userIdDistribution, plusRatio);
+            long loadMillis = Math.max(1, (System.nanoTime() - startTime) / 1_000_000);
+            System.out.println("Loaded " + recordCount + " records in " + loadMillis + " ms ("
+                    + recordCount * 1000 / loadMillis + " records per second)");
+
+            if (createIndexes) {
+                startTime = System.nanoTime();
+                SourceDataBaseUtils.addSessionActionPrimaryKey(jdbcTemplate, SessionAction.SESSION_ACTION_TABLE_NAME);
+                SourceDataBaseUtils.createSessionActionUserIdIndex(jdbcTemplate, SessionAction.SESSION_ACTION_TABLE_NAME);
+                System.out.println("Created indexes in " + (System.nanoTime() - startTime) / 1_000_000 + " ms");
+            }
+            // Ids are generated explicitly, so moving the sequence past them for the records inserted later on
+            SourceDataBaseUtils.syncSessionActionIdSequence(jdbcTemplate, SessionAction.SESSION_ACTION_TABLE_NAME);
+            jdbcTemplate.execute("analyze " + SessionAction.SESSION_ACTION_TABLE_NAME);
+        }
+
+        System.out.println("Input source table with " + recordCount + " records of " + userCount + " users ("
+                + distribution + " distribution) is successfully initialized");
+    }
+
+    private static void load(DataSource dataSource, long recordCount, int producerCount, long seed,
+                             UserIdDistribution userIdDistribution, double plusRatio) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(producerCount);
+        try {
+            List<Future<?>> producers = new ArrayList<>(producerCount);
+            long rangeSize = (recordCount + producerCount - 1) / producerCount;
+            for (int i = 0; i < producerCount; i++) {
+                long firstId = 1 + i * rangeSize;
+                long lastId = Math.min(recordCount, firstId + rangeSize - 1);
+                if (firstId > lastId) {
+                    break;
+                }
+                SplittableRandom random = new SplittableRandom(seed + i * 0x9E3779B97F4A7C15L);
+                producers.add(executor.submit(() -> {
+                    copyRange(dataSource, firstId, lastId, random, userIdDistribution, plusRatio);
+                    return null;
+                }));
+            }
+            for (Future<?> producer : producers) {
+                producer.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void copyRange(DataSource dataSource, long firstId, long lastId, SplittableRandom random,
+                                  UserIdDistribution userIdDistribution, double plusRatio) throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI()
+                    .copyIn(SourceDataBaseUtils.constructCopySessionActionQuery(SessionAction.SESSION_ACTION_TABLE_NAME));
+            try {
+                StringBuilder rows = new StringBuilder(COPY_BATCH_SIZE * 32);
+                for (long id = firstId; id <= lastId; id++) {
+                    appendRecord(rows, id, random, userIdDistribution, plusRatio);
+                    if ((id - firstId + 1) % COPY_BATCH_SIZE == 0 || id == lastId) {
+                        byte[] bytes = rows.toString().getBytes(StandardCharsets.UTF_8);
+                        copyIn.writeToCopy(bytes, 0, bytes.length);
+                        rows.setLength(0);
+                    }
+                }
+                copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+        }
+    }
+
+    // Tab separated (id, user_id, action_type, amount) row in the text format of COPY
+    private static void appendRecord(StringBuilder rows, long id, SplittableRandom random,
+                                     UserIdDistribution userIdDistribution, double plusRatio) {
+        rows.append(id).append('\t').append(userIdDistribution.next(random)).append('\t');
+        if (random.nextDouble() < plusRatio) {
+            rows.append(SourceDataBaseUtils.PLUS_TYPE).append('\t').append(1 + random.nextInt(3));
+        } else {
+            rows.append(SourceDataBaseUtils.MULTI_TYPE).append("\t1.").append(1 + random.nextInt(5));
+        }
+        rows.append('\n');
+    }
+
+    private static UserIdDistribution userIdDistribution(String distribution, int userCount) {
+        if (UNIFORM_DISTRIBUTION.equals(distribution)) {
+            return random -> 1 + random.nextInt(userCount);
+        } else if (distribution.startsWith(ZIPF_DISTRIBUTION)) {
+            double exponent = distribution.startsWith(ZIPF_DISTRIBUTION + ":")
+                    ? Double.parseDouble(distribution.substring(ZIPF_DISTRIBUTION.length() + 1))
+                    : DEFAULT_ZIPF_EXPONENT;
+            return new ZipfUserIdDistribution(userCount, exponent);
+        } else {
+            throw new IllegalArgumentException("Unknown user distribution: " + distribution);
         }
+    }
 
-        System.out.println("Input source table with " + RECORD_COUNT + " records is successfully initialized");
+    @FunctionalInterface
+    private interface UserIdDistribution {
+        long next(SplittableRandom random);
     }
 
-    private static SessionAction generateRecord(long id) {
-        long userId = 1 + RANDOM.nextInt(USER_COUNT);
-        return RANDOM.nextBoolean()
-                ? new SessionAction(id, userId, SourceDataBaseUtils.PLUS_TYPE, 1 + RANDOM.nextInt(3))
-                : new SessionAction(id, userId, SourceDataBaseUtils.MULTI_TYPE, (double) ((1 + RANDOM.nextInt(5))) / 10 + 1d);
+    /**
+     * User id k (from 1 to the user count) is picked with the probability proportional to 1 / k^exponent, so user 1
+     * is the most active one. Sampled by the binary search over the precomputed cumulative distribution, which is
+     * shared by all the producers.
+     */
+    private static final class ZipfUserIdDistribution implements UserIdDistribution {
+        private final double[] cumulativeProbabilities;
+
+        private ZipfUserIdDistribution(int userCount, double exponent) {
+            cumulativeProbabilities = new double[userCount];
+            double sum = 0;
+            for (int k = 1; k <= userCount; k++) {
+                sum += 1 / Math.pow(k, exponent);
+                cumulativeProbabilities[k - 1] = sum;
+            }
+            for (int i = 0; i < userCount; i++) {
+                cumulativeProbabilities[i] /= sum;
+            }
+        }
+
+        @Override
+        public long next(SplittableRandom random) {
+            int index = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+            int userIndex = index >= 0 ? index : -index - 1;
+            return 1 + Math.min(userIndex, cumulativeProbabilities.length - 1);
+        }
     }
 }
@@ -1,6 +1,7 @@
 package me.calebe_oliveira.expertspringbatchapp.utils;
 
 import me.calebe_oliveira.expertspringbatchapp.model.SessionAction;
+import me.calebe_oliveira.expertspringbatchapp.model.SessionActionTypes;
 import me.calebe_oliveira.expertspringbatchapp.model.UserScoreUpdate;
 import org.springframework.batch.item.database.ItemPreparedStatementSetter;
 import org.springframework.batch.item.database.Order;
@@ -14,6 +15,19 @@ import java.util.Collections;
 public class SourceDataBaseUtils {
     public static final String PLUS_TYPE = "plus";
     public static final String MULTI_TYPE = "multi";
+    // Types of session actions, and the user score updates they produce: 'plus' adds the amount, 'multi' multiplies by it
+    public static final SessionActionTypes SESSION_ACTION_TYPES = new SessionActionTypes()
+            .register(PLUS_TYPE, 1d, 0d, 0d, 1d)
+            .register(MULTI_TYPE, 0d, 0d, 1d, 0d);
+    // Number of connections the database could accept on top of the currently opened ones
+    public static final String AVAILABLE_CONNECTIONS_QUERY =
+            "select current_setting('max_connections')::int - (select count(*) from pg_stat_activity)";
+    // Oldest transaction id which is still running, every transaction with a smaller id has finished (PostgreSQL 13+)
+    public static final String OLDEST_RUNNING_TRANSACTION_QUERY =
+            "select pg_snapshot_xmin(pg_current_snapshot())::text::bigint";
+    // Session level advisory lock and its release, both should be executed on the same connection
+    public static final String ADVISORY_LOCK_QUERY = "select pg_advisory_lock(?)";
+    public static final String ADVISORY_UNLOCK_QUERY = "select pg_advisory_unlock(?)";
 
     public static void dropTableIfExists(JdbcTemplate jdbcTemplate, String tableName) {
         jdbcTemplate.update("drop table if exists " + tableName);
@@ -30,6 +44,37 @@ public class SourceDataBaseUtils {
                 ")");
     }
 
+    // Creates the same schema of session action table without the primary key, to be added once the table is loaded
+    public static void createUnindexedSessionActionTable(JdbcTemplate jdbcTemplate, String tableName) {
+        jdbcTemplate.update("create table " + tableName + " (" +
+                "id serial not null," +
+                "user_id int not null," +
+                // Either 'plus' or 'multi'
+                "action_type varchar(36) not null," +
+                "amount numeric(10,2) not null" +
+                ")");
+    }
+
+    public static void addSessionActionPrimaryKey(JdbcTemplate jdbcTemplate, String tableName) {
+        jdbcTemplate.update("alter table " + tableName + " add primary key (id)");
+    }
+
+    // Moves the id sequence past the largest id, for the table loaded with explicit ids
+    public static void syncSessionActionIdSequence(JdbcTemplate jdbcTemplate, String tableName) {
+        jdbcTemplate.queryForObject("select setval(pg_get_serial_sequence('" + tableName + "', 'id'), " +
+                "coalesce(max(id), 0) + 1, false) from " + tableName, Long.class);
+    }
+
+    // Expects tab separated (id, user_id, action_type, amount) rows in the text format of COPY
+    public static String constructCopySessionActionQuery(String tableName) {
+        return "copy " + tableName + " (id, user_id, action_type, amount) from stdin";
+    }
+
+    // Creates an index to select session actions of the user id range in the order of their ids
+    public static void createSessionActionUserIdIndex(JdbcTemplate jdbcTemplate, String tableName) {
+        jdbcTemplate.update("create index if not exists " + tableName + "_user_id_idx on " + tableName + " (user_id, id)");
+    }
+
     // Creates a schema for user score table
     public static void createUserScoreTable(JdbcTemplate jdbcTemplate, String tableName) {
         jdbcTemplate.update("create table " + tableName + " (" +
@@ -38,12 +83,51 @@ public class SourceDataBaseUtils {
                 ")");
     }
 
+    // Scores of the users of the array parameter
+    public static String constructUserScoresQuery(String tableName) {
+        return "select user_id, score from " + tableName + " where user_id = any(?)";
+    }
+
     public static String constructUpdateUserScoreQuery(String tableName) {
         return "insert into " + tableName + " (user_id, score) values (?, ?) " +
                 "on conflict (user_id) do " +
                 "update set score = " + tableName + ".score * ? + ?";
     }
 
+    // Temporary table, which is emptied on commit, to stage composed user score updates before merging them,
+    // the primary key is used by the upsert to look up the update of the conflicting user
+    public static String constructCreateUserScoreStagingTableQuery(String stagingTableName) {
+        return "create temporary table if not exists " + stagingTableName + " (" +
+                "user_id int primary key," +
+                "add double precision not null," +
+                "multiply double precision not null" +
+                ") on commit delete rows";
+    }
+
+    // Expects tab separated (user_id, add, multiply) rows in the text format of COPY
+    public static String constructCopyUserScoreStagingQuery(String stagingTableName) {
+        return "copy " + stagingTableName + " (user_id, add, multiply) from stdin";
+    }
+
+    // Applies staged updates in the same way as constructUpdateUserScoreQuery does, staging table should contain
+    // at most one update per user
+    public static String constructMergeUserScoreStagingQuery(String tableName, String stagingTableName) {
+        return "merge into " + tableName + " using " + stagingTableName + " " +
+                "on " + tableName + ".user_id = " + stagingTableName + ".user_id " +
+                "when matched then update set score = " + tableName + ".score * " + stagingTableName + ".multiply + " + stagingTableName + ".add " +
+                "when not matched then insert (user_id, score) values (" + stagingTableName + ".user_id, " + stagingTableName + ".add)";
+    }
+
+    // Applies staged updates in the same way as constructMergeUserScoreStagingQuery does, for the servers older than
+    // PostgreSQL 15, which have no MERGE. Update is taken from the staging table, since the excluded row has the
+    // score already rounded to the column scale
+    public static String constructUpsertUserScoreStagingQuery(String tableName, String stagingTableName) {
+        return "insert into " + tableName + " (user_id, score) select user_id, add from " + stagingTableName + " " +
+                "on conflict (user_id) do update set score = (" +
+                "select " + tableName + ".score * " + stagingTableName + ".multiply + " + stagingTableName + ".add " +
+                "from " + stagingTableName + " where " + stagingTableName + ".user_id = excluded.user_id)";
+    }
+
     // Parameter setter for org.example.SourceDatabaseUtils.constructUpdateUserScoreQuery
     public static ItemPreparedStatementSetter<UserScoreUpdate> UPDATE_USER_SCORE_PARAMETER_SETTER = (item, ps) -> {
         ps.setLong(1, item.getUserId());
@@ -67,13 +151,167 @@ public class SourceDataBaseUtils {
         return queryProvider;
     }
 
-    public static PagingQueryProvider selectPartitionOfSessionActionsProvider(String tableName,
-                                                                              int partitionCount, int partitionIndex) {
+    public static PagingQueryProvider selectSessionActionsProvider(String tableName, String whereClause) {
         PostgresPagingQueryProvider queryProvider = selectAllSessionActionsProvider(tableName);
-        queryProvider.setWhereClause("user_id % " + partitionCount + " = " + partitionIndex);
+        queryProvider.setWhereClause(whereClause);
         return queryProvider;
     }
 
+    public static String partitionOfSessionActionsPredicate(int partitionCount, int partitionIndex) {
+        return "user_id % " + partitionCount + " = " + partitionIndex;
+    }
+
+    // Composed (score = score * multiply + add) updates of every user within every session action id range, ordered
+    // by user first, so that the ranges of a user are merged by a single index scan. Both are exact numeric values,
+    // so composing them does not round anything
+    public static String constructCreateUserScoreTransformTableQuery(String transformTableName) {
+        return "create table " + transformTableName + " (" +
+                "user_id int not null," +
+                "range_index int not null," +
+                "add numeric not null," +
+                "multiply numeric not null," +
+                "primary key (user_id, range_index)" +
+                ")";
+    }
+
+    // Composes the update with the one stored for the same user and range, which is applied before it,
+    // parameters are user id, range index, add and multiply
+    public static String constructUpsertUserScoreTransformQuery(String transformTableName) {
+        return "insert into " + transformTableName + " (user_id, range_index, add, multiply) values (?, ?, ?, ?) " +
+                "on conflict (user_id, range_index) do " +
+                "update set add = " + transformTableName + ".add * excluded.multiply + excluded.add, " +
+                "multiply = " + transformTableName + ".multiply * excluded.multiply";
+    }
+
+    // Updates of the next block of users in the order of the ranges, parameters are the last merged user id (twice)
+    // and the number of users in the block
+    public static String constructUserScoreTransformBlockQuery(String transformTableName) {
+        return "select user_id, add, multiply from " + transformTableName + " " +
+                "where user_id > ? and user_id <= (" +
+                "select max(user_id) from (" +
+                "select distinct user_id from " + transformTableName + " where user_id > ? order by user_id limit ?" +
+                ") block) " +
+                "order by user_id, range_index";
+    }
+
+    // Parameters are the bounds of the merged block of users
+    public static String constructDeleteUserScoreTransformBlockQuery(String transformTableName) {
+        return "delete from " + transformTableName + " where user_id > ? and user_id <= ?";
+    }
+
+    // Id of the last session action applied by every step (partition) of the job instance, so the restarted step
+    // continues right after it, even if its execution context was not persisted after the last commit
+    public static String constructCreateUserScoreCheckpointTableQuery(String checkpointTableName) {
+        return "create table if not exists " + checkpointTableName + " (" +
+                "job_instance_id bigint not null," +
+                "step_name varchar(100) not null," +
+                "last_session_action_id bigint not null," +
+                "last_user_id bigint not null default 0," +
+                "primary key (job_instance_id, step_name)" +
+                ")";
+    }
+
+    // User id of the last session action, which positions the readers of user id ranges, was added to the checkpoint
+    // table later, so the table created before gets it here
+    public static String constructAddLastUserIdToUserScoreCheckpointTableQuery(String checkpointTableName) {
+        return "alter table " + checkpointTableName + " add column if not exists last_user_id bigint not null default 0";
+    }
+
+    // Parameters are job instance id and step name
+    public static String constructUserScoreCheckpointQuery(String checkpointTableName) {
+        return "select last_session_action_id from " + checkpointTableName + " where job_instance_id = ? and step_name = ?";
+    }
+
+    // User id and id of the last session action, parameters are job instance id and step name
+    public static String constructUserScoreCheckpointPositionQuery(String checkpointTableName) {
+        return "select last_user_id, last_session_action_id from " + checkpointTableName + " " +
+                "where job_instance_id = ? and step_name = ?";
+    }
+
+    // Moves the checkpoint only if it is still the one the step has seen, so the update of the step execution which
+    // runs the same partition concurrently is not applied. Parameters are job instance id, step name, the new user id
+    // and session action id, and the expected session action id
+    public static String constructUpsertUserScoreCheckpointQuery(String checkpointTableName) {
+        return "insert into " + checkpointTableName + " (job_instance_id, step_name, last_user_id, last_session_action_id) " +
+                "values (?, ?, ?, ?) on conflict (job_instance_id, step_name) do " +
+                "update set last_user_id = excluded.last_user_id, last_session_action_id = excluded.last_session_action_id " +
+                "where " + checkpointTableName + ".last_session_action_id = ?";
+    }
+
+    // Creates the checkpoint unless it exists, parameters are job instance id, step name and session action id
+    public static String constructInsertUserScoreCheckpointQuery(String checkpointTableName) {
+        return "insert into " + checkpointTableName + " (job_instance_id, step_name, last_session_action_id) values (?, ?, ?) " +
+                "on conflict (job_instance_id, step_name) do nothing";
+    }
+
+    // Locks the checkpoint till the end of the transaction, parameters are job instance id and step name
+    public static String constructLockUserScoreCheckpointQuery(String checkpointTableName) {
+        return constructUserScoreCheckpointQuery(checkpointTableName) + " for update";
+    }
+
+    // Parameters are session action id, job instance id and step name
+    public static String constructUpdateUserScoreCheckpointQuery(String checkpointTableName) {
+        return "update " + checkpointTableName + " set last_session_action_id = ? where job_instance_id = ? and step_name = ?";
+    }
+
+    // Parameters are job instance id and step name
+    public static String constructDeleteUserScoreCheckpointQuery(String checkpointTableName) {
+        return "delete from " + checkpointTableName + " where job_instance_id = ? and step_name = ?";
+    }
+
+    // Predicate of the user id range, which could be served by the user id index
+    public static String userIdRangeOfSessionActionsPredicate(long minUserId, long maxUserId) {
+        return "user_id between " + minUserId + " and " + maxUserId;
+    }
+
+    // Predicate of the session actions inserted after the previous run, which is served by the primary key index
+    public static String idRangeOfSessionActionsPredicate(long afterId, long upToId) {
+        return "id > " + afterId + " and id <= " + upToId;
+    }
+
+    // Largest session action id along with the id the next transaction gets, taken from the same snapshot
+    public static String constructMaxSessionActionIdQuery(String tableName) {
+        return "select coalesce(max(id), 0) as max_id, pg_snapshot_xmax(pg_current_snapshot())::text::bigint as snapshot_xmax"
+                + " from " + tableName;
+    }
+
+    // Number of actions per user ordered by user id, along with the total number of actions,
+    // either over the whole table or over the sample of its pages
+    public static String constructUserActionHistogramQuery(String tableName, double samplePercent) {
+        return "select user_id, count(*) as action_count, sum(count(*)) over () as total_count " +
+                "from " + tableName + (samplePercent < 100 ? " tablesample system (" + samplePercent + ")" : "") + " " +
+                "group by user_id order by user_id";
+    }
+
+    // Keyset page query of session actions, parameters are the last read id and the page size
+    public static String constructSessionActionPageQuery(String tableName, String whereClause) {
+        return "select id, user_id, action_type, amount from " + tableName + " " +
+                "where id > ?" + (whereClause == null ? "" : " and (" + whereClause + ")") + " " +
+                "order by id limit ?";
+    }
+
+    // Keyset page query of session actions in the order of users, and of ids within every user, which is served by
+    // the (user_id, id) index directly; parameters are the user id and id of the last read action, and the page size
+    public static String constructUserOrderedSessionActionPageQuery(String tableName, String whereClause) {
+        return "select id, user_id, action_type, amount from " + tableName + " " +
+                "where (user_id, id) > (?, ?)" + (whereClause == null ? "" : " and (" + whereClause + ")") + " " +
+                "order by user_id, id limit ?";
+    }
+
+    // Keyset page query of session actions with action types decoded into the codes of the given types, which are
+    // the positions of the types in the list, null for unknown types; parameters are the last read id and the page size
+    public static String constructColumnarSessionActionPageQuery(String tableName, String whereClause, String[] actionTypes) {
+        StringBuilder actionTypesArray = new StringBuilder("array[");
+        for (int i = 0; i < actionTypes.length; i++) {
+            actionTypesArray.append(i == 0 ? "" : ", ").append('\'').append(actionTypes[i].replace("'", "''")).append('\'');
+        }
+        actionTypesArray.append("]::text[]");
+        return "select id, user_id, action_type, array_position(" + actionTypesArray + ", action_type::text) - 1 as action_code, " +
+                "amount from " + tableName + " " +
+                "where id > ?" + (whereClause == null ? "" : " and (" + whereClause + ")") + " " +
+                "order by id limit ?";
+    }
+
     public static RowMapper<SessionAction> getSessionActionMapper() {
         return (rs, rowNum) ->
                 new SessionAction(rs.getLong("id"), rs.getLong("user_id"),
@@ -0,0 +1,66 @@
+package me.calebe_oliveira.expertspringbatchapp.writers;
+
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreUpdate;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemWriter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writer that folds all the updates of the same user within a chunk into a single (score = score * a + b) update,
+ * keeping the order in which the updates were produced, and passes one update per distinct user to the delegate.
+ * Since every update is an affine transformation of the score, composing them gives the same result as applying
+ * them one by one, apart from the intermediate rounding done by the numeric score column.
+ * <p>
+ * Number of updates folded away is counted by the writer, and is added to the execution context of the step once
+ * the chunk is committed, so the chunks which are rolled back are not counted. The writer should be registered as
+ * the chunk listener of the step it writes for, which chunk oriented steps do by themselves; the count is shared by
+ * all the threads writing for the step.
+ */
+public class ComposingUserScoreItemWriter implements ItemWriter<UserScoreUpdate>, ChunkListener {
+    public static final String FOLDED_UPDATE_COUNT = "foldedUpdateCount";
+
+    private final ItemWriter<UserScoreUpdate> delegate;
+    private final LongAdder pendingFoldedUpdates = new LongAdder();
+
+    public ComposingUserScoreItemWriter(ItemWriter<UserScoreUpdate> delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void write(Chunk<? extends UserScoreUpdate> chunk) throws Exception {
+        // Linked map keeps users in the order of their first update in the chunk
+        Map<Long, UserScoreUpdate> composedUpdates = new LinkedHashMap<>();
+        for (UserScoreUpdate update : chunk) {
+            composedUpdates.merge(update.getUserId(), update, UserScoreUpdate::andThen);
+        }
+
+        delegate.write(new Chunk<>(new ArrayList<>(composedUpdates.values())));
+        pendingFoldedUpdates.add(chunk.size() - composedUpdates.size());
+    }
+
+    @Override
+    public void afterChunk(ChunkContext context) {
+        recordFoldedUpdates(context, pendingFoldedUpdates.sumThenReset());
+    }
+
+    @Override
+    public void afterChunkError(ChunkContext context) {
+        pendingFoldedUpdates.reset();
+    }
+
+    // Shared with the writer of the exact transforms, so that both report the same counter
+    static void recordFoldedUpdates(ChunkContext context, long foldedUpdates) {
+        ExecutionContext executionContext = context.getStepContext().getStepExecution().getExecutionContext();
+        // Several threads could write the chunks of the same step execution
+        synchronized (executionContext) {
+            executionContext.putLong(FOLDED_UPDATE_COUNT, executionContext.getLong(FOLDED_UPDATE_COUNT, 0L) + foldedUpdates);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package me.calebe_oliveira.expertspringbatchapp.writers;
+
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreAccumulator;
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreUpdate;
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import org.postgresql.PGConnection;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Writer that streams the updates of the chunk into a temporary staging table with COPY FROM STDIN, and applies
+ * all of them to the user score table with a single MERGE statement (PostgreSQL 15+), or a single upsert on the older
+ * servers. Both run on the connection bound to the chunk transaction, and the staging table is emptied on commit.
+ * The staging table lives as long as the database session, so it is created once per pooled connection.
+ * <p>
+ * MERGE could apply only one update per user, so the writer is expected to be used as a delegate of
+ * {@link ComposingUserScoreItemWriter}, which folds the updates of the same user in the order they were produced,
+ * or to write the updates already folded by {@link UserScoreAccumulator}.
+ */
+public class PostgresCopyUserScoreItemWriter implements ItemWriter<UserScoreUpdate>, UserScoreAccumulatorWriter {
+    private final DataSource dataSource;
+    private final String createStagingTableQuery;
+    private final String copyQuery;
+    private final String mergeQuery;
+    private final String upsertQuery;
+    // Database connections which have the staging table, closed connections are dropped along with their tables
+    private final Set<PGConnection> stagingConnections = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    private volatile Boolean mergeSupported;
+
+    public PostgresCopyUserScoreItemWriter(DataSource dataSource, String tableName) {
+        String stagingTableName = tableName + "_staging";
+        this.dataSource = dataSource;
+        this.createStagingTableQuery = SourceDataBaseUtils.constructCreateUserScoreStagingTableQuery(stagingTableName);
+        this.copyQuery = SourceDataBaseUtils.constructCopyUserScoreStagingQuery(stagingTableName);
+        this.mergeQuery = SourceDataBaseUtils.constructMergeUserScoreStagingQuery(tableName, stagingTableName);
+        this.upsertQuery = SourceDataBaseUtils.constructUpsertUserScoreStagingQuery(tableName, stagingTableName);
+    }
+
+    @Override
+    public void write(Chunk<? extends UserScoreUpdate> chunk) throws Exception {
+        if (chunk.isEmpty()) {
+            return;
+        }
+
+        StringBuilder rows = new StringBuilder(chunk.size() * 32);
+        for (UserScoreUpdate update : chunk) {
+            appendRow(rows, update.getUserId(), update.getAdd(), update.getMultiply());
+        }
+        copyAndMerge(rows);
+    }
+
+    @Override
+    public void write(UserScoreAccumulator accumulator) throws Exception {
+        if (accumulator.size() == 0) {
+            return;
+        }
+
+        StringBuilder rows = new StringBuilder(accumulator.size() * 32);
+        accumulator.forEach((userId, add, multiply) -> appendRow(rows, userId, add, multiply));
+        copyAndMerge(rows);
+    }
+
+    private static void appendRow(StringBuilder rows, long userId, double add, double multiply) {
+        rows.append(userId).append('\t').append(add).append('\t').append(multiply).append('\n');
+    }
+
+    private void copyAndMerge(StringBuilder rows) throws Exception {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (Statement statement = connection.createStatement()) {
+            PGConnection pgConnection = connection.unwrap(PGConnection.class);
+            createStagingTable(pgConnection, statement);
+            pgConnection.getCopyAPI().copyIn(copyQuery, new StringReader(rows.toString()));
+            statement.executeUpdate(isMergeSupported(connection) ? mergeQuery : upsertQuery);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    // Creation of the table is rolled back along with the chunk, so the connection has to create it again then
+    private void createStagingTable(PGConnection pgConnection, Statement statement) throws SQLException {
+        if (!stagingConnections.add(pgConnection)) {
+            return;
+        }
+        try {
+            statement.execute(createStagingTableQuery);
+        } catch (SQLException e) {
+            stagingConnections.remove(pgConnection);
+            throw e;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        stagingConnections.remove(pgConnection);
+                    }
+                }
+            });
+        }
+    }
+
+    private boolean isMergeSupported(Connection connection) throws SQLException {
+        Boolean supported = mergeSupported;
+        if (supported == null) {
+            supported = connection.getMetaData().getDatabaseMajorVersion() >= 15;
+            mergeSupported = supported;
+        }
+        return supported;
+    }
+}
@@ -0,0 +1,104 @@
+package me.calebe_oliveira.expertspringbatchapp.writers;
+
+import me.calebe_oliveira.expertspringbatchapp.model.SessionAction;
+import me.calebe_oliveira.expertspringbatchapp.model.SessionActionFileFormat;
+import me.calebe_oliveira.expertspringbatchapp.model.SessionActionTypes;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writer of session actions into the binary file (see {@link SessionActionFileFormat}), which encodes every chunk into
+ * a single buffer of fixed width records and appends it to the file. Records are expected in the order of their ids.
+ * <p>
+ * Byte offset the file is written up to is stored in the execution context once the file is forced to the disk, so
+ * the restarted step truncates the records of the chunk which was not committed and continues right after the last
+ * committed one.
+ */
+public class SessionActionFileItemWriter implements ItemStreamWriter<SessionAction> {
+    private static final String OFFSET_KEY = "sessionActionFileWriter.offset";
+
+    private final Path file;
+    private final SessionActionTypes sessionActionTypes;
+
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(0);
+    private long offset;
+
+    public SessionActionFileItemWriter(Path file, SessionActionTypes sessionActionTypes) {
+        this.file = file;
+        this.sessionActionTypes = sessionActionTypes;
+    }
+
+    @Override
+    public void write(Chunk<? extends SessionAction> chunk) throws IOException {
+        int size = chunk.size() * SessionActionFileFormat.RECORD_SIZE;
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(size);
+        }
+        buffer.clear();
+        for (SessionAction sessionAction : chunk) {
+            int position = buffer.position();
+            buffer.putLong(position + SessionActionFileFormat.ID_OFFSET, sessionAction.getId());
+            buffer.putDouble(position + SessionActionFileFormat.AMOUNT_OFFSET, sessionAction.getAmount());
+            buffer.putInt(position + SessionActionFileFormat.USER_ID_OFFSET, Math.toIntExact(sessionAction.getUserId()));
+            buffer.put(position + SessionActionFileFormat.ACTION_CODE_OFFSET,
+                    sessionActionTypes.codeOf(sessionAction.getActionType()));
+            buffer.position(position + SessionActionFileFormat.RECORD_SIZE);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (executionContext.containsKey(OFFSET_KEY)) {
+                offset = executionContext.getLong(OFFSET_KEY);
+                SessionActionFileFormat.readHeader(channel);
+            } else {
+                offset = SessionActionFileFormat.HEADER_SIZE;
+                SessionActionFileFormat.writeHeader(channel, sessionActionTypes.getNames());
+            }
+            // Records written after the last commit are dropped, they are written once again
+            channel.truncate(offset);
+        } catch (IOException e) {
+            throw new ItemStreamException("Failed to open session action file " + file, e);
+        }
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        try {
+            if (channel != null) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            throw new ItemStreamException("Failed to write session action file " + file, e);
+        }
+        executionContext.putLong(OFFSET_KEY, offset);
+    }
+
+    @Override
+    public void close() throws ItemStreamException {
+        try {
+            if (channel != null) {
+                channel.force(true);
+                channel.close();
+                channel = null;
+            }
+        } catch (IOException e) {
+            throw new ItemStreamException("Failed to close session action file " + file, e);
+        }
+    }
+}
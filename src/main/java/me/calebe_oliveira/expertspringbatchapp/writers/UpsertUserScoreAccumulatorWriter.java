@@ -0,0 +1,44 @@
+package me.calebe_oliveira.expertspringbatchapp.writers;
+
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreAccumulator;
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+/**
+ * Writer that applies the updates of the accumulator with a single JDBC batch of upserts, the same ones the upsert
+ * item writer sends, on the connection bound to the current transaction.
+ */
+public class UpsertUserScoreAccumulatorWriter implements UserScoreAccumulatorWriter {
+    private final DataSource dataSource;
+    private final String upsertQuery;
+
+    public UpsertUserScoreAccumulatorWriter(DataSource dataSource, String tableName) {
+        this.dataSource = dataSource;
+        this.upsertQuery = SourceDataBaseUtils.constructUpdateUserScoreQuery(tableName);
+    }
+
+    @Override
+    public void write(UserScoreAccumulator accumulator) throws Exception {
+        if (accumulator.size() == 0) {
+            return;
+        }
+
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (PreparedStatement statement = connection.prepareStatement(upsertQuery)) {
+            accumulator.forEach((userId, add, multiply) -> {
+                statement.setLong(1, userId);
+                statement.setDouble(2, add);
+                statement.setDouble(3, multiply);
+                statement.setDouble(4, add);
+                statement.addBatch();
+            });
+            statement.executeBatch();
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+}
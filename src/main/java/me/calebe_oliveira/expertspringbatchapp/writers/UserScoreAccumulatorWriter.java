@@ -0,0 +1,11 @@
+package me.calebe_oliveira.expertspringbatchapp.writers;
+
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreAccumulator;
+
+/**
+ * Writer of the composed user score updates straight from {@link UserScoreAccumulator}, without creating an update
+ * object per user.
+ */
+public interface UserScoreAccumulatorWriter {
+    void write(UserScoreAccumulator accumulator) throws Exception;
+}
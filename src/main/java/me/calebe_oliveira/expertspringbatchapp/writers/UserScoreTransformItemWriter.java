@@ -0,0 +1,74 @@
+package me.calebe_oliveira.expertspringbatchapp.writers;
+
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreTransform;
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreUpdate;
+import me.calebe_oliveira.expertspringbatchapp.tasklets.UserScoreTransformMergeTasklet;
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writer that folds all the updates of the same user within a chunk into a single exact {@link UserScoreTransform},
+ * keeping the order in which the updates were produced, and composes it with the transform stored for the user and
+ * the session action id range in the transform table, with a single JDBC batch of upserts on the connection bound
+ * to the chunk transaction. Stored transforms are applied to the user scores by {@link UserScoreTransformMergeTasklet}.
+ * <p>
+ * Both compositions are exact, so the stored transform does not depend on the chunk size, and the score of every user
+ * is rounded by the numeric score column only once per run, whatever the chunks and the partitions were. Number of
+ * updates folded away is added to the execution context once the chunk is committed, in the same way as
+ * {@link ComposingUserScoreItemWriter} does, so the writer is step scoped.
+ */
+public class UserScoreTransformItemWriter implements ItemWriter<UserScoreUpdate>, ChunkListener {
+    private final JdbcTemplate jdbcTemplate;
+    private final String upsertQuery;
+    private final int rangeIndex;
+    private long pendingFoldedUpdates;
+
+    /**
+     * @param rangeIndex index of the session action id range of the step, steps which read all the session actions
+     *                   of their users use the same index
+     */
+    public UserScoreTransformItemWriter(DataSource dataSource, String transformTableName, int rangeIndex) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.upsertQuery = SourceDataBaseUtils.constructUpsertUserScoreTransformQuery(transformTableName);
+        this.rangeIndex = rangeIndex;
+    }
+
+    @Override
+    public void write(Chunk<? extends UserScoreUpdate> chunk) throws Exception {
+        // Linked map keeps users in the order of their first update in the chunk
+        Map<Long, UserScoreTransform> composedTransforms = new LinkedHashMap<>();
+        for (UserScoreUpdate update : chunk) {
+            composedTransforms.merge(update.getUserId(), UserScoreTransform.of(update), UserScoreTransform::andThen);
+        }
+
+        List<UserScoreTransform> transforms = new ArrayList<>(composedTransforms.values());
+        jdbcTemplate.batchUpdate(upsertQuery, transforms, transforms.size(), (ps, transform) -> {
+            ps.setLong(1, transform.getUserId());
+            ps.setInt(2, rangeIndex);
+            ps.setBigDecimal(3, transform.getAdd());
+            ps.setBigDecimal(4, transform.getMultiply());
+        });
+        pendingFoldedUpdates += chunk.size() - transforms.size();
+    }
+
+    @Override
+    public void afterChunk(ChunkContext context) {
+        ComposingUserScoreItemWriter.recordFoldedUpdates(context, pendingFoldedUpdates);
+        pendingFoldedUpdates = 0;
+    }
+
+    @Override
+    public void afterChunkError(ChunkContext context) {
+        pendingFoldedUpdates = 0;
+    }
+}
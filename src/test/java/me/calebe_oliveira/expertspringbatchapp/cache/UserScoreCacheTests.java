@@ -0,0 +1,154 @@
+package me.calebe_oliveira.expertspringbatchapp.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserScoreCacheTests {
+	// Rows of the user score table, and the user ids of every query
+	private final Map<Long, BigDecimal> userScores = new HashMap<>();
+	private final List<List<Long>> queries = new ArrayList<>();
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@Test
+	void servesRepeatedReadsWithoutQueryingTheDatabase() {
+		userScores.put(1L, new BigDecimal("10.50"));
+		UserScoreCache cache = new UserScoreCache(dataSource(), "user_score", 100, 60000, meterRegistry);
+
+		assertThat(cache.getScore(1)).contains(new BigDecimal("10.50"));
+		assertThat(cache.getScore(1)).contains(new BigDecimal("10.50"));
+		assertThat(cache.getScore(2)).isEmpty();
+		assertThat(cache.getScore(2)).isEmpty();
+
+		assertThat(queries).containsExactly(List.of(1L), List.of(2L));
+		assertThat(meterRegistry.get("user.score.cache.hit.ratio").gauge().value()).isEqualTo(0.5);
+	}
+
+	@Test
+	void loadsMissingUsersOfTheBulkReadWithSingleQuery() {
+		userScores.put(1L, new BigDecimal("1.00"));
+		userScores.put(3L, new BigDecimal("3.00"));
+		UserScoreCache cache = new UserScoreCache(dataSource(), "user_score", 100, 60000, meterRegistry);
+		cache.getScore(1);
+
+		Map<Long, BigDecimal> scores = cache.getScores(List.of(3L, 2L, 1L, 3L));
+
+		assertThat(scores).containsExactly(Map.entry(3L, new BigDecimal("3.00")), Map.entry(1L, new BigDecimal("1.00")));
+		assertThat(queries).containsExactly(List.of(1L), List.of(3L, 2L));
+	}
+
+	@Test
+	void evictsLeastRecentlyReadUsersOnceFull() {
+		// Single user per segment, users 1 and 17 share the segment
+		UserScoreCache cache = new UserScoreCache(dataSource(), "user_score", 16, 60000, meterRegistry);
+
+		cache.getScore(1);
+		cache.getScore(17);
+		cache.getScore(1);
+
+		assertThat(queries).containsExactly(List.of(1L), List.of(17L), List.of(1L));
+		assertThat(meterRegistry.get("user.score.cache.evictions").functionCounter().count()).isEqualTo(2);
+	}
+
+	@Test
+	void refreshesCachedUsersWithCommittedScores() {
+		userScores.put(1L, new BigDecimal("1.00"));
+		UserScoreCache cache = new UserScoreCache(dataSource(), "user_score", 100, 60000, meterRegistry);
+		cache.getScore(1);
+		cache.getScore(2);
+
+		userScores.put(1L, new BigDecimal("5.00"));
+		userScores.put(2L, new BigDecimal("2.00"));
+		cache.refresh();
+
+		assertThat(cache.getScore(1)).contains(new BigDecimal("5.00"));
+		assertThat(cache.getScore(2)).contains(new BigDecimal("2.00"));
+		assertThat(queries).hasSize(3);
+	}
+
+	@Test
+	void loadsScoreAgainOnceItExpires() {
+		long[] now = {0};
+		userScores.put(1L, new BigDecimal("1.00"));
+		UserScoreCache cache = new UserScoreCache(dataSource(), "user_score", 100, 1000, meterRegistry, () -> now[0]);
+		cache.getScore(1);
+
+		// Score changed by the job of another node, which does not refresh this cache
+		userScores.put(1L, new BigDecimal("7.00"));
+		now[0] = 999_000_000L;
+		assertThat(cache.getScore(1)).contains(new BigDecimal("1.00"));
+		now[0] = 1_000_000_000L;
+		assertThat(cache.getScore(1)).contains(new BigDecimal("7.00"));
+		assertThat(queries).containsExactly(List.of(1L), List.of(1L));
+	}
+
+	// Data source which answers the user scores query from the rows above
+	private DataSource dataSource() {
+		return stub(DataSource.class, (method, args) -> method.getName().equals("getConnection") ? connection() : null);
+	}
+
+	private Connection connection() {
+		Long[][] userIds = new Long[1][];
+		PreparedStatement statement = stub(PreparedStatement.class, (method, args) -> {
+			if (method.getName().equals("setArray")) {
+				userIds[0] = (Long[]) ((Array) args[1]).getArray();
+			} else if (method.getName().equals("executeQuery")) {
+				queries.add(Arrays.asList(userIds[0]));
+				return resultSet(Arrays.stream(userIds[0]).filter(userScores::containsKey).iterator());
+			}
+			return null;
+		});
+		return stub(Connection.class, (method, args) -> switch (method.getName()) {
+			case "prepareStatement" -> statement;
+			case "createArrayOf" -> stub(Array.class, (arrayMethod, arrayArgs) -> args[1]);
+			default -> null;
+		});
+	}
+
+	private ResultSet resultSet(Iterator<Long> userIds) {
+		Long[] userId = new Long[1];
+		return stub(ResultSet.class, (method, args) -> switch (method.getName()) {
+			case "next" -> {
+				userId[0] = userIds.hasNext() ? userIds.next() : null;
+				yield userId[0] != null;
+			}
+			case "getLong" -> userId[0];
+			case "getBigDecimal" -> userScores.get(userId[0]);
+			default -> null;
+		});
+	}
+
+	private interface Handler {
+		Object invoke(Method method, Object[] args) throws Exception;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T stub(Class<T> type, Handler handler) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+			Object result = handler.invoke(method, args);
+			if (result == null && method.getReturnType() == boolean.class) {
+				return false;
+			}
+			if (result == null && method.getReturnType() == int.class) {
+				return 0;
+			}
+			return result;
+		});
+	}
+}
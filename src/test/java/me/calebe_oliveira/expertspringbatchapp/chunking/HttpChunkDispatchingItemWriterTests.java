@@ -0,0 +1,166 @@
+package me.calebe_oliveira.expertspringbatchapp.chunking;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.calebe_oliveira.expertspringbatchapp.cache.UserScoreCache;
+import me.calebe_oliveira.expertspringbatchapp.model.SessionAction;
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreUpdate;
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.item.Chunk;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HttpChunkDispatchingItemWriterTests {
+	private static final String CHECKPOINT_TABLE_NAME = UserScoreUpdate.USER_SCORE_CHECKPOINT_TABLE_NAME;
+	private static final String STEP_NAME = "remoteChunkingActionCalculationStep";
+	private static final long JOB_INSTANCE_ID = 42;
+
+	private final SessionActionChunkCodec codec = new SessionActionChunkCodec(SourceDataBaseUtils.SESSION_ACTION_TYPES);
+	private final Map<String, Long> checkpoints = new ConcurrentHashMap<>();
+	private final List<Long> appliedSessionActionIds = Collections.synchronizedList(new ArrayList<>());
+
+	@Test
+	void restartedStreamsContinueFromTheirOwnCheckpoints() throws Exception {
+		// Before the failure, stream 1 applied the actions up to 13, while the chunk of stream 0 starting with 12 was
+		// in flight, so the acknowledged id is 11, and the last action applied on stream 0 is 8
+		checkpoints.put(STEP_NAME + ":stream-0", 8L);
+		checkpoints.put(STEP_NAME + ":stream-1", 13L);
+		RemoteChunkProcessor processor = new RemoteChunkProcessor(codec, sessionAction -> {
+			appliedSessionActionIds.add(sessionAction.getId());
+			return new UserScoreUpdate(sessionAction.getUserId(), sessionAction.getAmount(), 1);
+		}, updates -> { }, dataSource(), transactionManager(), CHECKPOINT_TABLE_NAME,
+				new UserScoreCache(dataSource(), UserScoreUpdate.USER_SCORE_TABLE_NAME, 100, 60000, new SimpleMeterRegistry()));
+		HttpServer worker = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		worker.createContext("/process-chunk", exchange -> {
+			byte[] acknowledgement = processor.process(exchange.getRequestBody().readAllBytes());
+			exchange.sendResponseHeaders(200, acknowledgement.length);
+			exchange.getResponseBody().write(acknowledgement);
+			exchange.close();
+		});
+		worker.start();
+		try {
+			HttpChunkDispatchingItemWriter writer = new HttpChunkDispatchingItemWriter(
+					new String[]{"http://localhost:" + worker.getAddress().getPort() + "/"}, 4, 500, 2, codec,
+					dataSource(), CHECKPOINT_TABLE_NAME);
+			StepExecution stepExecution = new JobExecution(new JobInstance(JOB_INSTANCE_ID, "remoteChunkingActionCalculationJob"),
+					1L, new JobParameters()).createStepExecution(STEP_NAME);
+			stepExecution.getExecutionContext().putInt(HttpChunkDispatchingItemWriter.STREAM_COUNT, 2);
+			stepExecution.getExecutionContext().putLong(HttpChunkDispatchingItemWriter.ACKNOWLEDGED_SESSION_ACTION_ID, 11);
+
+			writer.beforeStep(stepExecution);
+			// Even ids go to user 2 of stream 0, and odd ones to user 1 of stream 1
+			List<SessionAction> sessionActions = new ArrayList<>();
+			for (long id = 12; id <= 16; id++) {
+				sessionActions.add(new SessionAction(id, 2 - id % 2, SourceDataBaseUtils.PLUS_TYPE, 1));
+			}
+			writer.write(new Chunk<>(sessionActions));
+			stepExecution.setStatus(BatchStatus.COMPLETED);
+			writer.afterStep(stepExecution);
+
+			assertThat(stepExecution.getFailureExceptions()).isEmpty();
+			assertThat(stepExecution.getStatus()).isEqualTo(BatchStatus.COMPLETED);
+			assertThat(appliedSessionActionIds).containsExactlyInAnyOrder(12L, 14L, 15L, 16L);
+			assertThat(checkpoints).isEmpty();
+		} finally {
+			worker.stop(0);
+		}
+	}
+
+	// Checkpoint table, which answers the checkpoint queries of the writer and the processor
+	private DataSource dataSource() {
+		Connection connection = stub(Connection.class, (method, args) -> method.getName().equals("prepareStatement")
+				? statement((String) args[0])
+				: null);
+		return stub(DataSource.class, (method, args) -> method.getName().equals("getConnection") ? connection : null);
+	}
+
+	private PreparedStatement statement(String sql) {
+		Object[] parameters = new Object[4];
+		return stub(PreparedStatement.class, (method, args) -> {
+			if (method.getName().startsWith("set") && args.length == 2 && args[0] instanceof Integer index) {
+				parameters[index] = args[1];
+			}
+			return switch (method.getName()) {
+				case "executeUpdate" -> update(sql, parameters);
+				case "executeQuery" -> resultSet(checkpoints.get((String) parameters[2]));
+				default -> null;
+			};
+		});
+	}
+
+	private int update(String sql, Object[] parameters) {
+		if (sql.equals(SourceDataBaseUtils.constructInsertUserScoreCheckpointQuery(CHECKPOINT_TABLE_NAME))) {
+			checkpoints.putIfAbsent((String) parameters[2], ((Number) parameters[3]).longValue());
+		} else if (sql.equals(SourceDataBaseUtils.constructUpdateUserScoreCheckpointQuery(CHECKPOINT_TABLE_NAME))) {
+			checkpoints.put((String) parameters[3], ((Number) parameters[1]).longValue());
+		} else if (sql.equals(SourceDataBaseUtils.constructDeleteUserScoreCheckpointQuery(CHECKPOINT_TABLE_NAME))) {
+			checkpoints.remove((String) parameters[2]);
+		} else {
+			throw new IllegalArgumentException("Unexpected statement: " + sql);
+		}
+		return 1;
+	}
+
+	// Single column result with the checkpoint, or no rows if it does not exist
+	private static ResultSet resultSet(Long checkpoint) {
+		boolean[] read = new boolean[1];
+		return stub(ResultSet.class, (method, args) -> switch (method.getName()) {
+			case "next" -> {
+				boolean hasRow = checkpoint != null && !read[0];
+				read[0] = true;
+				yield hasRow;
+			}
+			case "getLong", "getObject" -> checkpoint;
+			case "getMetaData" -> stub(ResultSetMetaData.class, (metaDataMethod, metaDataArgs) ->
+					metaDataMethod.getName().equals("getColumnCount") ? 1 : null);
+			default -> null;
+		});
+	}
+
+	// Chunks of the same stream are applied one at a time, as the worker handles one request at a time
+	private static PlatformTransactionManager transactionManager() {
+		return stub(PlatformTransactionManager.class, (method, args) -> method.getName().equals("getTransaction")
+				? new SimpleTransactionStatus()
+				: null);
+	}
+
+	private interface Handler {
+		Object invoke(Method method, Object[] args) throws Exception;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T stub(Class<T> type, Handler handler) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+			Object result = handler.invoke(method, args == null ? new Object[0] : args);
+			if (result == null && method.getReturnType() == boolean.class) {
+				return false;
+			}
+			if (result == null && method.getReturnType() == int.class) {
+				return 0;
+			}
+			return result;
+		});
+	}
+}
@@ -0,0 +1,63 @@
+package me.calebe_oliveira.expertspringbatchapp.chunking;
+
+import me.calebe_oliveira.expertspringbatchapp.model.SessionAction;
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SessionActionChunkCodecTests {
+	private final SessionActionChunkCodec codec = new SessionActionChunkCodec(SourceDataBaseUtils.SESSION_ACTION_TYPES);
+
+	@Test
+	void decodesTheEncodedChunk() {
+		List<SessionAction> sessionActions = List.of(
+				new SessionAction(1_000_001L, 7, SourceDataBaseUtils.PLUS_TYPE, 1.5),
+				new SessionAction(1_000_002L, 300_000, SourceDataBaseUtils.MULTI_TYPE, 0.99),
+				new SessionAction(5_000_000_000L, 0, SourceDataBaseUtils.PLUS_TYPE, -2));
+		SessionActionChunk chunk = new SessionActionChunk(42, "remoteChunkingActionCalculationStep:stream-1",
+				1_000_000L, sessionActions);
+
+		SessionActionChunk decodedChunk = codec.decodeChunk(codec.encodeChunk(chunk));
+
+		assertThat(decodedChunk.jobInstanceId()).isEqualTo(42);
+		assertThat(decodedChunk.streamName()).isEqualTo("remoteChunkingActionCalculationStep:stream-1");
+		assertThat(decodedChunk.previousLastId()).isEqualTo(1_000_000L);
+		assertThat(decodedChunk.lastId()).isEqualTo(5_000_000_000L);
+		assertThat(decodedChunk.sessionActions()).usingRecursiveFieldByFieldElementComparator().isEqualTo(sessionActions);
+	}
+
+	@Test
+	void encodesOrderedRecordsInFewerBytesThanFixedWidthOnes() {
+		List<SessionAction> sessionActions = new ArrayList<>();
+		for (long id = 1; id <= 1000; id++) {
+			sessionActions.add(new SessionAction(id, id % 100, SourceDataBaseUtils.PLUS_TYPE, id / 10.0));
+		}
+
+		byte[] encodedChunk = codec.encodeChunk(new SessionActionChunk(1, "stream", 0, sessionActions));
+
+		// One byte of the id and user id each, the code and the amount
+		assertThat(encodedChunk.length).isLessThan(1000 * 11 + 64);
+	}
+
+	@Test
+	void rejectsUnorderedRecords() {
+		List<SessionAction> sessionActions = List.of(
+				new SessionAction(10, 1, SourceDataBaseUtils.PLUS_TYPE, 1),
+				new SessionAction(9, 1, SourceDataBaseUtils.PLUS_TYPE, 1));
+
+		assertThatThrownBy(() -> codec.encodeChunk(new SessionActionChunk(1, "stream", 0, sessionActions)))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void decodesTheEncodedAcknowledgement() {
+		ChunkAcknowledgement acknowledgement = new ChunkAcknowledgement(ChunkAcknowledgement.Result.OUT_OF_ORDER, 17);
+
+		assertThat(codec.decodeAcknowledgement(codec.encodeAcknowledgement(acknowledgement))).isEqualTo(acknowledgement);
+	}
+}
@@ -0,0 +1,192 @@
+package me.calebe_oliveira.expertspringbatchapp.controllers;
+
+import me.calebe_oliveira.expertspringbatchapp.listeners.SessionActionHighWaterMarkListener;
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.job.SimpleJob;
+import org.springframework.batch.core.launch.JobLauncher;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+class ApplicationControllerTests {
+	private static final LocalDateTime START_TIME = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+	private final List<JobExecution> jobExecutions = new ArrayList<>();
+	private final List<String> launchedJobs = new ArrayList<>();
+	private final List<String> executedStatements = new ArrayList<>();
+
+	@Test
+	void countsCompletedPartitionsOnceWithoutTheirManager() {
+		LocalDateTime startTime = LocalDateTime.of(2024, 1, 1, 0, 0);
+		JobExecution jobExecution = new JobExecution(new JobInstance(1L, "partitionedLocalActionCalculationJob"), 2L,
+				new JobParameters());
+		jobExecution.setStatus(BatchStatus.COMPLETED);
+		jobExecution.setStartTime(startTime);
+		jobExecution.setEndTime(startTime.plusSeconds(10));
+		jobExecution.getExecutionContext().putLong(SessionActionHighWaterMarkListener.MAX_SESSION_ACTION_ID, 1000);
+		completedStep(jobExecution, "prepareUserScoreTransformStep", 0, 0, startTime);
+		// Manager sums up the counts of its partitions once they are finished
+		completedStep(jobExecution, "partitionedLocalActionCalculationStep", 1000, 1000, startTime);
+		completedStep(jobExecution, "simpleActionCalculationStep:sessionActionPartition-0", 600, 600, startTime);
+		completedStep(jobExecution, "simpleActionCalculationStep:sessionActionPartition-1", 400, 400, startTime);
+		completedStep(jobExecution, "mergeUserScoreTransformStep", 0, 20, startTime);
+
+		Map<String, Object> progress = ApplicationController.jobExecutionProgress(jobExecution, startTime.plusMinutes(1));
+
+		assertThat(progress)
+				.containsEntry("readCount", 1000L)
+				.containsEntry("expectedReadCount", 1000L)
+				.doesNotContainKey("estimatedSecondsToCompletion");
+		@SuppressWarnings("unchecked")
+		List<Map<String, Object>> steps = (List<Map<String, Object>>) progress.get("steps");
+		assertThat(steps).extracting(step -> step.get("stepName")).containsExactlyInAnyOrder(
+				"prepareUserScoreTransformStep",
+				"simpleActionCalculationStep:sessionActionPartition-0",
+				"simpleActionCalculationStep:sessionActionPartition-1",
+				"mergeUserScoreTransformStep");
+	}
+
+	@Test
+	void refusesToRestartFailedJobAfterLaterCalculation() {
+		JobExecution failedJobExecution = jobExecution(1, "simpleActionCalculationJob", BatchStatus.FAILED, 0);
+		// Full rebuild has recalculated the scores after the failure
+		jobExecution(2, "partitionedLocalActionCalculationJob", BatchStatus.COMPLETED, 1);
+
+		assertThatIllegalStateException().isThrownBy(() -> controller().restart(failedJobExecution.getId()))
+				.withMessageContaining("is not the last calculation job execution");
+		assertThat(launchedJobs).isEmpty();
+	}
+
+	@Test
+	void refusesToRestartFailedJobWhileOtherCalculationIsRunning() {
+		JobExecution failedJobExecution = jobExecution(1, "simpleActionCalculationJob", BatchStatus.FAILED, 0);
+		jobExecution(2, "accumulatingActionCalculationJob", BatchStatus.STARTED, 1);
+
+		assertThatIllegalStateException().isThrownBy(() -> controller().restart(failedJobExecution.getId()))
+				.withMessageContaining("is still running");
+		assertThat(launchedJobs).isEmpty();
+	}
+
+	@Test
+	void restartsLastFailedCalculation() throws Exception {
+		jobExecution(1, "partitionedLocalActionCalculationJob", BatchStatus.COMPLETED, 0);
+		JobExecution failedJobExecution = jobExecution(2, "simpleActionCalculationJob", BatchStatus.FAILED, 1);
+
+		controller().restart(failedJobExecution.getId());
+
+		assertThat(launchedJobs).containsExactly("simpleActionCalculationJob");
+	}
+
+	@Test
+	void refusesFullRebuildWhileCalculationIsRunning() {
+		jobExecution(1, "partitionedLocalActionCalculationJob", BatchStatus.STARTED, 0);
+
+		assertThatIllegalStateException().isThrownBy(() -> controller().startSimpleLocal(Map.of("fullRebuild", "true")))
+				.withMessageContaining("is still running");
+		assertThat(launchedJobs).isEmpty();
+		assertThat(executedStatements).isEmpty();
+	}
+
+	// Execution of its own job instance, created the given number of minutes after the start time
+	private JobExecution jobExecution(long id, String jobName, BatchStatus status, int createdAfterMinutes) {
+		JobExecution jobExecution = new JobExecution(new JobInstance(id, jobName), id, new JobParameters());
+		jobExecution.setCreateTime(START_TIME.plusMinutes(createdAfterMinutes));
+		jobExecution.setStartTime(START_TIME.plusMinutes(createdAfterMinutes));
+		jobExecution.setStatus(status);
+		if (!status.isRunning()) {
+			jobExecution.setEndTime(START_TIME.plusMinutes(createdAfterMinutes).plusSeconds(10));
+		}
+		jobExecutions.add(jobExecution);
+		return jobExecution;
+	}
+
+	private ApplicationController controller() {
+		JobExplorer jobExplorer = stub(JobExplorer.class, (method, args) -> switch (method.getName()) {
+			case "getJobExecution" -> jobExecutions.stream().filter(execution -> execution.getId().equals(args[0]))
+					.findFirst().orElse(null);
+			case "getJobInstances" -> jobExecutions.stream().filter(execution -> execution.getJobInstance().getJobName().equals(args[0]))
+					.map(JobExecution::getJobInstance).toList();
+			case "getLastJobExecution" -> jobExecutions.stream().filter(execution -> execution.getJobInstance().equals(args[0]))
+					.findFirst().orElse(null);
+			case "findRunningJobExecutions" -> jobExecutions.stream()
+					.filter(execution -> execution.getJobInstance().getJobName().equals(args[0]) && execution.isRunning())
+					.collect(Collectors.toSet());
+			default -> null;
+		});
+		JobLauncher jobLauncher = stub(JobLauncher.class, (method, args) -> {
+			launchedJobs.add(((Job) args[0]).getName());
+			return new JobExecution(100L);
+		});
+		SimpleJob multiThreadedActionCalculationJob = new SimpleJob("multiThreadedActionCalculationJob");
+		multiThreadedActionCalculationJob.setRestartable(false);
+		return new ApplicationController(jobExplorer, jobLauncher, new SimpleJob("simpleActionCalculationJob"),
+				new SimpleJob("accumulatingActionCalculationJob"), new SimpleJob("columnarActionCalculationJob"),
+				multiThreadedActionCalculationJob, new SimpleJob("partitionedLocalActionCalculationJob"),
+				new SimpleJob("partitionedRemoteActionCalculationJob"), new SimpleJob("idRangePartitionedActionCalculationJob"),
+				new SimpleJob("remoteChunkingActionCalculationJob"), new SimpleJob("exportSessionActionsJob"), null,
+				sourceDataSource(), null, null, null, null, 100);
+	}
+
+	// Records the statements besides the launch lock, which returns an empty result
+	private DataSource sourceDataSource() {
+		Statement statement = stub(PreparedStatement.class, (method, args) -> {
+			if (method.getName().startsWith("execute") && args.length > 0) {
+				executedStatements.add((String) args[0]);
+			}
+			return method.getName().equals("executeQuery") ? stub(ResultSet.class, (resultSetMethod, resultSetArgs) -> null) : null;
+		});
+		Connection connection = stub(Connection.class, (method, args) -> switch (method.getName()) {
+			case "createStatement", "prepareStatement" -> statement;
+			default -> null;
+		});
+		return stub(DataSource.class, (method, args) -> method.getName().equals("getConnection") ? connection : null);
+	}
+
+	private interface Handler {
+		Object invoke(Method method, Object[] args) throws Exception;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T stub(Class<T> type, Handler handler) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+			Object result = handler.invoke(method, args == null ? new Object[0] : args);
+			if (result == null && method.getReturnType() == boolean.class) {
+				return false;
+			}
+			if (result == null && method.getReturnType() == int.class) {
+				return 0;
+			}
+			return result;
+		});
+	}
+
+	private static void completedStep(JobExecution jobExecution, String stepName, long readCount, long writeCount,
+									  LocalDateTime startTime) {
+		StepExecution stepExecution = jobExecution.createStepExecution(stepName);
+		stepExecution.setStatus(BatchStatus.COMPLETED);
+		stepExecution.setReadCount(readCount);
+		stepExecution.setWriteCount(writeCount);
+		stepExecution.setStartTime(startTime);
+		stepExecution.setEndTime(startTime.plusSeconds(10));
+	}
+}
@@ -0,0 +1,64 @@
+package me.calebe_oliveira.expertspringbatchapp.datasources;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UsageTrackingDataSourceTests {
+
+	@Test
+	void recordsConnectionsOfThreadsStartedByTheStep() throws Exception {
+		UsageTrackingDataSource dataSource = new UsageTrackingDataSource("repositoryPool", stubDataSource(), true);
+		ExecutorService pooledExecutor = Executors.newSingleThreadExecutor();
+		try {
+			// Pooled thread is started before the step, so it does not inherit the scope of the step
+			pooledExecutor.submit(() -> { }).get();
+			ConnectionUsageScope scope = ConnectionUsageScope.start();
+
+			executeStatement(dataSource);
+			Thread prefetchThread = new Thread(() -> executeStatement(dataSource));
+			prefetchThread.start();
+			prefetchThread.join();
+			pooledExecutor.submit(ConnectionUsageScope.propagate(() -> executeStatement(dataSource))).get();
+			pooledExecutor.submit(() -> executeStatement(dataSource)).get();
+
+			assertThat(scope.getUsage("repositoryPool").getAcquisitions()).isEqualTo(3);
+			assertThat(scope.getUsage("repositoryPool").getStatements()).isEqualTo(3);
+			assertThat(dataSource.getStatementCount()).isEqualTo(4);
+		} finally {
+			ConnectionUsageScope.end();
+			pooledExecutor.shutdown();
+		}
+	}
+
+	private static void executeStatement(DataSource dataSource) {
+		try (Connection connection = dataSource.getConnection();
+			 PreparedStatement statement = connection.prepareStatement("select 1")) {
+			statement.execute();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static DataSource stubDataSource() {
+		PreparedStatement statement = stub(PreparedStatement.class);
+		Connection connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[]{Connection.class}, (proxy, method, args) -> method.getName().equals("prepareStatement")
+						? statement
+						: null);
+		return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[]{DataSource.class},
+				(proxy, method, args) -> method.getName().equals("getConnection") ? connection : null);
+	}
+
+	private static <T> T stub(Class<T> type) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+				(proxy, method, args) -> method.getReturnType() == boolean.class ? false : null));
+	}
+}
@@ -0,0 +1,71 @@
+package me.calebe_oliveira.expertspringbatchapp.executors;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AdmissionControlledTaskExecutorTests {
+
+	@Test
+	void rejectsTasksAboveTheSlotsUntilSomeTaskFinishes() throws Exception {
+		AdmissionControlledTaskExecutor executor = new AdmissionControlledTaskExecutor(new SimpleAsyncTaskExecutor(), 2);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch finished = new CountDownLatch(2);
+		Runnable blockingTask = () -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			finished.countDown();
+		};
+
+		assertThat(executor.tryExecute(blockingTask)).isTrue();
+		assertThat(executor.tryExecute(blockingTask)).isTrue();
+		assertThat(executor.tryExecute(blockingTask)).isFalse();
+		assertThatThrownBy(() -> executor.execute(blockingTask)).isInstanceOf(TaskRejectedException.class);
+		assertThat(executor.capacity().freeSlots()).isZero();
+		assertThat(executor.capacity().activeTasks()).isEqualTo(2);
+
+		release.countDown();
+		assertThat(finished.await(5, TimeUnit.SECONDS)).isTrue();
+		// Slots are released right after the tasks
+		while (executor.capacity().freeSlots() < 2) {
+			Thread.sleep(1);
+		}
+		assertThat(executor.capacity().completedTasks()).isEqualTo(2);
+		assertThat(executor.tryExecute(() -> {
+		})).isTrue();
+	}
+
+	@Test
+	void reportsRecentThroughput() {
+		AdmissionControlledTaskExecutor executor = new AdmissionControlledTaskExecutor(new SyncTaskExecutor(), 1);
+
+		executor.execute(() -> executor.recordProcessedItems(600));
+		executor.execute(() -> executor.recordProcessedItems(1200));
+
+		AdmissionControlledTaskExecutor.Capacity capacity = executor.capacity();
+		assertThat(capacity.recentItemsPerSecond()).isEqualTo(30);
+		assertThat(capacity.freeSlots()).isEqualTo(1);
+		assertThat(capacity.retryAfterSeconds()).isEqualTo(1);
+	}
+
+	@Test
+	void releasesTheSlotIfTheDelegateRejectsTheTask() {
+		AdmissionControlledTaskExecutor executor = new AdmissionControlledTaskExecutor(task -> {
+			throw new TaskRejectedException("Shut down");
+		}, 1);
+
+		assertThatThrownBy(() -> executor.tryExecute(() -> {
+		})).isInstanceOf(TaskRejectedException.class);
+		assertThat(executor.capacity().freeSlots()).isEqualTo(1);
+	}
+}
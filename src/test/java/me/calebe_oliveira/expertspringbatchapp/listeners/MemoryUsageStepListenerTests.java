@@ -0,0 +1,32 @@
+package me.calebe_oliveira.expertspringbatchapp.listeners;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+
+import java.lang.management.ManagementFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MemoryUsageStepListenerTests {
+
+	@Test
+	void leavesOutAllocationWhenItIsNotCounted() {
+		com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		MemoryUsageStepListener listener = new MemoryUsageStepListener();
+		StepExecution stepExecution = new StepExecution("step", new JobExecution(1L), 2L);
+		stepExecution.setReadCount(1000);
+
+		listener.beforeStep(stepExecution);
+		threadMXBean.setThreadAllocatedMemoryEnabled(false);
+		try {
+			listener.afterStep(stepExecution);
+		} finally {
+			threadMXBean.setThreadAllocatedMemoryEnabled(true);
+		}
+
+		assertThat(stepExecution.getExecutionContext().containsKey("gcCount")).isTrue();
+		assertThat(stepExecution.getExecutionContext().containsKey("allocatedBytes")).isFalse();
+		assertThat(stepExecution.getExecutionContext().containsKey("allocatedBytesPerMillionRows")).isFalse();
+	}
+}
@@ -0,0 +1,108 @@
+package me.calebe_oliveira.expertspringbatchapp.listeners;
+
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.repository.JobRepository;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+class SessionActionHighWaterMarkListenerTests {
+
+	@Test
+	void fixesMarkOnceTransactionsRunningAtItsReadHaveFinished() {
+		// Transaction 103 was running when the largest id was read, it finishes after the second poll
+		Iterator<Long> oldestRunningTransactions = List.of(103L, 103L, 105L).iterator();
+		JobExecution jobExecution = new JobExecution(1L);
+
+		new SessionActionHighWaterMarkListener(dataSource(1000, 105, oldestRunningTransactions), jobRepository(),
+				"session_action", 10000).beforeJob(jobExecution);
+
+		assertThat(jobExecution.getExecutionContext().getLong(SessionActionHighWaterMarkListener.MAX_SESSION_ACTION_ID))
+				.isEqualTo(1000);
+		assertThat(oldestRunningTransactions).isExhausted();
+	}
+
+	@Test
+	void failsWhenTransactionsAreStillRunning() {
+		JobExecution jobExecution = new JobExecution(1L);
+		Iterator<Long> oldestRunningTransactions = Stream.generate(() -> 103L).iterator();
+
+		assertThatIllegalStateException().isThrownBy(() -> new SessionActionHighWaterMarkListener(
+				dataSource(1000, 105, oldestRunningTransactions), jobRepository(), "session_action", 250).beforeJob(jobExecution));
+		assertThat(jobExecution.getExecutionContext().containsKey(SessionActionHighWaterMarkListener.MAX_SESSION_ACTION_ID))
+				.isFalse();
+	}
+
+	private static DataSource dataSource(long maxId, long snapshotXmax, Iterator<Long> oldestRunningTransactions) {
+		Connection connection = stub(Connection.class, (method, args) -> method.getName().equals("prepareStatement")
+				|| method.getName().equals("createStatement")
+				? statement(args.length > 0 ? (String) args[0] : null, maxId, snapshotXmax, oldestRunningTransactions)
+				: null);
+		return stub(DataSource.class, (method, args) -> method.getName().equals("getConnection") ? connection : null);
+	}
+
+	private static PreparedStatement statement(String preparedSql, long maxId, long snapshotXmax,
+											   Iterator<Long> oldestRunningTransactions) {
+		return stub(PreparedStatement.class, (method, args) -> {
+			if (!method.getName().equals("executeQuery")) {
+				return null;
+			}
+			String sql = args.length > 0 ? (String) args[0] : preparedSql;
+			return sql.equals(SourceDataBaseUtils.OLDEST_RUNNING_TRANSACTION_QUERY)
+					? resultSet(Map.of(1, oldestRunningTransactions.next()))
+					: resultSet(Map.of("max_id", maxId, "snapshot_xmax", snapshotXmax));
+		});
+	}
+
+	// Single row result with the values by column label or index
+	private static ResultSet resultSet(Map<Object, Long> row) {
+		boolean[] read = new boolean[1];
+		return stub(ResultSet.class, (method, args) -> switch (method.getName()) {
+			case "next" -> {
+				boolean hasRow = !read[0];
+				read[0] = true;
+				yield hasRow;
+			}
+			case "getLong", "getObject" -> row.get(args[0]);
+			case "getMetaData" -> stub(ResultSetMetaData.class, (metaDataMethod, metaDataArgs) ->
+					metaDataMethod.getName().equals("getColumnCount") ? row.size() : null);
+			default -> null;
+		});
+	}
+
+	private static JobRepository jobRepository() {
+		return stub(JobRepository.class, (method, args) -> null);
+	}
+
+	private interface Handler {
+		Object invoke(Method method, Object[] args) throws Exception;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T stub(Class<T> type, Handler handler) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+			Object result = handler.invoke(method, args == null ? new Object[0] : args);
+			if (result == null && method.getReturnType() == boolean.class) {
+				return false;
+			}
+			if (result == null && method.getReturnType() == int.class) {
+				return 0;
+			}
+			return result;
+		});
+	}
+}
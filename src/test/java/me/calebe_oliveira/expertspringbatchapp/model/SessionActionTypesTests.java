@@ -0,0 +1,36 @@
+package me.calebe_oliveira.expertspringbatchapp.model;
+
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SessionActionTypesTests {
+
+	@Test
+	void describesUpdatesOfRegisteredTypesByTheirCodes() {
+		SessionActionTypes types = SourceDataBaseUtils.SESSION_ACTION_TYPES;
+		byte plus = types.codeOf(SourceDataBaseUtils.PLUS_TYPE);
+		byte multi = types.codeOf(SourceDataBaseUtils.MULTI_TYPE);
+
+		assertThat(types.getNames()).containsExactly(SourceDataBaseUtils.PLUS_TYPE, SourceDataBaseUtils.MULTI_TYPE);
+		assertThat(types.add(plus, 2.5d)).isEqualTo(2.5d);
+		assertThat(types.multiply(plus, 2.5d)).isEqualTo(1d);
+		assertThat(types.add(multi, 1.2d)).isEqualTo(0d);
+		assertThat(types.multiply(multi, 1.2d)).isEqualTo(1.2d);
+	}
+
+	@Test
+	void newTypeIsAddedByRegistration() {
+		// 'reset' sets the score to the amount
+		SessionActionTypes types = new SessionActionTypes().register("reset", 1d, 0d, 0d, 0d);
+
+		UserScoreUpdate update = types.toUpdate(new SessionAction(1, 7, "reset", 3d));
+
+		assertThat(update.getUserId()).isEqualTo(7);
+		assertThat(10d * update.getMultiply() + update.getAdd()).isEqualTo(3d);
+		assertThatThrownBy(() -> types.codeOf("plus")).hasMessageContaining("Unknown session action record type");
+	}
+
+}
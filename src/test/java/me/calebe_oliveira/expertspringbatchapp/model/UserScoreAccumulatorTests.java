@@ -0,0 +1,45 @@
+package me.calebe_oliveira.expertspringbatchapp.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+class UserScoreAccumulatorTests {
+
+	@Test
+	void foldsUpdatesOfTheSameUserAcrossResizes() throws Exception {
+		UserScoreAccumulator accumulator = new UserScoreAccumulator(4);
+		Map<Long, UserScoreUpdate> expected = new HashMap<>();
+		for (int i = 0; i < 10000; i++) {
+			long userId = (i * 7919L) % 1000;
+			UserScoreUpdate update = i % 3 == 0 ? new UserScoreUpdate(userId, 0d, 1.01d) : new UserScoreUpdate(userId, i % 10, 1d);
+			accumulator.fold(userId, update.getAdd(), update.getMultiply());
+			expected.merge(userId, update, UserScoreUpdate::andThen);
+		}
+
+		assertThat(accumulator.size()).isEqualTo(expected.size());
+		Map<Long, UserScoreUpdate> folded = new HashMap<>();
+		accumulator.forEach((userId, add, multiply) -> folded.put(userId, new UserScoreUpdate(userId, add, multiply)));
+		assertThat(folded.keySet()).isEqualTo(expected.keySet());
+		expected.forEach((userId, update) -> {
+			assertThat(folded.get(userId).getAdd()).isCloseTo(update.getAdd(), offset(1e-9));
+			assertThat(folded.get(userId).getMultiply()).isCloseTo(update.getMultiply(), offset(1e-9));
+		});
+	}
+
+	@Test
+	void clearForgetsAllUsers() throws Exception {
+		UserScoreAccumulator accumulator = new UserScoreAccumulator(16);
+		accumulator.fold(1, 2d, 1d);
+		accumulator.clear();
+		accumulator.fold(1, 3d, 1d);
+
+		assertThat(accumulator.size()).isEqualTo(1);
+		accumulator.forEach((userId, add, multiply) -> assertThat(add).isEqualTo(3d));
+	}
+
+}
@@ -0,0 +1,25 @@
+package me.calebe_oliveira.expertspringbatchapp.partioners;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PartitioningConfigTests {
+
+	@Test
+	void rejectsJobTimeoutShorterThanAllAttemptsOfThePartition() {
+		assertThatThrownBy(() -> new PartitioningConfig("http://localhost:8080/", "http://localhost:8080/", 10000,
+				1, 0, 20000, 2, 1000, 30000))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void acceptsJobTimeoutCoveringAllAttemptsOfThePartition() {
+		PartitioningConfig partitioningConfig = new PartitioningConfig("http://localhost:8080/,http://localhost:8181/",
+				"http://localhost:8080/", 10000, 2, 0, 20000, 2, 1000, 40000);
+
+		assertThat(partitioningConfig.getJobTimeoutMillis()).isEqualTo(40000);
+		assertThat(partitioningConfig.getGridSize()).isEqualTo(4);
+	}
+}
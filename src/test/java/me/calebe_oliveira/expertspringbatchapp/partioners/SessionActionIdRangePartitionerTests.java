@@ -0,0 +1,44 @@
+package me.calebe_oliveira.expertspringbatchapp.partioners;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.item.ExecutionContext;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SessionActionIdRangePartitionerTests {
+
+	@Test
+	void splitsIdsIntoAdjacentRangesInTheOrderOfTheirIndexes() {
+		Map<String, ExecutionContext> partitions = new SessionActionIdRangePartitioner(100, 110).partition(3);
+
+		assertThat(partitions).hasSize(3);
+		assertRange(partitions.get("sessionActionIdRange-0"), 0, 100, 104);
+		assertRange(partitions.get("sessionActionIdRange-1"), 1, 104, 107);
+		assertRange(partitions.get("sessionActionIdRange-2"), 2, 107, 110);
+	}
+
+	@Test
+	void createsNoRangesNarrowerThanSingleId() {
+		Map<String, ExecutionContext> partitions = new SessionActionIdRangePartitioner(0, 2).partition(8);
+
+		assertThat(partitions).hasSize(2);
+		assertRange(partitions.get("sessionActionIdRange-0"), 0, 0, 1);
+		assertRange(partitions.get("sessionActionIdRange-1"), 1, 1, 2);
+	}
+
+	@Test
+	void createsSingleEmptyRangeWhenThereAreNoNewIds() {
+		Map<String, ExecutionContext> partitions = new SessionActionIdRangePartitioner(50, 50).partition(4);
+
+		assertThat(partitions).hasSize(1);
+		assertRange(partitions.get("sessionActionIdRange-0"), 0, 50, 50);
+	}
+
+	private static void assertRange(ExecutionContext executionContext, int rangeIndex, long afterId, long maxId) {
+		assertThat(executionContext.getInt(SessionActionIdRangePartitioner.RANGE_INDEX)).isEqualTo(rangeIndex);
+		assertThat(executionContext.getLong(SessionActionIdRangePartitioner.AFTER_SESSION_ACTION_ID)).isEqualTo(afterId);
+		assertThat(executionContext.getLong(SessionActionIdRangePartitioner.MAX_SESSION_ACTION_ID)).isEqualTo(maxId);
+	}
+}
@@ -0,0 +1,49 @@
+package me.calebe_oliveira.expertspringbatchapp.partioners;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SessionActionRangePartitionerTests {
+
+	@Test
+	void splitsUniformUsersIntoEqualRanges() {
+		SessionActionRangePartitioner.UserIdRangeBuilder rangeBuilder = new SessionActionRangePartitioner.UserIdRangeBuilder(3);
+		for (long userId = 1; userId <= 9; userId++) {
+			rangeBuilder.addUser(userId, 10, 90);
+		}
+
+		List<long[]> ranges = rangeBuilder.build();
+
+		assertThat(ranges).containsExactly(
+				new long[]{Long.MIN_VALUE, 3},
+				new long[]{4, 6},
+				new long[]{7, Long.MAX_VALUE});
+	}
+
+	@Test
+	void splitsActionsLeftAfterHeavyUserEvenly() {
+		SessionActionRangePartitioner.UserIdRangeBuilder rangeBuilder = new SessionActionRangePartitioner.UserIdRangeBuilder(3);
+		rangeBuilder.addUser(1, 90, 100);
+		for (long userId = 2; userId <= 11; userId++) {
+			rangeBuilder.addUser(userId, 1, 100);
+		}
+
+		List<long[]> ranges = rangeBuilder.build();
+
+		assertThat(ranges).containsExactly(
+				new long[]{Long.MIN_VALUE, 1},
+				new long[]{2, 6},
+				new long[]{7, Long.MAX_VALUE});
+	}
+
+	@Test
+	void coversAllUsersWithSinglePartitionWhenThereAreNoActions() {
+		List<long[]> ranges = new SessionActionRangePartitioner.UserIdRangeBuilder(4).build();
+
+		assertThat(ranges).containsExactly(new long[]{Long.MIN_VALUE, Long.MAX_VALUE});
+	}
+
+}
@@ -0,0 +1,62 @@
+package me.calebe_oliveira.expertspringbatchapp.policies;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.scope.context.StepContext;
+import org.springframework.batch.item.ExecutionContext;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveChunkCompletionPolicyTests {
+
+	@Test
+	void growsFastChunksUpToTheLimit() {
+		AdaptiveChunkCompletionPolicy policy = new AdaptiveChunkCompletionPolicy(10, 5, 30, 3600000);
+		ChunkContext chunkContext = chunkContext();
+
+		for (int i = 0; i < 3; i++) {
+			policy.beforeChunk(chunkContext);
+			policy.afterChunk(chunkContext);
+		}
+
+		assertThat(policy.getChunkSize()).isEqualTo(30);
+		assertThat(executionContextOf(chunkContext).getInt(AdaptiveChunkCompletionPolicy.CHUNK_SIZE)).isEqualTo(30);
+		assertThat(executionContextOf(chunkContext).getLong(AdaptiveChunkCompletionPolicy.CHUNK_SIZE_DECISION_COUNT)).isEqualTo(2);
+	}
+
+	@Test
+	void shrinksSlowAndRolledBackChunks() throws Exception {
+		AdaptiveChunkCompletionPolicy policy = new AdaptiveChunkCompletionPolicy(40, 5, 100, 1);
+		ChunkContext chunkContext = chunkContext();
+
+		policy.beforeChunk(chunkContext);
+		Thread.sleep(10);
+		policy.afterChunk(chunkContext);
+		assertThat(policy.getChunkSize()).isEqualTo(20);
+
+		policy.beforeChunk(chunkContext);
+		policy.afterChunkError(chunkContext);
+		assertThat(policy.getChunkSize()).isEqualTo(10);
+	}
+
+	@Test
+	void continuesWithTheStoredSizeOnRestart() {
+		ChunkContext chunkContext = chunkContext();
+		executionContextOf(chunkContext).putInt(AdaptiveChunkCompletionPolicy.CHUNK_SIZE, 70);
+		AdaptiveChunkCompletionPolicy policy = new AdaptiveChunkCompletionPolicy(10, 5, 100, 3600000);
+
+		policy.beforeChunk(chunkContext);
+
+		assertThat(policy.getChunkSize()).isEqualTo(70);
+	}
+
+	private static ChunkContext chunkContext() {
+		return new ChunkContext(new StepContext(new StepExecution("step", new JobExecution(1L))));
+	}
+
+	private static ExecutionContext executionContextOf(ChunkContext chunkContext) {
+		return chunkContext.getStepContext().getStepExecution().getExecutionContext();
+	}
+}
@@ -0,0 +1,105 @@
+package me.calebe_oliveira.expertspringbatchapp.readers;
+
+import me.calebe_oliveira.expertspringbatchapp.model.SessionAction;
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import me.calebe_oliveira.expertspringbatchapp.writers.SessionActionFileItemWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ExecutionContext;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MappedSessionActionFileReaderTests {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void readsRecordsOfTheIdRange() throws Exception {
+		Path file = writeFile(directory.resolve("actions.bin"), 20, new ExecutionContext());
+
+		MappedSessionActionFileReader reader = new MappedSessionActionFileReader(file, 12, 26);
+		reader.open(new ExecutionContext());
+		List<SessionAction> sessionActions = readAll(reader);
+		reader.close();
+
+		assertThat(sessionActions).extracting(SessionAction::getId).containsExactly(14L, 16L, 18L, 20L, 22L, 24L, 26L);
+		assertThat(sessionActions.get(0).getUserId()).isEqualTo(2);
+		assertThat(sessionActions.get(0).getActionType()).isEqualTo(SourceDataBaseUtils.MULTI_TYPE);
+		assertThat(sessionActions.get(0).getAmount()).isEqualTo(1.07);
+	}
+
+	@Test
+	void restartsFromTheStoredOffset() throws Exception {
+		Path file = writeFile(directory.resolve("actions.bin"), 10, new ExecutionContext());
+		ExecutionContext executionContext = new ExecutionContext();
+		MappedSessionActionFileReader reader = new MappedSessionActionFileReader(file, 0, Long.MAX_VALUE);
+		reader.open(executionContext);
+		for (int i = 0; i < 4; i++) {
+			reader.read();
+		}
+		reader.update(executionContext);
+		reader.close();
+
+		MappedSessionActionFileReader restartedReader = new MappedSessionActionFileReader(file, 0, Long.MAX_VALUE);
+		restartedReader.open(executionContext);
+
+		assertThat(readAll(restartedReader)).extracting(SessionAction::getId).containsExactly(10L, 12L, 14L, 16L, 18L, 20L);
+		restartedReader.close();
+	}
+
+	@Test
+	void writerDropsRecordsWrittenAfterTheLastCommit() throws Exception {
+		Path file = directory.resolve("actions.bin");
+		ExecutionContext executionContext = new ExecutionContext();
+		SessionActionFileItemWriter writer = new SessionActionFileItemWriter(file, SourceDataBaseUtils.SESSION_ACTION_TYPES);
+		writer.open(executionContext);
+		writer.write(new Chunk<>(sessionActions(1, 3)));
+		writer.update(executionContext);
+		writer.write(new Chunk<>(sessionActions(4, 6)));
+		writer.close();
+
+		SessionActionFileItemWriter restartedWriter = new SessionActionFileItemWriter(file, SourceDataBaseUtils.SESSION_ACTION_TYPES);
+		restartedWriter.open(executionContext);
+		restartedWriter.write(new Chunk<>(sessionActions(4, 5)));
+		restartedWriter.close();
+
+		MappedSessionActionFileReader reader = new MappedSessionActionFileReader(file, 0, Long.MAX_VALUE);
+		reader.open(new ExecutionContext());
+		assertThat(readAll(reader)).extracting(SessionAction::getId).containsExactly(2L, 4L, 6L, 8L, 10L);
+		reader.close();
+	}
+
+	private static Path writeFile(Path file, int count, ExecutionContext executionContext) throws Exception {
+		SessionActionFileItemWriter writer = new SessionActionFileItemWriter(file, SourceDataBaseUtils.SESSION_ACTION_TYPES);
+		writer.open(executionContext);
+		writer.write(new Chunk<>(sessionActions(1, count)));
+		writer.update(executionContext);
+		writer.close();
+		return file;
+	}
+
+	// Every other id, so that the ids of the range bounds could be absent
+	private static List<SessionAction> sessionActions(int from, int to) {
+		List<SessionAction> sessionActions = new ArrayList<>();
+		for (int i = from; i <= to; i++) {
+			sessionActions.add(new SessionAction(i * 2L, i % 5, i % 2 == 0 ? SourceDataBaseUtils.PLUS_TYPE : SourceDataBaseUtils.MULTI_TYPE,
+					1 + i / 100.0));
+		}
+		return sessionActions;
+	}
+
+	private static List<SessionAction> readAll(MappedSessionActionFileReader reader) throws Exception {
+		List<SessionAction> sessionActions = new ArrayList<>();
+		SessionAction sessionAction;
+		while ((sessionAction = reader.read()) != null) {
+			sessionActions.add(sessionAction);
+		}
+		return sessionActions;
+	}
+}
@@ -0,0 +1,90 @@
+package me.calebe_oliveira.expertspringbatchapp.readers;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamReader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PrefetchingItemReaderTests {
+
+	@Test
+	void returnsItemsInTheOrderOfTheDelegate() throws Exception {
+		PrefetchingItemReader<Integer> reader = new PrefetchingItemReader<>(new CountingReader(10), 3, 2);
+		reader.open(new ExecutionContext());
+
+		assertThat(readAll(reader)).containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+		reader.close();
+	}
+
+	@Test
+	void restartsRightAfterTheLastReadItem() throws Exception {
+		PrefetchingItemReader<Integer> reader = new PrefetchingItemReader<>(new CountingReader(10), 3, 2);
+		ExecutionContext executionContext = new ExecutionContext();
+		reader.open(executionContext);
+		for (int i = 0; i < 7; i++) {
+			reader.read();
+		}
+		reader.update(executionContext);
+		reader.close();
+
+		PrefetchingItemReader<Integer> restartedReader = new PrefetchingItemReader<>(new CountingReader(10), 3, 2);
+		restartedReader.open(executionContext);
+
+		assertThat(readAll(restartedReader)).containsExactly(7, 8, 9);
+		restartedReader.close();
+	}
+
+	@Test
+	void stateAtBatchBoundaryIsTheStateOfTheDelegate() throws Exception {
+		PrefetchingItemReader<Integer> reader = new PrefetchingItemReader<>(new CountingReader(10), 3, 2);
+		ExecutionContext executionContext = new ExecutionContext();
+		reader.open(executionContext);
+		for (int i = 0; i < 6; i++) {
+			reader.read();
+		}
+		reader.update(executionContext);
+		reader.close();
+
+		assertThat(executionContext.getInt("countingReader.next")).isEqualTo(6);
+		assertThat(executionContext.getInt("prefetchingReader.skipCount")).isEqualTo(0);
+	}
+
+	private static List<Integer> readAll(ItemStreamReader<Integer> reader) throws Exception {
+		List<Integer> items = new ArrayList<>();
+		Integer item;
+		while ((item = reader.read()) != null) {
+			items.add(item);
+		}
+		return items;
+	}
+
+	// Reader of the numbers from 0 to the count, which stores the next number in the execution context
+	private static class CountingReader implements ItemStreamReader<Integer> {
+		private final int count;
+		private int next;
+
+		CountingReader(int count) {
+			this.count = count;
+		}
+
+		@Override
+		public Integer read() {
+			return next < count ? next++ : null;
+		}
+
+		@Override
+		public void open(ExecutionContext executionContext) {
+			next = executionContext.getInt("countingReader.next", 0);
+		}
+
+		@Override
+		public void update(ExecutionContext executionContext) {
+			executionContext.putInt("countingReader.next", next);
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+package me.calebe_oliveira.expertspringbatchapp.readers;
+
+import me.calebe_oliveira.expertspringbatchapp.listeners.UserScoreCheckpointListener;
+import me.calebe_oliveira.expertspringbatchapp.model.SessionAction;
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreUpdate;
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.item.ExecutionContext;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SessionActionItemReaderTests {
+	private static final String TABLE_NAME = SessionAction.SESSION_ACTION_TABLE_NAME;
+	private static final String CHECKPOINT_TABLE_NAME = UserScoreUpdate.USER_SCORE_CHECKPOINT_TABLE_NAME;
+	private static final String STEP_NAME = "simpleActionCalculationStep:partition0";
+
+	// Ids of the users interleave, as the actions of all the users are inserted at the same time
+	private final List<SessionAction> sessionActions = List.of(action(1, 2), action(2, 1), action(3, 2), action(4, 1),
+			action(5, 3), action(6, 2));
+	private final List<String> executedQueries = new ArrayList<>();
+
+	@Test
+	void readsUserRangeInOrderOfUsersAndIds() {
+		SessionActionItemReader reader = new SessionActionItemReader(dataSource(Map.of()), TABLE_NAME, null, true, () -> 2);
+		reader.open(new ExecutionContext());
+
+		assertThat(readIds(reader)).containsExactly(2L, 4L, 1L, 3L, 6L, 5L);
+		assertThat(executedQueries).containsOnly(SourceDataBaseUtils.constructUserOrderedSessionActionPageQuery(TABLE_NAME, null));
+	}
+
+	@Test
+	void continuesAfterUserAndIdOfStoredCheckpoint() {
+		// Previous execution applied the actions up to the one with id = 3 of user 2, but failed before its execution
+		// context was persisted
+		StepExecution stepExecution = new JobExecution(new JobInstance(1L, "partitionedLocalActionCalculationJob"), 2L,
+				new JobParameters()).createStepExecution(STEP_NAME);
+		stepExecution.getExecutionContext().putLong(SessionActionItemReader.NAME + "." + SessionActionItemReader.LAST_ID, 4);
+		new UserScoreCheckpointListener(dataSource(Map.of("last_user_id", 2L, "last_session_action_id", 3L)),
+				CHECKPOINT_TABLE_NAME, true).beforeStep(stepExecution);
+		SessionActionItemReader reader = new SessionActionItemReader(dataSource(Map.of()), TABLE_NAME, null, true, () -> 2);
+		reader.open(stepExecution.getExecutionContext());
+
+		assertThat(readIds(reader)).containsExactly(6L, 5L);
+	}
+
+	private static List<Long> readIds(SessionActionItemReader reader) {
+		List<Long> ids = new ArrayList<>();
+		for (SessionAction sessionAction = reader.read(); sessionAction != null; sessionAction = reader.read()) {
+			ids.add(sessionAction.getId());
+		}
+		return ids;
+	}
+
+	private static SessionAction action(long id, long userId) {
+		return new SessionAction(id, userId, SourceDataBaseUtils.PLUS_TYPE, 1);
+	}
+
+	// Session action table, which answers the user ordered page queries, and the checkpoint table with the given row
+	private DataSource dataSource(Map<String, Long> checkpoint) {
+		Connection connection = stub(Connection.class, (method, args) -> method.getName().equals("prepareStatement")
+				? statement((String) args[0], checkpoint)
+				: null);
+		return stub(DataSource.class, (method, args) -> method.getName().equals("getConnection") ? connection : null);
+	}
+
+	private PreparedStatement statement(String sql, Map<String, Long> checkpoint) {
+		Object[] parameters = new Object[4];
+		return stub(PreparedStatement.class, (method, args) -> {
+			if (method.getName().startsWith("set") && args.length == 2 && args[0] instanceof Integer index) {
+				parameters[index] = args[1];
+			}
+			if (!method.getName().equals("executeQuery")) {
+				return null;
+			}
+			executedQueries.add(sql);
+			return sql.equals(SourceDataBaseUtils.constructUserScoreCheckpointPositionQuery(CHECKPOINT_TABLE_NAME))
+					? resultSet(List.of(checkpoint))
+					: resultSet(page(((Number) parameters[1]).longValue(), ((Number) parameters[2]).longValue(),
+					((Number) parameters[3]).intValue()));
+		});
+	}
+
+	private List<Map<String, Object>> page(long lastUserId, long lastId, int pageSize) {
+		return sessionActions.stream()
+				.filter(sessionAction -> sessionAction.getUserId() > lastUserId
+						|| sessionAction.getUserId() == lastUserId && sessionAction.getId() > lastId)
+				.sorted(Comparator.comparingLong(SessionAction::getUserId).thenComparingLong(SessionAction::getId))
+				.limit(pageSize)
+				.map(sessionAction -> Map.<String, Object>of("id", sessionAction.getId(), "user_id", sessionAction.getUserId(),
+						"action_type", sessionAction.getActionType(), "amount", sessionAction.getAmount()))
+				.toList();
+	}
+
+	// Rows with the values by column label
+	private static ResultSet resultSet(List<? extends Map<String, ?>> rows) {
+		int[] position = {-1};
+		return stub(ResultSet.class, (method, args) -> switch (method.getName()) {
+			case "next" -> ++position[0] < rows.size();
+			case "getLong", "getString", "getDouble", "getObject" -> rows.get(position[0]).get((String) args[0]);
+			default -> null;
+		});
+	}
+
+	private interface Handler {
+		Object invoke(Method method, Object[] args) throws Exception;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T stub(Class<T> type, Handler handler) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+			Object result = handler.invoke(method, args == null ? new Object[0] : args);
+			if (result == null && method.getReturnType() == boolean.class) {
+				return false;
+			}
+			if (result == null && method.getReturnType() == int.class) {
+				return 0;
+			}
+			return result;
+		});
+	}
+}
@@ -0,0 +1,74 @@
+package me.calebe_oliveira.expertspringbatchapp.repositories;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CoalescingJobRepositoryTests {
+	private final List<String> persistedUpdates = new ArrayList<>();
+	private final JobRepository delegate = (JobRepository) Proxy.newProxyInstance(JobRepository.class.getClassLoader(),
+			new Class<?>[]{JobRepository.class}, (proxy, method, args) -> {
+				persistedUpdates.add(method.getName());
+				return null;
+			});
+
+	@Test
+	void persistsEveryGivenNumberOfChunksAndTheEndOfTheStep() {
+		CoalescingJobRepository jobRepository = new CoalescingJobRepository(delegate, 3, 3600000, step -> true);
+		StepExecution stepExecution = new StepExecution("step", new JobExecution(1L), 2L);
+		stepExecution.setStatus(BatchStatus.STARTED);
+
+		jobRepository.update(stepExecution);
+		for (int chunk = 0; chunk < 4; chunk++) {
+			jobRepository.updateExecutionContext(stepExecution);
+			jobRepository.update(stepExecution);
+		}
+		assertThat(persistedUpdates).containsExactly("update", "updateExecutionContext", "update");
+
+		stepExecution.setStatus(BatchStatus.COMPLETED);
+		jobRepository.updateExecutionContext(stepExecution);
+		jobRepository.update(stepExecution);
+		assertThat(persistedUpdates).containsExactly("update", "updateExecutionContext", "update",
+				"updateExecutionContext", "update");
+	}
+
+	@Test
+	void persistsTheLastCommittedExecutionContextOnceTheStepFails() {
+		CoalescingJobRepository jobRepository = new CoalescingJobRepository(delegate, 10, 3600000, step -> true);
+		StepExecution stepExecution = new StepExecution("step", new JobExecution(1L), 2L);
+		stepExecution.setStatus(BatchStatus.STARTED);
+
+		jobRepository.update(stepExecution);
+		jobRepository.updateExecutionContext(stepExecution);
+		jobRepository.update(stepExecution);
+		stepExecution.setStatus(BatchStatus.FAILED);
+		jobRepository.update(stepExecution);
+
+		assertThat(persistedUpdates).containsExactly("update", "updateExecutionContext", "update");
+	}
+
+	@Test
+	void persistsEveryChunkOfTheStepWhichIsNotCoalesced() {
+		CoalescingJobRepository jobRepository = new CoalescingJobRepository(delegate, 3, 3600000,
+				step -> step.getExecutionContext().containsKey("checkpoint"));
+		StepExecution stepExecution = new StepExecution("step", new JobExecution(1L), 2L);
+		stepExecution.setStatus(BatchStatus.STARTED);
+
+		jobRepository.update(stepExecution);
+		for (int chunk = 0; chunk < 2; chunk++) {
+			jobRepository.updateExecutionContext(stepExecution);
+			jobRepository.update(stepExecution);
+		}
+
+		assertThat(persistedUpdates).containsExactly("update", "updateExecutionContext", "update",
+				"updateExecutionContext", "update");
+	}
+}
@@ -0,0 +1,99 @@
+package me.calebe_oliveira.expertspringbatchapp.tasklets;
+
+import me.calebe_oliveira.expertspringbatchapp.listeners.UserScoreCheckpointListener;
+import me.calebe_oliveira.expertspringbatchapp.model.SessionAction;
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreUpdate;
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.item.support.ListItemReader;
+import org.springframework.batch.repeat.RepeatStatus;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AccumulatingUserScoreTaskletTests {
+	private static final String CHECKPOINT_TABLE_NAME = UserScoreUpdate.USER_SCORE_CHECKPOINT_TABLE_NAME;
+
+	// Flushes and checkpoints in the order they were applied
+	private final List<String> appliedStatements = new ArrayList<>();
+
+	@Test
+	void storesLastFlushedSessionActionAlongWithEveryFlush() throws Exception {
+		List<SessionAction> sessionActions = new ArrayList<>();
+		for (int i = 1; i <= 5; i++) {
+			sessionActions.add(new SessionAction(i, i % 2, SourceDataBaseUtils.PLUS_TYPE, i));
+		}
+		StepExecution stepExecution = new JobExecution(new JobInstance(1L, "accumulatingActionCalculationJob"), 1L,
+				new JobParameters()).createStepExecution("accumulatingActionCalculationStep");
+		UserScoreCheckpointListener checkpointListener = new UserScoreCheckpointListener(dataSource(),
+				CHECKPOINT_TABLE_NAME, true);
+		checkpointListener.beforeStep(stepExecution);
+		AccumulatingUserScoreTasklet tasklet = new AccumulatingUserScoreTasklet(new ListItemReader<>(sessionActions),
+				sessionAction -> new UserScoreUpdate(sessionAction.getUserId(), sessionAction.getAmount(), 1d),
+				chunk -> appliedStatements.add("flush of " + chunk.size() + " users"), checkpointListener, 3);
+		StepContribution contribution = new StepContribution(stepExecution);
+
+		assertThat(tasklet.execute(contribution, null)).isEqualTo(RepeatStatus.CONTINUABLE);
+		assertThat(tasklet.execute(contribution, null)).isEqualTo(RepeatStatus.FINISHED);
+
+		assertThat(appliedStatements).containsExactly("flush of 2 users", "checkpoint at 3", "flush of 2 users",
+				"checkpoint at 5");
+	}
+
+	// Checkpoint table without the checkpoint of the step, which records the moves of the checkpoint
+	private DataSource dataSource() {
+		Connection connection = stub(Connection.class, (method, args) -> method.getName().equals("prepareStatement")
+				? statement((String) args[0])
+				: null);
+		return stub(DataSource.class, (method, args) -> method.getName().equals("getConnection") ? connection : null);
+	}
+
+	private PreparedStatement statement(String sql) {
+		Object[] parameters = new Object[6];
+		return stub(PreparedStatement.class, (method, args) -> {
+			if (method.getName().startsWith("set") && args.length == 2 && args[0] instanceof Integer index) {
+				parameters[index] = args[1];
+			}
+			return switch (method.getName()) {
+				case "executeQuery" -> stub(ResultSet.class, (resultSetMethod, resultSetArgs) -> null);
+				case "executeUpdate" -> {
+					assertThat(sql).isEqualTo(SourceDataBaseUtils.constructUpsertUserScoreCheckpointQuery(CHECKPOINT_TABLE_NAME));
+					appliedStatements.add("checkpoint at " + parameters[4]);
+					yield 1;
+				}
+				default -> null;
+			};
+		});
+	}
+
+	private interface Handler {
+		Object invoke(Method method, Object[] args) throws Exception;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T stub(Class<T> type, Handler handler) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+			Object result = handler.invoke(method, args == null ? new Object[0] : args);
+			if (result == null && method.getReturnType() == boolean.class) {
+				return false;
+			}
+			if (result == null && method.getReturnType() == int.class) {
+				return 0;
+			}
+			return result;
+		});
+	}
+}
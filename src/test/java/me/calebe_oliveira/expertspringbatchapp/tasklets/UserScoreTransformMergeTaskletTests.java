@@ -0,0 +1,223 @@
+package me.calebe_oliveira.expertspringbatchapp.tasklets;
+
+import me.calebe_oliveira.expertspringbatchapp.config.UserActionJobConfiguration;
+import me.calebe_oliveira.expertspringbatchapp.model.SessionAction;
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreTransform;
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreUpdate;
+import me.calebe_oliveira.expertspringbatchapp.partioners.SessionActionIdRangePartitioner;
+import me.calebe_oliveira.expertspringbatchapp.utils.SourceDataBaseUtils;
+import me.calebe_oliveira.expertspringbatchapp.writers.UserScoreTransformItemWriter;
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.repeat.RepeatStatus;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserScoreTransformMergeTaskletTests {
+	private static final String TRANSFORM_TABLE_NAME = UserScoreUpdate.USER_SCORE_TRANSFORM_TABLE_NAME;
+	private static final String USER_SCORE_TABLE_NAME = UserScoreUpdate.USER_SCORE_TABLE_NAME;
+
+	@Test
+	void idRangeJobGivesSameScoresAsSimpleJob() throws Exception {
+		List<SessionAction> sessionActions = sessionActions(2000, 20);
+		Map<Long, BigDecimal> initialScores = Map.of(1L, new BigDecimal("12.35"), 2L, new BigDecimal("0.15"), 7L, new BigDecimal("3.00"));
+
+		// Single step reads all the actions in chunks of changing sizes, and the merge goes in small blocks of users
+		Database simpleJob = new Database(initialScores);
+		SplittableRandom chunkSizes = new SplittableRandom(7);
+		write(simpleJob, sessionActions, 0, () -> 1 + chunkSizes.nextInt(50));
+		merge(simpleJob, 3);
+
+		// Ranges are written in the reverse order, as the partitions could finish in any order
+		Database idRangeJob = new Database(initialScores);
+		Map<String, ExecutionContext> ranges = new SessionActionIdRangePartitioner(0, sessionActions.size()).partition(6);
+		for (int rangeIndex = ranges.size() - 1; rangeIndex >= 0; rangeIndex--) {
+			ExecutionContext range = ranges.get("sessionActionIdRange-" + rangeIndex);
+			long afterId = range.getLong(SessionActionIdRangePartitioner.AFTER_SESSION_ACTION_ID);
+			long maxId = range.getLong(SessionActionIdRangePartitioner.MAX_SESSION_ACTION_ID);
+			write(idRangeJob, sessionActions.stream().filter(action -> action.getId() > afterId && action.getId() <= maxId).toList(),
+					range.getInt(SessionActionIdRangePartitioner.RANGE_INDEX), () -> 5);
+		}
+		merge(idRangeJob, 100);
+
+		assertThat(idRangeJob.userScores).hasSize(20).isEqualTo(simpleJob.userScores);
+		assertThat(simpleJob.transforms).isEmpty();
+		assertThat(idRangeJob.transforms).isEmpty();
+	}
+
+	@Test
+	void roundsScoreOnceRegardlessOfChunks() throws Exception {
+		List<SessionAction> sessionActions = List.of(
+				new SessionAction(1, 1, SourceDataBaseUtils.MULTI_TYPE, 0.3),
+				new SessionAction(2, 1, SourceDataBaseUtils.MULTI_TYPE, 0.3));
+		Database database = new Database(Map.of(1L, new BigDecimal("0.15")));
+
+		write(database, sessionActions, 0, () -> 1);
+		merge(database, 100);
+
+		// Rounding after each action would give 0.05 and then 0.02
+		assertThat(database.userScores).containsExactly(Map.entry(1L, new BigDecimal("0.01")));
+	}
+
+	// Actions of the heavy user take about a half of the table, amounts have cents to produce ties of the rounding
+	private static List<SessionAction> sessionActions(int count, int userCount) {
+		SplittableRandom random = new SplittableRandom(42);
+		List<SessionAction> sessionActions = new ArrayList<>(count);
+		for (int id = 1; id <= count; id++) {
+			long userId = random.nextBoolean() ? 1 : 1 + random.nextInt(userCount);
+			sessionActions.add(random.nextInt(10) < 9
+					? new SessionAction(id, userId, SourceDataBaseUtils.PLUS_TYPE, (1 + random.nextInt(300)) / 100d)
+					: new SessionAction(id, userId, SourceDataBaseUtils.MULTI_TYPE, 1 + (1 + random.nextInt(9)) / 100d));
+		}
+		return sessionActions;
+	}
+
+	private interface ChunkSizes {
+		int next();
+	}
+
+	private static void write(Database database, List<SessionAction> sessionActions, int rangeIndex,
+							  ChunkSizes chunkSizes) throws Exception {
+		UserScoreTransformItemWriter writer = new UserScoreTransformItemWriter(database.dataSource(), TRANSFORM_TABLE_NAME, rangeIndex);
+		for (int from = 0; from < sessionActions.size(); ) {
+			int to = Math.min(from + chunkSizes.next(), sessionActions.size());
+			List<UserScoreUpdate> updates = new ArrayList<>();
+			for (SessionAction sessionAction : sessionActions.subList(from, to)) {
+				updates.add(UserActionJobConfiguration.getSessionActionProcessor().process(sessionAction));
+			}
+			writer.write(new Chunk<>(updates));
+			from = to;
+		}
+	}
+
+	private static void merge(Database database, int blockUserCount) throws Exception {
+		UserScoreTransformMergeTasklet tasklet = new UserScoreTransformMergeTasklet(database.dataSource(),
+				TRANSFORM_TABLE_NAME, USER_SCORE_TABLE_NAME, blockUserCount);
+		StepContribution contribution = new StepContribution(new StepExecution("mergeUserScoreTransformStep", null));
+		while (tasklet.execute(contribution, null) == RepeatStatus.CONTINUABLE) {
+			assertThat(contribution.getWriteCount()).isPositive();
+		}
+	}
+
+	/**
+	 * Transform and user score tables, which answer the queries of the writer and the tasklet as Postgres does:
+	 * composes transforms exactly, and rounds the score half away from zero to the two decimals of the column
+	 */
+	private static class Database {
+		private final Map<Long, Map<Integer, UserScoreTransform>> transforms = new TreeMap<>();
+		private final Map<Long, BigDecimal> userScores = new TreeMap<>();
+
+		private Database(Map<Long, BigDecimal> initialScores) {
+			userScores.putAll(initialScores);
+		}
+
+		private DataSource dataSource() {
+			return stub(DataSource.class, (method, args) -> method.getName().equals("getConnection") ? connection() : null);
+		}
+
+		private Connection connection() {
+			Connection[] connection = new Connection[1];
+			connection[0] = stub(Connection.class, (method, args) -> method.getName().equals("prepareStatement")
+					? statement((String) args[0], connection[0])
+					: null);
+			return connection[0];
+		}
+
+		private PreparedStatement statement(String sql, Connection connection) {
+			Object[] parameters = new Object[5];
+			return stub(PreparedStatement.class, (method, args) -> {
+				if (method.getName().startsWith("set") && args.length == 2 && args[0] instanceof Integer index) {
+					parameters[index] = args[1];
+				}
+				return switch (method.getName()) {
+					case "getConnection" -> connection;
+					case "executeUpdate" -> update(sql, parameters);
+					case "executeQuery" -> resultSet(selectBlock(parameters).iterator());
+					default -> null;
+				};
+			});
+		}
+
+		private int update(String sql, Object[] parameters) {
+			long userId = ((Number) parameters[1]).longValue();
+			if (sql.startsWith("insert into " + TRANSFORM_TABLE_NAME + " ")) {
+				UserScoreTransform transform = new UserScoreTransform(userId, (BigDecimal) parameters[3], (BigDecimal) parameters[4]);
+				transforms.computeIfAbsent(userId, id -> new TreeMap<>())
+						.merge((Integer) parameters[2], transform, UserScoreTransform::andThen);
+			} else if (sql.startsWith("insert into " + USER_SCORE_TABLE_NAME + " ")) {
+				BigDecimal score = userScores.get(userId);
+				BigDecimal newScore = score == null
+						? (BigDecimal) parameters[2]
+						: score.multiply((BigDecimal) parameters[3]).add((BigDecimal) parameters[4]);
+				userScores.put(userId, newScore.setScale(2, RoundingMode.HALF_UP));
+			} else if (sql.startsWith("delete from " + TRANSFORM_TABLE_NAME + " ")) {
+				long lastUserId = ((Number) parameters[2]).longValue();
+				transforms.keySet().removeIf(id -> id > userId && id <= lastUserId);
+			} else {
+				throw new IllegalArgumentException("Unexpected statement: " + sql);
+			}
+			return 1;
+		}
+
+		// Transforms of the given number of users after the last merged one, in the order of the ranges
+		private List<UserScoreTransform> selectBlock(Object[] parameters) {
+			long lastMergedUserId = ((Number) parameters[1]).longValue();
+			int blockUserCount = ((Number) parameters[3]).intValue();
+			List<UserScoreTransform> rows = new ArrayList<>();
+			transforms.entrySet().stream()
+					.filter(user -> user.getKey() > lastMergedUserId)
+					.limit(blockUserCount)
+					.forEach(user -> rows.addAll(user.getValue().values()));
+			return rows;
+		}
+
+		private static ResultSet resultSet(Iterator<UserScoreTransform> rows) {
+			UserScoreTransform[] row = new UserScoreTransform[1];
+			return stub(ResultSet.class, (method, args) -> switch (method.getName()) {
+				case "next" -> {
+					row[0] = rows.hasNext() ? rows.next() : null;
+					yield row[0] != null;
+				}
+				case "getLong" -> row[0].getUserId();
+				case "getBigDecimal" -> "add".equals(args[0]) ? row[0].getAdd() : row[0].getMultiply();
+				default -> null;
+			});
+		}
+	}
+
+	private interface Handler {
+		Object invoke(Method method, Object[] args) throws Exception;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T stub(Class<T> type, Handler handler) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+			Object result = handler.invoke(method, args == null ? new Object[0] : args);
+			if (result == null && method.getReturnType() == boolean.class) {
+				return false;
+			}
+			if (result == null && method.getReturnType() == int.class) {
+				return 0;
+			}
+			return result;
+		});
+	}
+}
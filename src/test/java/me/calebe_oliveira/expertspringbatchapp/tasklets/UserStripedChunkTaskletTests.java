@@ -0,0 +1,85 @@
+package me.calebe_oliveira.expertspringbatchapp.tasklets;
+
+import me.calebe_oliveira.expertspringbatchapp.model.SessionAction;
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreUpdate;
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.item.support.ListItemReader;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class UserStripedChunkTaskletTests {
+
+	@Test
+	void keepsTheOrderOfUpdatesOfEveryUser() throws Exception {
+		List<SessionAction> sessionActions = new ArrayList<>();
+		for (int i = 0; i < 10_000; i++) {
+			sessionActions.add(new SessionAction(i + 1, i % 7, "plus", i));
+		}
+		Map<Long, List<Double>> writtenByUser = new ConcurrentHashMap<>();
+		UserStripedChunkTasklet tasklet = new UserStripedChunkTasklet(new ListItemReader<>(sessionActions),
+				sessionAction -> new UserScoreUpdate(sessionAction.getUserId(), sessionAction.getAmount(), 1d),
+				chunk -> chunk.forEach(update -> writtenByUser
+						.computeIfAbsent(update.getUserId(), userId -> new ArrayList<>()).add(update.getAdd())),
+				new ResourcelessTransactionManager(), new SimpleAsyncTaskExecutor(), 3, 10, 5);
+		StepContribution contribution = new StepContribution(new StepExecution("step", new JobExecution(1L)));
+
+		tasklet.execute(contribution, null);
+
+		assertThat(contribution.getReadCount()).isEqualTo(10_000);
+		assertThat(contribution.getWriteCount()).isEqualTo(10_000);
+		for (Map.Entry<Long, List<Double>> userUpdates : writtenByUser.entrySet()) {
+			assertThat(userUpdates.getValue()).isSorted().hasSize(10_000 / 7 + (userUpdates.getKey() < 10_000 % 7 ? 1 : 0));
+		}
+	}
+
+	@Test
+	void failsOnceAnyStripeFailsToWrite() {
+		List<SessionAction> sessionActions = new ArrayList<>();
+		for (int i = 0; i < 1_000; i++) {
+			sessionActions.add(new SessionAction(i + 1, i, "plus", 1));
+		}
+		UserStripedChunkTasklet tasklet = new UserStripedChunkTasklet(new ListItemReader<>(sessionActions),
+				sessionAction -> new UserScoreUpdate(sessionAction.getUserId(), sessionAction.getAmount(), 1d),
+				chunk -> {
+					throw new IllegalStateException("Database is down");
+				},
+				new ResourcelessTransactionManager(), new SimpleAsyncTaskExecutor(), 3, 2, 5);
+		StepContribution contribution = new StepContribution(new StepExecution("step", new JobExecution(1L)));
+
+		assertThatThrownBy(() -> tasklet.execute(contribution, null))
+				.hasRootCauseMessage("Database is down");
+	}
+
+	@Test
+	void doesNotWaitForTheQueueOfTheStripeWhichDied() {
+		List<SessionAction> sessionActions = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			sessionActions.add(new SessionAction(i + 1, 1, "plus", 1));
+		}
+		// Error is not handled by the stripe, so its thread stops taking items while its queue is full
+		UserStripedChunkTasklet tasklet = new UserStripedChunkTasklet(new ListItemReader<>(sessionActions),
+				sessionAction -> new UserScoreUpdate(sessionAction.getUserId(), sessionAction.getAmount(), 1d),
+				chunk -> {
+					throw new OutOfMemoryError("Heap is exhausted");
+				},
+				new ResourcelessTransactionManager(), new SimpleAsyncTaskExecutor(), 1, 1, 1);
+		StepContribution contribution = new StepContribution(new StepExecution("step", new JobExecution(1L)));
+
+		assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertThatThrownBy(() -> tasklet.execute(contribution, null))
+				.hasRootCauseMessage("Heap is exhausted"));
+	}
+
+}
@@ -0,0 +1,70 @@
+package me.calebe_oliveira.expertspringbatchapp.writers;
+
+import me.calebe_oliveira.expertspringbatchapp.model.UserScoreUpdate;
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.scope.context.StepContext;
+import org.springframework.batch.item.Chunk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+class ComposingUserScoreItemWriterTests {
+
+	@Test
+	void foldsUpdatesOfTheSameUserKeepingTheirOrder() throws Exception {
+		List<UserScoreUpdate> written = new ArrayList<>();
+		ComposingUserScoreItemWriter writer = new ComposingUserScoreItemWriter(chunk -> written.addAll(chunk.getItems()));
+
+		writer.write(new Chunk<>(
+				new UserScoreUpdate(1, 2d, 1d),
+				new UserScoreUpdate(2, 5d, 1d),
+				new UserScoreUpdate(1, 0d, 1.5d),
+				new UserScoreUpdate(1, 3d, 1d)));
+
+		assertThat(written).hasSize(2);
+		assertThat(written.get(0).getUserId()).isEqualTo(1);
+		// ((score + 2) * 1.5) + 3 = score * 1.5 + 6
+		assertThat(written.get(0).getMultiply()).isEqualTo(1.5d);
+		assertThat(written.get(0).getAdd()).isEqualTo(6d);
+		assertThat(written.get(1).getUserId()).isEqualTo(2);
+		assertThat(written.get(1).getAdd()).isEqualTo(5d);
+	}
+
+	@Test
+	void countsFoldedUpdatesOfCommittedChunksOnly() throws Exception {
+		ComposingUserScoreItemWriter writer = new ComposingUserScoreItemWriter(chunk -> { });
+		StepExecution stepExecution = new StepExecution("step", new JobExecution(1L));
+		ChunkContext chunkContext = new ChunkContext(new StepContext(stepExecution));
+
+		// Chunk is rolled back, and written once again
+		writer.write(new Chunk<>(new UserScoreUpdate(1, 2d, 1d), new UserScoreUpdate(1, 3d, 1d)));
+		writer.afterChunkError(chunkContext);
+		writer.write(new Chunk<>(new UserScoreUpdate(1, 2d, 1d), new UserScoreUpdate(1, 3d, 1d)));
+		writer.afterChunk(chunkContext);
+		writer.write(new Chunk<>(new UserScoreUpdate(1, 2d, 1d), new UserScoreUpdate(2, 3d, 1d),
+				new UserScoreUpdate(2, 1d, 1d)));
+		writer.afterChunk(chunkContext);
+
+		assertThat(stepExecution.getExecutionContext().getLong(ComposingUserScoreItemWriter.FOLDED_UPDATE_COUNT))
+				.isEqualTo(2);
+	}
+
+	@Test
+	void composedUpdateGivesSameScoreAsSequentialUpdates() {
+		UserScoreUpdate first = new UserScoreUpdate(1, 1d, 1.2d);
+		UserScoreUpdate second = new UserScoreUpdate(1, 2d, 1.1d);
+		double score = 10d;
+
+		double sequential = (score * first.getMultiply() + first.getAdd()) * second.getMultiply() + second.getAdd();
+		UserScoreUpdate composed = first.andThen(second);
+
+		assertThat(score * composed.getMultiply() + composed.getAdd()).isCloseTo(sequential, offset(1e-9));
+	}
+
+}